@@ -0,0 +1,39 @@
+package net.etalia.jalia.benchmarks;
+
+/**
+ * A small entity, referenced by {@link Person}.
+ */
+public class Address {
+
+	private String id;
+	private String type;
+	private String address;
+
+	public Address() {
+	}
+
+	public Address(String id, String type, String address) {
+		this.id = id;
+		this.type = type;
+		this.address = address;
+	}
+
+	public String getId() {
+		return id;
+	}
+	public void setId(String id) {
+		this.id = id;
+	}
+	public String getType() {
+		return type;
+	}
+	public void setType(String type) {
+		this.type = type;
+	}
+	public String getAddress() {
+		return address;
+	}
+	public void setAddress(String address) {
+		this.address = address;
+	}
+}
@@ -0,0 +1,102 @@
+package net.etalia.jalia.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.etalia.jalia.ObjectMapper;
+import net.etalia.jalia.OutField;
+import net.etalia.jalia.TypeUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A single {@link ObjectMapper} shared by many threads, as in a web application, to expose contention on the shared
+ * caches of the mapper, of {@link TypeUtil} and of the {@link net.etalia.jalia.ChangeRecorder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class ConcurrentBenchmark {
+
+	private ObjectMapper mapper;
+
+	private Person person;
+	private Map<String,Object> map;
+	private OutField fields;
+
+	private byte[] personBytes;
+	private byte[] mapBytes;
+
+	@Setup
+	public void setup() {
+		mapper = new ObjectMapper();
+		new Entities().install(mapper);
+		person = Fixtures.person(1);
+		map = Fixtures.map();
+		fields = Fixtures.fields();
+		personBytes = mapper.writeValueAsBytes(person);
+		mapBytes = mapper.writeValueAsBytes(map);
+	}
+
+	/**
+	 * Per thread target for reads into an existing instance, which are recorded by the shared ChangeRecorder.
+	 */
+	@State(Scope.Thread)
+	public static class Target {
+		Person person;
+
+		@Setup
+		public void setup() {
+			person = Fixtures.person(2);
+		}
+	}
+
+	@Benchmark
+	public byte[] writeBean() {
+		return mapper.writeValueAsBytes(person);
+	}
+
+	@Benchmark
+	public byte[] writeBeanFields() {
+		return mapper.writeValueAsBytes(person, fields);
+	}
+
+	@Benchmark
+	public byte[] writeMap() {
+		return mapper.writeValueAsBytes(map);
+	}
+
+	@Benchmark
+	public Person readBean() {
+		return mapper.readValue(personBytes, Person.class);
+	}
+
+	@Benchmark
+	public Person readIntoExisting(Target target) {
+		return mapper.readValue(personBytes, target.person, Person.class);
+	}
+
+	@Benchmark
+	public Object readMap() {
+		return mapper.readValue(mapBytes);
+	}
+
+	@Benchmark
+	public TypeUtil typeLookup() {
+		return TypeUtil.get(Person.class).findReturnTypeOf("getAddresses").getListOrSetType();
+	}
+}
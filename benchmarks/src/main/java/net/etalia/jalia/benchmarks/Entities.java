@@ -0,0 +1,75 @@
+package net.etalia.jalia.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.etalia.jalia.EntityFactory;
+import net.etalia.jalia.EntityNameProvider;
+import net.etalia.jalia.JsonContext;
+import net.etalia.jalia.ObjectMapper;
+
+/**
+ * Entity factory and name provider for the benchmark model, backed by an in memory map, so that reading resolves
+ * entities by id as an application using Jalia with a persistence layer would.
+ */
+public class Entities implements EntityFactory, EntityNameProvider {
+
+	private final Map<String,Object> db = new ConcurrentHashMap<>();
+
+	/**
+	 * Configures the mapper to use this factory and name provider.
+	 */
+	public void install(ObjectMapper mapper) {
+		mapper.setEntityFactory(this);
+		mapper.setEntityNameProvider(this);
+	}
+
+	public void add(Person person) {
+		db.put(person.getId(), person);
+		for (Address address : person.getAddresses()) {
+			db.put(address.getId(), address);
+		}
+	}
+
+	@Override
+	public String getEntityName(Class<?> clazz) {
+		if (clazz == Person.class) return "Person";
+		if (clazz == Address.class) return "Address";
+		return null;
+	}
+
+	@Override
+	public Class<?> getEntityClass(String name) {
+		if (name.equals("Person")) return Person.class;
+		if (name.equals("Address")) return Address.class;
+		return null;
+	}
+
+	@Override
+	public Object getId(Object entity, JsonContext context) {
+		if (entity instanceof Person) return ((Person) entity).getId();
+		if (entity instanceof Address) return ((Address) entity).getId();
+		return null;
+	}
+
+	@Override
+	public Object buildEntity(Class<?> clazz, Object id, JsonContext context) {
+		if (id != null) {
+			Object ret = db.get(id.toString());
+			if (ret != null) return ret;
+		}
+		if (clazz == Person.class) return new Person();
+		if (clazz == Address.class) return new Address();
+		return null;
+	}
+
+	@Override
+	public Object prepare(Object obj, boolean serializing, JsonContext context) {
+		return obj;
+	}
+
+	@Override
+	public Object finish(Object obj, boolean serializing, JsonContext context) {
+		return obj;
+	}
+}
@@ -0,0 +1,82 @@
+package net.etalia.jalia.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.etalia.jalia.OutField;
+
+/**
+ * Sample data shared by the benchmarks.
+ */
+public final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	public static Person person(int index) {
+		Person ret = new Person();
+		ret.setId("p" + index);
+		ret.setName("Simone");
+		ret.setSurname("Gianni");
+		ret.setAge(30 + index % 50);
+		ret.setHeight(1.8 + index / 1000d);
+		ret.setActive(index % 2 == 0);
+		ret.getTags().add("developer");
+		ret.getTags().add("apache");
+		ret.getAddresses().add(new Address("a" + index + "-1", "EMAIL", "simoneg@apache.org"));
+		ret.getAddresses().add(new Address("a" + index + "-2", "HOME", "Via Roma 1, Roma"));
+		ret.getExtraData().put("score", index);
+		ret.getExtraData().put("notes", "some notes about this person");
+		return ret;
+	}
+
+	public static List<Person> people(int size) {
+		List<Person> ret = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			ret.add(person(i));
+		}
+		return ret;
+	}
+
+	public static Map<String,Object> map() {
+		Map<String,Object> ret = new HashMap<>();
+		ret.put("testInt", 1);
+		ret.put("testString", "string");
+		ret.put("testDouble", 1.5d);
+		ret.put("testBoolean", true);
+		ret.put("testNull", null);
+		Map<String,Object> sub = new HashMap<>();
+		sub.put("subString", "string");
+		sub.put("subInt", 42);
+		ret.put("testSub", sub);
+		List<Object> list = new ArrayList<>();
+		list.add(1);
+		list.add("two");
+		list.add(3.0d);
+		ret.put("testList", list);
+		return ret;
+	}
+
+	public static List<Object> list() {
+		List<Object> ret = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			ret.add(i);
+			ret.add("string " + i);
+			ret.add(i * 1.5d);
+		}
+		ret.add(null);
+		ret.add(map());
+		return ret;
+	}
+
+	/**
+	 * @return the fields used for filtered serialization, a subset of the person and of its addresses
+	 */
+	public static OutField fields() {
+		OutField ret = new OutField(null);
+		ret.getCreateSubs("name", "age", "tags", "addresses.type");
+		return ret;
+	}
+}
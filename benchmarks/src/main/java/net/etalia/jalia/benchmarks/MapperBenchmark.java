@@ -0,0 +1,133 @@
+package net.etalia.jalia.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.etalia.jalia.ObjectMapper;
+import net.etalia.jalia.OutField;
+import net.etalia.jalia.TypeUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single threaded {@link ObjectMapper} serialization and deserialization of beans, maps and lists, with and without
+ * an entity factory, and with full or {@link OutField} filtered output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean entities;
+
+	private ObjectMapper mapper;
+
+	private Person person;
+	private List<Person> people;
+	private Map<String,Object> map;
+	private List<Object> list;
+	private OutField fields;
+
+	private byte[] personBytes;
+	private byte[] peopleBytes;
+	private String peopleString;
+	private byte[] mapBytes;
+	private byte[] listBytes;
+
+	private final TypeUtil peopleType = new TypeUtil.Specific<List<Person>>() {}.type();
+
+	@Setup
+	public void setup() {
+		mapper = new ObjectMapper();
+		if (entities) {
+			new Entities().install(mapper);
+		}
+		person = Fixtures.person(1);
+		people = Fixtures.people(50);
+		map = Fixtures.map();
+		list = Fixtures.list();
+		fields = Fixtures.fields();
+
+		personBytes = mapper.writeValueAsBytes(person);
+		peopleBytes = mapper.writeValueAsBytes(people);
+		peopleString = new String(peopleBytes, StandardCharsets.UTF_8);
+		mapBytes = mapper.writeValueAsBytes(map);
+		listBytes = mapper.writeValueAsBytes(list);
+	}
+
+	@Benchmark
+	public byte[] writeBean() {
+		return mapper.writeValueAsBytes(person);
+	}
+
+	@Benchmark
+	public byte[] writeBeanFields() {
+		return mapper.writeValueAsBytes(person, fields);
+	}
+
+	@Benchmark
+	public byte[] writeBeanList() {
+		return mapper.writeValueAsBytes(people);
+	}
+
+	@Benchmark
+	public byte[] writeBeanListFields() {
+		return mapper.writeValueAsBytes(people, fields);
+	}
+
+	@Benchmark
+	public String writeBeanString() {
+		return mapper.writeValueAsString(person);
+	}
+
+	@Benchmark
+	public byte[] writeMap() {
+		return mapper.writeValueAsBytes(map);
+	}
+
+	@Benchmark
+	public byte[] writeList() {
+		return mapper.writeValueAsBytes(list);
+	}
+
+	@Benchmark
+	public Person readBean() {
+		return mapper.readValue(personBytes, Person.class);
+	}
+
+	@Benchmark
+	public List<Person> readBeanList() {
+		return mapper.readValue(peopleBytes, peopleType);
+	}
+
+	@Benchmark
+	public List<Person> readBeanListString() {
+		return mapper.readValue(peopleString, peopleType);
+	}
+
+	@Benchmark
+	public Object readMap() {
+		return mapper.readValue(mapBytes);
+	}
+
+	@Benchmark
+	public Object readList() {
+		return mapper.readValue(listBytes);
+	}
+}
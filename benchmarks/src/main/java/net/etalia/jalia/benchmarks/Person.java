@@ -0,0 +1,80 @@
+package net.etalia.jalia.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.etalia.jalia.annotations.JsonAllowNewInstances;
+
+/**
+ * A bean with a mix of primitive, string, list, map and nested entity properties.
+ */
+public class Person {
+
+	private String id;
+	private String name;
+	private String surname;
+	private int age;
+	private double height;
+	private boolean active;
+	private List<String> tags = new ArrayList<>();
+	private List<Address> addresses = new ArrayList<>();
+	private Map<String,Object> extraData = new HashMap<>();
+
+	public String getId() {
+		return id;
+	}
+	public void setId(String id) {
+		this.id = id;
+	}
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public String getSurname() {
+		return surname;
+	}
+	public void setSurname(String surname) {
+		this.surname = surname;
+	}
+	public int getAge() {
+		return age;
+	}
+	public void setAge(int age) {
+		this.age = age;
+	}
+	public double getHeight() {
+		return height;
+	}
+	public void setHeight(double height) {
+		this.height = height;
+	}
+	public boolean isActive() {
+		return active;
+	}
+	public void setActive(boolean active) {
+		this.active = active;
+	}
+	public List<String> getTags() {
+		return tags;
+	}
+	public void setTags(List<String> tags) {
+		this.tags = tags;
+	}
+	@JsonAllowNewInstances
+	public List<Address> getAddresses() {
+		return addresses;
+	}
+	public void setAddresses(List<Address> addresses) {
+		this.addresses = addresses;
+	}
+	public Map<String, Object> getExtraData() {
+		return extraData;
+	}
+	public void setExtraData(Map<String, Object> extraData) {
+		this.extraData = extraData;
+	}
+}
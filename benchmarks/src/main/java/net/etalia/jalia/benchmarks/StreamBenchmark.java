@@ -0,0 +1,146 @@
+package net.etalia.jalia.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import net.etalia.jalia.ObjectMapper;
+import net.etalia.jalia.stream.JsonReader;
+import net.etalia.jalia.stream.JsonToken;
+import net.etalia.jalia.stream.JsonWriter;
+import net.etalia.jalia.stream.Utf8Reader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Raw token throughput of {@link JsonReader} and {@link JsonWriter}, without any object mapping.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamBenchmark {
+
+	private byte[] document;
+
+	private String documentString;
+
+	private final char[] chars = new char[1024];
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+
+	@Setup
+	public void setup() {
+		document = new ObjectMapper().writeValueAsBytes(Fixtures.people(200));
+		documentString = new String(document, StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public void readTokens(Blackhole hole) throws IOException {
+		JsonReader reader = new JsonReader(document);
+		int depth = 0;
+		do {
+			JsonToken token = reader.peek();
+			switch (token) {
+			case BEGIN_ARRAY:
+				reader.beginArray();
+				depth++;
+				break;
+			case END_ARRAY:
+				reader.endArray();
+				depth--;
+				break;
+			case BEGIN_OBJECT:
+				reader.beginObject();
+				depth++;
+				break;
+			case END_OBJECT:
+				reader.endObject();
+				depth--;
+				break;
+			case NAME:
+				hole.consume(reader.nextName());
+				break;
+			case STRING:
+				hole.consume(reader.nextString());
+				break;
+			case NUMBER:
+				hole.consume(reader.nextDouble());
+				break;
+			case BOOLEAN:
+				hole.consume(reader.nextBoolean());
+				break;
+			case NULL:
+				reader.nextNull();
+				break;
+			default:
+				throw new IllegalStateException("Unexpected " + token);
+			}
+		} while (depth > 0);
+	}
+
+	@Benchmark
+	public void skipDocument() throws IOException {
+		JsonReader reader = new JsonReader(document);
+		reader.skipValue();
+	}
+
+	/**
+	 * Same as {@link #skipDocument()} but from already decoded chars, the difference is the cost of UTF-8 decoding.
+	 */
+	@Benchmark
+	public void skipDocumentString() throws IOException {
+		JsonReader reader = new JsonReader(new StringReader(documentString));
+		reader.skipValue();
+	}
+
+	/**
+	 * UTF-8 decoding alone, as done by {@link JsonReader#JsonReader(byte[])}.
+	 */
+	@Benchmark
+	public int decodeDocument() throws IOException {
+		Utf8Reader reader = new Utf8Reader(document);
+		int total = 0;
+		int read;
+		while ((read = reader.read(chars, 0, chars.length)) != -1) {
+			total += read;
+		}
+		return total;
+	}
+
+	@Benchmark
+	public int writeTokens() throws IOException {
+		buffer.reset();
+		JsonWriter writer = new JsonWriter(buffer);
+		writer.beginArray();
+		for (int i = 0; i < 200; i++) {
+			writer.beginObject();
+			writer.name("id").value("p" + i);
+			writer.name("name").value("Simone");
+			writer.name("surname").value("Gianni \"quoted\"");
+			writer.name("age").value(30 + i % 50);
+			writer.name("height").value(1.8 + i / 1000d);
+			writer.name("active").value(i % 2 == 0);
+			writer.name("tags").beginArray().value("developer").value("apache").endArray();
+			writer.name("extra").nullValue();
+			writer.endObject();
+		}
+		writer.endArray();
+		writer.flush();
+		return buffer.size();
+	}
+}
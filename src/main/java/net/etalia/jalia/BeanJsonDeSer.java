@@ -1,14 +1,10 @@
 package net.etalia.jalia;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import net.etalia.jalia.stream.JsonReader;
 import net.etalia.jalia.stream.JsonToken;
 import net.etalia.jalia.stream.JsonWriter;
+import net.etalia.jalia.stream.PreEncodedString;
 
 public class BeanJsonDeSer implements JsonDeSer {
 
@@ -16,10 +12,95 @@ public class BeanJsonDeSer implements JsonDeSer {
 	// Using the same name as the default option so it is automatically inherited
 	public static final String ALLOW_NEW = DefaultOptions.ALWAYS_ALLOW_NEW_INSTANCES.name();
 	public static final String ALLOW_CHANGES = DefaultOptions.ALWAYS_ALLOW_ENTITY_PROPERTY_CHANGES.name();
+	private static final ContextKey REUSE_WITHOUT_ID_KEY = ContextKey.get(REUSE_WITHOUT_ID);
 	private static final String CTX_BEAN_JSON_DE_SER_DONES = "BeanJsonDeSer_Dones";
 	private static final String CTX_BEAN_JSON_DE_SER_SENTS = "BeanJsonDeSer_Sents";
+	private static final PreEncodedString ENTITY_NAME = new PreEncodedString("@entity");
+	private static final PreEncodedString ID_NAME = new PreEncodedString("id");
 
-	private JsonDeSer idDeser = new NativeJsonDeSer();
+	private static final JsonDeSer ID_DESER = new NativeJsonDeSer();
+
+	private JsonDeSer idDeser = ID_DESER;
+
+	/**
+	 * The <code>@entity</code> and id of a JSON object, found before reading it.
+	 */
+	static final class EntityHeader {
+		final String entity;
+		final Object id;
+		private final JsonReader input;
+		private final int line;
+		private final int column;
+
+		/**
+		 * @param input the input positioned at the beginning of the object, or null when there is no input
+		 */
+		EntityHeader(String entity, Object id, JsonReader input) {
+			this.entity = entity;
+			this.id = id;
+			this.input = input;
+			this.line = input != null ? input.getLineNumber() : 0;
+			this.column = input != null ? input.getColumnNumber() : 0;
+		}
+
+		/**
+		 * @return true if the input is still at the beginning of the object this header was read from
+		 */
+		boolean isAt(JsonReader input) {
+			return this.input == input && line == input.getLineNumber() && column == input.getColumnNumber();
+		}
+	}
+
+	/**
+	 * Finds <code>@entity</code> and id of the JSON object about to be read. The object is scanned once, and the
+	 * result kept in the context, so that choosing the deserializer and deserializing the object do not scan it
+	 * again.
+	 *
+	 * @param context The current deserialization context, its input must be at the beginning of an object.
+	 * @return the header of the object, with null entity and id if not found, or the header in the context if it
+	 * has no input
+	 */
+	static EntityHeader entityHeader(JsonContext context) throws IOException {
+		JsonReader input = context.getInput();
+		EntityHeader header = context.getEntityHeader();
+		// Without an input, the header is the one set when selecting deserializers in advance
+		if (input == null) return header;
+		input.peek();
+		if (header != null && header.isAt(input)) return header;
+		String entity = null;
+		Object id = null;
+		// Tokens read here are buffered by the reader and read again after reset
+		input.mark();
+		try {
+			input.beginObject();
+			while (input.hasNext()) {
+				String name = input.nextName();
+				if (name.equals("@entity")) {
+					entity = input.nextString();
+				} else if (name.equals("id")) {
+					id = ID_DESER.deserialize(context, null, null);
+				} else {
+					input.skipValue();
+				}
+				// TODO if we can take for granted that the order is always id->@entity we could stop before, cause entities may not have an id
+				if (entity != null && id != null) break;
+			}
+		} finally {
+			input.reset();
+		}
+		header = new EntityHeader(entity, id, input);
+		context.setEntityHeader(header);
+		return header;
+	}
+
+	/**
+	 * Forgets the entities deserialized so far in the given context, so that they are not found by id anymore.
+	 *
+	 * @param context The current deserialization context.
+	 */
+	static void forgetDeserialized(JsonContext context) {
+		context.remove(CTX_BEAN_JSON_DE_SER_DONES);
+	}
 
 	@Override
 	public int handlesSerialization(JsonContext context, Class<?> clazz) {
@@ -29,26 +110,16 @@ public class BeanJsonDeSer implements JsonDeSer {
 	
 	@Override
 	public int handlesDeserialization(JsonContext context, TypeUtil hint) {
-		JsonReader la = context.getInput().lookAhead();
 		try {
-			if (la.peek() != JsonToken.STRING && la.peek() != JsonToken.NUMBER && la.peek() != JsonToken.NULL) {
-				if (la.peek() != JsonToken.BEGIN_OBJECT) return -1;
-				la.beginObject();
-				while (la.hasNext()) {
-					// TODO check is the @entity can be identified by the factory or not, before saying we can deserialize it!
-					if (la.nextName().equals("@entity")) return 10;
-					la.skipValue();
-				}
+			JsonToken token = context.peek();
+			if (token != JsonToken.STRING && token != JsonToken.NUMBER && token != JsonToken.NULL) {
+				if (token != JsonToken.BEGIN_OBJECT) return -1;
+				// TODO check is the @entity can be identified by the factory or not, before saying we can deserialize it!
+				if (entityHeader(context).entity != null) return 10;
 			}
 		} catch (IOException e) {
 			// TODO what to do?
 			e.printStackTrace();
-		} finally {
-			try {
-				la.close();
-			} catch (IOException e) {
-				throw new IllegalStateException("Cannot close lookAhead json reader", e);
-			}
 		}
 		
 		// Map deserialize return 10 if hint say it's a map, and 5 if it's a json object, we get priority on concrete classes
@@ -67,7 +138,6 @@ public class BeanJsonDeSer implements JsonDeSer {
 		EntityNameProvider nameProvider = mapper.getEntityNameProvider();
 
 		Object id = null;
-		String fullId = null;
 		if (factory != null) {
 			obj = factory.prepare(obj, true, context);
 			if (obj == null) {
@@ -83,35 +153,30 @@ public class BeanJsonDeSer implements JsonDeSer {
 
 		if (factory != null) {
 			id = factory.getId(obj, context);
-			if (id != null) {
-				fullId = id.toString();
-				if (entityName != null) {
-					fullId = nameProvider.getEntityName(obj.getClass()) + ":" + fullId;
-				}
-			}
 		}
 
-		if (id == null && context.hasInLocalStack(CTX_ALL_SERIALIZESTACK, obj)) {
-			if (!context.getFromStackBoolean(DefaultOptions.UNROLL_OBJECTS.toString()) || context.isSerializingAll()) {
+		if (id == null && context.hasInLocalStack(CTX_ALL_SERIALIZESTACK_KEY, obj)) {
+			if (!context.getFromStackBoolean(DefaultOptions.UNROLL_OBJECTS) || context.isSerializingAll()) {
 				// TODO this avoid loops, but also break serialization, cause there is no id to send
 				output.clearName();
 				return;
 			}
 		}
 
+		JsonClassData cd = mapper.getClassDataFactory().getClassData(obj.getClass(), context);
 		output.beginObject();
 		if (entityName != null) {
-			output.name("@entity");
-			output.value(entityName);
+			output.name(ENTITY_NAME);
+			output.value(cd.getEncodedName(entityName));
 		}
 		boolean idSent = false;
 		if (id != null) {
-			output.name("id");
+			output.name(ID_NAME);
 			idDeser.serialize(id, context);
 			idSent = true;
 			// Prevent loops in serialization
-			if (context.hasInLocalStack(CTX_ALL_SERIALIZESTACK, obj)) {
-				if (!context.getFromStackBoolean(DefaultOptions.UNROLL_OBJECTS.toString()) || context
+			if (context.hasInLocalStack(CTX_ALL_SERIALIZESTACK_KEY, obj)) {
+				if (!context.getFromStackBoolean(DefaultOptions.UNROLL_OBJECTS) || context
 						.isSerializingAll()) {
 					output.endObject();
 					return;
@@ -119,53 +184,63 @@ public class BeanJsonDeSer implements JsonDeSer {
 			}
 
 			// Prevent sending an object twice, send only the id, unless DefaultOptions.UNROLL_OBJECT
-			Map<String, Object> sents = (Map<String, Object>) context.get(CTX_BEAN_JSON_DE_SER_SENTS);
+			IdTable sents = (IdTable) context.get(CTX_BEAN_JSON_DE_SER_SENTS);
 			if (sents == null) {
-				sents = new HashMap<>();
+				sents = new IdTable();
 				context.put(CTX_BEAN_JSON_DE_SER_SENTS, sents);
 			}
-			if (sents.containsKey(fullId) && !context
-					.getFromStackBoolean(DefaultOptions.UNROLL_OBJECTS.toString())) {
+			// Scoped by entity name, so that proxies and subclasses with the same name are the same entity
+			if (sents.get(entityName, id) != null && !context
+					.getFromStackBoolean(DefaultOptions.UNROLL_OBJECTS)) {
 				output.endObject();
 				return;
 			}
-			sents.put(fullId, obj);
+			sents.put(entityName, id, obj);
 		}
 
-		context.putLocalStack(CTX_ALL_SERIALIZESTACK, obj);
+		context.putLocalStack(CTX_ALL_SERIALIZESTACK_KEY, obj);
 
-		JsonClassData cd = context.getMapper().getClassDataFactory().getClassData(obj.getClass(), context);
-		Set<String> sents = new HashSet<>();
-		List<String> toSend = cd.getSortedGettables();
-		if (context.getFromStackBoolean(DefaultOptions.ALWAYS_SERIALIZE_ON_DEMAND_ONLY.toString())) {
-			toSend.addAll(cd.getOnDemandGettables());
+		boolean onDemand = context.getFromStackBoolean(DefaultOptions.ALWAYS_SERIALIZE_ON_DEMAND_ONLY);
+		boolean fromDefaults = false;
+		if (!cd.getGettables().isEmpty() || (onDemand && !cd.getOnDemandGettables().isEmpty())) {
+			fromDefaults = context.applyDefaults(cd.getDefaults());
 		}
-		for (String name : toSend) {
-			if (context.entering(name, cd.getDefaults())) {
-				sents.add(name);
-				output.name(name);
-				context.putLocalStack(cd.getOptions(name));
-				output.setSerializeNulls(context.getFromStackBoolean(DefaultOptions.INCLUDE_NULLS.toString()));
-				try {
-					context.getMapper().writeValue(cd.getValue(name, obj), context);
-				} finally {
-					context.exited();
+		OutField fields = context.getCurrentFields();
+		SerializationPlan plan = cd.getSerializationPlan(fields, fromDefaults, onDemand);
+		for (SerializationPlan.PlannedProperty prop : plan.properties) {
+			OutField sub = prop.fields;
+			if (sub == null) {
+				sub = fields.getSub(prop.name);
+				if (sub == null) continue;
+			}
+			context.enteringFields(prop.name, sub);
+			output.name(prop.encodedName);
+			context.putLocalStack(prop.options);
+			output.setSerializeNulls(context.getFromStackBoolean(DefaultOptions.INCLUDE_NULLS));
+			try {
+				if (prop.writePrimitive(context, obj)) continue;
+				Object val = prop.getValue(cd, obj);
+				if (val == null) {
+					mapper.writeValue((Object) null, context);
+				} else {
+					mapper.writeValue(val, context, prop.serializer.get(context, val));
 				}
+			} finally {
+				context.exited();
 			}
 		}
 
-		for (String name : context.getCurrentSubs()) {
-			if (sents.contains(name)) continue;
+		for (String name : plan.extras) {
 			if (idSent && name.equals("id")) continue;
 			if (context.entering(name, cd.getDefaults())) {
 				Object val;
-				val = cd.getValue(name, obj, context.getFromStackBoolean(DefaultOptions.OVERRIDE_IGNORES.toString()));
-				if (val == null && !context.getFromStackBoolean(DefaultOptions.INCLUDE_NULLS.toString())) {
+				val = cd.getValue(name, obj, context.getFromStackBoolean(DefaultOptions.OVERRIDE_IGNORES));
+				if (val == null && !context.getFromStackBoolean(DefaultOptions.INCLUDE_NULLS)) {
 					context.exited();
 					continue;
 				}
-				context.putLocalStack(cd.getOptions(name));
-				output.setSerializeNulls(context.getFromStackBoolean(DefaultOptions.INCLUDE_NULLS.toString()));
+				context.putLocalStack(cd.getPropertyOptions(name));
+				output.setSerializeNulls(context.getFromStackBoolean(DefaultOptions.INCLUDE_NULLS));
 				output.name(name);
 				try {
 					context.getMapper().writeValue(val, context);
@@ -199,9 +274,10 @@ public class BeanJsonDeSer implements JsonDeSer {
 			}
 			embedded = true;
 			// Search in already deserialized ones
-			Map<String,Object> dones = (Map<String, Object>) context.get(CTX_BEAN_JSON_DE_SER_DONES);
+			// Embedded ids have no @entity, so deserialized entities are found by id only
+			IdTable dones = (IdTable) context.get(CTX_BEAN_JSON_DE_SER_DONES);
 			if (dones != null) {
-				Object done = dones.get(id);
+				Object done = dones.get(null, id);
 				if (done != null) return done;
 			}
 		} else if (input.peek() == JsonToken.NULL) {
@@ -209,22 +285,12 @@ public class BeanJsonDeSer implements JsonDeSer {
 			input.nextNull();
 			return null;
 		} else {
+			// Usually already scanned while choosing the deserializer
+			EntityHeader header = entityHeader(context);
+			context.setEntityHeader(null);
+			entity = header.entity;
+			id = header.id;
 			input.beginObject();
-			
-			JsonReader la = input.lookAhead();
-			while (la.hasNext()) {
-				String name = la.nextName();
-				if (name.equals("@entity")) {
-					entity = la.nextString();
-				} else if (name.equals("id")) {
-					id = idDeser.deserialize(context.subForInput(la), null, null);
-				} else {
-					la.skipValue();
-				}
-				// TODO if we can take for granted that the order is always id->@entity we could stop before, cause entities may not have an id
-				if (entity != null && id != null) break;
-			}
-			la.close();
 		}
 		
 		Class<?> clazz = null;
@@ -250,7 +316,7 @@ public class BeanJsonDeSer implements JsonDeSer {
 			if (factory != null) {
 				Object preid = factory.getId(pre, context);
 				if (preid != null) {
-					if (context.getFromStackBoolean(REUSE_WITHOUT_ID)) {
+					if (context.getFromStackBoolean(REUSE_WITHOUT_ID_KEY)) {
 						if (id == null || !preid.equals(id)) {
 							pre = null;
 						}
@@ -290,7 +356,7 @@ public class BeanJsonDeSer implements JsonDeSer {
 			}
 		}
 		if (pre == null && clazz != null && factory != null) {
-			if (id == null && !context.isRoot() && !context.getFromStackBoolean(ALLOW_NEW)) {
+			if (id == null && !context.isRoot() && !context.getFromStackBoolean(DefaultOptions.ALWAYS_ALLOW_NEW_INSTANCES)) {
 				throw new IllegalStateException("Cannot create new values here and no id provided");
 			}
 			pre = factory.buildEntity(clazz, id, context);
@@ -300,7 +366,7 @@ public class BeanJsonDeSer implements JsonDeSer {
 			return pre;
 		}
 		// Check if we can proceed modifying existing instance
-		if (pre != null && factory != null && !context.isRoot() && !context.getFromStackBoolean(ALLOW_CHANGES)) {
+		if (pre != null && factory != null && !context.isRoot() && !context.getFromStackBoolean(DefaultOptions.ALWAYS_ALLOW_ENTITY_PROPERTY_CHANGES)) {
 			// Not allowed to apply changes, swallow the rest of the json
 			while (input.hasNext()) {
 				input.nextName();
@@ -310,7 +376,7 @@ public class BeanJsonDeSer implements JsonDeSer {
 			return pre;
 		}
 		// Check if we can proceed creating a new instance
-        if (pre == null && !context.isRoot() && !context.getFromStackBoolean(ALLOW_NEW)) {
+        if (pre == null && !context.isRoot() && !context.getFromStackBoolean(DefaultOptions.ALWAYS_ALLOW_NEW_INSTANCES)) {
             throw new IllegalStateException("Cannot create new values here and factory didn't return any");
         }
 		if (pre == null) {
@@ -320,26 +386,25 @@ public class BeanJsonDeSer implements JsonDeSer {
 		
 		// Now we should have a pre to work on
 		JsonClassData cd = context.getMapper().getClassDataFactory().getClassData(pre.getClass(), context);
+		cd.addNamesTo(context.getMapper().getNameTable());
 		if (factory != null) {
 			pre = factory.prepare(pre, false, context);
 		}
 		
 		if (id != null) {
-			Map<String,Object> dones = (Map<String, Object>) context.get(CTX_BEAN_JSON_DE_SER_DONES);
+			IdTable dones = (IdTable) context.get(CTX_BEAN_JSON_DE_SER_DONES);
 			if (dones == null) {
-				dones = new HashMap<>();
+				dones = new IdTable();
 				context.put(CTX_BEAN_JSON_DE_SER_DONES, dones);
 			}
-			dones.put(id.toString(), pre);
+			dones.put(null, id, pre);
 		}
-        Set<String> allow = new HashSet<>(cd.getSettables());
-        allow.addAll(cd.getGettables());
 		while (input.hasNext()) {
 			String name = input.nextName();
             context.deserializationEntering(name);
-            context.putLocalStack(cd.getOptions(name));
-            boolean override = context.getFromStackBoolean(DefaultOptions.OVERRIDE_IGNORES.toString());
-            if (!(allow.contains(name) || override)) {
+            context.putLocalStack(cd.getPropertyOptions(name));
+            boolean override = context.getFromStackBoolean(DefaultOptions.OVERRIDE_IGNORES);
+            if (!(override || cd.isDeserializable(name))) {
                 input.skipValue();
                 context.deserializationExited();
                 continue;
@@ -347,12 +412,17 @@ public class BeanJsonDeSer implements JsonDeSer {
 			Object preval = null;
 			TypeUtil hintval = cd.getSetHint(name);
 			if (hintval == null) hintval = cd.getGetHint(name);
+			boolean record = context.getFromStackBoolean(DefaultOptions.RECORD_CHANGES);
+			if (!record && readPrimitive(context, cd, name, pre, hintval)) {
+				context.deserializationExited();
+				continue;
+			}
 			preval = cd.getValue(name, pre);
 			try {
 				Object nval = context.getMapper().readValue(context, preval, hintval);
 				cd.setValue(name, nval, pre, override);
-				if (context.getFromStackBoolean(DefaultOptions.RECORD_CHANGES.toString())) {
-					Object originalValue = context.getFromStack(CTX_ALL_ORIGINAL_VALUE);
+				if (record) {
+					Object originalValue = context.getFromStack(CTX_ALL_ORIGINAL_VALUE_KEY);
 					if (originalValue == null) {
 						originalValue = preval;
 					}
@@ -371,4 +441,54 @@ public class BeanJsonDeSer implements JsonDeSer {
 		return pre;
 	}
 
+	/**
+	 * Reads a number or a boolean and sets it with a primitive setter, without boxing it, when the native
+	 * deserializer would read it the same way.
+	 *
+	 * @return false if the property has no primitive setter or the next value is not a matching primitive, so it must
+	 * be read with the mapper
+	 */
+	private static boolean readPrimitive(JsonContext context, JsonClassData cd, String name, Object target,
+			TypeUtil hint) throws IOException {
+		MethodAccessor.Setter setter = cd.getPrimitiveSetter(name);
+		if (setter == null) return false;
+		Class<?> type = setter.getValueType();
+		JsonReader input = context.getInput();
+		JsonToken token = input.peek();
+		if (token != (type == Boolean.TYPE ? JsonToken.BOOLEAN : JsonToken.NUMBER)) return false;
+		if (!context.getMapper().readsNatively(context, hint, type)) return false;
+		int ival = 0;
+		long lval = 0;
+		double dval = 0;
+		boolean bval = false;
+		try {
+			if (type == Integer.TYPE) {
+				ival = input.nextInt();
+			} else if (type == Long.TYPE) {
+				lval = input.nextLong();
+			} else if (type == Double.TYPE) {
+				dval = input.nextDouble();
+			} else {
+				bval = input.nextBoolean();
+			}
+		} catch (Exception e) {
+			// Same as ObjectMapper.readValue
+			throw new JaliaException("Error reading " + context.getStateLog(), e);
+		}
+		try {
+			if (type == Integer.TYPE) {
+				setter.setInt(target, ival);
+			} else if (type == Long.TYPE) {
+				setter.setLong(target, lval);
+			} else if (type == Double.TYPE) {
+				setter.setDouble(target, dval);
+			} else {
+				setter.setBoolean(target, bval);
+			}
+		} catch (Throwable e) {
+			// Same as JsonClassData.setValue
+		}
+		return true;
+	}
+
 }
@@ -0,0 +1,82 @@
+package net.etalia.jalia;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The name of a value stored in the option stacks of a {@link JsonContext}, interned to a slot index.
+ * <p>
+ * Each distinct name gets a slot the first time it is used, and {@link DefaultOptions} get slots matching their
+ * ordinal. The context stores values in arrays indexed by slot, so that looking up an option is an array read rather
+ * than a string keyed map lookup for each level of the stack.
+ * <p>
+ * Keys are global and never released, they are meant for option names, not for data.
+ */
+public final class ContextKey {
+
+	private static final ConcurrentMap<String, ContextKey> keys = new ConcurrentHashMap<>();
+
+	private static final AtomicInteger slots = new AtomicInteger();
+
+	private static final ContextKey[] defaults;
+
+	static {
+		DefaultOptions[] options = DefaultOptions.values();
+		defaults = new ContextKey[options.length];
+		for (int i = 0; i < options.length; i++) {
+			defaults[i] = get(options[i].toString());
+		}
+	}
+
+	/**
+	 * Gets the key for a name.
+	 *
+	 * @param name the name of the option or value
+	 * @return the key, always the same instance for the same name
+	 */
+	public static ContextKey get(String name) {
+		ContextKey ret = keys.get(name);
+		if (ret != null) return ret;
+		return keys.computeIfAbsent(name, n -> new ContextKey(n, slots.getAndIncrement()));
+	}
+
+	/**
+	 * Gets the key for an option.
+	 *
+	 * @param option the option
+	 * @return the key, for {@link DefaultOptions} without any lookup
+	 */
+	public static ContextKey get(Option<?> option) {
+		if (option instanceof DefaultOptions) return defaults[((DefaultOptions) option).ordinal()];
+		return get(option.toString());
+	}
+
+	private final String name;
+
+	private final int slot;
+
+	private ContextKey(String name, int slot) {
+		this.name = name;
+		this.slot = slot;
+	}
+
+	/**
+	 * @return the name of this key
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the index of this key in the context frames
+	 */
+	int getSlot() {
+		return slot;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -62,5 +62,17 @@ public enum DefaultOptions implements Option<Boolean> {
 	 * Override getters and setters annotated with {@link net.etalia.jalia.annotations.JsonIgnore}, and always serialize
 	 * and deserialize them.
 	 */
-	OVERRIDE_IGNORES
+	OVERRIDE_IGNORES,
+	/**
+	 * Index JSON inputs that are already in memory, like Strings and byte arrays, before deserializing them, see
+	 * {@link net.etalia.jalia.stream.JsonReader#index()}. This avoids scanning the same text more than once when
+	 * looking for @entity and id, and lets lists and maps be created with the right size.
+	 */
+	INDEX_IN_MEMORY_INPUT,
+
+	/**
+	 * Serialize {@link java.util.Date}s as ISO-8601 strings in UTC, like <pre>2020-01-31T10:15:30.000Z</pre>, instead
+	 * of milliseconds numbers. Dates are always accepted in both formats when deserializing.
+	 */
+	DATES_AS_ISO_STRINGS
 }
@@ -0,0 +1,134 @@
+package net.etalia.jalia;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import net.etalia.jalia.stream.JsonReader;
+import net.etalia.jalia.stream.JsonWriter;
+
+/**
+ * De-serializer for {@link EnumSet}s, as arrays of names, and {@link EnumMap}s, as objects keyed by names.
+ * <p>
+ * Names are written pre-encoded and looked up in a hash table built once per enum, see {@link EnumValues}. The enum
+ * type is taken from the type hint, or from the existing value if it has elements.
+ */
+public class EnumJsonDeSer implements JsonDeSer {
+
+	@Override
+	public int handlesSerialization(JsonContext context, Class<?> clazz) {
+		if (EnumSet.class.isAssignableFrom(clazz)) return 10;
+		if (EnumMap.class.isAssignableFrom(clazz)) return 10;
+		return -1;
+	}
+
+	@Override
+	public int handlesDeserialization(JsonContext context, TypeUtil hint) {
+		if (hint == null || !hint.hasConcrete()) return -1;
+		return handlesSerialization(context, hint.getConcrete());
+	}
+
+	@Override
+	public void serialize(Object obj, JsonContext context) throws IOException {
+		JsonWriter output = context.getOutput();
+		boolean empty = obj instanceof EnumSet ? ((EnumSet<?>) obj).isEmpty() : ((EnumMap<?, ?>) obj).isEmpty();
+		if (empty && !context.isRoot() && !context.getFromStackBoolean(DefaultOptions.INCLUDE_EMPTY)) {
+			output.clearName();
+			return;
+		}
+		if (obj instanceof EnumSet) {
+			output.beginArray();
+			EnumValues values = null;
+			for (Enum<?> constant : (EnumSet<?>) obj) {
+				if (values == null) values = EnumValues.of(constant.getDeclaringClass());
+				output.value(values.encoded(constant));
+			}
+			output.endArray();
+			return;
+		}
+		output.beginObject();
+		ObjectMapper mapper = context.getMapper();
+		EnumValues values = null;
+		// Values are often all of the same class, so remember the last serializer
+		SerializerCache serializer = new SerializerCache();
+		for (Map.Entry<? extends Enum<?>, ?> entry : ((EnumMap<? extends Enum<?>, ?>) obj).entrySet()) {
+			Enum<?> key = entry.getKey();
+			if (values == null) values = EnumValues.of(key.getDeclaringClass());
+			if (context.entering(key.name(), "*")) {
+				context.putLocalStack(DefaultOptions.INCLUDE_EMPTY, true);
+				output.name(values.encoded(key));
+				Object val = entry.getValue();
+				mapper.writeValue(val, context, serializer.get(context, val));
+				context.exited();
+			}
+		}
+		output.endObject();
+	}
+
+	@Override
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Object deserialize(JsonContext context, Object pre, TypeUtil hint) throws IOException {
+		JsonReader input = context.getInput();
+		boolean set = pre instanceof EnumSet || (pre == null && EnumSet.class.isAssignableFrom(hint.getConcrete()));
+		Class<?> enumClass = enumClassOf(hint);
+		if (enumClass == null) {
+			if (pre instanceof EnumSet && !((EnumSet<?>) pre).isEmpty()) {
+				enumClass = ((Enum<?>) ((EnumSet) pre).iterator().next()).getDeclaringClass();
+			} else if (pre instanceof EnumMap && !((EnumMap<?, ?>) pre).isEmpty()) {
+				enumClass = ((Enum<?>) ((EnumMap) pre).keySet().iterator().next()).getDeclaringClass();
+			} else {
+				throw new IllegalStateException("Cannot find the enum type of " + hint + " at " + context.getStateLog());
+			}
+		}
+		EnumValues values = EnumValues.of(enumClass);
+		boolean record = context.getFromStackBoolean(DefaultOptions.RECORD_CHANGES) && pre != null;
+
+		if (set) {
+			EnumSet act = pre instanceof EnumSet ? (EnumSet) pre : EnumSet.noneOf(values.getType());
+			if (record) context.putLocalStack(CTX_ALL_ORIGINAL_VALUE_KEY, EnumSet.copyOf(act));
+			act.clear();
+			input.beginArray();
+			while (input.hasNext()) {
+				act.add(values.get(input.nextString()));
+			}
+			input.endArray();
+			return act;
+		}
+
+		EnumMap act = pre instanceof EnumMap ? (EnumMap) pre : new EnumMap(values.getType());
+		if (record) context.putLocalStack(CTX_ALL_ORIGINAL_VALUE_KEY, new HashMap<>(act));
+		TypeUtil inner = hint.getMapValueType();
+		EnumSet found = EnumSet.noneOf(values.getType());
+		input.beginObject();
+		while (input.hasNext()) {
+			String name = input.nextName();
+			Enum key = values.get(name);
+			found.add(key);
+			context.deserializationEntering(name);
+			try {
+				act.put(key, context.getMapper().readValue(context, act.get(key), inner));
+			} finally {
+				context.deserializationExited();
+			}
+		}
+		input.endObject();
+		for (Iterator<Enum> iter = act.keySet().iterator(); iter.hasNext(); ) {
+			if (!found.contains(iter.next())) iter.remove();
+		}
+		return act;
+	}
+
+	/**
+	 * @return the enum type, the first type argument of both EnumSet and EnumMap, or null if the hint has none
+	 */
+	private static Class<?> enumClassOf(TypeUtil hint) {
+		Type type = hint.getType();
+		if (!(type instanceof ParameterizedType)) return null;
+		TypeUtil arg = TypeUtil.get(((ParameterizedType) type).getActualTypeArguments()[0]);
+		return arg != null && arg.hasConcrete() && arg.isEnum() ? arg.getConcrete() : null;
+	}
+}
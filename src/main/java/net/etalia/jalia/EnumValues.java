@@ -0,0 +1,102 @@
+package net.etalia.jalia;
+
+import net.etalia.jalia.stream.PreEncodedString;
+
+/**
+ * The constants of an enum, built once per enum class: a hash table to find constants by name without scanning them
+ * all, and their names already encoded for {@link net.etalia.jalia.stream.JsonWriter}.
+ * <p>
+ * Instances are immutable and shared between threads.
+ */
+final class EnumValues {
+
+	private static final ClassValue<EnumValues> VALUES = new ClassValue<EnumValues>() {
+		@Override
+		protected EnumValues computeValue(Class<?> type) {
+			return new EnumValues(type);
+		}
+	};
+
+	/**
+	 * @param type an enum class, or the class of an enum constant with a body
+	 * @return the values of the enum
+	 */
+	static EnumValues of(Class<?> type) {
+		return VALUES.get(type.isEnum() ? type : type.getSuperclass());
+	}
+
+	private final Class<?> type;
+
+	/**
+	 * Names of the constants, pre-encoded and indexed by ordinal.
+	 */
+	private final PreEncodedString[] encoded;
+
+	/**
+	 * Open addressing table of names, with linear probing, and the constants at the same positions.
+	 */
+	private final String[] names;
+	private final Enum<?>[] constants;
+	private final int mask;
+
+	private EnumValues(Class<?> type) {
+		this.type = type;
+		Enum<?>[] all = (Enum<?>[]) type.getEnumConstants();
+		if (all == null) {
+			throw new IllegalArgumentException(type.getName() + " is not an enum");
+		}
+		encoded = new PreEncodedString[all.length];
+		int size = Integer.highestOneBit(Math.max(all.length, 1) * 2) << 1;
+		names = new String[size];
+		constants = new Enum<?>[size];
+		mask = size - 1;
+		for (Enum<?> constant : all) {
+			String name = constant.name();
+			encoded[constant.ordinal()] = new PreEncodedString(name);
+			int i = slot(name);
+			while (names[i] != null) i = (i + 1) & mask;
+			names[i] = name;
+			constants[i] = constant;
+		}
+	}
+
+	private int slot(String name) {
+		int h = name.hashCode();
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * @return the constant with the given name, or null if there is none
+	 */
+	Enum<?> find(String name) {
+		for (int i = slot(name); ; i = (i + 1) & mask) {
+			String candidate = names[i];
+			if (candidate == null) return null;
+			if (candidate.equals(name)) return constants[i];
+		}
+	}
+
+	/**
+	 * @return the constant with the given name
+	 * @throws IllegalStateException if there is none
+	 */
+	Enum<?> get(String name) {
+		Enum<?> ret = find(name);
+		if (ret == null) {
+			throw new IllegalStateException("Cannot find enum value : " + type.getName() + "." + name);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the pre-encoded name of a constant of this enum
+	 */
+	PreEncodedString encoded(Enum<?> constant) {
+		return encoded[constant.ordinal()];
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	Class<? extends Enum> getType() {
+		return (Class<? extends Enum>) type;
+	}
+}
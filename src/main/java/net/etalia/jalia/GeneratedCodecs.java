@@ -0,0 +1,87 @@
+package net.etalia.jalia;
+
+import java.lang.reflect.Constructor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds the codecs generated at compile time by {@link net.etalia.jalia.processor.CodecProcessor} for classes
+ * annotated with {@link net.etalia.jalia.annotations.JsonCodec}.
+ * <p>
+ * Generated classes are found by name in the classloader of each class: for <code>com.example.Person</code> it is
+ * <code>com.example.Person_JaliaClassData</code>, a {@link JsonClassData} with all properties, options and accessors
+ * already resolved, that the default {@link BeanJsonDeSer} uses as any other class data. For a nested class
+ * <code>com.example.Outer$Inner</code> it is <code>com.example.Outer_Inner_JaliaClassData</code>.
+ */
+public final class GeneratedCodecs {
+
+	private final static Logger LOG = Logger.getLogger(GeneratedCodecs.class.getName());
+
+	/**
+	 * Suffix appended to the name of a class to obtain the name of its generated {@link JsonClassData}.
+	 */
+	public static final String CLASS_DATA_SUFFIX = "_JaliaClassData";
+
+	/**
+	 * Constructors of generated class data, null if a class has none.
+	 */
+	private static final ClassValue<Constructor<? extends JsonClassData>> CLASS_DATAS =
+			new ClassValue<Constructor<? extends JsonClassData>>() {
+		@Override
+		protected Constructor<? extends JsonClassData> computeValue(Class<?> type) {
+			Class<? extends JsonClassData> generated = find(type, CLASS_DATA_SUFFIX, JsonClassData.class);
+			if (generated == null) return null;
+			try {
+				return generated.getConstructor();
+			} catch (NoSuchMethodException e) {
+				LOG.warning(generated + " does not have a public no arguments constructor");
+				return null;
+			}
+		}
+	};
+
+	private GeneratedCodecs() {
+	}
+
+	/**
+	 * @param className the binary name of a class, as returned by {@link Class#getName()}
+	 * @param suffix the suffix of the generated class, like {@link #CLASS_DATA_SUFFIX}
+	 * @return the binary name of the generated class
+	 */
+	public static String nameFor(String className, String suffix) {
+		int dot = className.lastIndexOf('.');
+		return className.substring(0, dot + 1) + className.substring(dot + 1).replace('$', '_') + suffix;
+	}
+
+	/**
+	 * Creates the generated class data of a class.
+	 *
+	 * @param clazz the class
+	 * @return a new instance of the generated class data, or null if the class has none
+	 */
+	static JsonClassData newClassData(Class<?> clazz) {
+		Constructor<? extends JsonClassData> constructor = CLASS_DATAS.get(clazz);
+		if (constructor == null) return null;
+		try {
+			return constructor.newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Cannot instantiate generated class data for " + clazz, e);
+		}
+	}
+
+	private static <T> Class<? extends T> find(Class<?> type, String suffix, Class<T> base) {
+		if (type.isPrimitive() || type.isArray() || type.getClassLoader() == null) return null;
+		try {
+			Class<?> generated = Class.forName(nameFor(type.getName(), suffix), true, type.getClassLoader());
+			if (base.isAssignableFrom(generated)) {
+				return generated.asSubclass(base);
+			}
+			LOG.warning(generated + " does not extend " + base.getName());
+		} catch (ClassNotFoundException e) {
+			// Nothing generated for this class
+		} catch (Throwable t) {
+			LOG.log(Level.WARNING, "Cannot load generated " + base.getSimpleName() + " for " + type, t);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,162 @@
+package net.etalia.jalia;
+
+/**
+ * Table of entities by scope and id, used to find entities already serialized or deserialized.
+ * <p>
+ * Integral ids, either numbers or strings holding a canonical long like "42", are kept as primitive longs, so that
+ * <code>42l</code>, <code>42</code> and <code>"42"</code> are the same id and no key objects or strings are created.
+ * Other ids are compared with equals. The scope, usually the entity name, is compared with equals too, and can be
+ * null. Both tables use open addressing with linear probing.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class IdTable {
+
+	private static final Object NO_SCOPE = new Object();
+
+	private long[] longIds = new long[16];
+	private Object[] longScopes = new Object[16];
+	private Object[] longValues = new Object[16];
+	private int longSize;
+
+	private Object[] ids = new Object[16];
+	private Object[] scopes = new Object[16];
+	private Object[] values = new Object[16];
+	private int size;
+
+	/**
+	 * @return the value for the given scope and id, or null if there is none
+	 */
+	Object get(Object scope, Object id) {
+		if (scope == null) scope = NO_SCOPE;
+		if (isLong(id)) {
+			long key = toLong(id);
+			int mask = longIds.length - 1;
+			for (int i = hash(scope, key) & mask; longScopes[i] != null; i = (i + 1) & mask) {
+				if (longIds[i] == key && longScopes[i].equals(scope)) return longValues[i];
+			}
+			return null;
+		}
+		int mask = ids.length - 1;
+		for (int i = hash(scope, id) & mask; ids[i] != null; i = (i + 1) & mask) {
+			if (ids[i].equals(id) && scopes[i].equals(scope)) return values[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the value for the given scope and id.
+	 *
+	 * @return the previous value, or null if there was none
+	 */
+	Object put(Object scope, Object id, Object value) {
+		if (scope == null) scope = NO_SCOPE;
+		if (isLong(id)) {
+			long key = toLong(id);
+			if ((longSize + 1) * 2 > longIds.length) growLongs();
+			int mask = longIds.length - 1;
+			int i = hash(scope, key) & mask;
+			for (; longScopes[i] != null; i = (i + 1) & mask) {
+				if (longIds[i] == key && longScopes[i].equals(scope)) {
+					Object prev = longValues[i];
+					longValues[i] = value;
+					return prev;
+				}
+			}
+			longIds[i] = key;
+			longScopes[i] = scope;
+			longValues[i] = value;
+			longSize++;
+			return null;
+		}
+		if ((size + 1) * 2 > ids.length) grow();
+		int mask = ids.length - 1;
+		int i = hash(scope, id) & mask;
+		for (; ids[i] != null; i = (i + 1) & mask) {
+			if (ids[i].equals(id) && scopes[i].equals(scope)) {
+				Object prev = values[i];
+				values[i] = value;
+				return prev;
+			}
+		}
+		ids[i] = id;
+		scopes[i] = scope;
+		values[i] = value;
+		size++;
+		return null;
+	}
+
+	/**
+	 * @return the number of ids in the table
+	 */
+	int size() {
+		return longSize + size;
+	}
+
+	private void growLongs() {
+		long[] oldIds = longIds;
+		Object[] oldScopes = longScopes;
+		Object[] oldValues = longValues;
+		longIds = new long[oldIds.length * 2];
+		longScopes = new Object[oldIds.length * 2];
+		longValues = new Object[oldIds.length * 2];
+		int mask = longIds.length - 1;
+		for (int j = 0; j < oldIds.length; j++) {
+			if (oldScopes[j] == null) continue;
+			int i = hash(oldScopes[j], oldIds[j]) & mask;
+			while (longScopes[i] != null) i = (i + 1) & mask;
+			longIds[i] = oldIds[j];
+			longScopes[i] = oldScopes[j];
+			longValues[i] = oldValues[j];
+		}
+	}
+
+	private void grow() {
+		Object[] oldIds = ids;
+		Object[] oldScopes = scopes;
+		Object[] oldValues = values;
+		ids = new Object[oldIds.length * 2];
+		scopes = new Object[oldIds.length * 2];
+		values = new Object[oldIds.length * 2];
+		int mask = ids.length - 1;
+		for (int j = 0; j < oldIds.length; j++) {
+			if (oldIds[j] == null) continue;
+			int i = hash(oldScopes[j], oldIds[j]) & mask;
+			while (ids[i] != null) i = (i + 1) & mask;
+			ids[i] = oldIds[j];
+			scopes[i] = oldScopes[j];
+			values[i] = oldValues[j];
+		}
+	}
+
+	private static int hash(Object scope, long id) {
+		long h = (id ^ scope.hashCode()) * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static int hash(Object scope, Object id) {
+		int h = id.hashCode() * 31 + scope.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean isLong(Object id) {
+		if (id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte) return true;
+		if (!(id instanceof String)) return false;
+		String s = (String) id;
+		int len = s.length();
+		int p = len > 0 && s.charAt(0) == '-' ? 1 : 0;
+		// Up to 18 digits always fit in a long, without a leading zero the string is the only one for its value
+		if (len == p || len - p > 18) return false;
+		if (s.charAt(p) == '0') return len == 1;
+		for (; p < len; p++) {
+			char c = s.charAt(p);
+			if (c < '0' || c > '9') return false;
+		}
+		return true;
+	}
+
+	private static long toLong(Object id) {
+		if (id instanceof Number) return ((Number) id).longValue();
+		return Long.parseLong((String) id);
+	}
+}
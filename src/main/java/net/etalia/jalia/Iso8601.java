@@ -0,0 +1,284 @@
+package net.etalia.jalia;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Parser and writer of ISO-8601 dates and times, as used in JSON by JavaScript Date.toJSON() and by java.time.
+ * <p>
+ * Parsing accepts a date (<code>2020-01-31</code>), optionally followed by a time (<code>T10:15</code>,
+ * <code>T10:15:30</code>, <code>T10:15:30.123456789</code>), optionally followed by an offset (<code>Z</code>,
+ * <code>+01:00</code>, <code>+0100</code>, <code>+01</code>) and a zone id between square brackets, as written by
+ * {@link ZonedDateTime#toString()}. Fields are parsed straight from the chars, without a
+ * {@link java.text.SimpleDateFormat} or a {@link java.time.format.DateTimeFormatter}, and without exceptions for
+ * invalid input.
+ * <p>
+ * A parser instance holds the fields of the last parsed value and is not thread safe, each {@link JsonContext} has
+ * its own, see {@link JsonContext#getIso8601()}.
+ */
+final class Iso8601 {
+
+	int year;
+	int month;
+	int day;
+	int hour;
+	int minute;
+	int second;
+	int nano;
+	boolean hasTime;
+	boolean hasOffset;
+	int offsetSeconds;
+	String zone;
+
+	/**
+	 * Parses the given text.
+	 *
+	 * @return false if the text is not a valid ISO-8601 date or date and time
+	 */
+	boolean parse(CharSequence s) {
+		int len = s.length();
+		int p = 0;
+		boolean negative = false;
+		if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+			negative = s.charAt(0) == '-';
+			p++;
+		}
+		// Year, at least 4 digits
+		int start = p;
+		long y = 0;
+		while (p < len && isDigit(s.charAt(p)) && p - start < 9) {
+			y = y * 10 + (s.charAt(p++) - '0');
+		}
+		if (p - start < 4) return false;
+		year = (int) (negative ? -y : y);
+		if ((month = twoDigits(s, p + 1, '-', p)) < 1 || month > 12) return false;
+		p += 3;
+		if ((day = twoDigits(s, p + 1, '-', p)) < 1 || day > lengthOfMonth(year, month)) return false;
+		p += 3;
+		hasTime = false;
+		hasOffset = false;
+		hour = minute = second = nano = offsetSeconds = 0;
+		zone = null;
+		if (p < len && (s.charAt(p) == 'T' || s.charAt(p) == 't' || s.charAt(p) == ' ')) {
+			hasTime = true;
+			if ((hour = twoDigits(s, p + 1, 'T', -1)) < 0 || hour > 23) return false;
+			p += 3;
+			if ((minute = twoDigits(s, p + 1, ':', p)) < 0 || minute > 59) return false;
+			p += 3;
+			if (p < len && s.charAt(p) == ':') {
+				if ((second = twoDigits(s, p + 1, ':', p)) < 0 || second > 59) return false;
+				p += 3;
+				if (p < len && (s.charAt(p) == '.' || s.charAt(p) == ',')) {
+					p++;
+					int digits = 0;
+					while (p < len && isDigit(s.charAt(p))) {
+						if (digits < 9) {
+							nano = nano * 10 + (s.charAt(p) - '0');
+							digits++;
+						}
+						p++;
+					}
+					if (digits == 0) return false;
+					for (; digits < 9; digits++) nano *= 10;
+				}
+			}
+			if (p < len) {
+				char c = s.charAt(p);
+				if (c == 'Z' || c == 'z') {
+					hasOffset = true;
+					p++;
+				} else if (c == '+' || c == '-') {
+					int oh = twoDigits(s, p + 1, c, -1);
+					if (oh < 0 || oh > 18) return false;
+					p += 3;
+					int om = 0;
+					if (p < len && s.charAt(p) == ':') p++;
+					if (p < len && isDigit(s.charAt(p))) {
+						if ((om = twoDigits(s, p, c, -1)) < 0 || om > 59) return false;
+						p += 2;
+					}
+					offsetSeconds = (oh * 3600 + om * 60) * (c == '-' ? -1 : 1);
+					hasOffset = true;
+				}
+			}
+			if (p < len && s.charAt(p) == '[') {
+				int end = len - 1;
+				if (s.charAt(end) != ']' || end - p < 2) return false;
+				zone = s.subSequence(p + 1, end).toString();
+				p = len;
+			}
+		}
+		return p == len;
+	}
+
+	/**
+	 * @return the two digits number at the given position, or -1 if there are no two digits there or the char at
+	 * sepPos, if not -1, is not the given separator
+	 */
+	private static int twoDigits(CharSequence s, int p, char sep, int sepPos) {
+		if (p + 2 > s.length()) return -1;
+		if (sepPos >= 0 && s.charAt(sepPos) != sep) return -1;
+		char c1 = s.charAt(p);
+		char c2 = s.charAt(p + 1);
+		if (!isDigit(c1) || !isDigit(c2)) return -1;
+		return (c1 - '0') * 10 + (c2 - '0');
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static int lengthOfMonth(long year, int month) {
+		switch (month) {
+		case 2:
+			return isLeap(year) ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	private static boolean isLeap(long year) {
+		return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+	}
+
+	/**
+	 * @return days since 1970-01-01 of the given date, in the proleptic gregorian calendar
+	 */
+	static long epochDay(long y, int m, int d) {
+		y -= m <= 2 ? 1 : 0;
+		long era = Math.floorDiv(y, 400L);
+		long yoe = y - era * 400;
+		long doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	/**
+	 * @return the epoch second of the last parsed value, using the default time zone if it had no offset
+	 */
+	long toEpochSecond() {
+		if (!hasOffset && zone == null) {
+			return toLocalDateTime().atZone(ZoneId.systemDefault()).toEpochSecond();
+		}
+		if (!hasOffset) {
+			return toLocalDateTime().atZone(ZoneId.of(zone)).toEpochSecond();
+		}
+		return epochDay(year, month, day) * 86400 + hour * 3600 + minute * 60 + second - offsetSeconds;
+	}
+
+	long toEpochMilli() {
+		return toEpochSecond() * 1000 + nano / 1000000;
+	}
+
+	Instant toInstant() {
+		return Instant.ofEpochSecond(toEpochSecond(), nano);
+	}
+
+	LocalDate toLocalDate() {
+		return LocalDate.of(year, month, day);
+	}
+
+	LocalDateTime toLocalDateTime() {
+		return LocalDateTime.of(year, month, day, hour, minute, second, nano);
+	}
+
+	/**
+	 * @return the last parsed value converted to UTC if it had an offset or a zone, as milliseconds are converted to
+	 * local dates and times, otherwise the local date and time as written
+	 */
+	LocalDateTime toUtcLocalDateTime() {
+		if (!hasOffset && zone == null) return toLocalDateTime();
+		return LocalDateTime.ofEpochSecond(toEpochSecond(), nano, ZoneOffset.UTC);
+	}
+
+	OffsetDateTime toOffsetDateTime() {
+		if (!hasOffset) return toZonedDateTime().toOffsetDateTime();
+		return OffsetDateTime.of(toLocalDateTime(), ZoneOffset.ofTotalSeconds(offsetSeconds));
+	}
+
+	ZonedDateTime toZonedDateTime() {
+		LocalDateTime local = toLocalDateTime();
+		if (zone != null) {
+			ZoneId id = ZoneId.of(zone);
+			return hasOffset ? ZonedDateTime.ofLocal(local, id, ZoneOffset.ofTotalSeconds(offsetSeconds))
+					: ZonedDateTime.of(local, id);
+		}
+		if (hasOffset) return ZonedDateTime.of(local, ZoneOffset.ofTotalSeconds(offsetSeconds));
+		return ZonedDateTime.of(local, ZoneId.systemDefault());
+	}
+
+	/**
+	 * Formats epoch milliseconds in UTC, as <code>yyyy-MM-ddTHH:mm:ss.SSSZ</code>, like JavaScript Date.toJSON().
+	 */
+	static String format(long epochMilli) {
+		return format(Math.floorDiv(epochMilli, 1000L), (int) Math.floorMod(epochMilli, 1000L) * 1000000);
+	}
+
+	/**
+	 * Formats an instant in UTC, with milliseconds or, if needed, with as many fraction digits as needed.
+	 */
+	static String format(Instant instant) {
+		return format(instant.getEpochSecond(), instant.getNano());
+	}
+
+	private static String format(long epochSecond, int nano) {
+		long days = Math.floorDiv(epochSecond, 86400L);
+		int secs = (int) Math.floorMod(epochSecond, 86400L);
+		// Civil date from days, see http://howardhinnant.github.io/date_algorithms.html
+		long z = days + 719468;
+		long era = Math.floorDiv(z, 146097L);
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long y = yoe + era * 400;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		int d = (int) (doy - (153 * mp + 2) / 5 + 1);
+		int m = (int) (mp < 10 ? mp + 3 : mp - 9);
+		if (m <= 2) y++;
+		if (y < 0 || y > 9999) {
+			return Instant.ofEpochSecond(epochSecond, nano).toString();
+		}
+		int digits = nano % 1000000 == 0 ? 3 : nano % 1000 == 0 ? 6 : 9;
+		char[] buf = new char[21 + digits];
+		put4(buf, 0, (int) y);
+		buf[4] = '-';
+		put2(buf, 5, m);
+		buf[7] = '-';
+		put2(buf, 8, d);
+		buf[10] = 'T';
+		put2(buf, 11, secs / 3600);
+		buf[13] = ':';
+		put2(buf, 14, secs / 60 % 60);
+		buf[16] = ':';
+		put2(buf, 17, secs % 60);
+		buf[19] = '.';
+		int fraction = nano;
+		for (int i = 9; i > digits; i--) fraction /= 10;
+		for (int i = 19 + digits; i > 19; i--) {
+			buf[i] = (char) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		buf[20 + digits] = 'Z';
+		return new String(buf);
+	}
+
+	private static void put2(char[] buf, int p, int v) {
+		buf[p] = (char) ('0' + v / 10);
+		buf[p + 1] = (char) ('0' + v % 10);
+	}
+
+	private static void put4(char[] buf, int p, int v) {
+		put2(buf, p, v / 100);
+		put2(buf, p + 2, v % 100);
+	}
+}
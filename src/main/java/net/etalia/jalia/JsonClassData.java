@@ -12,6 +12,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import net.etalia.jalia.annotations.JsonAllowEntityPropertyChanges;
 import net.etalia.jalia.annotations.JsonAllowNewInstances;
 import net.etalia.jalia.annotations.JsonCollection;
@@ -25,6 +27,8 @@ import net.etalia.jalia.annotations.JsonMap;
 import net.etalia.jalia.annotations.JsonOnDemandOnly;
 import net.etalia.jalia.annotations.JsonRequireIdForReuse;
 import net.etalia.jalia.annotations.JsonSetter;
+import net.etalia.jalia.stream.NameTable;
+import net.etalia.jalia.stream.PreEncodedString;
 import net.etalia.utils.MissHolder;
 
 public class JsonClassData {
@@ -72,9 +76,60 @@ public class JsonClassData {
 	 */
 	protected Map<String, Map<String, Object>> options = new HashMap<>();
 	
-	// Caches
-	protected Map<String,MissHolder<TypeUtil>> getHints = new HashMap<>();
-	protected Map<String,MissHolder<TypeUtil>> setHints = new HashMap<>();
+	/**
+	 * Type hints of getters and setters, precomputed when getters and setters are parsed or changed, see
+	 * {@link #computeHints()}. Concurrent maps, so they can be read while hints of properties added later by
+	 * subclasses are cached.
+	 */
+	protected Map<String,MissHolder<TypeUtil>> getHints = new ConcurrentHashMap<>();
+	protected Map<String,MissHolder<TypeUtil>> setHints = new ConcurrentHashMap<>();
+
+	/**
+	 * Accessors for getters and setters, built on first use, see {@link MethodAccessor}.
+	 */
+	protected ConcurrentMap<Method,MethodAccessor> accessors = new ConcurrentHashMap<>();
+
+	/**
+	 * Property and entity names already encoded for output, built on first use.
+	 */
+	protected ConcurrentMap<String,PreEncodedString> encodedNames = new ConcurrentHashMap<>();
+
+	/**
+	 * The name table property names were last added to, see {@link #addNamesTo(NameTable)}.
+	 */
+	private volatile NameTable namesAddedTo;
+
+	/**
+	 * Serialization plans for "*" OutFields and for OutFields filled with defaults, without and with on-demand-only
+	 * properties, see {@link SerializationPlan}.
+	 */
+	private final SerializationPlan[] sharedPlans = new SerializationPlan[4];
+
+	/**
+	 * Incremented each time getters are programmatically changed, so that existing serialization plans are discarded.
+	 */
+	volatile int planVersion;
+
+	/**
+	 * Cached value, true if subclasses do not override the getValue methods.
+	 */
+	private Boolean defaultGetterHooks;
+
+	/**
+	 * Cached value, true if subclasses do not override the setValue methods.
+	 */
+	private Boolean defaultSetterHooks;
+
+	/**
+	 * Cached value, true if subclasses do not override {@link #getOptions(String)}.
+	 */
+	private Boolean defaultOptions;
+
+	/**
+	 * Options of each property resolved to context keys, built on first use from {@link #options} and discarded
+	 * when getters or setters are changed, see {@link #getPropertyOptions(String)}.
+	 */
+	private volatile Map<String,PropertyOptions> propertyOptions;
 	
 	protected boolean isNew = true;
 	
@@ -87,11 +142,98 @@ public class JsonClassData {
 		allGetters.putAll(other.allGetters);
 		allSetters.putAll(other.allSetters);
 		options.putAll(other.options);
+		computeHints();
 	}
 	
 	protected JsonClassData(Class<?> clazz) {
+		this(clazz, true);
+	}
+
+	/**
+	 * Creates class data, optionally without parsing the class.
+	 * <p>
+	 * When not parsing, subclasses must fill getters, setters, defaults and options themselves and then call
+	 * {@link #computeHints()}, like the class data generated by {@link net.etalia.jalia.processor.CodecProcessor}.
+	 *
+	 * @param clazz The class this data is about.
+	 * @param parse Whether to parse the class annotations and methods.
+	 */
+	protected JsonClassData(Class<?> clazz, boolean parse) {
 		this.clazz = clazz;
+		if (!parse) return;
 		parse(clazz);
+		computeHints();
+	}
+
+	/**
+	 * Finds a method declared in a class or in one of its superclasses or interfaces, and makes it accessible.
+	 * <p>
+	 * Used by generated class data, that refer to methods by name since their declaring class and parameter types
+	 * could not be accessible from generated code.
+	 *
+	 * @param c The class to start searching from.
+	 * @param declaring The binary name of the class declaring the method.
+	 * @param name The name of the method.
+	 * @param params The names of the parameter types, as returned by {@link Class#getTypeName()}.
+	 * @return the method
+	 * @throws IllegalStateException if the method is not found, cause the class changed after generation.
+	 */
+	protected static Method findMethod(Class<?> c, String declaring, String name, String... params) {
+		Method ret = findDeclared(c, declaring, name, params);
+		if (ret == null) {
+			throw new IllegalStateException("Cannot find " + declaring + "." + name + Arrays.toString(params)
+					+ " from " + c.getName() + ", generated class data is out of date");
+		}
+		ret.setAccessible(true);
+		return ret;
+	}
+
+	private static Method findDeclared(Class<?> c, String declaring, String name, String[] params) {
+		if (c == null) return null;
+		if (c.getName().equals(declaring)) {
+			for (Method method : c.getDeclaredMethods()) {
+				if (method.isBridge() || !method.getName().equals(name)) continue;
+				Class<?>[] types = method.getParameterTypes();
+				if (types.length != params.length) continue;
+				boolean same = true;
+				for (int i = 0; i < types.length && same; i++) {
+					same = types[i].getTypeName().equals(params[i]);
+				}
+				if (same) return method;
+			}
+			return null;
+		}
+		Method ret = findDeclared(c.getSuperclass(), declaring, name, params);
+		for (Class<?> inter : c.getInterfaces()) {
+			if (ret != null) break;
+			ret = findDeclared(inter, declaring, name, params);
+		}
+		return ret;
+	}
+
+	/**
+	 * Resolves the type hints of all getters and setters, including their element and map value types.
+	 * <p>
+	 * Subclasses that fill or change getters and setters without parsing must call it afterwards.
+	 */
+	protected void computeHints() {
+		computeHints(getHints, getters, false);
+		computeHints(setHints, setters, true);
+		propertyOptions = null;
+	}
+
+	private static void computeHints(Map<String,MissHolder<TypeUtil>> hints, Map<String,Method> methods,
+			boolean setters) {
+		hints.keySet().retainAll(methods.keySet());
+		for (Map.Entry<String,Method> entry : methods.entrySet()) {
+			hints.put(entry.getKey(), new MissHolder<>(hintOf(entry.getValue(), setters)));
+		}
+	}
+
+	private static TypeUtil hintOf(Method method, boolean setter) {
+		TypeUtil ret = TypeUtil.get(setter ? method.getGenericParameterTypes()[0] : method.getGenericReturnType());
+		ret.precompute();
+		return ret;
 	}
 
 	/**
@@ -429,6 +571,103 @@ public class JsonClassData {
 		}
 	}
 
+	/**
+	 * @param name the property name
+	 * @return the visible or on demand getter for the property, null if not found
+	 */
+	Method getGetter(String name) {
+		Method ret = getters.get(name);
+		if (ret == null) {
+			ret = ondemand.get(name);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return true if this class does not override any of the getValue methods, so that getters can be called directly
+	 * using their {@link MethodAccessor}
+	 */
+	boolean hasDefaultGetterHooks() {
+		Boolean ret = defaultGetterHooks;
+		if (ret == null) defaultGetterHooks = ret = !overrides("getValue");
+		return ret;
+	}
+
+	/**
+	 * @return true if this class does not override any of the setValue methods, so that setters can be called directly
+	 * using their {@link MethodAccessor}
+	 */
+	boolean hasDefaultSetterHooks() {
+		Boolean ret = defaultSetterHooks;
+		if (ret == null) defaultSetterHooks = ret = !overrides("setValue");
+		return ret;
+	}
+
+	/**
+	 * Get the options of a property with their keys already resolved, to be put in the local stack of the context.
+	 *
+	 * @param name The property name.
+	 * @return the options of the property, empty if none.
+	 */
+	PropertyOptions getPropertyOptions(String name) {
+		Boolean defaults = defaultOptions;
+		if (defaults == null) defaultOptions = defaults = !overrides("getOptions");
+		if (!defaults) return PropertyOptions.of(getOptions(name));
+		Map<String,PropertyOptions> resolved = propertyOptions;
+		if (resolved == null) {
+			Map<String,PropertyOptions> built = new HashMap<>();
+			for (Map.Entry<String, Map<String, Object>> entry : options.entrySet()) {
+				built.put(entry.getKey(), PropertyOptions.of(entry.getValue()));
+			}
+			propertyOptions = resolved = Collections.unmodifiableMap(built);
+		}
+		PropertyOptions ret = resolved.get(name);
+		return ret != null ? ret : PropertyOptions.EMPTY;
+	}
+
+	private boolean overrides(String methodName) {
+		for (Class<?> c = getClass(); c != JsonClassData.class; c = c.getSuperclass()) {
+			for (Method m : c.getDeclaredMethods()) {
+				if (m.getName().equals(methodName)) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the serialization plan for this class and the given OutField, building it if needed. The OutField must
+	 * already have default fields applied.
+	 *
+	 * @param fields the OutField at the current serialization step
+	 * @param fromDefaults true if the OutField has just been filled with the default fields of this class
+	 * @param onDemand true if on-demand-only properties must be serialized
+	 * @return the plan
+	 */
+	SerializationPlan getSerializationPlan(OutField fields, boolean fromDefaults, boolean onDemand) {
+		int slot = -1;
+		if (fields.isAll() && fields.getSubsNames().isEmpty()) {
+			slot = 0;
+		} else if (fromDefaults) {
+			slot = 2;
+		}
+		if (slot != -1) {
+			// These OutFields are usually throw away instances, always having the same shape, so cache the plan here
+			if (onDemand) slot++;
+			SerializationPlan ret = sharedPlans[slot];
+			if (ret == null || !ret.isFor(this, onDemand)) {
+				ret = SerializationPlan.build(this, fields, onDemand, true);
+				sharedPlans[slot] = ret;
+			}
+			return ret;
+		}
+		SerializationPlan ret = fields.getPlan();
+		if (ret == null || !ret.isFor(this, onDemand)) {
+			ret = SerializationPlan.build(this, fields, onDemand, false);
+			fields.setPlan(ret);
+		}
+		return ret;
+	}
+
 	/**
 	 * Here a subclass can hook to control whatever is being serialized (or read for deserialization in case of
 	 * collections).
@@ -439,7 +678,82 @@ public class JsonClassData {
 	 * @return the value to be used
 	 */
 	protected Object getValue(String name, Object target, Method method) throws Exception {
-		return method.invoke(target);
+		return getGetterAccessor(method).get(target);
+	}
+
+	/**
+	 * Get the accessor for a getter method of this class, building it if needed.
+	 *
+	 * @param method the getter method
+	 * @return the accessor for the given method
+	 */
+	protected MethodAccessor.Getter getGetterAccessor(Method method) {
+		MethodAccessor ret = accessors.get(method);
+		if (ret == null) {
+			ret = MethodAccessor.forGetter(method);
+			MethodAccessor pre = accessors.putIfAbsent(method, ret);
+			if (pre != null) ret = pre;
+		}
+		return (MethodAccessor.Getter) ret;
+	}
+
+	/**
+	 * Get the accessor for a setter method of this class, building it if needed.
+	 *
+	 * @param method the setter method
+	 * @return the accessor for the given method
+	 */
+	protected MethodAccessor.Setter getSetterAccessor(Method method) {
+		MethodAccessor ret = accessors.get(method);
+		if (ret == null) {
+			ret = MethodAccessor.forSetter(method);
+			MethodAccessor pre = accessors.putIfAbsent(method, ret);
+			if (pre != null) ret = pre;
+		}
+		return (MethodAccessor.Setter) ret;
+	}
+
+	/**
+	 * Get the accessor for the visible setter of a property, if it accepts an int, a long, a double or a boolean and
+	 * this class does not override the setValue hooks, so that the value can be set without boxing.
+	 *
+	 * @param name the property name
+	 * @return the setter accessor, or null if the property has no such setter
+	 */
+	MethodAccessor.Setter getPrimitiveSetter(String name) {
+		Method method = setters.get(name);
+		if (method == null || !hasDefaultSetterHooks()) return null;
+		MethodAccessor.Setter ret = getSetterAccessor(method);
+		Class<?> type = ret.getValueType();
+		if (type == Integer.TYPE || type == Long.TYPE || type == Double.TYPE || type == Boolean.TYPE) return ret;
+		return null;
+	}
+
+	/**
+	 * Get the pre-encoded form of a property or entity name, to be written with
+	 * {@link net.etalia.jalia.stream.JsonWriter#name(PreEncodedString)}.
+	 *
+	 * @param name the property or entity name
+	 * @return the pre-encoded name
+	 */
+	public PreEncodedString getEncodedName(String name) {
+		PreEncodedString ret = encodedNames.get(name);
+		if (ret != null) return ret;
+		ret = new PreEncodedString(name);
+		PreEncodedString pre = encodedNames.putIfAbsent(name, ret);
+		return pre != null ? pre : ret;
+	}
+
+	/**
+	 * Adds the names of settable properties to a name table, so that readers using it return them without allocating
+	 * new strings.
+	 *
+	 * @param table the name table, usually the one of the {@link ObjectMapper}
+	 */
+	public void addNamesTo(NameTable table) {
+		if (namesAddedTo == table) return;
+		table.addAll(getSettables());
+		namesAddedTo = table;
 	}
 
 	/**
@@ -489,6 +803,8 @@ public class JsonClassData {
 	 */
 	public void ignoreSetter(String string) {
 		setters.remove(string);
+		computeHints();
+		planVersion++;
 	}
 
 	/**
@@ -497,6 +813,8 @@ public class JsonClassData {
 	 */
 	public void ignoreGetter(String string) {
 		getters.remove(string);
+		computeHints();
+		planVersion++;
 	}
 
 	/**
@@ -507,10 +825,10 @@ public class JsonClassData {
 	public TypeUtil getSetHint(String name) {
 		MissHolder<TypeUtil> found = setHints.get(name);
 		if (found != null) return found.getVal();
-		TypeUtil ret = null;
-		if (setters.containsKey(name)) {
-			ret = TypeUtil.get(setters.get(name).getGenericParameterTypes()[0]);
-		}
+		// Setters changed directly by a subclass
+		Method setter = setters.get(name);
+		if (setter == null) return null;
+		TypeUtil ret = hintOf(setter, true);
 		setHints.put(name, new MissHolder<>(ret));
 		return ret;
 	}
@@ -523,14 +841,21 @@ public class JsonClassData {
 	public TypeUtil getGetHint(String name) {
 		MissHolder<TypeUtil> found = getHints.get(name);
 		if (found != null) return found.getVal();
-		TypeUtil ret = null;
-		if (getters.containsKey(name)) {
-			ret = TypeUtil.get(getters.get(name).getGenericReturnType());
-		} 
+		Method getter = getters.get(name);
+		if (getter == null) return null;
+		TypeUtil ret = hintOf(getter, false);
 		getHints.put(name, new MissHolder<>(ret));
 		return ret;
 	}
 
+	/**
+	 * @param name the property name
+	 * @return true if the property has a visible getter or setter, so it can be deserialized
+	 */
+	boolean isDeserializable(String name) {
+		return getSettables().contains(name) || getGettables().contains(name);
+	}
+
 	/**
 	 * Set a value on an entity.
 	 * @param name The name of the property to set.
@@ -576,7 +901,7 @@ public class JsonClassData {
 	 * @param value the value to set
 	 */
 	protected void setValue(String name, Object target, Method method, Object value) throws Exception {
-		method.invoke(target, value);
+		getSetterAccessor(method).set(target, value);
 	}
 
 	/**
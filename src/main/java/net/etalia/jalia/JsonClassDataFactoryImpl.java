@@ -6,7 +6,8 @@ import java.util.concurrent.ConcurrentHashMap;
  * Default implementation of {@link JsonClassDataFactory}.
  *
  * This implementation will cache based on {@link Class} and create vanilla {@link JsonClassData} using
- * {@link JsonClassData#JsonClassData(Class)} constructor.
+ * {@link JsonClassData#JsonClassData(Class)} constructor, or the class data generated at compile time if the class
+ * has one, see {@link GeneratedCodecs}.
  */
 public class JsonClassDataFactoryImpl implements JsonClassDataFactory {
 
@@ -16,9 +17,13 @@ public class JsonClassDataFactoryImpl implements JsonClassDataFactory {
 	public JsonClassData getClassData(Class<?> clazz, JsonContext context) {
 		JsonClassData ret = cache.get(clazz);
 		if (ret != null) return ret;
-		ret = new JsonClassData(clazz);
-		cache.put(clazz, ret);
-		return ret;
+		// Concurrent first calls wait for the same instance, instead of parsing the class each
+		return cache.computeIfAbsent(clazz, JsonClassDataFactoryImpl::create);
+	}
+
+	private static JsonClassData create(Class<?> clazz) {
+		JsonClassData ret = GeneratedCodecs.newClassData(clazz);
+		return ret != null ? ret : new JsonClassData(clazz);
 	}
 	
 	public void cache(Class<?> clazz, JsonClassData cd) {
@@ -1,12 +1,14 @@
 package net.etalia.jalia;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 import net.etalia.jalia.stream.JsonReader;
+import net.etalia.jalia.stream.JsonToken;
 import net.etalia.jalia.stream.JsonWriter;
 
 /**
@@ -83,28 +85,69 @@ public class JsonContext extends HashMap<String, Object>{
 	 */
 	private int deserCount;
 
+	/**
+	 * Marker for a value explicitly set to null in a frame, as opposed to a value not set at all.
+	 */
+	private static final Object NULL_VALUE = new Object();
+
 	/**
 	 * Local, not inherited, stack of options. This stack is first checked by generic stack methods like
 	 * {@link #getFromStack(String)}, and values there have precedence if they are set.
+	 * <p>
+	 * Each frame is an array indexed by {@link ContextKey} slot. Frames are kept when popped, and cleared if they
+	 * were written, so that moving thru the stack does not allocate.
+	 */
+	private Object[][] localFrames = new Object[16][];
+
+	/**
+	 * Whether each frame in {@link #localFrames} has been written to.
+	 */
+	private boolean[] localDirty = new boolean[16];
+
+	private int localSize;
+
+	/**
+	 * Inherited stack of options. This stack is checked in case no specific value is set on the
+	 * {@link #localFrames}.
+	 * <p>
+	 * Each frame already contains the values inherited from frames below, so lookups only read the top frame. A frame
+	 * is shared with the one below until something is put in it.
 	 */
-	private final Stack<Map<String,Object>> localStack = new Stack<Map<String,Object>>();
+	private Object[][] inheritFrames = new Object[16][];
 
 	/**
-	 * Inherited stack of options. This stack is checked, and traversed upwards, by generic stack methods like
-	 * {@link #getFromStack(String)} in case no specific value is set on the {@link #localStack}.
+	 * Whether each frame in {@link #inheritFrames} is owned, rather than shared with the frame below.
 	 */
-	private final Stack<Map<String,Object>> inheritStack = new Stack<Map<String,Object>>();
+	private boolean[] inheritOwned = new boolean[16];
+
+	private int inheritSize;
 
 	/**
 	 * Stack of property names used to produce meaningful error messages by {@link StateLog}.
 	 */
-	private final Stack<String> namesStack = new Stack<String>();
+	private final ArrayList<String> namesStack = new ArrayList<String>();
 
 	/**
 	 * State log for this context, will have access to private variables to produce meaningful error messages.
 	 */
 	private final StateLog stateLog = new StateLog();
 
+	/**
+	 * Parser of ISO-8601 dates, created when the first date is read and reused for the following ones.
+	 */
+	private Iso8601 iso8601;
+
+	/**
+	 * The <code>@entity</code> and id of the last JSON object scanned before being read, see
+	 * {@link BeanJsonDeSer#entityHeader(JsonContext)}.
+	 */
+	private BeanJsonDeSer.EntityHeader entityHeader;
+
+	/**
+	 * The token deserializers are selected for when there is no input, see {@link #peek()}.
+	 */
+	private JsonToken peeked;
+
 	/**
 	 * Creates a JsonContext.
 	 *
@@ -114,24 +157,66 @@ public class JsonContext extends HashMap<String, Object>{
 		this.mapper = mapper;
 	}
 
+	private static Object[] setInFrame(Object[] frame, ContextKey key, Object obj) {
+		int slot = key.getSlot();
+		if (frame == null) {
+			frame = new Object[Math.max(slot + 1, DefaultOptions.values().length + 8)];
+		} else if (frame.length <= slot) {
+			frame = Arrays.copyOf(frame, slot + 8);
+		}
+		frame[slot] = obj == null ? NULL_VALUE : obj;
+		return frame;
+	}
+
+	private static Object getFromFrame(Object[] frame, ContextKey key) {
+		int slot = key.getSlot();
+		if (frame == null || frame.length <= slot) return null;
+		return frame[slot];
+	}
+
+	private void pushLocal() {
+		if (localSize == localFrames.length) {
+			localFrames = Arrays.copyOf(localFrames, localSize * 2);
+			localDirty = Arrays.copyOf(localDirty, localSize * 2);
+		}
+		localSize++;
+	}
+
+	private void popLocal() {
+		int i = --localSize;
+		if (localDirty[i]) {
+			Arrays.fill(localFrames[i], null);
+			localDirty[i] = false;
+		}
+	}
+
+	private void pushInherit() {
+		if (inheritSize == inheritFrames.length) {
+			inheritFrames = Arrays.copyOf(inheritFrames, inheritSize * 2);
+			inheritOwned = Arrays.copyOf(inheritOwned, inheritSize * 2);
+		}
+		int i = inheritSize++;
+		inheritFrames[i] = i > 0 ? inheritFrames[i - 1] : null;
+		inheritOwned[i] = false;
+	}
+
+	private void popInherit() {
+		int i = --inheritSize;
+		inheritFrames[i] = null;
+		inheritOwned[i] = false;
+	}
+
 	/**
-	 * Adds an name-value pair in the given stack.
+	 * Puts a name-value in the local stack.
 	 *
-	 * @param stack a stack, usually {@link #localStack} or {@link #inheritStack}
-	 * @param name the name to use
+	 * @param key the key to use
 	 * @param obj the value to set
 	 */
-	protected void putInStack(Stack<Map<String,Object>> stack, String name, Object obj) {
-		Map<String, Object> map = null;
-		if (stack.size() > 0) {
-			map = stack.peek();
-		}
-		if (map == null) {
-			map = new HashMap<String, Object>();
-			if (stack.size() > 0) stack.pop();
-			stack.push(map);
-		}
-		map.put(name, obj);		
+	public void putLocalStack(ContextKey key, Object obj) {
+		if (localSize == 0) pushLocal();
+		int i = localSize - 1;
+		localFrames[i] = setInFrame(localFrames[i], key, obj);
+		localDirty[i] = true;
 	}
 
 	/**
@@ -141,7 +226,18 @@ public class JsonContext extends HashMap<String, Object>{
 	 * @param obj the value to set
 	 */
 	public void putLocalStack(String name, Object obj) {
-		putInStack(localStack, name, obj);
+		putLocalStack(ContextKey.get(name), obj);
+	}
+
+	/**
+	 * Puts an option value in the local stack.
+	 *
+	 * @param option the option to set
+	 * @param obj the value to set
+	 * @param <X> the type of the option value
+	 */
+	public <X> void putLocalStack(Option<X> option, X obj) {
+		putLocalStack(ContextKey.get(option), obj);
 	}
 
 	/**
@@ -150,13 +246,46 @@ public class JsonContext extends HashMap<String, Object>{
 	 * @param options map of name-values to set
 	 */
 	public void putLocalStack(Map<String, Object> options) {
-		if (localStack.isEmpty()) localStack.push(null);
+		if (localSize == 0) pushLocal();
 		if (options == null || options.isEmpty()) return;
 		for (Map.Entry<String, Object> entry : options.entrySet()) {
 			putLocalStack(entry.getKey(), entry.getValue());
 		}
 	}
 
+	/**
+	 * Puts the options of a property in the local stack, like {@link #putLocalStack(Map)} but without looking up
+	 * their keys.
+	 *
+	 * @param options the resolved options to set
+	 */
+	void putLocalStack(PropertyOptions options) {
+		if (localSize == 0) pushLocal();
+		ContextKey[] keys = options.keys;
+		Object[] values = options.values;
+		for (int i = 0; i < keys.length; i++) {
+			putLocalStack(keys[i], values[i]);
+		}
+	}
+
+	/**
+	 * Puts a name-value in the inherited stack.
+	 *
+	 * @param key the key to use
+	 * @param obj the value to set
+	 */
+	public void putInheritStack(ContextKey key, Object obj) {
+		if (inheritSize == 0) pushInherit();
+		int i = inheritSize - 1;
+		Object[] frame = inheritFrames[i];
+		if (!inheritOwned[i] && frame != null) {
+			// Copy on write, the frame is shared with the one below
+			frame = frame.clone();
+		}
+		inheritFrames[i] = setInFrame(frame, key, obj);
+		inheritOwned[i] = true;
+	}
+
 	/**
 	 * Puts a name-value in the inherited stack.
 	 *
@@ -164,7 +293,7 @@ public class JsonContext extends HashMap<String, Object>{
 	 * @param obj the value to set
 	 */
 	public void putInheritStack(String name, Object obj) {
-		putInStack(inheritStack, name, obj);
+		putInheritStack(ContextKey.get(name), obj);
 	}
 
 	/**
@@ -173,55 +302,97 @@ public class JsonContext extends HashMap<String, Object>{
 	 * @param options the default name-values to use
 	 */
 	public void initInheritStack(Map<String, Object> options) {
-		inheritStack.push(options);
-		inheritStack.push(null);
+		pushInherit();
+		for (Map.Entry<String, Object> entry : options.entrySet()) {
+			putInheritStack(entry.getKey(), entry.getValue());
+		}
+		pushInherit();
 	}
 
 	/**
 	 * Gets a value from the stacks.
 	 * <p>
 	 * It will first look into the current level of the local stack. If not value is found there, then it
-	 * will start searching, navigating upwards, the inherited stack.
+	 * will look into the inherited stack, which already holds values set on upper levels.
+	 *
+	 * @param key the key to look up
+	 * @return the value if found, null otherwise
+	 */
+	public Object getFromStack(ContextKey key) {
+		if (localSize == 0) return null;
+		Object ret = getFromFrame(localFrames[localSize - 1], key);
+		if (ret == null && inheritSize > 0) {
+			ret = getFromFrame(inheritFrames[inheritSize - 1], key);
+		}
+		return ret == NULL_VALUE ? null : ret;
+	}
+
+	/**
+	 * Gets a value from the stacks, see {@link #getFromStack(ContextKey)}.
 	 *
 	 * @param name the name to look up
 	 * @return the value if found, null otherwise
 	 */
 	public Object getFromStack(String name) {
-		if (localStack.size() == 0) return null;
-		Map<String, Object> peek = localStack.peek();
-		if (peek != null && peek.containsKey(name)) return peek.get(name);
-		for (int i = inheritStack.size() - 1; i >= 0; i--) {
-			peek = inheritStack.get(i);
-			if (peek != null && peek.containsKey(name)) return peek.get(name);
-		}
-		return null;
+		return getFromStack(ContextKey.get(name));
+	}
+
+	/**
+	 * Gets an option value from the stacks, see {@link #getFromStack(ContextKey)}.
+	 *
+	 * @param option the option to look up
+	 * @param <X> the type of the option value
+	 * @return the value if found, null otherwise
+	 */
+	@SuppressWarnings("unchecked")
+	public <X> X getFromStack(Option<X> option) {
+		return (X) getFromStack(ContextKey.get(option));
 	}
 
 	/**
 	 * Gets a boolean from the stack, convenience method to avoid casting and checking for nulls, follows the semantics
-	 * of {@link #getFromStack(String)}.
+	 * of {@link #getFromStack(ContextKey)}.
 	 *
-	 * @param name the name to look up
+	 * @param key the key to look up
 	 * @return true only if value has been found and corresponds to a boolean "true", false in any other case
 	 */
-	public boolean getFromStackBoolean(String name) {
-		Object obj = getFromStack(name);
+	public boolean getFromStackBoolean(ContextKey key) {
+		Object obj = getFromStack(key);
 		if (obj == null) return false;
 		return (Boolean)obj;
 	}
 
 	/**
-	 * Checks whether the given name-value is in the given stack, traversing the stack upwards.
+	 * Gets a boolean from the stack, see {@link #getFromStackBoolean(ContextKey)}.
 	 *
-	 * @param stack the stack to search
-	 * @param name the name to search
+	 * @param name the name to look up
+	 * @return true only if value has been found and corresponds to a boolean "true", false in any other case
+	 */
+	public boolean getFromStackBoolean(String name) {
+		return getFromStackBoolean(ContextKey.get(name));
+	}
+
+	/**
+	 * Gets a boolean option from the stack, see {@link #getFromStackBoolean(ContextKey)}.
+	 *
+	 * @param option the option to look up
+	 * @return true only if value has been found and corresponds to a boolean "true", false in any other case
+	 */
+	public boolean getFromStackBoolean(Option<Boolean> option) {
+		return getFromStackBoolean(ContextKey.get(option));
+	}
+
+	/**
+	 * Checks whether the given name-value is in the local stack, traversing the stack upwards.
+	 *
+	 * @param key the key to search
 	 * @param obj the value that must be matched
 	 * @return true if the stack has, at any level, the given name-value pair
 	 */
-	protected boolean hasInStack(Stack<Map<String,Object>> stack, String name, Object obj) {
-		for (int i = stack.size() - 1; i >= 0; i--) {
-			Map<String, Object> peek = stack.get(i);
-			if (peek != null && peek.get(name) == obj) return true;
+	public boolean hasInLocalStack(ContextKey key, Object obj) {
+		if (obj == null) obj = NULL_VALUE;
+		for (int i = localSize - 1; i >= 0; i--) {
+			if (getFromFrame(localFrames[i], key) == obj) return true;
 		}
 		return false;
 	}
@@ -234,18 +405,23 @@ public class JsonContext extends HashMap<String, Object>{
 	 * @return true if the stack has, at any level, the given name-value pair
 	 */
 	public boolean hasInLocalStack(String name, Object obj) {
-		return hasInStack(localStack, name, obj);
+		return hasInLocalStack(ContextKey.get(name), obj);
 	}
 
 	/**
-	 * Checks whether the given name-value is in the inherited stack, traversing the stack upwards.
+	 * Checks whether the given name-value is in the inherited stack.
 	 *
 	 * @param name the name to search
 	 * @param obj the value that must be matched
 	 * @return true if the stack has, at any level, the given name-value pair
 	 */
 	public boolean hasInInheritStack(String name, Object obj) {
-		return hasInStack(inheritStack, name, obj);
+		if (obj == null) obj = NULL_VALUE;
+		ContextKey key = ContextKey.get(name);
+		for (int i = inheritSize - 1; i >= 0; i--) {
+			if (getFromFrame(inheritFrames[i], key) == obj) return true;
+		}
+		return false;
 	}
 
 	/**
@@ -341,33 +517,50 @@ public class JsonContext extends HashMap<String, Object>{
 	 * @return true if the serializer should proceed serializing the field
 	 */
 	public boolean entering(String fieldName, Collection<String> defaults) {
-		//if (acsub == null)
-			// If there are no defined children for this field
-			if (!currentFields.hasSubs()) {
-				// If we have some defaults to use
-				if (defaults != null && defaults.size() > 0) {
-					// apply those defaults
-					currentFields.setAll(false);
-					for (String def : defaults) {
-						currentFields.getCreateSub(def);
-					}
-					// Re-execute so that the "entering" can be re-evaluated based on new default children
-					return entering(fieldName);
-				}
-			}
-			OutField acsub = currentFields.getSub(fieldName);
-			if (acsub == null) {
-				return false;
-			}
-		//}
-		// Move the stacks
-		currentFields = acsub;
-		localStack.push(null);
-		inheritStack.push(null);
-		namesStack.push(fieldName);
+		if (applyDefaults(defaults)) {
+			// Re-execute so that the "entering" can be re-evaluated based on new default children
+			return entering(fieldName);
+		}
+		OutField acsub = currentFields.getSub(fieldName);
+		if (acsub == null) {
+			return false;
+		}
+		enteringFields(fieldName, acsub);
+		return true;
+	}
+
+	/**
+	 * If there are no defined children for the current OutField, applies the given default fields to it.
+	 *
+	 * @param defaults default fields to serialize
+	 * @return true if defaults have been applied
+	 */
+	public boolean applyDefaults(Collection<String> defaults) {
+		if (currentFields.hasSubs() || defaults == null || defaults.size() == 0) {
+			return false;
+		}
+		currentFields.setAll(false);
+		for (String def : defaults) {
+			currentFields.getCreateSub(def);
+		}
 		return true;
 	}
 
+	/**
+	 * Used to signal that a serializer is entering serialization of a property, when the serializer already knows
+	 * the OutField of the property, for example from a cached serialization plan.
+	 *
+	 * @param fieldName the name of the property about to be serialized
+	 * @param fields the OutField of the property, must be a child of the current OutField
+	 */
+	public void enteringFields(String fieldName, OutField fields) {
+		// Move the stacks
+		currentFields = fields;
+		pushLocal();
+		pushInherit();
+		namesStack.add(fieldName);
+	}
+
 	/**
 	 * @return true if, given the current OutField settings, all found properties in the current object must be
 	 * serialized
@@ -388,9 +581,9 @@ public class JsonContext extends HashMap<String, Object>{
 	 */
 	public void exited() {
 		currentFields = currentFields.getParent();
-		localStack.pop();
-		inheritStack.pop();
-		namesStack.pop();
+		popLocal();
+		popInherit();
+		namesStack.remove(namesStack.size() - 1);
 	}
 
 	/**
@@ -400,9 +593,9 @@ public class JsonContext extends HashMap<String, Object>{
 	 */
 	public void deserializationEntering(String name) {
 		deserCount++;
-		localStack.push(null);
-		inheritStack.push(null);
-		namesStack.push(name);
+		pushLocal();
+		pushInherit();
+		namesStack.add(name);
 	}
 
 	/**
@@ -410,9 +603,9 @@ public class JsonContext extends HashMap<String, Object>{
 	 */
 	public void deserializationExited() {
 		deserCount--;
-		namesStack.pop();
-		localStack.pop();
-		inheritStack.pop();
+		namesStack.remove(namesStack.size() - 1);
+		popLocal();
+		popInherit();
 	}
 
 
@@ -446,13 +639,76 @@ public class JsonContext extends HashMap<String, Object>{
 		return stateLog;
 	}
 
+	/**
+	 * @return the parser of ISO-8601 dates of this context, holding the fields of the last parsed date
+	 */
+	Iso8601 getIso8601() {
+		if (iso8601 == null) iso8601 = new Iso8601();
+		return iso8601;
+	}
+
+	BeanJsonDeSer.EntityHeader getEntityHeader() {
+		return entityHeader;
+	}
+
+	void setEntityHeader(BeanJsonDeSer.EntityHeader entityHeader) {
+		this.entityHeader = entityHeader;
+	}
+
+	/**
+	 * Peeks the next token of the input. Without an input, like when deserializers are selected in advance by
+	 * {@link ObjectMapper#warmUp(Collection)}, returns the token set with {@link #setPeeked(JsonToken)}.
+	 *
+	 * @return the next token
+	 */
+	JsonToken peek() throws IOException {
+		return input != null ? input.peek() : peeked;
+	}
+
+	void setPeeked(JsonToken peeked) {
+		this.peeked = peeked;
+	}
+
+	/**
+	 * Resets this context to the state it had when created, so that it can be used again for another
+	 * serialization or deserialization, reusing the stacks it already allocated.
+	 */
+	public void reset() {
+		clear();
+		output = null;
+		input = null;
+		rootFields = null;
+		currentFields = null;
+		entityHeader = null;
+		peeked = null;
+		deserCount = 0;
+		while (localSize > 0) {
+			popLocal();
+		}
+		while (inheritSize > 0) {
+			popInherit();
+		}
+		namesStack.clear();
+	}
+
 	public JsonContext subForInput(JsonReader newInput) {
 		JsonContext ret = new JsonContext(mapper);
 		ret.currentFields = currentFields;
 		ret.deserCount = deserCount;
-		ret.inheritStack.addAll(inheritStack);
+		// Inherited frames are shared, but not owned, so they are copied before being written
+		ret.inheritFrames = Arrays.copyOf(inheritFrames, inheritFrames.length);
+		ret.inheritOwned = new boolean[inheritFrames.length];
+		ret.inheritSize = inheritSize;
 		ret.input = newInput;
-		ret.localStack.addAll(localStack);
+		ret.localFrames = new Object[localFrames.length][];
+		ret.localDirty = new boolean[localFrames.length];
+		for (int i = 0; i < localSize; i++) {
+			if (localFrames[i] != null) {
+				ret.localFrames[i] = localFrames[i].clone();
+				ret.localDirty[i] = true;
+			}
+		}
+		ret.localSize = localSize;
 		ret.namesStack.addAll(namesStack);
 		ret.output = output;
 		ret.rootFields = rootFields;
@@ -17,6 +17,16 @@ public interface JsonDeSer {
 	 */
 	String CTX_ALL_ORIGINAL_VALUE = "All_OriginalValue";
 
+	/**
+	 * Key of {@link #CTX_ALL_SERIALIZESTACK}, to avoid looking it up each time.
+	 */
+	ContextKey CTX_ALL_SERIALIZESTACK_KEY = ContextKey.get(CTX_ALL_SERIALIZESTACK);
+
+	/**
+	 * Key of {@link #CTX_ALL_ORIGINAL_VALUE}, to avoid looking it up each time.
+	 */
+	ContextKey CTX_ALL_ORIGINAL_VALUE_KEY = ContextKey.get(CTX_ALL_ORIGINAL_VALUE);
+
 	/**
 	 * Check whether this instance can serialize a class in the current serialization context.
 	 * @param context The current serialization context.
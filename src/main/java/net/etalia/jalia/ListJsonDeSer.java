@@ -3,10 +3,14 @@ package net.etalia.jalia;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.BaseStream;
 import net.etalia.jalia.annotations.JsonCollection;
 import net.etalia.jalia.stream.JsonReader;
 import net.etalia.jalia.stream.JsonToken;
@@ -14,16 +18,38 @@ import net.etalia.jalia.stream.JsonWriter;
 
 /**
  * De-serializer for ant {@link Iterable} and native arrays.
+ * <p>
+ * Also serializes lazy sources, like {@link Iterator}, {@link java.util.stream.Stream} and {@link Spliterator}, writing
+ * elements one by one as they are produced, and flushing the output every {@link #FLUSH_EVERY} elements.
+ * <p>
+ * Arrays of int, long, double, float, boolean, short and byte are written and read directly from and to the array,
+ * without boxing each element.
  */
 public class ListJsonDeSer implements JsonDeSer {
 
 	public static final String DROP = "LIST_JSON_DESER_DROP";
 	public static final String CLEAR = "LIST_JSON_DESER_CLEAR";
+	private static final ContextKey DROP_KEY = ContextKey.get(DROP);
+	private static final ContextKey CLEAR_KEY = ContextKey.get(CLEAR);
+
+	/**
+	 * Number of elements of a lazy source after which the output is flushed, 0 to never flush, defaults to
+	 * {@value #DEFAULT_FLUSH_EVERY}.
+	 */
+	public static final Option<Integer> FLUSH_EVERY = new Option<Integer>() {
+		@Override
+		public String toString() {
+			return "LIST_JSON_DESER_FLUSH_EVERY";
+		}
+	};
+	public static final int DEFAULT_FLUSH_EVERY = 1000;
+	private static final ContextKey FLUSH_EVERY_KEY = ContextKey.get(FLUSH_EVERY);
 
 	@Override
 	public int handlesSerialization(JsonContext context, Class<?> clazz) {
 		if (Iterable.class.isAssignableFrom(clazz)) return 10;
 		if (clazz.isArray()) return 10;
+		if (isLazy(clazz)) return 10;
 		return -1;
 	}
 	
@@ -36,7 +62,7 @@ public class ListJsonDeSer implements JsonDeSer {
 			} catch (Exception ignored) {}
 		}
 		try {
-			if (context.getInput().peek() == JsonToken.BEGIN_ARRAY) return 10;
+			if (context.peek() == JsonToken.BEGIN_ARRAY) return 10;
 		} catch (Exception ignored) {}
 		return -1;
 	}
@@ -45,35 +71,202 @@ public class ListJsonDeSer implements JsonDeSer {
 	public void serialize(Object obj, JsonContext context) throws IOException {
 		JsonWriter output = context.getOutput();
 		
-		if (context.hasInLocalStack(CTX_ALL_SERIALIZESTACK, obj)) {
+		if (context.hasInLocalStack(CTX_ALL_SERIALIZESTACK_KEY, obj)) {
 			// TODO this avoid loops, but also break serialization, cause there is no id to send
 			output.clearName();
 			return;
 		}		
-		context.putLocalStack(CTX_ALL_SERIALIZESTACK, obj);
+		context.putLocalStack(CTX_ALL_SERIALIZESTACK_KEY, obj);
 		
 		if (obj.getClass().isArray()) {
-			if (Array.getLength(obj) == 0 && !context.isRoot() && !context.getFromStackBoolean(DefaultOptions.INCLUDE_EMPTY.toString())) {
+			if (Array.getLength(obj) == 0 && !context.isRoot() && !context.getFromStackBoolean(DefaultOptions.INCLUDE_EMPTY)) {
 				output.clearName();
 				return;
 			}
 			output.beginArray();
-			for (int i = 0; i < Array.getLength(obj); i++) {
-				context.getMapper().writeValue(Array.get(obj, i), context);
+			if (!writePrimitives(obj, output)) {
+				ObjectMapper mapper = context.getMapper();
+				// Elements are usually all of the same class, so remember the last serializer
+				SerializerCache serializer = new SerializerCache();
+				for (int i = 0; i < Array.getLength(obj); i++) {
+					Object so = Array.get(obj, i);
+					mapper.writeValue(so, context, serializer.get(context, so));
+				}
 			}
 		} else {
-			if (!((Iterable)obj).iterator().hasNext() && !context.isRoot() && !context.getFromStackBoolean(DefaultOptions.INCLUDE_EMPTY.toString())) {
-				output.clearName();
-				return;
-			}
-			output.beginArray();
-			for (Object so : (Iterable)obj) {
-				context.getMapper().writeValue(so, context);
+			try {
+				boolean lazy = isLazy(obj.getClass());
+				Iterator<?> iter = iteratorOf(obj);
+				if (!iter.hasNext() && !context.isRoot() && !context.getFromStackBoolean(DefaultOptions.INCLUDE_EMPTY)) {
+					output.clearName();
+					return;
+				}
+				output.beginArray();
+				ObjectMapper mapper = context.getMapper();
+				int flushEvery = 0;
+				if (lazy) {
+					Integer option = (Integer) context.getFromStack(FLUSH_EVERY_KEY);
+					flushEvery = option != null ? option : DEFAULT_FLUSH_EVERY;
+				}
+				SerializerCache serializer = new SerializerCache();
+				int count = 0;
+				while (iter.hasNext()) {
+					Object so = iter.next();
+					mapper.writeValue(so, context, serializer.get(context, so));
+					if (flushEvery > 0 && ++count % flushEvery == 0) {
+						output.flush();
+					}
+				}
+			} finally {
+				// Streams may hold resources, like the lines of a file, and are consumed by now
+				if (obj instanceof BaseStream) ((BaseStream<?, ?>) obj).close();
 			}
 		}
 		output.endArray();
 	}
 
+	/**
+	 * Writes the elements of a primitive array.
+	 *
+	 * @return false if the array is not of a supported primitive type, and nothing was written
+	 */
+	private static boolean writePrimitives(Object obj, JsonWriter output) throws IOException {
+		if (obj instanceof int[]) {
+			for (int v : (int[]) obj) output.value(v);
+		} else if (obj instanceof long[]) {
+			for (long v : (long[]) obj) output.value(v);
+		} else if (obj instanceof double[]) {
+			for (double v : (double[]) obj) output.value(v);
+		} else if (obj instanceof float[]) {
+			for (float v : (float[]) obj) output.value(v);
+		} else if (obj instanceof boolean[]) {
+			for (boolean v : (boolean[]) obj) output.value(v);
+		} else if (obj instanceof short[]) {
+			for (short v : (short[]) obj) output.value(v);
+		} else if (obj instanceof byte[]) {
+			for (byte v : (byte[]) obj) output.value(v);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the primitive component type of the array to deserialize, if it is one read by
+	 * {@link #readPrimitives(JsonContext, Object, Class)}, otherwise null
+	 */
+	private static Class<?> primitiveComponent(Object pre, TypeUtil hint) {
+		Class<?> component = null;
+		if (pre != null) {
+			if (pre.getClass().isArray()) component = pre.getClass().getComponentType();
+		} else if (hint != null && hint.isArray() && hint.hasConcrete()) {
+			component = hint.getConcrete().getComponentType();
+		}
+		if (component == null || !component.isPrimitive() || component == Character.TYPE) return null;
+		return component;
+	}
+
+	/**
+	 * Reads a quoted boolean with the mapper, so that the string is converted as {@link NativeJsonDeSer} does.
+	 */
+	private static boolean readQuotedBoolean(JsonContext context) {
+		return (Boolean) context.getMapper().readValue(context, null, TypeUtil.get(Boolean.TYPE));
+	}
+
+	/**
+	 * Reads a primitive array, reusing the existing one if it has the same length.
+	 */
+	private Object readPrimitives(JsonContext context, Object pre, Class<?> component) throws IOException {
+		JsonReader input = context.getInput();
+		if (pre != null && context.getFromStackBoolean(DefaultOptions.RECORD_CHANGES)) {
+			List<Object> originalValue = new ArrayList<>(Array.getLength(pre));
+			for (int i = 0; i < Array.getLength(pre); i++) {
+				originalValue.add(Array.get(pre, i));
+			}
+			context.putLocalStack(CTX_ALL_ORIGINAL_VALUE_KEY, originalValue);
+		}
+		int size = input.peekSize();
+		int capacity = size >= 0 ? size : 16;
+		int n = 0;
+		Object read;
+		input.beginArray();
+		if (component == Integer.TYPE) {
+			int[] buf = new int[capacity];
+			while (input.hasNext()) {
+				if (n == buf.length) buf = Arrays.copyOf(buf, n * 2 + 1);
+				buf[n++] = input.nextInt();
+			}
+			read = buf;
+		} else if (component == Long.TYPE) {
+			long[] buf = new long[capacity];
+			while (input.hasNext()) {
+				if (n == buf.length) buf = Arrays.copyOf(buf, n * 2 + 1);
+				buf[n++] = input.nextLong();
+			}
+			read = buf;
+		} else if (component == Double.TYPE) {
+			double[] buf = new double[capacity];
+			while (input.hasNext()) {
+				if (n == buf.length) buf = Arrays.copyOf(buf, n * 2 + 1);
+				buf[n++] = input.nextDouble();
+			}
+			read = buf;
+		} else if (component == Float.TYPE) {
+			float[] buf = new float[capacity];
+			while (input.hasNext()) {
+				if (n == buf.length) buf = Arrays.copyOf(buf, n * 2 + 1);
+				buf[n++] = (float) input.nextDouble();
+			}
+			read = buf;
+		} else if (component == Boolean.TYPE) {
+			boolean[] buf = new boolean[capacity];
+			while (input.hasNext()) {
+				if (n == buf.length) buf = Arrays.copyOf(buf, n * 2 + 1);
+				// Quoted booleans are converted as for single values, numbers are read from strings by the reader itself
+				buf[n++] = input.peek() == JsonToken.STRING ? readQuotedBoolean(context) : input.nextBoolean();
+			}
+			read = buf;
+		} else if (component == Short.TYPE) {
+			short[] buf = new short[capacity];
+			while (input.hasNext()) {
+				if (n == buf.length) buf = Arrays.copyOf(buf, n * 2 + 1);
+				buf[n++] = (short) input.nextInt();
+			}
+			read = buf;
+		} else {
+			byte[] buf = new byte[capacity];
+			while (input.hasNext()) {
+				if (n == buf.length) buf = Arrays.copyOf(buf, n * 2 + 1);
+				buf[n++] = (byte) input.nextInt();
+			}
+			read = buf;
+		}
+		input.endArray();
+		if (pre != null && Array.getLength(pre) == n) {
+			System.arraycopy(read, 0, pre, 0, n);
+			return pre;
+		}
+		if (Array.getLength(read) == n) return read;
+		Object ret = Array.newInstance(component, n);
+		System.arraycopy(read, 0, ret, 0, n);
+		return ret;
+	}
+
+	/**
+	 * @return true if instances of the class produce their elements lazily, and can be iterated only once
+	 */
+	private static boolean isLazy(Class<?> clazz) {
+		return Iterator.class.isAssignableFrom(clazz) || BaseStream.class.isAssignableFrom(clazz)
+				|| Spliterator.class.isAssignableFrom(clazz);
+	}
+
+	private static Iterator<?> iteratorOf(Object obj) {
+		if (obj instanceof Iterable) return ((Iterable<?>) obj).iterator();
+		if (obj instanceof Iterator) return (Iterator<?>) obj;
+		if (obj instanceof BaseStream) return ((BaseStream<?, ?>) obj).iterator();
+		return Spliterators.iterator((Spliterator<?>) obj);
+	}
+
 	/**
 	 * Deserializes a List, Set or array.
 	 * <p>
@@ -99,6 +292,11 @@ public class ListJsonDeSer implements JsonDeSer {
 	 */
 	@Override
 	public Object deserialize(JsonContext context, Object pre, TypeUtil hint) throws IOException {
+		Class<?> component = primitiveComponent(pre, hint);
+		if (component != null) return readPrimitives(context, pre, component);
+		JsonReader input = context.getInput();
+		// Known if the input was indexed
+		int size = input.peekSize();
 		Collection<Object> act;
 		boolean wasArray = (pre != null && pre.getClass().isArray()); 
 		if (pre != null && pre.getClass().isArray()) {
@@ -116,13 +314,13 @@ public class ListJsonDeSer implements JsonDeSer {
 		}
 
 		Collection<Object> originalValue;
-		if (context.getFromStackBoolean(DefaultOptions.RECORD_CHANGES.toString()) && act != null) {
+		if (context.getFromStackBoolean(DefaultOptions.RECORD_CHANGES) && act != null) {
 			originalValue = new ArrayList<>(act);
-			context.putLocalStack(CTX_ALL_ORIGINAL_VALUE, originalValue);
+			context.putLocalStack(CTX_ALL_ORIGINAL_VALUE_KEY, originalValue);
 		}
 
-		if (context.getFromStackBoolean(DROP) || inner == null || !inner.hasConcrete() || inner.getConcrete() == Object.class) {
-			if (context.getFromStackBoolean(DROP)) act = null;
+		if (context.getFromStackBoolean(DROP_KEY) || inner == null || !inner.hasConcrete() || inner.getConcrete() == Object.class) {
+			if (context.getFromStackBoolean(DROP_KEY)) act = null;
 			if (hint != null) {
 				if (hint.isInstantiatable()) {
 					try {
@@ -135,11 +333,12 @@ public class ListJsonDeSer implements JsonDeSer {
 				inner = hint.getArrayListOrSetType();
 			}
 			if (act == null) {
-				act = new ArrayList<>();
+				act = new ArrayList<>(size >= 0 ? size : 10);
+			} else if (act instanceof ArrayList && size > 0) {
+				((ArrayList<Object>) act).ensureCapacity(size);
 			}
 		}
 		
-		JsonReader input = context.getInput();
 		input.beginArray();
 		{
 			int i = 0;
@@ -149,8 +348,8 @@ public class ListJsonDeSer implements JsonDeSer {
 			} else {
 				lst = new ArrayList<>(act);
 			}
-			if (context.getFromStackBoolean(CLEAR)) lst.clear();
-			List<Object> found = new ArrayList<>();
+			if (context.getFromStackBoolean(CLEAR_KEY)) lst.clear();
+			List<Object> found = new ArrayList<>(size >= 0 ? size : 10);
 			while (input.hasNext()) {
 				Object preval = null;
 				if (i < lst.size()) preval = lst.get(i);
@@ -21,6 +21,9 @@ public class MapJsonDeSer implements JsonDeSer {
 	public static final String RETAIN = "MAP_JSON_DESER_RETAIN";
 	public static final String DROP = "MAP_JSON_DESER_DROP";
 	public static final String CLEAR = "MAP_JSON_DESER_CLEAR";
+	private static final ContextKey RETAIN_KEY = ContextKey.get(RETAIN);
+	private static final ContextKey DROP_KEY = ContextKey.get(DROP);
+	private static final ContextKey CLEAR_KEY = ContextKey.get(CLEAR);
 
 	@Override
 	public int handlesSerialization(JsonContext context, Class<?> clazz) {
@@ -32,7 +35,7 @@ public class MapJsonDeSer implements JsonDeSer {
 		if (hint != null)
 			if (hint.hasConcrete() && Map.class.isAssignableFrom(hint.getConcrete())) return 10;
 		try {
-			if (context.getInput().peek() == JsonToken.BEGIN_OBJECT) return 5;
+			if (context.peek() == JsonToken.BEGIN_OBJECT) return 5;
 		} catch (IOException ignored) {}
 		return 0;
 	}
@@ -41,24 +44,28 @@ public class MapJsonDeSer implements JsonDeSer {
 	public void serialize(Object obj, JsonContext context) throws IOException {
 		JsonWriter output = context.getOutput();
 		Map<String,?> map = (Map<String,?>) obj;
-		if (map.size() == 0 && !context.isRoot() && !context.getFromStackBoolean(DefaultOptions.INCLUDE_EMPTY.toString())) {
+		if (map.size() == 0 && !context.isRoot() && !context.getFromStackBoolean(DefaultOptions.INCLUDE_EMPTY)) {
 			output.clearName();
 			return;
 		}
 		
-		if (context.hasInLocalStack(CTX_ALL_SERIALIZESTACK, obj)) {
+		if (context.hasInLocalStack(CTX_ALL_SERIALIZESTACK_KEY, obj)) {
 			// TODO this avoid loops, but also break serialization, cause there is no id to send
 			output.clearName();
 			return;
 		}
-		context.putLocalStack(CTX_ALL_SERIALIZESTACK, obj);
+		context.putLocalStack(CTX_ALL_SERIALIZESTACK_KEY, obj);
 		
 		output.beginObject();
+		ObjectMapper mapper = context.getMapper();
+		// Values are often all of the same class, so remember the last serializer
+		SerializerCache serializer = new SerializerCache();
 		for (Map.Entry<String,?> entry : map.entrySet()) {
 			if (context.entering(entry.getKey(), "*")) {
-				context.putLocalStack(DefaultOptions.INCLUDE_EMPTY.toString(), true);
+				context.putLocalStack(DefaultOptions.INCLUDE_EMPTY, true);
 				output.name(entry.getKey());
-				context.getMapper().writeValue(entry.getValue(), context);
+				Object val = entry.getValue();
+				mapper.writeValue(val, context, serializer.get(context, val));
 				context.exited();
 			}
 		}
@@ -85,6 +92,9 @@ public class MapJsonDeSer implements JsonDeSer {
 	 */
 	@Override
 	public Object deserialize(JsonContext context, Object pre, TypeUtil hint) throws IOException {
+		JsonReader input = context.getInput();
+		// Known if the input was indexed
+		int size = input.peekSize();
 		Map<String,Object> act = null;
 		if (pre instanceof Map) {
 			act = (Map<String, Object>) pre;
@@ -103,32 +113,31 @@ public class MapJsonDeSer implements JsonDeSer {
 			}
 		}
 		if (hint != null) {
-			inner = hint.findReturnTypeOf("remove", Object.class);
+			inner = hint.getMapValueType();
 		}
 
 		Map<String, Object> originalValue = null;
-		if (context.getFromStackBoolean(DefaultOptions.RECORD_CHANGES.toString()) && act != null) {
+		if (context.getFromStackBoolean(DefaultOptions.RECORD_CHANGES) && act != null) {
 			originalValue = new HashMap<>(act);
-			context.putLocalStack(CTX_ALL_ORIGINAL_VALUE, originalValue);
+			context.putLocalStack(CTX_ALL_ORIGINAL_VALUE_KEY, originalValue);
 		}
 
-		if (act == null || context.getFromStackBoolean(DROP)) {
+		if (act == null || context.getFromStackBoolean(DROP_KEY)) {
 			// Use linked hash map to keep the order where posible
-			act = new LinkedHashMap<>();
-		} else if (context.getFromStackBoolean(CLEAR)) {
+			act = size >= 0 ? new LinkedHashMap<String, Object>(capacityFor(size)) : new LinkedHashMap<String, Object>();
+		} else if (context.getFromStackBoolean(CLEAR_KEY)) {
 			act.clear();
 		}
-		JsonReader input = context.getInput();
 		input.beginObject();
-		Set<String> keys = new HashSet<String>();
+		Set<String> keys = size >= 0 ? new HashSet<String>(capacityFor(size)) : new HashSet<String>();
 		Map<String,Object> read = act;
 		while (input.hasNext()) {
 			String name = input.nextName();
-			boolean wasAllowNew = context.getFromStackBoolean(BeanJsonDeSer.ALLOW_NEW);
-			boolean wasAllowChanges = context.getFromStackBoolean(BeanJsonDeSer.ALLOW_CHANGES);
+			boolean wasAllowNew = context.getFromStackBoolean(DefaultOptions.ALWAYS_ALLOW_NEW_INSTANCES);
+			boolean wasAllowChanges = context.getFromStackBoolean(DefaultOptions.ALWAYS_ALLOW_ENTITY_PROPERTY_CHANGES);
 			context.deserializationEntering(name);
-			context.putLocalStack(BeanJsonDeSer.ALLOW_NEW, wasAllowNew);
-			context.putLocalStack(BeanJsonDeSer.ALLOW_CHANGES, wasAllowChanges);
+			context.putLocalStack(DefaultOptions.ALWAYS_ALLOW_NEW_INSTANCES, wasAllowNew);
+			context.putLocalStack(DefaultOptions.ALWAYS_ALLOW_ENTITY_PROPERTY_CHANGES, wasAllowChanges);
 			keys.add(name);
 			Object preval = read.get(name);
 			// NOTE: explicitly avoiding inferring a hint from the existing value cause it causes more problems than
@@ -149,7 +158,7 @@ public class MapJsonDeSer implements JsonDeSer {
 				context.deserializationExited();
 			}
 		}
-		if (!context.getFromStackBoolean(RETAIN)) {
+		if (!context.getFromStackBoolean(RETAIN_KEY)) {
 			for (Iterator<String> iter = act.keySet().iterator(); iter.hasNext(); ) {
 				if (!keys.contains(iter.next())) iter.remove();
 			}
@@ -158,6 +167,13 @@ public class MapJsonDeSer implements JsonDeSer {
 		return act;
 	}
 
+	/**
+	 * @return the initial capacity of a hash map that will hold the given number of entries without rehashing
+	 */
+	private static int capacityFor(int size) {
+		return size < 3 ? size + 1 : (int) (size / 0.75f) + 1;
+	}
+
 	private Object reduceNumber(Object val) {
 		if (val == null) return null;
 		if (!(val instanceof Number)) return val;
@@ -0,0 +1,591 @@
+package net.etalia.jalia;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fast access to a getter or setter method.
+ * <p>
+ * Accessors are built using {@link LambdaMetafactory}, so that calling a getter or a setter is a plain interface call
+ * instead of a reflective {@link Method#invoke(Object, Object...)}, without varargs arrays and, using the primitive
+ * variants like {@link Getter#getLong(Object)} or {@link Setter#setInt(Object, int)}, without boxing.
+ * <p>
+ * Getters and setters have separate types, {@link Getter} and {@link Setter}, built by {@link #forGetter(Method)} and
+ * {@link #forSetter(Method)}.
+ * <p>
+ * When binding is not possible (for example the method or its class are not public, or the class is not visible from
+ * the classloader of Jalia), the accessor falls back to plain reflection.
+ * <p>
+ * Classes annotated with {@link net.etalia.jalia.annotations.JsonCodec} and compiled with
+ * {@link net.etalia.jalia.processor.CodecProcessor} have accessors generated at compile time, which extend
+ * {@link Getter} and {@link Setter} and call the methods directly.
+ */
+public abstract class MethodAccessor {
+
+	private final static Logger LOG = Logger.getLogger(MethodAccessor.class.getName());
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	/**
+	 * The getter or setter method this accessor is calling.
+	 */
+	protected final Method method;
+
+	/**
+	 * The type of the value read by the getter or written by the setter.
+	 */
+	protected final Class<?> valueType;
+
+	private MethodAccessor(Method method, Class<?> valueType) {
+		this.method = method;
+		this.valueType = valueType;
+	}
+
+	/**
+	 * @return the underlying method
+	 */
+	public Method getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return the type returned by the getter or accepted by the setter, can be a primitive type
+	 */
+	public Class<?> getValueType() {
+		return valueType;
+	}
+
+	/**
+	 * @return true if this accessor calls the method without using reflection
+	 */
+	public boolean isBound() {
+		return false;
+	}
+
+	/**
+	 * Accessor for a getter, a method with no parameters and returning a value.
+	 * <p>
+	 * The primitive variants call the getter without boxing when it returns the matching primitive type, and unbox
+	 * the value returned by {@link #get(Object)} otherwise.
+	 */
+	public static abstract class Getter extends MethodAccessor {
+
+		protected Getter(Method method) {
+			super(method, method.getReturnType());
+		}
+
+		/**
+		 * Calls the getter.
+		 * @param target the instance to read from
+		 * @return the value returned by the getter, boxed if primitive
+		 * @throws Exception any exception thrown by the getter
+		 */
+		public abstract Object get(Object target) throws Exception;
+
+		/**
+		 * Calls a getter returning a long, int, short or byte.
+		 * @param target the instance to read from
+		 * @return the value returned by the getter
+		 * @throws Exception any exception thrown by the getter
+		 */
+		public long getLong(Object target) throws Exception {
+			return ((Number) get(target)).longValue();
+		}
+
+		/**
+		 * Calls a getter returning a double.
+		 * @param target the instance to read from
+		 * @return the value returned by the getter
+		 * @throws Exception any exception thrown by the getter
+		 */
+		public double getDouble(Object target) throws Exception {
+			return ((Number) get(target)).doubleValue();
+		}
+
+		/**
+		 * Calls a getter returning a boolean.
+		 * @param target the instance to read from
+		 * @return the value returned by the getter
+		 * @throws Exception any exception thrown by the getter
+		 */
+		public boolean getBoolean(Object target) throws Exception {
+			return (Boolean) get(target);
+		}
+	}
+
+	/**
+	 * Accessor for a setter, a method with a single parameter.
+	 * <p>
+	 * The primitive variants call the setter without boxing when it accepts the matching primitive type, and box the
+	 * value for {@link #set(Object, Object)} otherwise.
+	 */
+	public static abstract class Setter extends MethodAccessor {
+
+		protected Setter(Method method) {
+			super(method, method.getParameterTypes()[0]);
+		}
+
+		/**
+		 * Calls the setter.
+		 * @param target the instance to write to
+		 * @param value the value to set, unboxed if the setter accepts a primitive
+		 * @throws Exception any exception thrown by the setter
+		 */
+		public abstract void set(Object target, Object value) throws Exception;
+
+		/**
+		 * Calls a setter accepting an int or a long.
+		 * @param target the instance to write to
+		 * @param value the value to set
+		 * @throws Exception any exception thrown by the setter
+		 */
+		public void setInt(Object target, int value) throws Exception {
+			set(target, value);
+		}
+
+		/**
+		 * Calls a setter accepting a long.
+		 * @param target the instance to write to
+		 * @param value the value to set
+		 * @throws Exception any exception thrown by the setter
+		 */
+		public void setLong(Object target, long value) throws Exception {
+			set(target, value);
+		}
+
+		/**
+		 * Calls a setter accepting a double.
+		 * @param target the instance to write to
+		 * @param value the value to set
+		 * @throws Exception any exception thrown by the setter
+		 */
+		public void setDouble(Object target, double value) throws Exception {
+			set(target, value);
+		}
+
+		/**
+		 * Calls a setter accepting a boolean.
+		 * @param target the instance to write to
+		 * @param value the value to set
+		 * @throws Exception any exception thrown by the setter
+		 */
+		public void setBoolean(Object target, boolean value) throws Exception {
+			set(target, value);
+		}
+	}
+
+	/**
+	 * Builds an accessor for a getter, a method with no parameters and returning a value.
+	 * @param method the getter
+	 * @return a bound accessor, or a reflective one if binding fails
+	 */
+	public static Getter forGetter(Method method) {
+		Class<?> type = method.getReturnType();
+		if (canBind(method)) {
+			try {
+				MethodHandle handle = LOOKUP.unreflect(method);
+				Class<?> decl = method.getDeclaringClass();
+				if (type == Integer.TYPE) {
+					return new IntGetterAccessor(method, (IntGetter) bind(handle, IntGetter.class, "get",
+							MethodType.methodType(Integer.TYPE, Object.class), MethodType.methodType(Integer.TYPE, decl)));
+				} else if (type == Long.TYPE) {
+					return new LongGetterAccessor(method, (LongGetter) bind(handle, LongGetter.class, "get",
+							MethodType.methodType(Long.TYPE, Object.class), MethodType.methodType(Long.TYPE, decl)));
+				} else if (type == Double.TYPE) {
+					return new DoubleGetterAccessor(method, (DoubleGetter) bind(handle, DoubleGetter.class, "get",
+							MethodType.methodType(Double.TYPE, Object.class), MethodType.methodType(Double.TYPE, decl)));
+				} else if (type == Boolean.TYPE) {
+					return new BooleanGetterAccessor(method, (BooleanGetter) bind(handle, BooleanGetter.class, "get",
+							MethodType.methodType(Boolean.TYPE, Object.class), MethodType.methodType(Boolean.TYPE, decl)));
+				}
+				Class<?> boxed = type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+				return new ObjectGetterAccessor(method, (ObjectGetter) bind(handle, ObjectGetter.class, "get",
+						MethodType.methodType(Object.class, Object.class), MethodType.methodType(boxed, decl)));
+			} catch (Throwable t) {
+				LOG.log(Level.FINE, "Cannot bind getter " + method + ", using reflection", t);
+			}
+		}
+		return new ReflectiveGetter(method);
+	}
+
+	/**
+	 * Builds an accessor for a setter, a method with a single parameter.
+	 * @param method the setter
+	 * @return a bound accessor, or a reflective one if binding fails
+	 */
+	public static Setter forSetter(Method method) {
+		Class<?> type = method.getParameterTypes()[0];
+		// Setters returning a value (fluent setters) cannot be bound to a void interface method
+		if (canBind(method) && method.getReturnType() == Void.TYPE) {
+			try {
+				MethodHandle handle = LOOKUP.unreflect(method);
+				Class<?> decl = method.getDeclaringClass();
+				if (type == Integer.TYPE) {
+					return new IntSetterAccessor(method, (IntSetter) bind(handle, IntSetter.class, "set",
+							MethodType.methodType(Void.TYPE, Object.class, Integer.TYPE),
+							MethodType.methodType(Void.TYPE, decl, Integer.TYPE)));
+				} else if (type == Long.TYPE) {
+					return new LongSetterAccessor(method, (LongSetter) bind(handle, LongSetter.class, "set",
+							MethodType.methodType(Void.TYPE, Object.class, Long.TYPE),
+							MethodType.methodType(Void.TYPE, decl, Long.TYPE)));
+				} else if (type == Double.TYPE) {
+					return new DoubleSetterAccessor(method, (DoubleSetter) bind(handle, DoubleSetter.class, "set",
+							MethodType.methodType(Void.TYPE, Object.class, Double.TYPE),
+							MethodType.methodType(Void.TYPE, decl, Double.TYPE)));
+				} else if (type == Boolean.TYPE) {
+					return new BooleanSetterAccessor(method, (BooleanSetter) bind(handle, BooleanSetter.class, "set",
+							MethodType.methodType(Void.TYPE, Object.class, Boolean.TYPE),
+							MethodType.methodType(Void.TYPE, decl, Boolean.TYPE)));
+				}
+				Class<?> boxed = type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+				return new ObjectSetterAccessor(method, (ObjectSetter) bind(handle, ObjectSetter.class, "set",
+						MethodType.methodType(Void.TYPE, Object.class, Object.class),
+						MethodType.methodType(Void.TYPE, decl, boxed)));
+			} catch (Throwable t) {
+				LOG.log(Level.FINE, "Cannot bind setter " + method + ", using reflection", t);
+			}
+		}
+		return new ReflectiveSetter(method);
+	}
+
+	/**
+	 * Checks whether a generated class can call the method directly: method and class must be public, and the class
+	 * must be visible from our classloader, cause generated classes live there.
+	 */
+	private static boolean canBind(Method method) {
+		Class<?> decl = method.getDeclaringClass();
+		if (!Modifier.isPublic(method.getModifiers()) || Modifier.isStatic(method.getModifiers())) return false;
+		if (!Modifier.isPublic(decl.getModifiers())) return false;
+		try {
+			return Class.forName(decl.getName(), false, MethodAccessor.class.getClassLoader()) == decl;
+		} catch (Throwable t) {
+			return false;
+		}
+	}
+
+	private static Object bind(MethodHandle handle, Class<?> iface, String name, MethodType erased,
+			MethodType instantiated) throws Throwable {
+		CallSite site = LambdaMetafactory.metafactory(LOOKUP, name, MethodType.methodType(iface), erased, handle,
+				instantiated);
+		return site.getTarget().invoke();
+	}
+
+	/*
+	 * Unboxing for primitive setters, following the same widening rules of Method.invoke
+	 */
+
+	protected static int toInt(Object value) {
+		if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return ((Number) value).intValue();
+		} else if (value instanceof Character) {
+			return (Character) value;
+		}
+		throw new IllegalArgumentException("argument type mismatch");
+	}
+
+	protected static long toLong(Object value) {
+		if (value instanceof Long) {
+			return (Long) value;
+		}
+		return toInt(value);
+	}
+
+	protected static double toDouble(Object value) {
+		if (value instanceof Double || value instanceof Float) {
+			return ((Number) value).doubleValue();
+		}
+		return toLong(value);
+	}
+
+	interface ObjectGetter {
+		Object get(Object target);
+	}
+
+	interface IntGetter {
+		int get(Object target);
+	}
+
+	interface LongGetter {
+		long get(Object target);
+	}
+
+	interface DoubleGetter {
+		double get(Object target);
+	}
+
+	interface BooleanGetter {
+		boolean get(Object target);
+	}
+
+	interface ObjectSetter {
+		void set(Object target, Object value);
+	}
+
+	interface IntSetter {
+		void set(Object target, int value);
+	}
+
+	interface LongSetter {
+		void set(Object target, long value);
+	}
+
+	interface DoubleSetter {
+		void set(Object target, double value);
+	}
+
+	interface BooleanSetter {
+		void set(Object target, boolean value);
+	}
+
+	/**
+	 * Fallback getter, using plain reflection.
+	 */
+	static class ReflectiveGetter extends Getter {
+		ReflectiveGetter(Method method) {
+			super(method);
+		}
+
+		@Override
+		public Object get(Object target) throws Exception {
+			return method.invoke(target);
+		}
+	}
+
+	/**
+	 * Fallback setter, using plain reflection.
+	 */
+	static class ReflectiveSetter extends Setter {
+		ReflectiveSetter(Method method) {
+			super(method);
+		}
+
+		@Override
+		public void set(Object target, Object value) throws Exception {
+			method.invoke(target, value);
+		}
+	}
+
+	static abstract class BoundGetter extends Getter {
+		BoundGetter(Method method) {
+			super(method);
+		}
+
+		@Override
+		public boolean isBound() {
+			return true;
+		}
+	}
+
+	static abstract class BoundSetter extends Setter {
+		BoundSetter(Method method) {
+			super(method);
+		}
+
+		@Override
+		public boolean isBound() {
+			return true;
+		}
+	}
+
+	static class ObjectGetterAccessor extends BoundGetter {
+		private final ObjectGetter getter;
+
+		ObjectGetterAccessor(Method method, ObjectGetter getter) {
+			super(method);
+			this.getter = getter;
+		}
+
+		@Override
+		public Object get(Object target) {
+			return getter.get(target);
+		}
+	}
+
+	static class IntGetterAccessor extends BoundGetter {
+		private final IntGetter getter;
+
+		IntGetterAccessor(Method method, IntGetter getter) {
+			super(method);
+			this.getter = getter;
+		}
+
+		@Override
+		public Object get(Object target) {
+			return getter.get(target);
+		}
+
+		@Override
+		public long getLong(Object target) {
+			return getter.get(target);
+		}
+
+		@Override
+		public double getDouble(Object target) {
+			return getter.get(target);
+		}
+	}
+
+	static class LongGetterAccessor extends BoundGetter {
+		private final LongGetter getter;
+
+		LongGetterAccessor(Method method, LongGetter getter) {
+			super(method);
+			this.getter = getter;
+		}
+
+		@Override
+		public Object get(Object target) {
+			return getter.get(target);
+		}
+
+		@Override
+		public long getLong(Object target) {
+			return getter.get(target);
+		}
+
+		@Override
+		public double getDouble(Object target) {
+			return getter.get(target);
+		}
+	}
+
+	static class DoubleGetterAccessor extends BoundGetter {
+		private final DoubleGetter getter;
+
+		DoubleGetterAccessor(Method method, DoubleGetter getter) {
+			super(method);
+			this.getter = getter;
+		}
+
+		@Override
+		public Object get(Object target) {
+			return getter.get(target);
+		}
+
+		@Override
+		public double getDouble(Object target) {
+			return getter.get(target);
+		}
+	}
+
+	static class BooleanGetterAccessor extends BoundGetter {
+		private final BooleanGetter getter;
+
+		BooleanGetterAccessor(Method method, BooleanGetter getter) {
+			super(method);
+			this.getter = getter;
+		}
+
+		@Override
+		public Object get(Object target) {
+			return getter.get(target);
+		}
+
+		@Override
+		public boolean getBoolean(Object target) {
+			return getter.get(target);
+		}
+	}
+
+	static class ObjectSetterAccessor extends BoundSetter {
+		private final ObjectSetter setter;
+
+		ObjectSetterAccessor(Method method, ObjectSetter setter) {
+			super(method);
+			this.setter = setter;
+		}
+
+		@Override
+		public void set(Object target, Object value) {
+			setter.set(target, value);
+		}
+	}
+
+	static class IntSetterAccessor extends BoundSetter {
+		private final IntSetter setter;
+
+		IntSetterAccessor(Method method, IntSetter setter) {
+			super(method);
+			this.setter = setter;
+		}
+
+		@Override
+		public void set(Object target, Object value) {
+			setter.set(target, toInt(value));
+		}
+
+		@Override
+		public void setInt(Object target, int value) {
+			setter.set(target, value);
+		}
+	}
+
+	static class LongSetterAccessor extends BoundSetter {
+		private final LongSetter setter;
+
+		LongSetterAccessor(Method method, LongSetter setter) {
+			super(method);
+			this.setter = setter;
+		}
+
+		@Override
+		public void set(Object target, Object value) {
+			setter.set(target, toLong(value));
+		}
+
+		@Override
+		public void setInt(Object target, int value) {
+			setter.set(target, value);
+		}
+
+		@Override
+		public void setLong(Object target, long value) {
+			setter.set(target, value);
+		}
+	}
+
+	static class DoubleSetterAccessor extends BoundSetter {
+		private final DoubleSetter setter;
+
+		DoubleSetterAccessor(Method method, DoubleSetter setter) {
+			super(method);
+			this.setter = setter;
+		}
+
+		@Override
+		public void set(Object target, Object value) {
+			setter.set(target, toDouble(value));
+		}
+
+		@Override
+		public void setDouble(Object target, double value) {
+			setter.set(target, value);
+		}
+	}
+
+	static class BooleanSetterAccessor extends BoundSetter {
+		private final BooleanSetter setter;
+
+		BooleanSetterAccessor(Method method, BooleanSetter setter) {
+			super(method);
+			this.setter = setter;
+		}
+
+		@Override
+		public void set(Object target, Object value) {
+			setter.set(target, (Boolean) value);
+		}
+
+		@Override
+		public void setBoolean(Object target, boolean value) {
+			setter.set(target, value);
+		}
+	}
+}
@@ -3,7 +3,13 @@ package net.etalia.jalia;
 import java.io.IOException;
 import java.io.Writer;
 import java.math.BigDecimal;
-import java.text.SimpleDateFormat;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.Date;
 import java.util.UUID;
 import java.util.logging.Level;
@@ -11,11 +17,14 @@ import java.util.logging.Logger;
 import net.etalia.jalia.stream.JsonReader;
 import net.etalia.jalia.stream.JsonToken;
 import net.etalia.jalia.stream.JsonWriter;
+import net.etalia.jalia.stream.PreEncodedString;
 
 /**
  * Handles de-serialization of {@link Number}s and {@link Boolean}s (both wrappers and natives), {@link Date}s (output
- * as milliseconds number), {@link CharSequence}s (Strings, StringBuffers etc..), {@link Enum}s (as name of the value),
- * {@link Class}es (as fully quialified names).
+ * as milliseconds number, or as ISO-8601 string if {@link DefaultOptions#DATES_AS_ISO_STRINGS} is set),
+ * {@link CharSequence}s (Strings, StringBuffers etc..), {@link Enum}s (as name of the value),
+ * {@link Class}es (as fully quialified names), {@link Instant}, {@link LocalDate}, {@link LocalDateTime},
+ * {@link OffsetDateTime} and {@link ZonedDateTime} (as ISO-8601 strings).
  *
  * On deserialization, this class also handles these special cases:
  * <ul>
@@ -23,10 +32,10 @@ import net.etalia.jalia.stream.JsonWriter;
  *     <li>Empty strings mapping to a native boolean are converted to false
  *     <li>Empty strings mapping to anything not string and not native, is converted to null (so, empty strings mapping
  *     to a string are preserved)
- *     <li>Numbers mapping to a Date are considered to be full milliseconds timestamps.
- *     <li>Dates can also be received in formats supported by {@link javax.xml.bind.DatatypeConverter#parseDateTime(String)},
- *     that is xsd:datetime format, that is a simplified version of ISO 8601 which is the same defined in JavaScript
- *     for the Date.toJson() function.
+ *     <li>Numbers mapping to a Date or to a java.time class are considered to be full milliseconds timestamps.
+ *     <li>Dates can also be received as ISO 8601 strings, which is the format defined in JavaScript for the
+ *     Date.toJson() function, with or without time, seconds, fraction and offset. Dates and times without offset
+ *     are in the default time zone.
  *     <li>Class names or Enum values that can't be converted will throw exception.
  * </ul>
  */
@@ -34,9 +43,23 @@ public class NativeJsonDeSer implements JsonDeSer {
 	
 	private final static Logger LOG = Logger.getLogger(NativeJsonDeSer.class.getName());
 
-	private static final String
-		ISO_FORMAT_1 = "yyyy-MM-dd'T'HH:mm:ss.SSSZ",
-		ISO_FORMAT_2 = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
+	/**
+	 * Class names, encoded once for each class.
+	 */
+	private static final ClassValue<PreEncodedString> CLASS_NAMES = new ClassValue<PreEncodedString>() {
+		@Override
+		protected PreEncodedString computeValue(Class<?> type) {
+			return new PreEncodedString(type.getName());
+		}
+	};
+
+	/**
+	 * @return true if the class is one of the java.time classes handled as ISO-8601 strings
+	 */
+	private static boolean isTemporal(Class<?> clazz) {
+		return clazz == Instant.class || clazz == LocalDate.class || clazz == LocalDateTime.class
+				|| clazz == OffsetDateTime.class || clazz == ZonedDateTime.class;
+	}
 
 	@Override
 	public int handlesSerialization(JsonContext context, Class<?> clazz) {
@@ -49,6 +72,7 @@ public class NativeJsonDeSer implements JsonDeSer {
 		if (Enum.class.isAssignableFrom(clazz)) return 10;
 		if (Class.class.isAssignableFrom(clazz)) return 10;
 		if (UUID.class.isAssignableFrom(clazz)) return 10;
+		if (isTemporal(clazz)) return 10;
 		return -1;
 	}
 	
@@ -62,7 +86,7 @@ public class NativeJsonDeSer implements JsonDeSer {
 		}
 		JsonToken peek = null;
 		try {
-			peek = context.getInput().peek();
+			peek = context.peek();
 		} catch (Exception ignored) {}
 		if (peek == JsonToken.NULL) return 5;
 		
@@ -81,7 +105,15 @@ public class NativeJsonDeSer implements JsonDeSer {
 		if (obj == null) {
 			output.nullValue();
 		} else if (obj instanceof Date) {
-			output.value(((Date)obj).getTime());
+			if (context.getFromStackBoolean(DefaultOptions.DATES_AS_ISO_STRINGS)) {
+				output.value(Iso8601.format(((Date)obj).getTime()));
+			} else {
+				output.value(((Date)obj).getTime());
+			}
+		} else if (obj instanceof Instant) {
+			output.value(Iso8601.format((Instant)obj));
+		} else if (isTemporal(obj.getClass())) {
+			output.value(obj.toString());
 		} else if (obj instanceof Number) {
 			output.value((Number)obj);
 		} else if (obj instanceof Boolean) {
@@ -89,21 +121,36 @@ public class NativeJsonDeSer implements JsonDeSer {
 		} else if (obj instanceof CharSequence) {
 			output.value(((CharSequence)obj).toString());
 		} else if (obj instanceof Enum) {
-			output.value(((Enum)obj).name());
+			Enum<?> constant = (Enum<?>) obj;
+			output.value(EnumValues.of(constant.getDeclaringClass()).encoded(constant));
 		} else if (obj instanceof Class) {
-			output.value(((Class) obj).getName());
+			output.value(CLASS_NAMES.get((Class<?>) obj));
 		} else if (obj instanceof UUID) {
-			output.value(obj.toString());
+			output.value((UUID) obj);
 		} else {
 			throw new IllegalStateException("Cannot serialize " + obj + " at " + context.getStateLog());
 		}
 	}
 	
 	public void serializeRaw(Object obj, Writer output) throws IOException {
+		serializeRaw(obj, output, false);
+	}
+
+	/**
+	 * Writes a native value as is, without quoting strings.
+	 *
+	 * @param isoDates whether to write dates as ISO-8601 strings, see {@link DefaultOptions#DATES_AS_ISO_STRINGS}
+	 */
+	public void serializeRaw(Object obj, Writer output, boolean isoDates) throws IOException {
 		if (obj == null) {
 			output.write("null");
 		} else if (obj instanceof Date) {
-			output.write(Long.toString(((Date)obj).getTime()));
+			long ms = ((Date)obj).getTime();
+			output.write(isoDates ? Iso8601.format(ms) : Long.toString(ms));
+		} else if (obj instanceof Instant) {
+			output.write(Iso8601.format((Instant)obj));
+		} else if (isTemporal(obj.getClass())) {
+			output.write(obj.toString());
 		} else if (obj instanceof Number) {
 			output.write(obj.toString());
 		} else if (obj instanceof Boolean) {
@@ -114,6 +161,8 @@ public class NativeJsonDeSer implements JsonDeSer {
 			output.write(((Enum)obj).name());
 		} else if (obj instanceof Class) {
 			output.write(((Class)obj).getName());
+		} else if (obj instanceof UUID) {
+			output.write(obj.toString());
 		} else {
 			throw new IllegalStateException("Cannot raw serialize " + obj);
 		}
@@ -132,6 +181,9 @@ public class NativeJsonDeSer implements JsonDeSer {
 			return null;
 		}
 		if (peek == JsonToken.STRING) {
+			if (hint != null && hint.hasConcrete() && UUID.class.isAssignableFrom(hint.getConcrete())) {
+				return input.nextUUID();
+			}
 			ret = input.nextString();
 			// A string could be an enum, a class, a number or a date
 			if (hint != null && hint.hasConcrete()) {
@@ -143,8 +195,6 @@ public class NativeJsonDeSer implements JsonDeSer {
 					} catch (ClassNotFoundException e) {
 						throw new IllegalStateException("Cannot deserialize a class " + ret + " at " + context.getStateLog(), e);
 					}
-				} else if (UUID.class.isAssignableFrom(hint.getConcrete())) {
-					ret = UUID.fromString((String)ret);
 				} else if (!hint.isCharSequence()) {
 					if (hint.isNumber() || hint.isBoolean()) {
 						if (((String)ret).length() == 0) {
@@ -171,54 +221,27 @@ public class NativeJsonDeSer implements JsonDeSer {
 								ret = Float.parseFloat((String)ret);
 							} else if (hint.isBigDecimal()) {
 								ret = new BigDecimal((String)ret);
+							} else if (hint.isBigInteger()) {
+								ret = new BigInteger((String)ret);
 							} else if (hint.isBoolean()) {
 								ret = Boolean.parseBoolean((String)ret);
 							}
 						}
-					} else if (Date.class.isAssignableFrom(hint.getConcrete())) {
-						String dateStr = (String)ret;
-						if (dateStr.length() == 0) {
-							ret = null;
-						} else {
-							Date d = null;
-							if (dateStr.indexOf('-') != -1 ) {
-								try {
-
-									d = javax.xml.bind.DatatypeConverter.parseDateTime(dateStr).getTime();
-								} catch (Exception ignored) {
-									LOG.fine("Tried decoding as ISO8601 but got " + ignored.toString());
-								}
-							}
-							if (dateStr.indexOf('T') != -1 ) {
-								try {
-									d = new SimpleDateFormat(ISO_FORMAT_1).parse(dateStr);
-									d = new SimpleDateFormat(ISO_FORMAT_2).parse(dateStr);
-								} catch (Exception ignored) {
-									LOG.fine("Tried decoding as ISO8601 partial format but got " + ignored.toString());
-								}
-							}
-							if (d == null) {
-								d = new Date(Long.parseLong((String)ret));
-							}
-							ret = d;
-						}
+						LOG.log(Level.WARNING, "Had to convert String to {0} {1}", new Object[] { hint.getType(), context.getStateLog() });
+					} else if (Date.class.isAssignableFrom(hint.getConcrete()) || isTemporal(hint.getConcrete())) {
+						// ISO strings are the expected format for dates, no need to warn
+						ret = parseDate((String)ret, hint.getConcrete(), context);
 					} else {
 						throw new IllegalStateException("Found a string, but was expecting " + hint + " at " + context.getStateLog());
 					}
-					LOG.log(Level.WARNING, "Had to convert String to {0} {1}", new Object[] { hint.getType(), context.getStateLog() });
 				}
 			}
 		} else if (peek == JsonToken.BOOLEAN) {
 			ret = input.nextBoolean();
 		} else if (peek == JsonToken.NUMBER) {
 			if (hint == null) {
-				// If we don't have a hint, use double or long
-				String valstr = input.nextString();
-				if (valstr.indexOf('.') == -1) {
-					ret = Long.parseLong(valstr);
-				} else {
-					ret = Double.parseDouble(valstr);
-				}
+				// If we don't have a hint, use long or double
+				ret = input.nextNumber();
 			} else if (hint.isDouble()) {
 				ret = input.nextDouble();
 			} else if (hint.isFloat()) {
@@ -230,10 +253,14 @@ public class NativeJsonDeSer implements JsonDeSer {
 			} else if (hint.isLong()) {
 				ret = input.nextLong();
 			} else if (hint.isBigDecimal()) {
-				ret = new BigDecimal(input.nextString());
+				ret = input.nextBigDecimal();
+			} else if (hint.isBigInteger()) {
+				ret = input.nextBigInteger();
 			} else if (Date.class.isAssignableFrom(hint.getConcrete())) {
 				long ms = input.nextLong();
 				ret = new Date(ms);
+			} else if (isTemporal(hint.getConcrete())) {
+				ret = fromMillis(input.nextLong(), hint.getConcrete());
 			} else {
 				throw new IllegalStateException("Found a number, but was expecting " + hint + " at " + context.getStateLog());
 			}
@@ -243,4 +270,39 @@ public class NativeJsonDeSer implements JsonDeSer {
 		return ret;
 	}
 
+	/**
+	 * Parses a date received as a string, either in ISO-8601 format or as milliseconds. Local dates and times with an
+	 * offset or a zone are converted to UTC, as milliseconds are.
+	 */
+	private static Object parseDate(String str, Class<?> type, JsonContext context) {
+		if (str.length() == 0) return null;
+		Iso8601 iso = context.getIso8601();
+		if (!iso.parse(str)) {
+			try {
+				return fromMillis(Long.parseLong(str), type);
+			} catch (NumberFormatException e) {
+				throw new IllegalStateException("Cannot parse date " + str + " at " + context.getStateLog(), e);
+			}
+		}
+		if (type == LocalDate.class) return iso.toUtcLocalDateTime().toLocalDate();
+		if (type == LocalDateTime.class) return iso.toUtcLocalDateTime();
+		if (type == OffsetDateTime.class) return iso.toOffsetDateTime();
+		if (type == ZonedDateTime.class) return iso.toZonedDateTime();
+		if (type == Instant.class) return iso.toInstant();
+		return new Date(iso.toEpochMilli());
+	}
+
+	/**
+	 * Converts a milliseconds timestamp to the given date type, java.time local dates and times are in UTC.
+	 */
+	private static Object fromMillis(long ms, Class<?> type) {
+		Instant instant = Instant.ofEpochMilli(ms);
+		if (type == Instant.class) return instant;
+		if (type == LocalDate.class) return LocalDateTime.ofInstant(instant, ZoneOffset.UTC).toLocalDate();
+		if (type == LocalDateTime.class) return LocalDateTime.ofInstant(instant, ZoneOffset.UTC);
+		if (type == OffsetDateTime.class) return OffsetDateTime.ofInstant(instant, ZoneOffset.UTC);
+		if (type == ZonedDateTime.class) return ZonedDateTime.ofInstant(instant, ZoneOffset.UTC);
+		return new Date(ms);
+	}
+
 }
@@ -1,28 +1,27 @@
 package net.etalia.jalia;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import javax.annotation.PostConstruct;
 import net.etalia.jalia.stream.JsonReader;
 import net.etalia.jalia.stream.JsonToken;
 import net.etalia.jalia.stream.JsonWriter;
 import net.etalia.jalia.stream.MalformedJsonException;
-import net.etalia.utils.LockHashMap;
+import net.etalia.jalia.stream.NameTable;
+import net.etalia.jalia.stream.Utf8Reader;
+import net.etalia.jalia.stream.Utf8Writer;
 import net.etalia.utils.MissHolder;
 
 /**
@@ -46,14 +45,26 @@ public class ObjectMapper {
 	private NativeJsonDeSer nativeDeSer = null;
 
 	/**
-	 * Cached class to Serializer map.
+	 * Cached class to Serializer map. It is looked up for every value written, so it is never modified: a new copy
+	 * is published when a class is added, and lookups need no locking.
 	 */
-	private final LockHashMap<Class<?>,MissHolder<JsonDeSer>> serializers = new LockHashMap<>();
+	private volatile Map<Class<?>,MissHolder<JsonDeSer>> serializers = new HashMap<>();
 
 	/**
-	 * Cached class (actually, TypeUtil) to Deserializer map.
+	 * Cached type hint and input shape to Deserializer map, copied on write like {@link #serializers}.
 	 */
-	private final LockHashMap<TypeUtil,MissHolder<JsonDeSer>> deserializers = new LockHashMap<>();
+	private volatile Map<DeserializerKey,MissHolder<JsonDeSer>> deserializers = new HashMap<>();
+
+	/**
+	 * Whether int, long, double and boolean values are read by the native de-serializer, see
+	 * {@link #readsNatively(JsonContext, TypeUtil, Class)}. Cleared with the other caches.
+	 */
+	private volatile Boolean[] nativePrimitives = new Boolean[4];
+
+	/**
+	 * Guards the copies of {@link #serializers} and {@link #deserializers}.
+	 */
+	private final Object cachesLock = new Object();
 
 	/**
 	 * Entity factory used in this ObjectMapper.
@@ -75,6 +86,16 @@ public class ObjectMapper {
 	 */
 	private ChangeRecorder changeRecorder = ChangeRecorder.getSharedInstance();
 
+	/**
+	 * Property names shared by all readers of this ObjectMapper, see {@link NameTable}.
+	 */
+	private final NameTable nameTable = new NameTable();
+
+	{
+		nameTable.add("@entity");
+		nameTable.add("id");
+	}
+
 	/**
 	 * Default serialization and deserializtion options.
 	 */
@@ -86,6 +107,7 @@ public class ObjectMapper {
 		defaultOptions.put(DefaultOptions.INCLUDE_EMPTY.toString(), false);
 		defaultOptions.put(DefaultOptions.INCLUDE_NULLS.toString(), false);
 		defaultOptions.put(DefaultOptions.RECORD_CHANGES.toString(), true);
+		defaultOptions.put(DefaultOptions.INDEX_IN_MEMORY_INPUT.toString(), true);
 	}
 
 	/**
@@ -162,12 +184,21 @@ public class ObjectMapper {
 		return classDataFactory;
 	}
 
+	/**
+	 * @return the table of known property names used by readers of this ObjectMapper, which is filled with the
+	 * properties of deserialized classes.
+	 */
+	public NameTable getNameTable() {
+		return nameTable;
+	}
+
 	/**
 	 * Programmatically register a de-serializer on this ObjectMapper.
 	 * @param ds the de-serializer to register.
 	 */
 	public void registerDeSer(JsonDeSer ds) {
 		registeredDeSers.add(ds);
+		clearCaches();
 	}
 
 	/**
@@ -176,6 +207,36 @@ public class ObjectMapper {
 	 */
 	public void registerDeSer(Collection<? extends JsonDeSer> dss) {
 		registeredDeSers.addAll(dss);
+		clearCaches();
+	}
+
+	private void clearCaches() {
+		synchronized (cachesLock) {
+			serializers = new HashMap<>();
+			deserializers = new HashMap<>();
+			nativePrimitives = new Boolean[4];
+		}
+	}
+
+	/**
+	 * Checks whether a primitive value would be read by the native de-serializer, so that it can be read and set
+	 * without boxing. The answer depends only on the registered de-serializers, so it is computed once per type.
+	 *
+	 * @param context The current deserialization context.
+	 * @param hint The hint of the property, for the primitive type.
+	 * @param type int, long, double or boolean.
+	 * @return true if the native de-serializer would be selected.
+	 */
+	boolean readsNatively(JsonContext context, TypeUtil hint, Class<?> type) {
+		int slot = type == Integer.TYPE ? 0 : type == Long.TYPE ? 1 : type == Double.TYPE ? 2 : 3;
+		Boolean[] cache = nativePrimitives;
+		Boolean ret = cache[slot];
+		if (ret == null) {
+			// Racing threads compute the same value
+			ret = getDeserializerFor(context, hint, true) instanceof NativeJsonDeSer;
+			cache[slot] = ret;
+		}
+		return ret;
 	}
 
 	/**
@@ -212,6 +273,7 @@ public class ObjectMapper {
 		if (nullDeSer == null) nullDeSer = nativeDeSer;
 		if (this.nativeDeSer == null) this.nativeDeSer = nativeDeSer; 
 		registeredDeSers.add(nativeDeSer);
+		registeredDeSers.add(new EnumJsonDeSer());
 		registeredDeSers.add(new MapJsonDeSer());
 		registeredDeSers.add(new ListJsonDeSer());
 		registeredDeSers.add(new BeanJsonDeSer());
@@ -254,17 +316,15 @@ public class ObjectMapper {
 	 * @return The most appropriate serialized among the registered ones.
 	 */
 	protected JsonDeSer getSerializerFor(JsonContext context, Object obj) {
-		Class<?> clazz;
 		if (obj == null) return nullDeSer;
-		clazz = obj.getClass();
+		return getSerializerFor(context, obj.getClass());
+	}
 
-		MissHolder<JsonDeSer> holder;
-		serializers.lockRead();
-		try {
-			holder = serializers.get(clazz);
-		} finally {
-			serializers.unlockRead();
-		}
+	/**
+	 * Search for a serializer for a class, see {@link #getSerializerFor(JsonContext, Object)}.
+	 */
+	JsonDeSer getSerializerFor(JsonContext context, Class<?> clazz) {
+		MissHolder<JsonDeSer> holder = serializers.get(clazz);
 		if (holder != null) return holder.getVal();
 		
 		JsonDeSer deser = null;
@@ -279,11 +339,10 @@ public class ObjectMapper {
 				}
 			} catch (NullPointerException ignored) {}
 		}
-		serializers.lockWrite();
-		try {
-			serializers.put(clazz, new MissHolder<>(deser));
-		} finally {
-			serializers.unlockWrite();
+		synchronized (cachesLock) {
+			Map<Class<?>,MissHolder<JsonDeSer>> copy = new HashMap<>(serializers);
+			copy.put(clazz, new MissHolder<>(deser));
+			serializers = copy;
 		}
 		
 		return deser;
@@ -292,9 +351,12 @@ public class ObjectMapper {
 	/**
 	 * Search for a deserializer for an object in the current context.
 	 *
-	 * Selection is based on calling {@link JsonDeSer#handlesDeserialization(JsonContext, Class)} on all registered
+	 * Selection is based on calling {@link JsonDeSer#handlesDeserialization(JsonContext, TypeUtil)} on all registered
 	 * deserializers in order, an then finding the one that scored best or the first one that scored more than or equal
 	 * to 10.
+	 * <p>
+	 * When using the cache, selection is done once for each combination of type hint, next token in the input and,
+	 * for JSON objects, presence of an "@entity" property.
 	 *
 	 * @param context The current deserialization context.
 	 * @param hint A hint on the expected type.
@@ -302,18 +364,27 @@ public class ObjectMapper {
 	 * @return The most appropriate deserialized among the registered ones.
 	 */
 	protected JsonDeSer getDeserializerFor(JsonContext context, TypeUtil hint, boolean useCache) {
-		if (hint != null && useCache) {
-			MissHolder<JsonDeSer> holder;
-			deserializers.lockRead();
-			try {
-				holder = deserializers.get(hint);
-			} finally {
-				deserializers.unlockRead();
+		DeserializerKey key = null;
+		if (useCache) {
+			key = getDeserializerKey(context, hint);
+			if (key != null) {
+				MissHolder<JsonDeSer> holder = deserializers.get(key);
+				if (holder != null) return holder.getVal();
 			}
-			if (holder != null) return holder.getVal();
 		}
+		JsonDeSer deser = selectDeserializer(context, hint, false);
+		if (key != null) cacheDeserializer(key, deser);
+		return deser;
+	}
+
+	/**
+	 * Asks all registered deserializers, see {@link #getDeserializerFor(JsonContext, TypeUtil, boolean)}.
+	 *
+	 * @param strict if true a deserializer throwing a NullPointerException, usually cause it needs an input, fails
+	 * the selection instead of being skipped
+	 */
+	private JsonDeSer selectDeserializer(JsonContext context, TypeUtil hint, boolean strict) {
 		JsonDeSer deser = null;
-		
 		int max = -1;
 		for (JsonDeSer acds : registeredDeSers) {
 			try {
@@ -323,25 +394,58 @@ public class ObjectMapper {
 					max = ach;
 					if (max >= 10) break;
 				}
-			} catch (NullPointerException ignored) {}
+			} catch (NullPointerException e) {
+				if (strict) throw e;
+			}
 		}
 		return deser;
 	}
 
+	private void cacheDeserializer(DeserializerKey key, JsonDeSer deser) {
+		synchronized (cachesLock) {
+			Map<DeserializerKey,MissHolder<JsonDeSer>> copy = new HashMap<>(deserializers);
+			copy.put(key, new MissHolder<>(deser));
+			deserializers = copy;
+		}
+	}
+
+	/**
+	 * A Map hint is never deserialized as an entity, so there is no need to scan the whole map for an "@entity".
+	 */
+	private static boolean mayBeEntity(TypeUtil hint) {
+		return hint == null || !hint.hasConcrete() || !Map.class.isAssignableFrom(hint.getConcrete());
+	}
+
+	/**
+	 * Computes the key under which the deserializer for the current input is cached.
+	 *
+	 * @return the key, or null if the input cannot be peeked
+	 */
+	private DeserializerKey getDeserializerKey(JsonContext context, TypeUtil hint) {
+		JsonReader input = context.getInput();
+		if (input == null) return null;
+		try {
+			JsonToken token = input.peek();
+			boolean entity = false;
+			if (token == JsonToken.BEGIN_OBJECT && mayBeEntity(hint)) {
+				// Kept in the context, so that BeanJsonDeSer does not scan the object again
+				entity = BeanJsonDeSer.entityHeader(context).entity != null;
+			}
+			return new DeserializerKey(hint, token, entity);
+		} catch (IOException | IllegalStateException e) {
+			return null;
+		}
+	}
+
 	/**
 	 * Caches a deserializer for the given type hint.
 	 * @param hint The type hint.
 	 * @param deser The deserializer.
+	 * @deprecated deserializers are cached by {@link #getDeserializerFor(JsonContext, TypeUtil, boolean)} depending
+	 * also on the input, so this method does nothing.
 	 */
+	@Deprecated
 	protected void cacheDeserializerFor(TypeUtil hint, JsonDeSer deser) {
-		if (hint != null) {
-			deserializers.lockWrite();
-			try {
-				deserializers.put(hint, new MissHolder<>(deser));
-			} finally {
-				deserializers.unlockWrite();
-			}
-		}
 	}
 
 	/**
@@ -350,19 +454,21 @@ public class ObjectMapper {
 	 */
 	protected void invalidateDeserializerCache(TypeUtil hint) {
 		if (hint != null) {
-			deserializers.lockWrite();
-			try {
-				deserializers.remove(hint);
-			} finally {
-				deserializers.unlockWrite();
+			synchronized (cachesLock) {
+				Map<DeserializerKey,MissHolder<JsonDeSer>> copy = new HashMap<>(deserializers);
+				copy.keySet().removeIf(key -> hint.equals(key.hint));
+				deserializers = copy;
 			}
 		}
 	}
 	
 	public void writeValue(JsonWriter jsonOut, OutField fields, Object obj) {
+		writeValue(jsonOut, fields, obj, createContext());
+	}
+
+	private void writeValue(JsonWriter jsonOut, OutField fields, Object obj, JsonContext ctx) {
 		init();
 		configureWriter(jsonOut);
-		JsonContext ctx = createContext();
 		ctx.initInheritStack(defaultOptions);
 		ctx.setOutput(jsonOut);
 		if (fields == null) fields = new OutField(true);
@@ -371,7 +477,17 @@ public class ObjectMapper {
 	}
 	
 	public void writeValue(Object obj, JsonContext context) {
-		JsonDeSer deser = getSerializerFor(context, obj);
+		writeValue(obj, context, getSerializerFor(context, obj));
+	}
+
+	/**
+	 * Writes a value using an already known serializer, for example one cached by the caller.
+	 *
+	 * @param obj The object to serialize.
+	 * @param context The current serialization context.
+	 * @param deser The serializer to use, as returned by {@link #getSerializerFor(JsonContext, Object)}.
+	 */
+	protected void writeValue(Object obj, JsonContext context, JsonDeSer deser) {
 		if (deser == null) throw new JaliaException("Cannot find a JSON serializer for " + obj + " at " + context.getStateLog());
 		try {
 			deser.serialize(obj, context);
@@ -382,9 +498,27 @@ public class ObjectMapper {
 	
 	
 	public Object readValue(JsonReader jsonIn, Object pre, TypeUtil hint) {
+		return readValue(jsonIn, pre, hint, false);
+	}
+
+	/**
+	 * Reads a value, optionally indexing the input first.
+	 *
+	 * @param jsonIn The reader to read from.
+	 * @param pre The existing value to modify if any, null otherwise.
+	 * @param hint A hint on the expected return type.
+	 * @param inMemory true if the input is already in memory, so it can be indexed if
+	 * {@link DefaultOptions#INDEX_IN_MEMORY_INPUT} is set.
+	 * @return the deserialized object
+	 */
+	protected Object readValue(JsonReader jsonIn, Object pre, TypeUtil hint, boolean inMemory) {
+		return readValue(jsonIn, pre, hint, inMemory, createContext());
+	}
+
+	private Object readValue(JsonReader jsonIn, Object pre, TypeUtil hint, boolean inMemory, JsonContext ctx) {
 		init();
 		configureReader(jsonIn);
-		JsonContext ctx = createContext();
+		jsonIn.setNameTable(nameTable);
 		ctx.initInheritStack(defaultOptions);
 		ctx.setInput(jsonIn);
 		boolean valid;
@@ -407,6 +541,13 @@ public class ObjectMapper {
 				throw new JaliaException("Error parsing raw value", e);
 			}
 		}
+		if (inMemory && (Boolean) defaultOptions.get(DefaultOptions.INDEX_IN_MEMORY_INPUT.toString())) {
+			try {
+				jsonIn.index();
+			} catch (IOException e) {
+				throw new JaliaException("Error parsing " + ctx.getStateLog(), e);
+			}
+		}
 		try {
 			return readValue(ctx, pre, hint);
 		} catch (Exception e) {
@@ -419,13 +560,10 @@ public class ObjectMapper {
 		// Don't consider a hint == Object.class
 		if (hint != null && hint.getType().equals(Object.class)) hint = null;
 
-		// TODO: why is this always false?
-		JsonDeSer deser = getDeserializerFor(ctx, hint, false);
+		JsonDeSer deser = getDeserializerFor(ctx, hint, true);
 		if (deser == null) throw new JaliaException("Cannot find a JSON deserializer for " + pre + " " + hint + " at " + ctx.getStateLog());
 		try {
-			Object ret = deser.deserialize(ctx, pre, hint);
-			cacheDeserializerFor(hint, deser);
-			return ret;
+			return deser.deserialize(ctx, pre, hint);
 		} catch (Throwable t) {
 			if (t instanceof JaliaException) throw (JaliaException)t;
 			throw new JaliaException("Error reading " + ctx.getStateLog(), t);
@@ -435,35 +573,101 @@ public class ObjectMapper {
 	protected JsonContext createContext() {
 		return new JsonContext(this);
 	}
+
+	/**
+	 * Prepares everything needed to serialize and deserialize the given classes, so that the first requests using
+	 * them do not pay for it. For each class this selects its serializer and deserializers, and for beans parses the
+	 * class data, resolves the type hints of its properties and builds its default serialization plan.
+	 * <p>
+	 * Classes are prepared in parallel on the common {@link ForkJoinPool}.
+	 *
+	 * @param classes the classes to prepare, usually the entities of an application
+	 */
+	public void warmUp(Collection<Class<?>> classes) {
+		warmUp(classes, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Same as {@link #warmUp(Collection)}, using the given pool.
+	 *
+	 * @param classes the classes to prepare
+	 * @param pool the pool to run on
+	 */
+	public void warmUp(Collection<Class<?>> classes, ForkJoinPool pool) {
+		init();
+		pool.submit(() -> classes.parallelStream().forEach(this::warmUp)).join();
+	}
+
+	private void warmUp(Class<?> clazz) {
+		JsonContext ctx = createContext();
+		ctx.initInheritStack(defaultOptions);
+		JsonDeSer ser = getSerializerFor(ctx, clazz);
+
+		// Deserializers of a JSON object, with and without an @entity, selected without any input
+		TypeUtil hint = TypeUtil.get(clazz);
+		ctx.setPeeked(JsonToken.BEGIN_OBJECT);
+		for (boolean entity : new boolean[] { false, true }) {
+			if (entity && !mayBeEntity(hint)) continue;
+			DeserializerKey key = new DeserializerKey(hint, JsonToken.BEGIN_OBJECT, entity);
+			if (deserializers.containsKey(key)) continue;
+			ctx.setEntityHeader(new BeanJsonDeSer.EntityHeader(entity ? "" : null, null, null));
+			try {
+				cacheDeserializer(key, selectDeserializer(ctx, hint, true));
+			} catch (NullPointerException e) {
+				// A registered deserializer needs the actual input, it will be selected when reading
+			}
+		}
+
+		if (ser instanceof BeanJsonDeSer) {
+			JsonClassData cd = classDataFactory.getClassData(clazz, ctx);
+			cd.addNamesTo(nameTable);
+			ctx.setRootFields(new OutField(true));
+			boolean onDemand = ctx.getFromStackBoolean(DefaultOptions.ALWAYS_SERIALIZE_ON_DEMAND_ONLY);
+			boolean fromDefaults = false;
+			if (!cd.getGettables().isEmpty() || (onDemand && !cd.getOnDemandGettables().isEmpty())) {
+				fromDefaults = ctx.applyDefaults(cd.getDefaults());
+			}
+			cd.getSerializationPlan(ctx.getCurrentFields(), fromDefaults, onDemand);
+		}
+	}
 	
 	// ---- Utility methods
 
 	public void writeValue(Writer out, OutField fields, Object obj) {
 		init();
-		if (obj == null || nativeDeSer.handlesSerialization(null, obj.getClass()) == 10) {
-			try {
-				nativeDeSer.serializeRaw(obj, out);
-			} catch (IOException e) {
-				throw new IllegalStateException("Error while raw serializing", e);
-			}
-		} else {
+		if (!writeRaw(out, obj)) {
 			JsonWriter jw = new JsonWriter(out);
 			writeValue(jw, fields, obj);
 		}
 	}
 
+	/**
+	 * Writes native values, like numbers and strings, directly without a JsonWriter.
+	 *
+	 * @return true if the value was a native one and has been written
+	 */
+	private boolean writeRaw(Writer out, Object obj) {
+		if (obj != null && nativeDeSer.handlesSerialization(null, obj.getClass()) != 10) return false;
+		try {
+			nativeDeSer.serializeRaw(obj, out,
+					Boolean.TRUE.equals(defaultOptions.get(DefaultOptions.DATES_AS_ISO_STRINGS.toString())));
+		} catch (IOException e) {
+			throw new IllegalStateException("Error while raw serializing", e);
+		}
+		return true;
+	}
+
 	public void writeValue(Writer out, Object obj) {
 		writeValue(out, null, obj);
 	}	
 	
 	public void writeValue(OutputStream out, OutField fields, Object obj) {
-		OutputStreamWriter osw = null;
+		Utf8Writer writer = new Utf8Writer(out);
 		try {
-			osw = new OutputStreamWriter(out, Charset.forName("UTF-8"));
-			writeValue(osw, fields, obj);
+			writeValue(writer, fields, obj);
 		} finally {
 			try {
-				osw.close();
+				writer.close();
 			} catch (Exception ignored) {}
 		}
 	}
@@ -483,38 +687,131 @@ public class ObjectMapper {
 	}
 
 	public byte[] writeValueAsBytes(Object obj, OutField fields) {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(2048);
-		//BufferedOutputStream bos = new BufferedOutputStream(baos);
-		try {
-			writeValue(baos, fields, obj);
-		} finally {
-			try {
-				//bos.flush();
-				baos.close();
-			} catch (IOException ignored) {}
-		}
-		return baos.toByteArray();
+		Utf8Writer writer = new Utf8Writer();
+		writeValue(writer, fields, obj);
+		return writer.toByteArray();
 	}
 	
 	
 	public byte[] writeValueAsBytes(Object obj) {
 		return writeValueAsBytes(obj, null);
 	}
+
+	/**
+	 * Serializes each value as a separate UTF-8 JSON document, passing them to the given sink in order.
+	 * <p>
+	 * The same context, writer and buffer are reused for all the values, so this is faster than calling
+	 * {@link #writeValueAsBytes(Object, OutField)} in a loop when there are many small values.
+	 *
+	 * @param values the values to serialize
+	 * @param fields the fields to serialize for every value, or null for the defaults
+	 * @param sink receives the JSON bytes of each value
+	 */
+	public void writeValues(Collection<?> values, OutField fields, Consumer<byte[]> sink) {
+		init();
+		Utf8Writer writer = new Utf8Writer();
+		JsonWriter jw = new JsonWriter(writer);
+		JsonContext ctx = createContext();
+		for (Object obj : values) {
+			writer.reset();
+			if (!writeRaw(writer, obj)) {
+				jw.reuse(writer);
+				ctx.reset();
+				writeValue(jw, fields, obj, ctx);
+			}
+			sink.accept(writer.toByteArray());
+		}
+	}
+
+	/**
+	 * Serializes each value as a separate UTF-8 JSON document, see
+	 * {@link #writeValues(Collection, OutField, Consumer)}.
+	 *
+	 * @param values the values to serialize
+	 * @param fields the fields to serialize for every value, or null for the defaults
+	 * @return the JSON bytes of each value, in the same order
+	 */
+	public List<byte[]> writeValuesAsBytes(Collection<?> values, OutField fields) {
+		List<byte[]> ret = new ArrayList<>(values.size());
+		writeValues(values, fields, ret::add);
+		return ret;
+	}
 	
 	
 	
+	/**
+	 * Starts writing a JSON array whose elements are written one at a time, see {@link SequenceWriter}.
+	 *
+	 * @param out the writer to write to, closed when the sequence is closed
+	 * @param fields the fields to serialize for every element, or null for the defaults
+	 * @return the sequence writer, to be closed to end the array
+	 */
+	public SequenceWriter writeSequence(Writer out, OutField fields) {
+		init();
+		JsonWriter jw = new JsonWriter(out);
+		configureWriter(jw);
+		JsonContext ctx = createContext();
+		initContext(ctx, jw, fields);
+		return new SequenceWriter(this, ctx, fields, null);
+	}
+
+	/**
+	 * Starts writing a JSON array to a stream, in UTF-8, see {@link #writeSequence(Writer, OutField)}.
+	 */
+	public SequenceWriter writeSequence(OutputStream out, OutField fields) {
+		return writeSequence(new Utf8Writer(out), fields);
+	}
+
+	/**
+	 * Starts writing JSON Lines (also known as NDJSON), one value per line, see {@link SequenceWriter}.
+	 * <p>
+	 * The same writer, context and buffers are used for all the values, so this is faster than calling
+	 * {@link #writeValueAsBytes(Object, OutField)} for each line. {@link DefaultOptions#PRETTY_PRINT} is ignored,
+	 * cause each value must be on a single line.
+	 *
+	 * @param out the writer to write to, closed when the sequence is closed
+	 * @param fields the fields to serialize for every value, or null for the defaults
+	 * @return the sequence writer, to be closed when done
+	 */
+	public SequenceWriter writeLines(Writer out, OutField fields) {
+		init();
+		JsonWriter jw = new JsonWriter(out);
+		configureWriter(jw);
+		jw.setIndent("");
+		// Lenient to write more than one top level value, and native values
+		jw.setLenient(true);
+		JsonContext ctx = createContext();
+		initContext(ctx, jw, fields);
+		return new SequenceWriter(this, ctx, fields, out);
+	}
+
+	/**
+	 * Starts writing JSON Lines to a stream, in UTF-8, see {@link #writeLines(Writer, OutField)}.
+	 */
+	public SequenceWriter writeLines(OutputStream out, OutField fields) {
+		return writeLines(new Utf8Writer(out), fields);
+	}
+
+	/**
+	 * Prepares a context to write to the given writer.
+	 */
+	void initContext(JsonContext ctx, JsonWriter jsonOut, OutField fields) {
+		ctx.initInheritStack(defaultOptions);
+		ctx.setOutput(jsonOut);
+		ctx.setRootFields(fields == null ? new OutField(true) : fields);
+	}
+
 	public <T> T readValue(InputStream in, TypeUtil hint) {
 		return readValue(in, null, hint);
 	}
 	
 	public <T> T readValue(InputStream in, T pre, TypeUtil hint) {
-		InputStreamReader isr = null;
+		Utf8Reader reader = new Utf8Reader(in);
 		try {
-			isr = new InputStreamReader(in, Charset.forName("UTF-8"));
-			return readValue(isr, pre, hint);
+			return readValue(reader, pre, hint);
 		} finally {
 			try {
-				isr.close();
+				reader.close();
 			} catch (Exception ignored) {}
 		}
 	}	
@@ -532,6 +829,17 @@ public class ObjectMapper {
 	}
 	
 	public <T> T readValue(Reader r, T pre, TypeUtil hint) {
+		return readValue(r, pre, hint, false);
+	}
+
+	private <T> T readValue(Reader r, T pre, TypeUtil hint, boolean inMemory) {
+		return readValue(r, pre, hint, inMemory, null, null);
+	}
+
+	/**
+	 * Reads a value, reusing the given reader and context if not null.
+	 */
+	private <T> T readValue(Reader r, T pre, TypeUtil hint, boolean inMemory, JsonReader reuse, JsonContext ctx) {
 		// Special case when we know we expect a string
 		if (hint != null && hint.isCharSequence()) {
 			StringWriter sw = new StringWriter();
@@ -546,8 +854,14 @@ public class ObjectMapper {
 			}
 			return (T)sw.toString();
 		}
-		JsonReader reader = new JsonReader(r);
-		return (T)readValue(reader, pre, hint);
+		if (reuse == null) {
+			return (T)readValue(new JsonReader(r), pre, hint, inMemory);
+		}
+		reuse.reuse(r);
+		ctx.reset();
+		@SuppressWarnings("unchecked")
+		T ret = (T)readValue(reuse, pre, hint, inMemory, ctx);
+		return ret;
 	}
 
 	public <T> T readValue(String json, TypeUtil hint) {
@@ -556,7 +870,7 @@ public class ObjectMapper {
 	
 	public <T> T readValue(String json, T pre, TypeUtil hint) {
 		StringReader reader = new StringReader(json);
-		return readValue(reader, pre, hint);
+		return readValue(reader, pre, hint, true);
 	}
 
 	public <T> T readValue(String json, Class<T> clazz) {
@@ -572,14 +886,110 @@ public class ObjectMapper {
 	}
 	
 	public <T> T readValue(byte[] json, T pre, TypeUtil hint) {
-		ByteArrayInputStream bais = new ByteArrayInputStream(json);
-		try {
-			return readValue(bais, pre, hint);
-		} finally {
-			try {
-				bais.close();
-			} catch (IOException ignored) {}
+		return readValue(new Utf8Reader(json), pre, hint, true);
+	}
+
+	/**
+	 * Deserializes each given UTF-8 JSON document.
+	 * <p>
+	 * The same context and reader buffers are reused for all the documents, so this is faster than calling
+	 * {@link #readValue(byte[], TypeUtil)} in a loop when there are many small documents.
+	 *
+	 * @param jsons the JSON documents
+	 * @param hint A hint on the expected type of each value.
+	 * @return the deserialized values, in the same order
+	 */
+	public <T> List<T> readValues(List<byte[]> jsons, TypeUtil hint) {
+		List<T> ret = new ArrayList<>(jsons.size());
+		JsonReader reader = null;
+		JsonContext ctx = createContext();
+		for (byte[] json : jsons) {
+			Utf8Reader in = new Utf8Reader(json);
+			if (reader == null) reader = new JsonReader(in);
+			ret.add(readValue(in, null, hint, true, reader, ctx));
 		}
+		return ret;
+	}
+
+	public <T> List<T> readValues(List<byte[]> jsons, Class<T> clazz) {
+		return readValues(jsons, TypeUtil.get(clazz));
+	}
+
+	/**
+	 * Reads the elements of a JSON array one at a time, see {@link SequenceReader}.
+	 *
+	 * @param r the reader to read from, closed when the sequence is closed
+	 * @param hint A hint on the expected type of each element.
+	 * @return an iterator on the elements, to be closed when done
+	 */
+	public <T> SequenceReader<T> readValues(Reader r, TypeUtil hint) {
+		return readSequence(r, hint, false);
+	}
+
+	private <T> SequenceReader<T> readSequence(Reader r, TypeUtil hint, boolean lines) {
+		init();
+		JsonReader jsonIn = new JsonReader(r);
+		configureReader(jsonIn);
+		jsonIn.setNameTable(nameTable);
+		JsonContext ctx = createContext();
+		ctx.initInheritStack(defaultOptions);
+		ctx.setInput(jsonIn);
+		return new SequenceReader<>(this, ctx, hint, lines);
+	}
+
+	public <T> SequenceReader<T> readValues(Reader r, Class<T> clazz) {
+		return readValues(r, TypeUtil.get(clazz));
+	}
+
+	public <T> SequenceReader<T> readValues(InputStream in, TypeUtil hint) {
+		return readValues(new Utf8Reader(in), hint);
+	}
+
+	public <T> SequenceReader<T> readValues(InputStream in, Class<T> clazz) {
+		return readValues(in, TypeUtil.get(clazz));
+	}
+
+	public <T> SequenceReader<T> readValues(byte[] json, TypeUtil hint) {
+		return readValues(new Utf8Reader(json), hint);
+	}
+
+	public <T> SequenceReader<T> readValues(byte[] json, Class<T> clazz) {
+		return readValues(json, TypeUtil.get(clazz));
+	}
+
+	/**
+	 * Reads JSON Lines (also known as NDJSON), or any other stream of concatenated JSON values, one value at a time.
+	 * <p>
+	 * The same reader and context are used for all the values, so this is faster than calling
+	 * {@link #readValue(byte[], TypeUtil)} for each line. The input is read in lenient mode, which is needed to accept
+	 * more than one top level value.
+	 *
+	 * @param r the reader to read from, closed when the sequence is closed
+	 * @param hint A hint on the expected type of each value.
+	 * @return an iterator on the values, to be closed when done
+	 */
+	public <T> SequenceReader<T> readLines(Reader r, TypeUtil hint) {
+		return readSequence(r, hint, true);
+	}
+
+	public <T> SequenceReader<T> readLines(Reader r, Class<T> clazz) {
+		return readLines(r, TypeUtil.get(clazz));
+	}
+
+	public <T> SequenceReader<T> readLines(InputStream in, TypeUtil hint) {
+		return readLines(new Utf8Reader(in), hint);
+	}
+
+	public <T> SequenceReader<T> readLines(InputStream in, Class<T> clazz) {
+		return readLines(in, TypeUtil.get(clazz));
+	}
+
+	public <T> SequenceReader<T> readLines(byte[] json, TypeUtil hint) {
+		return readLines(new Utf8Reader(json), hint);
+	}
+
+	public <T> SequenceReader<T> readLines(byte[] json, Class<T> clazz) {
+		return readLines(json, TypeUtil.get(clazz));
 	}
 
 	public <T> T readValue(byte[] json, Class<T> clazz) {
@@ -603,4 +1013,31 @@ public class ObjectMapper {
 	public <T> T readValue(String json, T pre) {
 		return readValue(json, pre, pre == null ? null : TypeUtil.get(pre.getClass()));
 	}
+
+	/**
+	 * Key of the deserializers cache.
+	 */
+	private static final class DeserializerKey {
+		private final TypeUtil hint;
+		private final JsonToken token;
+		private final boolean entity;
+
+		DeserializerKey(TypeUtil hint, JsonToken token, boolean entity) {
+			this.hint = hint;
+			this.token = token;
+			this.entity = entity;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((hint == null ? 0 : hint.hashCode()) * 31 + token.hashCode()) * 2 + (entity ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof DeserializerKey)) return false;
+			DeserializerKey oth = (DeserializerKey) obj;
+			return token == oth.token && entity == oth.entity && (hint == null ? oth.hint == null : hint.equals(oth.hint));
+		}
+	}
 }
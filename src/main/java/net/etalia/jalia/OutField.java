@@ -60,6 +60,11 @@ public class OutField {
 	 */
 	private boolean explicit;
 
+	/**
+	 * Last serialization plan built for this definition, discarded when this definition changes.
+	 */
+	private volatile SerializationPlan plan;
+
 	/**
 	 * @param parent the parent definition
 	 * @param name the field name
@@ -100,6 +105,7 @@ public class OutField {
 	 */
 	public void setAll(boolean all) {
 		this.all = all;
+		plan = null;
 	}
 
 	/**
@@ -139,6 +145,7 @@ public class OutField {
 		if (subs == null) {
 			subs = new HashMap<>();
 		}
+		plan = null;
 		int di = name.indexOf('.');
 		String mname = name;
 		if (di > -1) {
@@ -390,9 +397,18 @@ public class OutField {
 		}
 		subs.clear();
 		subs.put(name, nc);
+		plan = null;
 		return nc;
 	}
 
+	SerializationPlan getPlan() {
+		return plan;
+	}
+
+	void setPlan(SerializationPlan plan) {
+		this.plan = plan;
+	}
+
 	/**
 	 * @return true if this OutField must include all of the found fields
 	 */
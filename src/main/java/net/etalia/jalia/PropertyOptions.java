@@ -0,0 +1,40 @@
+package net.etalia.jalia;
+
+import java.util.Map;
+
+/**
+ * The options of a property, see {@link JsonClassData#getOptions(String)}, with their names already resolved to
+ * {@link ContextKey}s, so that they can be put in the local stack of a {@link JsonContext} without any lookup.
+ * <p>
+ * Instances are built once per class and property, and are immutable.
+ */
+final class PropertyOptions {
+
+	static final PropertyOptions EMPTY = new PropertyOptions(new ContextKey[0], new Object[0]);
+
+	final ContextKey[] keys;
+
+	final Object[] values;
+
+	private PropertyOptions(ContextKey[] keys, Object[] values) {
+		this.keys = keys;
+		this.values = values;
+	}
+
+	/**
+	 * @param options the options of a property, can be null
+	 * @return the resolved options
+	 */
+	static PropertyOptions of(Map<String, Object> options) {
+		if (options == null || options.isEmpty()) return EMPTY;
+		ContextKey[] keys = new ContextKey[options.size()];
+		Object[] values = new Object[keys.length];
+		int i = 0;
+		for (Map.Entry<String, Object> entry : options.entrySet()) {
+			keys[i] = ContextKey.get(entry.getKey());
+			values[i] = entry.getValue();
+			i++;
+		}
+		return new PropertyOptions(keys, values);
+	}
+}
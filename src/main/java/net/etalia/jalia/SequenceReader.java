@@ -0,0 +1,137 @@
+package net.etalia.jalia;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import net.etalia.jalia.stream.JsonReader;
+import net.etalia.jalia.stream.JsonToken;
+
+/**
+ * Reads the elements of a JSON array one at a time, for arrays too big to be deserialized in a single collection,
+ * like bulk imports.
+ * <p>
+ * Each element is deserialized only when requested by {@link #next()}, so the elements themselves are not collected.
+ * All the elements are read with the same {@link JsonContext}, as elements of a list are, so entities are resolved
+ * by <code>@entity</code> and id as usual: this also means that every entity deserialized so far is kept in the
+ * context, to be found when its id appears again, and memory grows with the number of distinct entities read. For
+ * sequences of unrelated elements use {@link #setForgetEntities(boolean)}, so that only the current element is
+ * retained.
+ * <p>
+ * Get one from {@link ObjectMapper#readValues(java.io.Reader, TypeUtil)}, and close it to close the underlying
+ * reader. Not thread safe.
+ * <p>
+ * When obtained from {@link ObjectMapper#readLines(java.io.Reader, TypeUtil)} it reads a stream of concatenated top
+ * level values, like JSON Lines, instead of an array.
+ *
+ * @param <T> the type of the elements
+ */
+public class SequenceReader<T> implements Iterator<T>, Closeable {
+
+	private final ObjectMapper mapper;
+
+	private final JsonContext context;
+
+	private final JsonReader input;
+
+	private final TypeUtil hint;
+
+	/**
+	 * True when reading concatenated top level values instead of an array.
+	 */
+	private final boolean lines;
+
+	private boolean done;
+
+	private boolean forgetEntities;
+
+	SequenceReader(ObjectMapper mapper, JsonContext context, TypeUtil hint, boolean lines) {
+		this.mapper = mapper;
+		this.context = context;
+		this.input = context.getInput();
+		this.hint = hint;
+		this.lines = lines;
+		if (lines) {
+			input.setLenient(true);
+			return;
+		}
+		try {
+			JsonToken token = input.peek();
+			if (token != JsonToken.BEGIN_ARRAY) {
+				throw new JaliaException("Expected a JSON array but found " + token);
+			}
+			input.beginArray();
+		} catch (IOException e) {
+			throw new JaliaException("Error reading sequence", e);
+		}
+	}
+
+	/**
+	 * Sets whether entities deserialized in previous elements are forgotten before reading the next one. When set,
+	 * an entity referenced again by id in a later element is not resolved to the instance read before.
+	 *
+	 * @param forgetEntities true to forget entities between elements
+	 * @return this same instance to support fluent calls.
+	 */
+	public SequenceReader<T> setForgetEntities(boolean forgetEntities) {
+		this.forgetEntities = forgetEntities;
+		return this;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (done) return false;
+		try {
+			if (lines) {
+				try {
+					if (input.peek() != JsonToken.END_DOCUMENT) return true;
+				} catch (EOFException e) {
+					// Empty or blank input, an empty stream of lines
+				}
+			} else {
+				if (input.hasNext()) return true;
+				input.endArray();
+			}
+		} catch (IOException e) {
+			throw new JaliaException("Error reading " + context.getStateLog(), e);
+		}
+		done = true;
+		return false;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		if (forgetEntities) BeanJsonDeSer.forgetDeserialized(context);
+		return (T) mapper.readValue(context, null, hint);
+	}
+
+	/**
+	 * @return a sequential stream of the remaining elements, which must be consumed only once, closing it closes
+	 * this sequence
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+				.onClose(this::close);
+	}
+
+	/**
+	 * Stops reading and closes the underlying reader.
+	 */
+	@Override
+	public void close() {
+		done = true;
+		try {
+			input.close();
+		} catch (IOException e) {
+			throw new JaliaException("Error closing sequence", e);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package net.etalia.jalia;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+
+import net.etalia.jalia.stream.JsonWriter;
+
+/**
+ * Writes a JSON array one element at a time, for sequences too big to be materialized in a collection, like rows
+ * read from a database cursor.
+ * <p>
+ * All the elements are written with the same {@link JsonContext}, as elements of a list are, so entities already sent
+ * are written again only by id unless {@link DefaultOptions#UNROLL_OBJECTS} is set. The output is flushed every
+ * {@link #setFlushEvery(int)} elements.
+ * <p>
+ * Get one from {@link ObjectMapper#writeSequence(java.io.Writer, OutField)}, and close it to end the array. Not
+ * thread safe.
+ * <p>
+ * When obtained from {@link ObjectMapper#writeLines(java.io.Writer, OutField)} it writes JSON Lines instead, each
+ * element as a complete document followed by a newline. The context is reset for each element, so each line is
+ * self contained.
+ */
+public class SequenceWriter implements Closeable, Flushable {
+
+	private final ObjectMapper mapper;
+
+	private final JsonContext context;
+
+	private final JsonWriter output;
+
+	private final OutField fields;
+
+	/**
+	 * The writer lines are written to, null when writing an array.
+	 */
+	private final Writer lines;
+
+	private int flushEvery = ListJsonDeSer.DEFAULT_FLUSH_EVERY;
+
+	private int count;
+
+	private boolean closed;
+
+	private final SerializerCache serializer = new SerializerCache();
+
+	SequenceWriter(ObjectMapper mapper, JsonContext context, OutField fields, Writer lines) {
+		this.mapper = mapper;
+		this.context = context;
+		this.output = context.getOutput();
+		this.fields = fields;
+		this.lines = lines;
+		if (lines != null) return;
+		try {
+			output.beginArray();
+		} catch (IOException e) {
+			throw new JaliaException("Error writing sequence", e);
+		}
+	}
+
+	/**
+	 * Sets the number of elements after which the output is flushed, 0 to flush only when closing.
+	 *
+	 * @param flushEvery number of elements between flushes
+	 * @return this same instance to support fluent calls.
+	 */
+	public SequenceWriter setFlushEvery(int flushEvery) {
+		this.flushEvery = flushEvery;
+		return this;
+	}
+
+	/**
+	 * @return the number of elements written so far
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Writes an element.
+	 *
+	 * @param value the element to write, can be null
+	 * @return this same instance to support fluent calls.
+	 */
+	public SequenceWriter write(Object value) {
+		if (closed) throw new IllegalStateException("Sequence already closed");
+		if (lines != null && count > 0) {
+			context.reset();
+			mapper.initContext(context, output, fields);
+		}
+		mapper.writeValue(value, context, serializer.get(context, value));
+		if (lines != null) {
+			try {
+				lines.write('\n');
+			} catch (IOException e) {
+				throw new JaliaException("Error writing sequence", e);
+			}
+		}
+		count++;
+		if (flushEvery > 0 && count % flushEvery == 0) {
+			flush();
+		}
+		return this;
+	}
+
+	/**
+	 * Writes all the elements produced by an iterator.
+	 *
+	 * @param values the elements to write
+	 * @return this same instance to support fluent calls.
+	 */
+	public SequenceWriter writeAll(Iterator<?> values) {
+		while (values.hasNext()) {
+			write(values.next());
+		}
+		return this;
+	}
+
+	/**
+	 * Writes all the elements of an iterable.
+	 *
+	 * @param values the elements to write
+	 * @return this same instance to support fluent calls.
+	 */
+	public SequenceWriter writeAll(Iterable<?> values) {
+		return writeAll(values.iterator());
+	}
+
+	@Override
+	public void flush() {
+		try {
+			output.flush();
+		} catch (IOException e) {
+			throw new JaliaException("Error flushing sequence", e);
+		}
+	}
+
+	/**
+	 * Ends the array, if writing one, and closes the underlying writer. No lines at all is an empty stream, which is
+	 * valid JSON Lines but an incomplete document for the {@link JsonWriter}, so in that case the writer is closed
+	 * directly.
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		try {
+			if (lines != null && count == 0) {
+				lines.close();
+				return;
+			}
+			if (lines == null) output.endArray();
+			output.close();
+		} catch (IOException e) {
+			throw new JaliaException("Error closing sequence", e);
+		}
+	}
+}
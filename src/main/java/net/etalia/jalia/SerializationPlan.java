@@ -0,0 +1,210 @@
+package net.etalia.jalia;
+
+import java.io.IOException;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import net.etalia.jalia.stream.JsonWriter;
+import net.etalia.jalia.stream.PreEncodedString;
+
+/**
+ * Pre-computed list of properties to serialize for a class, given the {@link OutField} definition at the current
+ * serialization step.
+ * <p>
+ * This replicates what {@link BeanJsonDeSer} would otherwise compute for each serialized object: which getters are
+ * selected by the OutField, in which order, their options and their accessors. Plans are cached on the
+ * {@link OutField} they were built for, or on the {@link JsonClassData} when the OutField is a "*" one or is filled
+ * with the default fields of the class.
+ */
+final class SerializationPlan {
+
+	/**
+	 * The class data this plan was built on.
+	 */
+	final JsonClassData classData;
+
+	/**
+	 * Version of the class data when this plan was built, see {@link JsonClassData#planVersion}.
+	 */
+	final int version;
+
+	/**
+	 * Whether on-demand-only properties were included.
+	 */
+	final boolean onDemand;
+
+	/**
+	 * Properties to serialize, in order.
+	 */
+	final PlannedProperty[] properties;
+
+	/**
+	 * Names that are explicitly requested by the OutField but are not visible getters, these are handled dynamically
+	 * cause their serialization depends on options like {@link DefaultOptions#OVERRIDE_IGNORES}.
+	 */
+	final String[] extras;
+
+	private SerializationPlan(JsonClassData classData, boolean onDemand, PlannedProperty[] properties,
+			String[] extras) {
+		this.classData = classData;
+		this.version = classData.planVersion;
+		this.onDemand = onDemand;
+		this.properties = properties;
+		this.extras = extras;
+	}
+
+	/**
+	 * @return true if this plan can be used for the given class data
+	 */
+	boolean isFor(JsonClassData cd, boolean onDemand) {
+		return classData == cd && this.onDemand == onDemand && version == cd.planVersion;
+	}
+
+	/**
+	 * Builds a plan. The OutField must already have default fields applied, see
+	 * {@link JsonContext#applyDefaults(java.util.Collection)}.
+	 *
+	 * @param cd the class data of the class to serialize
+	 * @param fields the OutField at the current serialization step
+	 * @param onDemand true if on-demand-only properties must be serialized
+	 * @param shared true if the plan will be used for other OutFields having the same shape
+	 * @return the plan
+	 */
+	static SerializationPlan build(JsonClassData cd, OutField fields, boolean onDemand, boolean shared) {
+		List<String> toSend = cd.getSortedGettables();
+		if (onDemand) {
+			toSend.addAll(cd.getOnDemandGettables());
+		}
+		boolean all = fields.isAll();
+		boolean direct = cd.hasDefaultGetterHooks();
+		List<PlannedProperty> props = new ArrayList<>(toSend.size());
+		for (String name : toSend) {
+			OutField sub = null;
+			if (!all) {
+				sub = fields.getSub(name);
+				if (sub == null) continue;
+				if (shared) sub = null;
+			}
+			Method getter = cd.getGetter(name);
+			MethodAccessor.Getter accessor = (direct && getter != null) ? cd.getGetterAccessor(getter) : null;
+			props.add(new PlannedProperty(name, cd.getEncodedName(name), sub, accessor, cd.getPropertyOptions(name)));
+		}
+		Set<String> sent = new HashSet<>(toSend);
+		List<String> extras = new ArrayList<>();
+		for (String name : fields.getSubsNames()) {
+			if (!sent.contains(name)) extras.add(name);
+		}
+		return new SerializationPlan(cd, onDemand, props.toArray(new PlannedProperty[props.size()]),
+				extras.toArray(new String[extras.size()]));
+	}
+
+	/**
+	 * A property to serialize.
+	 */
+	static final class PlannedProperty {
+
+		static final int KIND_OBJECT = 0;
+		static final int KIND_LONG = 1;
+		static final int KIND_DOUBLE = 2;
+		static final int KIND_BOOLEAN = 3;
+
+		final String name;
+
+		final PreEncodedString encodedName;
+
+		/**
+		 * The OutField to move into, or null if it must be searched in the current OutField each time, cause the plan
+		 * is shared or the current OutField is a "*" one.
+		 */
+		final OutField fields;
+
+		/**
+		 * The accessor for the getter, or null if the class data overrides the getValue hooks and they must be used.
+		 */
+		final MethodAccessor.Getter accessor;
+
+		/**
+		 * How the value can be written without boxing, one of the KIND_ constants.
+		 */
+		final int kind;
+
+		final PropertyOptions options;
+
+		/**
+		 * Last used serializer, since most of the properties always hold the same class.
+		 */
+		final SerializerCache serializer = new SerializerCache();
+
+		/**
+		 * The boxed type of a primitive property, and its serializer, to check it is the native one.
+		 */
+		private final Class<?> boxedType;
+		private final SerializerCache primitiveSerializer = new SerializerCache();
+
+		PlannedProperty(String name, PreEncodedString encodedName, OutField fields, MethodAccessor.Getter accessor,
+				PropertyOptions options) {
+			this.name = name;
+			this.encodedName = encodedName;
+			this.fields = fields;
+			this.accessor = accessor;
+			this.options = options;
+			this.kind = accessor == null ? KIND_OBJECT : kindOf(accessor.getValueType());
+			this.boxedType = kind == KIND_OBJECT ? null : MethodType.methodType(accessor.getValueType()).wrap().returnType();
+		}
+
+		private static int kindOf(Class<?> type) {
+			if (type == Integer.TYPE || type == Long.TYPE || type == Short.TYPE || type == Byte.TYPE) return KIND_LONG;
+			if (type == Double.TYPE) return KIND_DOUBLE;
+			if (type == Boolean.TYPE) return KIND_BOOLEAN;
+			return KIND_OBJECT;
+		}
+
+		/**
+		 * Writes the value of a primitive property straight to the output, without boxing it.
+		 *
+		 * @return false if the property is not a primitive one, or its values are not written by the native
+		 * serializer, and must be written with {@link #getValue(JsonClassData, Object)}
+		 */
+		boolean writePrimitive(JsonContext context, Object obj) throws IOException {
+			if (kind == KIND_OBJECT) return false;
+			if (!(primitiveSerializer.get(context, boxedType) instanceof NativeJsonDeSer)) return false;
+			JsonWriter output = context.getOutput();
+			try {
+				if (kind == KIND_LONG) {
+					long val = accessor.getLong(obj);
+					output.value(val);
+				} else if (kind == KIND_DOUBLE) {
+					double val = accessor.getDouble(obj);
+					output.value(val);
+				} else {
+					boolean val = accessor.getBoolean(obj);
+					output.value(val);
+				}
+			} catch (IOException e) {
+				throw e;
+			} catch (Throwable e) {
+				// Same as JsonClassData.getValue
+				output.nullValue();
+			}
+			return true;
+		}
+
+		/**
+		 * Reads the value of the property.
+		 */
+		Object getValue(JsonClassData cd, Object obj) {
+			if (accessor == null) {
+				return cd.getValue(name, obj);
+			}
+			try {
+				return accessor.get(obj);
+			} catch (Throwable e) {
+				// Same as JsonClassData.getValue
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package net.etalia.jalia;
+
+/**
+ * Remembers the serializer found for the last class written, since consecutive values, like the elements of a list or
+ * the values of a property, are usually of the same class.
+ * <p>
+ * The mapper is part of the cached entry, so that a cache kept in shared state, like a {@link SerializationPlan}, is
+ * correct when used by more than one mapper. Entries are immutable and replaced atomically, so instances are thread
+ * safe.
+ */
+final class SerializerCache {
+
+	private volatile Entry last;
+
+	/**
+	 * Finds the serializer for a value, see {@link ObjectMapper#getSerializerFor(JsonContext, Object)}.
+	 *
+	 * @param context The current serialization context.
+	 * @param value The value to serialize, can be null.
+	 * @return the serializer, reusing the last one if the value has the same class.
+	 */
+	JsonDeSer get(JsonContext context, Object value) {
+		ObjectMapper mapper = context.getMapper();
+		Class<?> clazz = value == null ? null : value.getClass();
+		Entry entry = last;
+		if (entry != null && entry.mapper == mapper && entry.clazz == clazz) {
+			return entry.deser;
+		}
+		JsonDeSer deser = mapper.getSerializerFor(context, value);
+		last = new Entry(mapper, clazz, deser);
+		return deser;
+	}
+
+	/**
+	 * Finds the serializer for a class, see {@link ObjectMapper#getSerializerFor(JsonContext, Class)}.
+	 *
+	 * @param context The current serialization context.
+	 * @param clazz The class to serialize.
+	 * @return the serializer, reusing the last one if the class is the same.
+	 */
+	JsonDeSer get(JsonContext context, Class<?> clazz) {
+		ObjectMapper mapper = context.getMapper();
+		Entry entry = last;
+		if (entry != null && entry.mapper == mapper && entry.clazz == clazz) {
+			return entry.deser;
+		}
+		JsonDeSer deser = mapper.getSerializerFor(context, clazz);
+		last = new Entry(mapper, clazz, deser);
+		return deser;
+	}
+
+	private static final class Entry {
+		final ObjectMapper mapper;
+		final Class<?> clazz;
+		final JsonDeSer deser;
+
+		Entry(ObjectMapper mapper, Class<?> clazz, JsonDeSer deser) {
+			this.mapper = mapper;
+			this.clazz = clazz;
+			this.deser = deser;
+		}
+	}
+}
@@ -7,8 +7,8 @@ import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
 import java.lang.reflect.WildcardType;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -77,44 +77,78 @@ public class TypeUtil {
 	 */
 	private final Type type;
 	
-	// Caches
 	/**
-	 * Cached concrete Class, if applicable.
+	 * The concrete Class, if applicable, null otherwise.
 	 */
-	private Class<?> concrete;
+	private final Class<?> concrete;
 
+	// Caches, instances are shared between threads so lazily computed values are volatile
 	/**
 	 * Cached method return types.
 	 */
-	private final Map<String,MissHolder<TypeUtil>> returnTypes = new HashMap<>();
+	private final Map<String,MissHolder<TypeUtil>> returnTypes = new ConcurrentHashMap<>();
 
 	/**
-	 * Cached enum values, if this TypeUtil represents an Enum.
+	 * Cached value, true if the type this instance if handling is instantiatable.
 	 */
-	private Enum<?>[] enums;
+	private volatile Boolean isInstantiatableCache;
 
 	/**
-	 * Cached value, true if the type this instance is handling has a concrete type.
+	 * Cached value of the inner type of an array, list or set.
 	 */
-	private Boolean hasConcreteCache;
+	private volatile TypeUtil inner;
 
 	/**
-	 * Cached value, true if the type this instance if handling is instantiatable.
+	 * Cached value of the type of values of a {@link Map}.
 	 */
-	private Boolean isInstantiatableCache;
+	private volatile MissHolder<TypeUtil> mapValue;
 
 	/**
-	 * Cached value of the inner type of an array, list or set.
+	 * The element type given to {@link #getList(Type, Type)}, null for instances returned by {@link #get(Type)}.
 	 */
-	private TypeUtil inner;
+	private final TypeUtil explicitInner;
 	
 	private TypeUtil(Type type) {
 		this.type = type;
+		this.concrete = concreteOf(type);
+		this.explicitInner = null;
 	}
 
 	private TypeUtil(Type type, Type inner) {
 		this.type = type;
+		this.concrete = concreteOf(type);
 		this.inner = get(inner);
+		this.explicitInner = this.inner;
+	}
+
+	private static Class<?> concreteOf(Type type) {
+		try {
+			if (type instanceof Class) {
+				return (Class<?>)type;
+			} else if (type instanceof ParameterizedType) {
+				return (Class<?>)((ParameterizedType) type).getRawType();
+			} else if (type instanceof WildcardType) {
+				return (Class<?>)((WildcardType) type).getUpperBounds()[0];
+			}
+		} catch (ClassCastException ignored) {
+		}
+		return null;
+	}
+
+	/**
+	 * Computes in advance the values otherwise computed on first use, so that this instance can be used without
+	 * further reflection.
+	 */
+	void precompute() {
+		if (concrete == null) return;
+		isInstantiatable();
+		if (isEnum()) {
+			EnumValues.of(concrete);
+		}
+		TypeUtil inner = getArrayListOrSetType();
+		if (inner != null) inner.isInstantiatable();
+		TypeUtil value = getMapValueType();
+		if (value != null) value.isInstantiatable();
 	}
 
 	/**
@@ -131,14 +165,7 @@ public class TypeUtil {
 	 * @throws IllegalArgumentException if concrete type cannot be extrapolated
 	 */
 	public Class<?> getConcrete() {
-		if (concrete != null) return concrete;
-		if (type instanceof Class) {
-			concrete = (Class<?>)type;
-		} else if (type instanceof ParameterizedType) {
-			concrete = (Class<?>)((ParameterizedType) type).getRawType();
-		} else if (type instanceof WildcardType) {
-			concrete = (Class<?>)((WildcardType) type).getUpperBounds()[0];
-		} else throw new IllegalArgumentException("Can't parse type " + type);		
+		if (concrete == null) throw new IllegalArgumentException("Can't parse type " + type);
 		return concrete;
 	}
 
@@ -146,14 +173,7 @@ public class TypeUtil {
 	 * @return true if there is a concrete (plain Class) extrapolable
 	 */
 	public boolean hasConcrete() {
-		if (hasConcreteCache != null) return hasConcreteCache;
-		try {
-			getConcrete();
-			hasConcreteCache = true;
-		} catch (Exception e) {
-			hasConcreteCache = false;
-		}
-		return hasConcreteCache;
+		return concrete != null;
 	}
 
 	/**
@@ -317,11 +337,7 @@ public class TypeUtil {
 	 * @throws IllegalStateException in case the value cannot be found
 	 */
 	public Enum<?> getEnumValue(String val) {
-		if (enums == null) enums=(Enum<?>[]) getConcrete().getEnumConstants();
-		for (Enum<?> v : enums) {
-			if (v.name().equals(val)) return v;
-		}
-		throw new IllegalStateException("Cannot find enum value : " + getConcrete().getName() + "." + val);
+		return EnumValues.of(getConcrete()).get(val);
 	}
 
 	/**
@@ -352,6 +368,13 @@ public class TypeUtil {
 		return BigDecimal.class.isAssignableFrom(getConcrete());
 	}
 
+	/**
+	 * @return true if this type is a {@link BigInteger}
+	 */
+	public boolean isBigInteger() {
+		return BigInteger.class.isAssignableFrom(getConcrete());
+	}
+
 	/**
 	 * @return true if this type is a integer (primitive int or Integer)
 	 */
@@ -405,8 +428,9 @@ public class TypeUtil {
 	 * "Person"
 	 */
 	public TypeUtil getArrayType() {
+		TypeUtil inner = this.inner;
 		if (inner == null) {
-			inner = get(getConcrete().getComponentType());
+			this.inner = inner = get(getConcrete().getComponentType());
 		}
 		return inner;
 	}
@@ -423,16 +447,34 @@ public class TypeUtil {
 	 * return the TypeUtil handling "String"
 	 */
 	public TypeUtil getListOrSetType() {
+		TypeUtil inner = this.inner;
 		if (inner == null) {
 			if (List.class.isAssignableFrom(getConcrete())) {
 				inner = findReturnTypeOf("get", Integer.TYPE);
 			} else if (Set.class.isAssignableFrom(getConcrete())) {
 				inner = findParameterOf("add", 0);
 			}
+			this.inner = inner;
 		}
 		return inner;
 	}
 
+	/**
+	 * @return the type of the values of a {@link Map}, for example for "Map&lt;String,Person&gt;" it will return the
+	 * TypeUtil handling "Person", or null if this is not a map or the type cannot be resolved
+	 */
+	public TypeUtil getMapValueType() {
+		MissHolder<TypeUtil> ret = mapValue;
+		if (ret == null) {
+			TypeUtil found = null;
+			if (hasConcrete() && Map.class.isAssignableFrom(concrete)) {
+				found = findReturnTypeOf("remove", Object.class);
+			}
+			mapValue = ret = new MissHolder<>(found);
+		}
+		return ret.getVal();
+	}
+
 	/**
 	 * @return get the constituent type of this array or {@link List} or {@link Set}
 	 */
@@ -473,6 +515,20 @@ public class TypeUtil {
 		}
 	}
 	
+	@Override
+	public int hashCode() {
+		return type.hashCode() * 31 + (explicitInner == null ? 0 : explicitInner.hashCode());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof TypeUtil)) return false;
+		TypeUtil oth = (TypeUtil) obj;
+		if (!type.equals(oth.type)) return false;
+		return explicitInner == null ? oth.explicitInner == null : explicitInner.equals(oth.explicitInner);
+	}
+
 	@Override
 	public String toString() {
 		return "TypeUtil[" + type + "]";
@@ -0,0 +1,23 @@
+package net.etalia.jalia.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Requests the class data of a class to be generated at compile time by
+ * {@link net.etalia.jalia.processor.CodecProcessor}, which is registered as an annotation processor and runs
+ * whenever Jalia is on the compile classpath.
+ * <p>
+ * Properties, names and options are resolved from the other annotations when compiling, and getters and setters are
+ * called directly, without reflection. The generated class data is used automatically.
+ *
+ * @see net.etalia.jalia.GeneratedCodecs
+ */
+
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.CLASS)
+public @interface JsonCodec {
+
+}
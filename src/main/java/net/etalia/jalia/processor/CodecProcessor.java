@@ -0,0 +1,599 @@
+package net.etalia.jalia.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+
+import net.etalia.jalia.BeanJsonDeSer;
+import net.etalia.jalia.DefaultOptions;
+import net.etalia.jalia.GeneratedCodecs;
+import net.etalia.jalia.ListJsonDeSer;
+import net.etalia.jalia.MapJsonDeSer;
+import net.etalia.jalia.annotations.JsonAllowEntityPropertyChanges;
+import net.etalia.jalia.annotations.JsonAllowNewInstances;
+import net.etalia.jalia.annotations.JsonCodec;
+import net.etalia.jalia.annotations.JsonCollection;
+import net.etalia.jalia.annotations.JsonDefaultFields;
+import net.etalia.jalia.annotations.JsonGetter;
+import net.etalia.jalia.annotations.JsonIgnore;
+import net.etalia.jalia.annotations.JsonIgnoreProperties;
+import net.etalia.jalia.annotations.JsonInclude;
+import net.etalia.jalia.annotations.JsonInclude.Include;
+import net.etalia.jalia.annotations.JsonMap;
+import net.etalia.jalia.annotations.JsonOnDemandOnly;
+import net.etalia.jalia.annotations.JsonRequireIdForReuse;
+import net.etalia.jalia.annotations.JsonSetter;
+
+/**
+ * Generates the class data of each class annotated with {@link JsonCodec}.
+ * <p>
+ * Annotations are parsed at compile time following the same rules {@link net.etalia.jalia.JsonClassData} uses at
+ * runtime, and the generated class data fills getters, setters, defaults and options directly. It also has an
+ * accessor for each getter and setter calling the method directly; methods that cannot be called from the
+ * package of the class, like protected ones inherited from another package or the ones using types not visible
+ * from there, use {@link net.etalia.jalia.MethodAccessor} as usual.
+ * <p>
+ * Properties are still keyed by their {@link java.lang.reflect.Method}, so the constructor of the generated class
+ * data looks each getter and setter up once through reflection, see
+ * {@link net.etalia.jalia.JsonClassData#findMethod(Class, String, String, String...)}; annotations are not parsed
+ * and methods are not called through reflection.
+ * <p>
+ * Serialization and de-serialization are still done by {@link BeanJsonDeSer}, which finds the generated class data
+ * through the {@link net.etalia.jalia.JsonClassDataFactoryImpl} and calls the generated accessors. See
+ * {@link GeneratedCodecs} for how generated classes are named and found.
+ * <p>
+ * The processor is registered in <code>META-INF/services</code>, so javac runs it whenever Jalia is on the
+ * compile classpath.
+ */
+@SupportedAnnotationTypes("net.etalia.jalia.annotations.JsonCodec")
+public class CodecProcessor extends AbstractProcessor {
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element : roundEnv.getElementsAnnotatedWith(JsonCodec.class)) {
+			if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)) {
+				error(element, "@JsonCodec can only be used on concrete classes");
+				continue;
+			}
+			TypeElement type = (TypeElement) element;
+			if (!isReachable(type)) {
+				error(element, "@JsonCodec cannot be used on private, local or anonymous classes");
+				continue;
+			}
+			try {
+				ClassParser parsed = new ClassParser(type);
+				parsed.parse(type);
+				generateClassData(type, parsed);
+			} catch (IOException | RuntimeException e) {
+				error(element, "Cannot generate codec for " + type.getQualifiedName() + " : " + e);
+			}
+		}
+		return true;
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Kind.ERROR, message, element);
+	}
+
+	private Elements elements() {
+		return processingEnv.getElementUtils();
+	}
+
+	private Types types() {
+		return processingEnv.getTypeUtils();
+	}
+
+	/**
+	 * Checks that the type can be referenced from a class in its package.
+	 */
+	private static boolean isReachable(TypeElement type) {
+		Element current = type;
+		while (current instanceof TypeElement) {
+			TypeElement te = (TypeElement) current;
+			if (te.getModifiers().contains(Modifier.PRIVATE)) return false;
+			if (te.getNestingKind() == NestingKind.LOCAL || te.getNestingKind() == NestingKind.ANONYMOUS) return false;
+			current = te.getEnclosingElement();
+		}
+		return true;
+	}
+
+	/**
+	 * Getters, setters, defaults and options of a class, parsed with the same rules of
+	 * {@link net.etalia.jalia.JsonClassData}, including the priority of annotated methods and the way ignored
+	 * properties and class options are propagated.
+	 */
+	private class ClassParser {
+
+		final TypeElement clazz;
+		final Set<String> defaults = new LinkedHashSet<>();
+		final Map<String, ExecutableElement> getters = new LinkedHashMap<>();
+		final Map<String, ExecutableElement> ondemand = new LinkedHashMap<>();
+		final Map<String, ExecutableElement> setters = new LinkedHashMap<>();
+		final Map<String, ExecutableElement> allGetters = new LinkedHashMap<>();
+		final Map<String, ExecutableElement> allSetters = new LinkedHashMap<>();
+		final Map<String, Map<String, Object>> options = new LinkedHashMap<>();
+
+		ClassParser(TypeElement clazz) {
+			this.clazz = clazz;
+		}
+
+		void parse(TypeElement c) {
+			Set<String> ignore = new HashSet<>();
+			JsonIgnoreProperties ignoreAnn = c.getAnnotation(JsonIgnoreProperties.class);
+			if (ignoreAnn != null) {
+				ignore.addAll(Arrays.asList(ignoreAnn.value()));
+			}
+			JsonDefaultFields defaultfields = c.getAnnotation(JsonDefaultFields.class);
+			if (defaultfields != null) {
+				defaults.addAll(Arrays.asList(defaultfields.value().split(",")));
+			}
+			List<ExecutableElement> methods = ElementFilter.methodsIn(c.getEnclosedElements());
+			// Annotated ones first, so that they get priority
+			for (ExecutableElement method : methods) {
+				if (method.getAnnotation(JsonGetter.class) != null) {
+					parseGetter(method, ignore);
+				}
+			}
+			for (ExecutableElement method : methods) {
+				if (method.getAnnotation(JsonSetter.class) != null) {
+					parseSetter(method, ignore);
+				}
+			}
+			for (ExecutableElement method : methods) {
+				if (!method.getModifiers().contains(Modifier.PUBLIC)) {
+					continue;
+				}
+				String name = method.getSimpleName().toString();
+				if (name.startsWith("get") || (name.startsWith("is") && isBoolean(method.getReturnType()))) {
+					parseGetter(method, ignore);
+				}
+			}
+			for (ExecutableElement method : methods) {
+				if (method.getSimpleName().toString().startsWith("set")) {
+					parseSetter(method, ignore);
+				}
+			}
+
+			if (c.getSuperclass().getKind() == TypeKind.DECLARED) {
+				parse((TypeElement) types().asElement(c.getSuperclass()));
+			}
+			for (TypeMirror inter : c.getInterfaces()) {
+				parse((TypeElement) types().asElement(inter));
+			}
+
+			// Class options are passed to all properties
+			Map<String, Object> globs = new LinkedHashMap<>();
+			parseOptions(clazz, globs);
+			if (globs.size() > 0) {
+				for (Entry<String, Map<String, Object>> entry : options.entrySet()) {
+					Map<String, Object> nopts = new LinkedHashMap<>(globs);
+					if (entry.getValue() != null) nopts.putAll(entry.getValue());
+					entry.setValue(nopts);
+				}
+			}
+		}
+
+		private boolean isBoolean(TypeMirror type) {
+			return type.getKind() == TypeKind.BOOLEAN || isClass(type, Boolean.class);
+		}
+
+		private boolean isClass(TypeMirror type, Class<?> c) {
+			return type.getKind() == TypeKind.DECLARED
+					&& ((TypeElement) types().asElement(type)).getQualifiedName().contentEquals(c.getName());
+		}
+
+		private String methodName(ExecutableElement method, Set<String> ignore) {
+			String name = null;
+			boolean explicitSet = false;
+			JsonGetter getterAnn = method.getAnnotation(JsonGetter.class);
+			if (getterAnn != null) {
+				explicitSet = true;
+				name = getterAnn.value();
+			}
+			JsonSetter setterAnn = method.getAnnotation(JsonSetter.class);
+			if (setterAnn != null) {
+				explicitSet = true;
+				name = setterAnn.value();
+			}
+			JsonIgnore ignoreAnn = method.getAnnotation(JsonIgnore.class);
+			if (name == null || name.length() == 0) {
+				name = method.getSimpleName().toString();
+				name = decapitalize(name.startsWith("is") ? name.substring(2) : name.substring(3));
+				if (ignore.contains(name) && !explicitSet) {
+					return "!" + name;
+				}
+			}
+			if (ignoreAnn != null) {
+				if (ignoreAnn.value()) {
+					ignore.add(name);
+				}
+				return "!" + name;
+			}
+			return name;
+		}
+
+		private String decapitalize(String name) {
+			if (name.length() == 0) return name;
+			if (name.length() > 1 && Character.isUpperCase(name.charAt(1)) && Character.isUpperCase(name.charAt(0))) {
+				return name;
+			}
+			return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+		}
+
+		private void parseGetter(ExecutableElement method, Set<String> ignore) {
+			if (method.getSimpleName().contentEquals("getClass")) return;
+			if (isClass(method.getReturnType(), Void.class)) return;
+			if (!method.getParameters().isEmpty()) return;
+			if (method.getModifiers().contains(Modifier.STATIC)) return;
+
+			String name = methodName(method, ignore);
+			String baseName = name.startsWith("!") ? name.substring(1) : name;
+			parseOptions(method, baseName);
+
+			name = methodName(method, ignore);
+			if (name.startsWith("!")) {
+				allGetters.put(baseName, method);
+				ExecutableElement setter = setters.get(baseName);
+				if (setter != null && methodName(setter, ignore).startsWith("!")) {
+					setters.remove(baseName);
+				}
+				return;
+			}
+			allGetters.put(name, method);
+			if (ondemand.containsKey(name)) {
+				return;
+			}
+			if (method.getAnnotation(JsonOnDemandOnly.class) != null) {
+				ondemand.put(name, method);
+				getters.remove(name);
+			} else if (!getters.containsKey(name)) {
+				getters.put(name, method);
+			}
+		}
+
+		private void parseSetter(ExecutableElement method, Set<String> ignore) {
+			if (method.getParameters().size() != 1) return;
+			if (method.getModifiers().contains(Modifier.STATIC)) return;
+
+			String name = methodName(method, ignore);
+			String baseName = name.startsWith("!") ? name.substring(1) : name;
+			parseOptions(method, baseName);
+			if (name.startsWith("!")) {
+				allSetters.put(baseName, method);
+				ExecutableElement getter = getters.get(baseName);
+				if (getter != null && methodName(getter, ignore).startsWith("!")) {
+					getters.remove(baseName);
+				}
+				return;
+			}
+			allSetters.put(name, method);
+			if (!setters.containsKey(name)) {
+				setters.put(name, method);
+			}
+		}
+
+		private void parseOptions(ExecutableElement method, String baseName) {
+			Map<String, Object> opts = options.get(baseName);
+			if (opts == null) {
+				opts = new LinkedHashMap<>();
+			}
+			parseOptions(method, opts);
+			options.put(baseName, opts.isEmpty() ? null : opts);
+		}
+
+		private void parseOptions(Element ele, Map<String, Object> opts) {
+			JsonInclude includeAnn = ele.getAnnotation(JsonInclude.class);
+			if (includeAnn != null) {
+				Include include = includeAnn.value();
+				if (include == Include.ALWAYS) {
+					opts.put(DefaultOptions.INCLUDE_EMPTY.toString(), true);
+					opts.put(DefaultOptions.INCLUDE_NULLS.toString(), true);
+				} else if (include == Include.NOT_NULL) {
+					opts.put(DefaultOptions.INCLUDE_NULLS.toString(), false);
+					opts.put(DefaultOptions.INCLUDE_EMPTY.toString(), true);
+				} else if (include == Include.NOT_EMPTY) {
+					opts.put(DefaultOptions.INCLUDE_NULLS.toString(), false);
+					opts.put(DefaultOptions.INCLUDE_EMPTY.toString(), false);
+				}
+			}
+			if (ele.getAnnotation(JsonRequireIdForReuse.class) != null) {
+				opts.put(BeanJsonDeSer.REUSE_WITHOUT_ID, true);
+			}
+			JsonCollection collectionAnn = ele.getAnnotation(JsonCollection.class);
+			if (collectionAnn != null) {
+				opts.put(ListJsonDeSer.DROP, collectionAnn.drop());
+				opts.put(ListJsonDeSer.CLEAR, collectionAnn.clear());
+			}
+			JsonMap mapAnn = ele.getAnnotation(JsonMap.class);
+			if (mapAnn != null) {
+				opts.put(MapJsonDeSer.RETAIN, mapAnn.retain());
+				opts.put(MapJsonDeSer.DROP, mapAnn.drop());
+				opts.put(MapJsonDeSer.CLEAR, mapAnn.clear());
+			}
+			if (ele.getAnnotation(JsonAllowNewInstances.class) != null) {
+				opts.put(BeanJsonDeSer.ALLOW_NEW, true);
+			}
+			if (ele.getAnnotation(JsonAllowEntityPropertyChanges.class) != null) {
+				opts.put(BeanJsonDeSer.ALLOW_CHANGES, true);
+			}
+		}
+	}
+
+	private void generateClassData(TypeElement type, ClassParser parsed) throws IOException {
+		PackageElement pkg = elements().getPackageOf(type);
+		String className = GeneratedCodecs.nameFor(elements().getBinaryName(type).toString(),
+				GeneratedCodecs.CLASS_DATA_SUFFIX);
+		String target = types().erasure(type.asType()).toString();
+
+		// Each method is looked up once, getters and setters maps share the same instances
+		Map<ExecutableElement, String> methods = new LinkedHashMap<>();
+		Set<ExecutableElement> getterMethods = new HashSet<>();
+		for (Map<String, ExecutableElement> map : Arrays.asList(parsed.getters, parsed.ondemand, parsed.allGetters)) {
+			getterMethods.addAll(map.values());
+		}
+		for (Map<String, ExecutableElement> map : Arrays.asList(parsed.getters, parsed.ondemand, parsed.setters,
+				parsed.allGetters, parsed.allSetters)) {
+			for (ExecutableElement method : map.values()) {
+				if (!methods.containsKey(method)) methods.put(method, "m" + methods.size());
+			}
+		}
+
+		StringBuilder src = new StringBuilder();
+		writeHeader(src, pkg, target, "java.lang.reflect.Method", "java.util.HashMap", "java.util.Map", null,
+				"net.etalia.jalia.JsonClassData", "net.etalia.jalia.MethodAccessor");
+		src.append("public final class ").append(simpleName(className)).append(" extends JsonClassData {\n\n");
+		src.append("\tpublic ").append(simpleName(className)).append("() {\n");
+		src.append("\t\tsuper(").append(target).append(".class, false);\n");
+		for (Entry<ExecutableElement, String> entry : methods.entrySet()) {
+			ExecutableElement method = entry.getKey();
+			src.append("\t\tMethod ").append(entry.getValue()).append(" = findMethod(clazz, ")
+				.append(literal(elements().getBinaryName((TypeElement) method.getEnclosingElement()).toString()))
+				.append(", ").append(literal(method.getSimpleName().toString()));
+			if (!method.getParameters().isEmpty()) {
+				src.append(", ").append(literal(typeName(method.getParameters().get(0).asType())));
+			}
+			src.append(");\n");
+		}
+		writeMap(src, "getters", parsed.getters, methods);
+		writeMap(src, "ondemand", parsed.ondemand, methods);
+		writeMap(src, "setters", parsed.setters, methods);
+		writeMap(src, "allGetters", parsed.allGetters, methods);
+		writeMap(src, "allSetters", parsed.allSetters, methods);
+		for (String name : parsed.defaults) {
+			src.append("\t\tdefaults.add(").append(literal(name)).append(");\n");
+		}
+		for (Entry<String, Map<String, Object>> entry : parsed.options.entrySet()) {
+			src.append("\t\toptions.put(").append(literal(entry.getKey())).append(", ");
+			if (entry.getValue() == null) {
+				src.append("null");
+			} else {
+				src.append("options(");
+				String sep = "";
+				for (Entry<String, Object> opt : entry.getValue().entrySet()) {
+					src.append(sep).append(literal(opt.getKey())).append(", ").append(opt.getValue());
+					sep = ", ";
+				}
+				src.append(")");
+			}
+			src.append(");\n");
+		}
+
+		Set<ExecutableElement> members = new HashSet<>(ElementFilter.methodsIn(elements().getAllMembers(type)));
+		for (Entry<ExecutableElement, String> entry : methods.entrySet()) {
+			ExecutableElement method = entry.getKey();
+			boolean getter = getterMethods.contains(method);
+			TypeMirror valueType = callableType(type, members, pkg, method, getter);
+			if (valueType == null) continue;
+			if (getter) {
+				writeGetter(src, target, entry.getValue(), method);
+			} else {
+				writeSetter(src, target, entry.getValue(), method, valueType);
+			}
+		}
+		src.append("\t\tcomputeHints();\n");
+		src.append("\t}\n\n");
+
+		src.append("\tprivate static Map<String, Object> options(Object... keyValues) {\n");
+		src.append("\t\tMap<String, Object> ret = new HashMap<>();\n");
+		src.append("\t\tfor (int i = 0; i < keyValues.length; i += 2) {\n");
+		src.append("\t\t\tret.put((String) keyValues[i], keyValues[i + 1]);\n");
+		src.append("\t\t}\n");
+		src.append("\t\treturn ret;\n");
+		src.append("\t}\n");
+		src.append("}\n");
+		write(className, type, src);
+	}
+
+	/**
+	 * Writes package, imports and javadoc of a generated class, a null import separates groups.
+	 */
+	private void writeHeader(StringBuilder src, PackageElement pkg, String target, String... imports) {
+		if (!pkg.isUnnamed()) {
+			src.append("package ").append(pkg.getQualifiedName()).append(";\n\n");
+		}
+		for (String imp : imports) {
+			src.append(imp == null ? "\n" : "import " + imp + ";\n");
+		}
+		src.append("\n/**\n * Generated by ").append(getClass().getName()).append(" for {@link ").append(target)
+			.append("}.\n */\n");
+		src.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+	}
+
+	private void write(String className, TypeElement type, StringBuilder src) throws IOException {
+		try (Writer writer = processingEnv.getFiler().createSourceFile(className, type).openWriter()) {
+			writer.write(src.toString());
+		}
+	}
+
+	private static String simpleName(String className) {
+		return className.substring(className.lastIndexOf('.') + 1);
+	}
+
+	private String literal(String value) {
+		return elements().getConstantExpression(value);
+	}
+
+	private void writeMap(StringBuilder src, String field, Map<String, ExecutableElement> map,
+			Map<ExecutableElement, String> methods) {
+		for (Entry<String, ExecutableElement> entry : map.entrySet()) {
+			src.append("\t\t").append(field).append(".put(").append(literal(entry.getKey())).append(", ")
+				.append(methods.get(entry.getValue())).append(");\n");
+		}
+	}
+
+	/**
+	 * The name of the erasure of a type, as returned by {@link Class#getTypeName()}.
+	 */
+	private String typeName(TypeMirror type) {
+		type = types().erasure(type);
+		if (type.getKind() == TypeKind.ARRAY) {
+			return typeName(((ArrayType) type).getComponentType()) + "[]";
+		}
+		if (type.getKind() == TypeKind.DECLARED) {
+			return elements().getBinaryName((TypeElement) types().asElement(type)).toString();
+		}
+		return type.toString();
+	}
+
+	/**
+	 * Checks whether the generated class data can call a method directly: the method must be a member of the class
+	 * accessible from its package, and the type it returns or accepts must be accessible too, since generated code
+	 * casts to it.
+	 *
+	 * @return the erasure of the value type as member of the class, or null if the method cannot be called
+	 */
+	private TypeMirror callableType(TypeElement type, Set<ExecutableElement> members, PackageElement pkg,
+			ExecutableElement method, boolean getter) {
+		Set<Modifier> modifiers = method.getModifiers();
+		if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.PRIVATE)) return null;
+		if (!modifiers.contains(Modifier.PUBLIC) && !elements().getPackageOf(method).equals(pkg)) return null;
+		if (!isMember(type, members, method)) return null;
+		ExecutableType member = (ExecutableType) types().asMemberOf((DeclaredType) type.asType(), method);
+		TypeMirror valueType = types().erasure(getter ? member.getReturnType() : member.getParameterTypes().get(0));
+		if (valueType.getKind() == TypeKind.VOID || !isAccessible(valueType, pkg)) return null;
+		return valueType;
+	}
+
+	private boolean isMember(TypeElement type, Set<ExecutableElement> members, ExecutableElement method) {
+		if (members.contains(method)) return true;
+		for (ExecutableElement member : members) {
+			if (elements().overrides(member, method, type)) return true;
+		}
+		return false;
+	}
+
+	private boolean isAccessible(TypeMirror type, PackageElement pkg) {
+		if (type.getKind() == TypeKind.ARRAY) {
+			return isAccessible(((ArrayType) type).getComponentType(), pkg);
+		}
+		if (type.getKind() != TypeKind.DECLARED) {
+			return type.getKind().isPrimitive();
+		}
+		Element current = types().asElement(type);
+		while (current instanceof TypeElement) {
+			Set<Modifier> modifiers = current.getModifiers();
+			if (modifiers.contains(Modifier.PRIVATE)) return false;
+			if (!modifiers.contains(Modifier.PUBLIC) && !elements().getPackageOf(current).equals(pkg)) return false;
+			current = current.getEnclosingElement();
+		}
+		return true;
+	}
+
+	private void writeGetter(StringBuilder src, String target, String var, ExecutableElement method) {
+		String call = "((" + target + ") target)." + method.getSimpleName() + "()";
+		TypeKind kind = method.getReturnType().getKind();
+		src.append("\t\taccessors.put(").append(var).append(", new MethodAccessor.Getter(").append(var).append(") {\n");
+		writeBound(src);
+		writeMethod(src, "Object get(Object target)", "return " + call + ";");
+		if (kind == TypeKind.INT || kind == TypeKind.LONG) {
+			writeMethod(src, "long getLong(Object target)", "return " + call + ";");
+		}
+		if (kind == TypeKind.INT || kind == TypeKind.LONG || kind == TypeKind.DOUBLE) {
+			writeMethod(src, "double getDouble(Object target)", "return " + call + ";");
+		}
+		if (kind == TypeKind.BOOLEAN) {
+			writeMethod(src, "boolean getBoolean(Object target)", "return " + call + ";");
+		}
+		src.append("\t\t});\n");
+	}
+
+	private void writeSetter(StringBuilder src, String target, String var, ExecutableElement method,
+			TypeMirror valueType) {
+		TypeKind kind = valueType.getKind();
+		String type = valueType.toString();
+		String call = "((" + target + ") target)." + method.getSimpleName() + "(";
+		String unbox;
+		switch (kind) {
+		case INT:
+			unbox = "toInt(value)";
+			break;
+		case LONG:
+			unbox = "toLong(value)";
+			break;
+		case DOUBLE:
+			unbox = "toDouble(value)";
+			break;
+		default:
+			unbox = "(" + (kind.isPrimitive() ? types().boxedClass(types().getPrimitiveType(kind)).getQualifiedName()
+					: type) + ") value";
+		}
+		src.append("\t\taccessors.put(").append(var).append(", new MethodAccessor.Setter(").append(var).append(") {\n");
+		writeBound(src);
+		writeMethod(src, "void set(Object target, Object value)", call + unbox + ");");
+		if (kind == TypeKind.INT || kind == TypeKind.LONG) {
+			writeMethod(src, "void setInt(Object target, int value)", call + "value);");
+		}
+		if (kind == TypeKind.LONG || kind == TypeKind.DOUBLE || kind == TypeKind.BOOLEAN) {
+			String name = kind.name().charAt(0) + kind.name().substring(1).toLowerCase();
+			writeMethod(src, "void set" + name + "(Object target, " + type + " value)", call + "value);");
+		}
+		src.append("\t\t});\n");
+	}
+
+	private static void writeBound(StringBuilder src) {
+		src.append("\t\t\t@Override\n");
+		src.append("\t\t\tpublic boolean isBound() {\n");
+		src.append("\t\t\t\treturn true;\n");
+		src.append("\t\t\t}\n");
+	}
+
+	private static void writeMethod(StringBuilder src, String signature, String body) {
+		src.append("\t\t\t@Override\n");
+		src.append("\t\t\tpublic ").append(signature).append(" throws Exception {\n");
+		src.append("\t\t\t\t").append(body).append("\n");
+		src.append("\t\t\t}\n");
+	}
+}
@@ -3,7 +3,12 @@ import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.UUID;
 
 /**
  * Reads a JSON (<a href="http://www.ietf.org/rfc/rfc4627.txt">RFC 4627</a>)
@@ -206,7 +211,7 @@ public class JsonReader implements Closeable {
   private static final int NUMBER_CHAR_EXP_DIGIT = 7;
 
   /** The input JSON. */
-  private final Reader in;
+  private Reader in;
 
   /** True to accept non-spec compliant JSON */
   private boolean lenient = false;
@@ -245,6 +250,11 @@ public class JsonReader implements Closeable {
    */
   private String peekedString;
 
+  /**
+   * Scratch space to parse numbers already extracted as strings.
+   */
+  private final char[] numberChars = new char[64];
+
   /*
    * The nesting stack. Using a manual array rather than an ArrayList saves 20%.
    */
@@ -256,6 +266,55 @@ public class JsonReader implements Closeable {
   
   private boolean lookingAhead = false;
 
+  /** Canonical property names, see {@link NameTable}, created on the first name. */
+  private NameTable names;
+  private NameTable sharedNames;
+
+  /*
+   * Tokens consumed while a mark is set, so that they can be read again after
+   * reset(). Values hold names, strings and number literals.
+   */
+  private JsonToken[] tapeTokens = new JsonToken[32];
+  private String[] tapeValues = new String[32];
+  private int tapeSize = 0;
+  /*
+   * Numbers read from the stream while marked are not kept as strings, so that
+   * typed reads replay them without parsing. For a NUMBER token without a
+   * value, tapeNumbers holds the value itself if tapeNumberLengths is 0,
+   * otherwise the offset of its literal in tapeChars.
+   */
+  private long[] tapeNumbers = new long[32];
+  private int[] tapeNumberLengths = new int[32];
+  private char[] tapeChars = new char[256];
+  private int tapeCharsSize = 0;
+  /*
+   * Line and column where each token on the tape ends, so that positions
+   * reported while replaying are those of the replayed tokens and not of the
+   * stream, which is already further ahead. tapeStartLine and
+   * tapeStartColumn hold the position where the tape begins.
+   */
+  private int[] tapeLines = new int[32];
+  private int[] tapeColumns = new int[32];
+  private int tapeStartLine = 0;
+  private int tapeStartColumn = 0;
+  /** Position of the next token to replay, equal to tapeSize when reading from the stream. */
+  private int tapePos = 0;
+  private int[] marks = new int[8];
+  private int markCount = 0;
+
+  /*
+   * Structural index of the tape. For each begin token, tapeEnds holds the
+   * position of the matching end token once it is recorded, otherwise -1, so
+   * that skipValue() jumps over values being replayed. tapeOpen holds the
+   * begin tokens still waiting for their end. tapeCounts, built by index(),
+   * holds the number of elements or properties, valid up to indexedSize.
+   */
+  private int[] tapeEnds = new int[32];
+  private int[] tapeOpen = new int[32];
+  private int tapeOpenSize = 0;
+  private int[] tapeCounts;
+  private int indexedSize = 0;
+
   /**
    * Creates a new instance that reads a JSON-encoded stream from {@code in}.
    */
@@ -268,7 +327,55 @@ public class JsonReader implements Closeable {
     }
     this.in = in;
   }
+
+  /**
+   * Creates a new instance that reads a UTF-8 encoded JSON stream from
+   * {@code in}, see {@link Utf8Reader}.
+   */
+  public JsonReader(InputStream in) {
+    this(new Utf8Reader(in));
+  }
+
+  /**
+   * Creates a new instance that reads UTF-8 encoded JSON from {@code json},
+   * see {@link Utf8Reader}.
+   */
+  public JsonReader(byte[] json) {
+    this(new Utf8Reader(json));
+  }
   
+  /**
+   * Prepares this reader to read a new document from {@code in}, as if it was
+   * just created, but keeping its buffers and name table. The previous input is
+   * not closed.
+   */
+  public void reuse(Reader in) {
+    if (in == null) {
+      throw new NullPointerException("in == null");
+    }
+    if (!in.markSupported()) {
+      in = new BufferedReader(in);
+    }
+    this.in = in;
+    lenient = false;
+    pos = 0;
+    limit = 0;
+    lineNumber = 0;
+    lineStart = 0;
+    peeked = PEEKED_NONE;
+    peekedString = null;
+    stackSize = 0;
+    stack[stackSize++] = JsonScope.EMPTY_DOCUMENT;
+    lookingAhead = false;
+    Arrays.fill(tapeValues, 0, tapeSize, null);
+    tapeSize = 0;
+    tapeCharsSize = 0;
+    tapeOpenSize = 0;
+    tapePos = 0;
+    markCount = 0;
+    indexedSize = 0;
+  }
+
   private JsonReader(JsonReader parent) {
 	  this.in = parent.in;
 	  this.lookingAhead = true;
@@ -287,6 +394,16 @@ public class JsonReader implements Closeable {
 	  this.stackSize = parent.stackSize;
   }
 
+  /**
+   * Returns a reader positioned as this one, which can read ahead using
+   * mark and reset on the underlying {@link Reader}. Reading ahead is limited
+   * to the mark limit of the reader, and does not see tokens buffered by
+   * {@link #mark()}.
+   *
+   * @deprecated use {@link #mark()} and {@link #reset()}, which read the
+   *     stream only once and have no limit.
+   */
+  @Deprecated
   public JsonReader lookAhead() {
 	  try {
 		this.in.mark(320000);
@@ -304,6 +421,282 @@ public class JsonReader implements Closeable {
 	  }
   }
   
+  /**
+   * Marks the current position, so that tokens consumed from now on can be
+   * read again after {@link #reset()}. Consumed tokens are buffered, so the
+   * stream itself is read only once, and there is no limit on how much can be
+   * read before resetting.
+   * <p>
+   * Marks can be nested, each {@link #reset()} goes back to the last mark.
+   */
+  public void mark() {
+    if (tapeSize == 0) {
+      tapeStartLine = lineNumber;
+      tapeStartColumn = pos - lineStart;
+    }
+    if (markCount == marks.length) {
+      int[] newMarks = new int[markCount * 2];
+      System.arraycopy(marks, 0, newMarks, 0, markCount);
+      marks = newMarks;
+    }
+    marks[markCount++] = tapePos;
+  }
+
+  /**
+   * Goes back to the last position marked with {@link #mark()}, and removes
+   * that mark.
+   *
+   * @throws IllegalStateException if there is no mark.
+   */
+  public void reset() {
+    if (markCount == 0) {
+      throw new IllegalStateException("No mark to reset to");
+    }
+    tapePos = marks[--markCount];
+    tapeConsumed();
+  }
+
+  /**
+   * Reads the whole next value, and builds a structural index of it. Tokens
+   * are then served from memory, {@link #mark()} and {@link #reset()} do not
+   * need to record anything, {@link #skipValue()} jumps directly to the end
+   * of objects and arrays, and {@link #peekSize()} is known.
+   * <p>
+   * This is meant for documents already in memory, like a String or a byte
+   * array, where holding all the tokens costs little compared to scanning
+   * the same text more than once.
+   *
+   * @throws IllegalStateException if there is a pending mark.
+   */
+  public void index() throws IOException {
+    if (markCount > 0 || tapePos < tapeSize) {
+      throw new IllegalStateException("Cannot index while marked or replaying");
+    }
+    mark();
+    skipValue();
+    reset();
+    int size = tapeSize;
+    int[] counts = new int[size];
+    int[] open = new int[32];
+    int depth = 0;
+    for (int i = 0; i < size; i++) {
+      JsonToken token = tapeTokens[i];
+      counts[i] = -1;
+      if (depth > 0 && token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY) {
+        int parent = open[depth - 1];
+        // Count properties by their names, and array elements by their first token
+        if (tapeTokens[parent] == JsonToken.BEGIN_ARRAY || token == JsonToken.NAME) {
+          counts[parent]++;
+        }
+      }
+      if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+        counts[i] = 0;
+        if (depth == open.length) {
+          int[] newOpen = new int[depth * 2];
+          System.arraycopy(open, 0, newOpen, 0, depth);
+          open = newOpen;
+        }
+        open[depth++] = i;
+      } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+        depth--;
+      }
+    }
+    tapeCounts = counts;
+    indexedSize = size;
+  }
+
+  /**
+   * Returns the number of elements of the array, or of properties of the
+   * object, that is going to be read next, if known because the input was
+   * indexed with {@link #index()}.
+   *
+   * @return the size, or -1 if the size is not known or the next token is not
+   *     the beginning of an array or object.
+   */
+  public int peekSize() {
+    if (tapePos < indexedSize) {
+      return tapeCounts[tapePos];
+    }
+    return -1;
+  }
+
+  /**
+   * Adds a token consumed from the stream to the tape, if there is a mark.
+   */
+  private void record(JsonToken token, String value) {
+    if (markCount == 0) {
+      return;
+    }
+    if (tapeSize == tapeTokens.length) {
+      JsonToken[] newTokens = new JsonToken[tapeSize * 2];
+      System.arraycopy(tapeTokens, 0, newTokens, 0, tapeSize);
+      tapeTokens = newTokens;
+      String[] newValues = new String[tapeSize * 2];
+      System.arraycopy(tapeValues, 0, newValues, 0, tapeSize);
+      tapeValues = newValues;
+      long[] newNumbers = new long[tapeSize * 2];
+      System.arraycopy(tapeNumbers, 0, newNumbers, 0, tapeSize);
+      tapeNumbers = newNumbers;
+      int[] newLengths = new int[tapeSize * 2];
+      System.arraycopy(tapeNumberLengths, 0, newLengths, 0, tapeSize);
+      tapeNumberLengths = newLengths;
+      int[] newEnds = new int[tapeSize * 2];
+      System.arraycopy(tapeEnds, 0, newEnds, 0, tapeSize);
+      tapeEnds = newEnds;
+      int[] newLines = new int[tapeSize * 2];
+      System.arraycopy(tapeLines, 0, newLines, 0, tapeSize);
+      tapeLines = newLines;
+      int[] newColumns = new int[tapeSize * 2];
+      System.arraycopy(tapeColumns, 0, newColumns, 0, tapeSize);
+      tapeColumns = newColumns;
+    }
+    tapeTokens[tapeSize] = token;
+    tapeValues[tapeSize] = value;
+    tapeEnds[tapeSize] = -1;
+    tapeLines[tapeSize] = lineNumber;
+    tapeColumns[tapeSize] = pos - lineStart;
+    if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+      if (tapeOpenSize == tapeOpen.length) {
+        tapeOpen = Arrays.copyOf(tapeOpen, tapeOpenSize * 2);
+      }
+      tapeOpen[tapeOpenSize++] = tapeSize;
+    } else if ((token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) && tapeOpenSize > 0) {
+      // Ends of values begun before the first mark are not on the tape
+      tapeEnds[tapeOpen[--tapeOpenSize]] = tapeSize;
+    }
+    tapePos = ++tapeSize;
+  }
+
+  /**
+   * Adds an integer consumed from the stream to the tape, if there is a mark.
+   */
+  private void recordLong(long value) {
+    if (markCount == 0) {
+      return;
+    }
+    record(JsonToken.NUMBER, null);
+    tapeNumbers[tapeSize - 1] = value;
+    tapeNumberLengths[tapeSize - 1] = 0;
+  }
+
+  /**
+   * Adds a number literal consumed from the stream to the tape, copying its
+   * chars, if there is a mark.
+   */
+  private void recordChars(char[] chars, int offset, int length) {
+    if (markCount == 0) {
+      return;
+    }
+    if (tapeCharsSize + length > tapeChars.length) {
+      tapeChars = Arrays.copyOf(tapeChars, Math.max(tapeChars.length * 2, tapeCharsSize + length));
+    }
+    System.arraycopy(chars, offset, tapeChars, tapeCharsSize, length);
+    record(JsonToken.NUMBER, null);
+    tapeNumbers[tapeSize - 1] = tapeCharsSize;
+    tapeNumberLengths[tapeSize - 1] = length;
+    // Recorded before the literal is consumed from the buffer
+    tapeColumns[tapeSize - 1] += length;
+    tapeCharsSize += length;
+  }
+
+  /**
+   * Returns true if the next token on the tape is a number recorded by
+   * {@link #recordLong(long)} or {@link #recordChars(char[], int, int)}.
+   */
+  private boolean isTapeNumber() {
+    return tapeTokens[tapePos] == JsonToken.NUMBER && tapeValues[tapePos] == null;
+  }
+
+  /**
+   * Consumes a number recorded by {@link #recordLong(long)} or
+   * {@link #recordChars(char[], int, int)} from the tape.
+   *
+   * @return its position on the tape, valid until the next token is recorded
+   */
+  private int replayNumber() {
+    int i = tapePos++;
+    tapeConsumed();
+    return i;
+  }
+
+  private double tapeDouble(int i) {
+    int length = tapeNumberLengths[i];
+    if (length == 0) {
+      return (double) tapeNumbers[i];
+    }
+    return NumberParser.parseDouble(tapeChars, (int) tapeNumbers[i], length);
+  }
+
+  private String tapeLiteral(int i) {
+    int length = tapeNumberLengths[i];
+    if (length == 0) {
+      return Long.toString(tapeNumbers[i]);
+    }
+    return new String(tapeChars, (int) tapeNumbers[i], length);
+  }
+
+  /**
+   * Consumes a token from the tape, asserting it is of the expected kind.
+   *
+   * @return the value of the token
+   */
+  private String replay(JsonToken expected) {
+    JsonToken token = tapeTokens[tapePos];
+    if (token != expected) {
+      throw new IllegalStateException("Expected " + expected + " but was " + token
+          + " at line " + getLineNumber() + " column " + getColumnNumber());
+    }
+    String value = tapeValues[tapePos++];
+    tapeConsumed();
+    return value;
+  }
+
+  /**
+   * Consumes a string or number token from the tape, or from the stream
+   * recording it, for the numeric methods.
+   */
+  private String nextLiteral(String expected) throws IOException {
+    JsonToken token = peek();
+    if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+      throw new IllegalStateException("Expected " + expected + " but was " + token
+          + " at line " + getLineNumber() + " column " + getColumnNumber());
+    }
+    return nextString();
+  }
+
+  /**
+   * Empties the tape once all of it has been replayed and no mark needs it.
+   */
+  private void tapeConsumed() {
+    if (tapePos == tapeSize && markCount == 0 && tapeSize > 0) {
+      Arrays.fill(tapeValues, 0, tapeSize, null);
+      tapeSize = 0;
+      tapeCharsSize = 0;
+      tapePos = 0;
+      tapeOpenSize = 0;
+      indexedSize = 0;
+      tapeCounts = null;
+    }
+  }
+
+  /**
+   * Sets a shared table of known property names. Names found in it are
+   * returned by {@link #nextName()} without allocating new strings.
+   */
+  public void setNameTable(NameTable shared) {
+    if (shared == sharedNames) return;
+    this.names = null;
+    this.sharedNames = shared;
+  }
+
+  private NameTable names() {
+    NameTable ret = names;
+    if (ret == null) {
+      ret = names = new NameTable(sharedNames);
+    }
+    return ret;
+  }
+
   /**
    * Configure this parser to be  be liberal in what it accepts. By default,
    * this parser is strict and only accepts JSON as specified by <a
@@ -349,6 +742,10 @@ public class JsonReader implements Closeable {
    * beginning of a new array.
    */
   public void beginArray() throws IOException {
+    if (tapePos < tapeSize) {
+      replay(JsonToken.BEGIN_ARRAY);
+      return;
+    }
     int p = peeked;
     if (p == PEEKED_NONE) {
       p = doPeek();
@@ -356,6 +753,7 @@ public class JsonReader implements Closeable {
     if (p == PEEKED_BEGIN_ARRAY) {
       push(JsonScope.EMPTY_ARRAY);
       peeked = PEEKED_NONE;
+      record(JsonToken.BEGIN_ARRAY, null);
     } else {
       throw new IllegalStateException("Expected BEGIN_ARRAY but was " + peek()
           + " at line " + getLineNumber() + " column " + getColumnNumber());
@@ -367,6 +765,10 @@ public class JsonReader implements Closeable {
    * end of the current array.
    */
   public void endArray() throws IOException {
+    if (tapePos < tapeSize) {
+      replay(JsonToken.END_ARRAY);
+      return;
+    }
     int p = peeked;
     if (p == PEEKED_NONE) {
       p = doPeek();
@@ -374,6 +776,7 @@ public class JsonReader implements Closeable {
     if (p == PEEKED_END_ARRAY) {
       stackSize--;
       peeked = PEEKED_NONE;
+      record(JsonToken.END_ARRAY, null);
     } else {
       throw new IllegalStateException("Expected END_ARRAY but was " + peek()
           + " at line " + getLineNumber() + " column " + getColumnNumber());
@@ -385,6 +788,10 @@ public class JsonReader implements Closeable {
    * beginning of a new object.
    */
   public void beginObject() throws IOException {
+    if (tapePos < tapeSize) {
+      replay(JsonToken.BEGIN_OBJECT);
+      return;
+    }
     int p = peeked;
     if (p == PEEKED_NONE) {
       p = doPeek();
@@ -392,6 +799,7 @@ public class JsonReader implements Closeable {
     if (p == PEEKED_BEGIN_OBJECT) {
       push(JsonScope.EMPTY_OBJECT);
       peeked = PEEKED_NONE;
+      record(JsonToken.BEGIN_OBJECT, null);
     } else {
       throw new IllegalStateException("Expected BEGIN_OBJECT but was " + peek()
           + " at line " + getLineNumber() + " column " + getColumnNumber());
@@ -403,6 +811,10 @@ public class JsonReader implements Closeable {
    * end of the current object.
    */
   public void endObject() throws IOException {
+    if (tapePos < tapeSize) {
+      replay(JsonToken.END_OBJECT);
+      return;
+    }
     int p = peeked;
     if (p == PEEKED_NONE) {
       p = doPeek();
@@ -410,6 +822,7 @@ public class JsonReader implements Closeable {
     if (p == PEEKED_END_OBJECT) {
       stackSize--;
       peeked = PEEKED_NONE;
+      record(JsonToken.END_OBJECT, null);
     } else {
       throw new IllegalStateException("Expected END_OBJECT but was " + peek()
           + " at line " + getLineNumber() + " column " + getColumnNumber());
@@ -420,6 +833,10 @@ public class JsonReader implements Closeable {
    * Returns true if the current array or object has another element.
    */
   public boolean hasNext() throws IOException {
+    if (tapePos < tapeSize) {
+      JsonToken token = tapeTokens[tapePos];
+      return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY;
+    }
     int p = peeked;
     if (p == PEEKED_NONE) {
       p = doPeek();
@@ -431,6 +848,9 @@ public class JsonReader implements Closeable {
    * Returns the type of the next token without consuming it.
    */
   public JsonToken peek() throws IOException {
+    if (tapePos < tapeSize) {
+      return tapeTokens[tapePos];
+    }
     int p = peeked;
     if (p == PEEKED_NONE) {
       p = doPeek();
@@ -792,22 +1212,26 @@ public class JsonReader implements Closeable {
    *     name.
    */
   public String nextName() throws IOException {
+    if (tapePos < tapeSize) {
+      return replay(JsonToken.NAME);
+    }
     int p = peeked;
     if (p == PEEKED_NONE) {
       p = doPeek();
     }
     String result;
     if (p == PEEKED_UNQUOTED_NAME) {
-      result = nextUnquotedValue();
+      result = names().get(nextUnquotedValue());
     } else if (p == PEEKED_SINGLE_QUOTED_NAME) {
-      result = nextQuotedValue('\'');
+      result = names().get(nextQuotedValue('\''));
     } else if (p == PEEKED_DOUBLE_QUOTED_NAME) {
-      result = nextQuotedValue('"');
+      result = nextQuotedName();
     } else {
       throw new IllegalStateException("Expected a name but was " + peek()
           + " at line " + getLineNumber() + " column " + getColumnNumber());
     }
     peeked = PEEKED_NONE;
+    record(JsonToken.NAME, result);
     return result;
   }
 
@@ -820,6 +1244,13 @@ public class JsonReader implements Closeable {
    *     this reader is closed.
    */
   public String nextString() throws IOException {
+    if (tapePos < tapeSize) {
+      if (isTapeNumber()) {
+        return tapeLiteral(replayNumber());
+      }
+      JsonToken token = tapeTokens[tapePos];
+      return replay(token == JsonToken.NUMBER ? JsonToken.NUMBER : JsonToken.STRING);
+    }
     int p = peeked;
     if (p == PEEKED_NONE) {
       p = doPeek();
@@ -836,14 +1267,19 @@ public class JsonReader implements Closeable {
       peekedString = null;
     } else if (p == PEEKED_LONG) {
       result = Long.toString(peekedLong);
+      recordLong(peekedLong);
     } else if (p == PEEKED_NUMBER) {
       result = new String(buffer, pos, peekedNumberLength);
+      recordChars(buffer, pos, peekedNumberLength);
       pos += peekedNumberLength;
     } else {
       throw new IllegalStateException("Expected a string but was " + peek()
           + " at line " + getLineNumber() + " column " + getColumnNumber());
     }
     peeked = PEEKED_NONE;
+    if (p != PEEKED_LONG && p != PEEKED_NUMBER) {
+      record(JsonToken.STRING, result);
+    }
     return result;
   }
 
@@ -855,15 +1291,20 @@ public class JsonReader implements Closeable {
    *     this reader is closed.
    */
   public boolean nextBoolean() throws IOException {
+    if (tapePos < tapeSize) {
+      return Boolean.parseBoolean(replay(JsonToken.BOOLEAN));
+    }
     int p = peeked;
     if (p == PEEKED_NONE) {
       p = doPeek();
     }
     if (p == PEEKED_TRUE) {
       peeked = PEEKED_NONE;
+      record(JsonToken.BOOLEAN, "true");
       return true;
     } else if (p == PEEKED_FALSE) {
       peeked = PEEKED_NONE;
+      record(JsonToken.BOOLEAN, "false");
       return false;
     }
     throw new IllegalStateException("Expected a boolean but was " + peek()
@@ -878,12 +1319,17 @@ public class JsonReader implements Closeable {
    *     reader is closed.
    */
   public void nextNull() throws IOException {
+    if (tapePos < tapeSize) {
+      replay(JsonToken.NULL);
+      return;
+    }
     int p = peeked;
     if (p == PEEKED_NONE) {
       p = doPeek();
     }
     if (p == PEEKED_NULL) {
       peeked = PEEKED_NONE;
+      record(JsonToken.NULL, null);
     } else {
       throw new IllegalStateException("Expected null but was " + peek()
           + " at line " + getLineNumber() + " column " + getColumnNumber());
@@ -900,6 +1346,16 @@ public class JsonReader implements Closeable {
    *     as a double, or is non-finite.
    */
   public double nextDouble() throws IOException {
+    if (tapePos < tapeSize) {
+      double result = isTapeNumber()
+          ? tapeDouble(replayNumber())
+          : parseDouble(nextLiteral("a double")); // don't catch this NumberFormatException.
+      if (!lenient && (Double.isNaN(result) || Double.isInfinite(result))) {
+        throw new MalformedJsonException("JSON forbids NaN and infinities: " + result
+            + " at line " + getLineNumber() + " column " + getColumnNumber());
+      }
+      return result;
+    }
     int p = peeked;
     if (p == PEEKED_NONE) {
       p = doPeek();
@@ -907,12 +1363,21 @@ public class JsonReader implements Closeable {
 
     if (p == PEEKED_LONG) {
       peeked = PEEKED_NONE;
+      recordLong(peekedLong);
       return (double) peekedLong;
     }
 
     if (p == PEEKED_NUMBER) {
-      peekedString = new String(buffer, pos, peekedNumberLength);
+      // Parsed straight from the buffer, without an intermediate string
+      double result = NumberParser.parseDouble(buffer, pos, peekedNumberLength);
+      if (!lenient && Double.isInfinite(result)) {
+        throw new MalformedJsonException("JSON forbids NaN and infinities: " + result
+            + " at line " + getLineNumber() + " column " + getColumnNumber());
+      }
+      recordChars(buffer, pos, peekedNumberLength);
       pos += peekedNumberLength;
+      peeked = PEEKED_NONE;
+      return result;
     } else if (p == PEEKED_SINGLE_QUOTED || p == PEEKED_DOUBLE_QUOTED) {
       peekedString = nextQuotedValue(p == PEEKED_SINGLE_QUOTED ? '\'' : '"');
     } else if (p == PEEKED_UNQUOTED) {
@@ -923,16 +1388,30 @@ public class JsonReader implements Closeable {
     }
 
     peeked = PEEKED_BUFFERED;
-    double result = Double.parseDouble(peekedString); // don't catch this NumberFormatException.
+    double result = parseDouble(peekedString); // don't catch this NumberFormatException.
     if (!lenient && (Double.isNaN(result) || Double.isInfinite(result))) {
       throw new MalformedJsonException("JSON forbids NaN and infinities: " + result
           + " at line " + getLineNumber() + " column " + getColumnNumber());
     }
+    record(JsonToken.STRING, peekedString);
     peekedString = null;
     peeked = PEEKED_NONE;
     return result;
   }
 
+  /**
+   * Parses a double from a string, thru {@link NumberParser} when it is short
+   * enough to be copied in {@link #numberChars}.
+   */
+  private double parseDouble(String literal) {
+    int len = literal.length();
+    if (len > numberChars.length) {
+      return Double.parseDouble(literal);
+    }
+    literal.getChars(0, len, numberChars, 0);
+    return NumberParser.parseDouble(numberChars, 0, len);
+  }
+
   /**
    * Returns the {@link com.google.gson.stream.JsonToken#NUMBER long} value of the next token,
    * consuming it. If the next token is a string, this method will attempt to
@@ -944,6 +1423,24 @@ public class JsonReader implements Closeable {
    *     as a number, or exactly represented as a long.
    */
   public long nextLong() throws IOException {
+    if (tapePos < tapeSize) {
+      if (isTapeNumber() && tapeNumberLengths[tapePos] == 0) {
+        return tapeNumbers[replayNumber()];
+      }
+      String literal = nextLiteral("a long");
+      try {
+        return Long.parseLong(literal);
+      } catch (NumberFormatException ignored) {
+        // Fall back to parse as a double below.
+      }
+      double asDouble = Double.parseDouble(literal); // don't catch this NumberFormatException.
+      long result = (long) asDouble;
+      if (result != asDouble) { // Make sure no precision was lost casting to 'long'.
+        throw new NumberFormatException("Expected a long but was " + literal
+            + " at line " + getLineNumber() + " column " + getColumnNumber());
+      }
+      return result;
+    }
     int p = peeked;
     if (p == PEEKED_NONE) {
       p = doPeek();
@@ -951,17 +1448,21 @@ public class JsonReader implements Closeable {
 
     if (p == PEEKED_LONG) {
       peeked = PEEKED_NONE;
+      recordLong(peekedLong);
       return peekedLong;
     }
 
+    JsonToken token = JsonToken.STRING;
     if (p == PEEKED_NUMBER) {
       peekedString = new String(buffer, pos, peekedNumberLength);
       pos += peekedNumberLength;
+      token = JsonToken.NUMBER;
     } else if (p == PEEKED_SINGLE_QUOTED || p == PEEKED_DOUBLE_QUOTED) {
       peekedString = nextQuotedValue(p == PEEKED_SINGLE_QUOTED ? '\'' : '"');
       try {
         long result = Long.parseLong(peekedString);
         peeked = PEEKED_NONE;
+        record(token, peekedString);
         return result;
       } catch (NumberFormatException ignored) {
         // Fall back to parse as a double below.
@@ -978,11 +1479,211 @@ public class JsonReader implements Closeable {
       throw new NumberFormatException("Expected a long but was " + peekedString
           + " at line " + getLineNumber() + " column " + getColumnNumber());
     }
+    record(token, peekedString);
     peekedString = null;
     peeked = PEEKED_NONE;
     return result;
   }
 
+  /**
+   * Returns the {@link JsonToken#NUMBER number} value of the next token,
+   * consuming it, as a {@link Long} if it is an integer that fits in a long,
+   * otherwise as a {@link Double}. Integers are converted while peeking,
+   * without going thru a string.
+   *
+   * @throws IllegalStateException if the next token is not a literal value.
+   * @throws NumberFormatException if the next literal value cannot be parsed
+   *     as a number.
+   */
+  public Number nextNumber() throws IOException {
+    if (tapePos < tapeSize) {
+      if (isTapeNumber()) {
+        int i = replayNumber();
+        if (tapeNumberLengths[i] == 0) {
+          return tapeNumbers[i];
+        }
+        return tapeDouble(i);
+      }
+      String literal = nextLiteral("a number");
+      if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+        try {
+          return Long.parseLong(literal);
+        } catch (NumberFormatException ignored) {
+          // Fall back to parse as a double below.
+        }
+      }
+      return parseDouble(literal);
+    }
+    int p = peeked;
+    if (p == PEEKED_NONE) {
+      p = doPeek();
+    }
+    if (p == PEEKED_LONG) {
+      peeked = PEEKED_NONE;
+      recordLong(peekedLong);
+      return peekedLong;
+    }
+    return nextDouble();
+  }
+
+  /**
+   * Returns the {@link JsonToken#NUMBER number} value of the next token as a
+   * {@link BigDecimal}, consuming it. Numbers are parsed straight from the
+   * buffer, without an intermediate string. If the next token is a string,
+   * this method will attempt to parse it as a decimal.
+   *
+   * @throws IllegalStateException if the next token is not a literal value.
+   * @throws NumberFormatException if the next literal value cannot be parsed
+   *     as a decimal.
+   */
+  public BigDecimal nextBigDecimal() throws IOException {
+    if (tapePos < tapeSize) {
+      if (isTapeNumber()) {
+        int i = replayNumber();
+        int length = tapeNumberLengths[i];
+        if (length == 0) {
+          return BigDecimal.valueOf(tapeNumbers[i]);
+        }
+        return new BigDecimal(tapeChars, (int) tapeNumbers[i], length);
+      }
+      return new BigDecimal(nextLiteral("a decimal"));
+    }
+    int p = peeked;
+    if (p == PEEKED_NONE) {
+      p = doPeek();
+    }
+    if (p == PEEKED_LONG) {
+      peeked = PEEKED_NONE;
+      recordLong(peekedLong);
+      return BigDecimal.valueOf(peekedLong);
+    }
+    if (p == PEEKED_NUMBER) {
+      BigDecimal result = new BigDecimal(buffer, pos, peekedNumberLength);
+      recordChars(buffer, pos, peekedNumberLength);
+      pos += peekedNumberLength;
+      peeked = PEEKED_NONE;
+      return result;
+    }
+    if (p == PEEKED_SINGLE_QUOTED || p == PEEKED_DOUBLE_QUOTED || p == PEEKED_UNQUOTED
+        || p == PEEKED_BUFFERED) {
+      return new BigDecimal(nextString());
+    }
+    throw new IllegalStateException("Expected a decimal but was " + peek()
+        + " at line " + getLineNumber() + " column " + getColumnNumber());
+  }
+
+  /**
+   * Returns the {@link JsonToken#NUMBER number} value of the next token as a
+   * {@link BigInteger}, consuming it, see {@link #nextBigDecimal()}.
+   *
+   * @throws IllegalStateException if the next token is not a literal value.
+   * @throws NumberFormatException if the next literal value cannot be parsed
+   *     as a number.
+   * @throws ArithmeticException if the next value is not an integer.
+   */
+  public BigInteger nextBigInteger() throws IOException {
+    if (tapePos < tapeSize) {
+      if (isTapeNumber() && tapeNumberLengths[tapePos] == 0) {
+        return BigInteger.valueOf(tapeNumbers[replayNumber()]);
+      }
+    } else {
+      int p = peeked;
+      if (p == PEEKED_NONE) {
+        p = doPeek();
+      }
+      if (p == PEEKED_LONG) {
+        peeked = PEEKED_NONE;
+        recordLong(peekedLong);
+        return BigInteger.valueOf(peekedLong);
+      }
+    }
+    return nextBigDecimal().toBigIntegerExact();
+  }
+
+  /**
+   * Returns the {@link JsonToken#STRING string} value of the next token as a
+   * {@link UUID}, consuming it. A UUID in the canonical 36 chars form is parsed
+   * straight from the buffer, other strings go thru {@link UUID#fromString(String)}.
+   *
+   * @throws IllegalStateException if the next token is not a string.
+   * @throws IllegalArgumentException if the string is not a UUID.
+   */
+  public UUID nextUUID() throws IOException {
+    if (tapePos < tapeSize) {
+      String value = nextString();
+      if (value.length() == UUID_LENGTH) {
+        value.getChars(0, UUID_LENGTH, numberChars, 0);
+        UUID result = parseUUID(numberChars, 0);
+        if (result != null) {
+          return result;
+        }
+      }
+      return UUID.fromString(value);
+    }
+    int p = peeked;
+    if (p == PEEKED_NONE) {
+      p = doPeek();
+    }
+    if (p == PEEKED_DOUBLE_QUOTED
+        && (limit - pos >= UUID_LENGTH + 1 || fillBuffer(UUID_LENGTH + 1))
+        && buffer[pos + UUID_LENGTH] == '"') {
+      UUID result = parseUUID(buffer, pos);
+      if (result != null) {
+        String literal = markCount > 0 ? new String(buffer, pos, UUID_LENGTH) : null;
+        pos += UUID_LENGTH + 1;
+        peeked = PEEKED_NONE;
+        if (literal != null) {
+          record(JsonToken.STRING, literal);
+        }
+        return result;
+      }
+    }
+    return UUID.fromString(nextString());
+  }
+
+  private static final int UUID_LENGTH = 36;
+
+  /**
+   * @return the UUID in the canonical 36 chars form at the given offset, or
+   *     null if the chars are not a UUID.
+   */
+  private static UUID parseUUID(char[] buf, int off) {
+    if (buf[off + 8] != '-' || buf[off + 13] != '-' || buf[off + 18] != '-' || buf[off + 23] != '-') {
+      return null;
+    }
+    long a = hex(buf, off, 8);
+    long b = hex(buf, off + 9, 4);
+    long c = hex(buf, off + 14, 4);
+    long d = hex(buf, off + 19, 4);
+    long e = hex(buf, off + 24, 12);
+    if ((a | b | c | d | e) < 0) {
+      return null;
+    }
+    return new UUID(a << 32 | b << 16 | c, d << 48 | e);
+  }
+
+  /**
+   * @return the value of up to 15 hex digits, or -1 if any of them is not a hex digit.
+   */
+  private static long hex(char[] buf, int off, int len) {
+    long v = 0;
+    for (int i = off, end = off + len; i < end; i++) {
+      char ch = buf[i];
+      int digit;
+      if (ch >= '0' && ch <= '9') {
+        digit = ch - '0';
+      } else if (ch >= 'a' && ch <= 'f') {
+        digit = ch - 'a' + 10;
+      } else if (ch >= 'A' && ch <= 'F') {
+        digit = ch - 'A' + 10;
+      } else {
+        return -1;
+      }
+      v = v << 4 | digit;
+    }
+    return v;
+  }
+
   /**
    * Returns the string up to but not including {@code quote}, unescaping any
    * character escape sequences encountered along the way. The opening quote
@@ -1030,6 +1731,38 @@ public class JsonReader implements Closeable {
     }
   }
 
+  /**
+   * Returns a double quoted name from the name table, hashing it directly in
+   * the buffer. Names with escapes, or longer than the buffer, are read as
+   * other strings.
+   */
+  private String nextQuotedName() throws IOException {
+    char[] buffer = this.buffer;
+    int p = pos;
+    int h = 0;
+    while (true) {
+      int l = limit;
+      while (p < l) {
+        char c = buffer[p];
+        if (c == '"') {
+          String result = names().get(buffer, pos, p - pos, h);
+          pos = p + 1;
+          return result;
+        } else if (c == '\\' || c == '\n') {
+          return names().get(nextQuotedValue('"'));
+        }
+        h = 31 * h + c;
+        p++;
+      }
+      // Hit the end of the buffer, try loading more keeping the name
+      int read = p - pos;
+      if (read + 1 >= buffer.length || !fillBuffer(read + 1)) {
+        return names().get(nextQuotedValue('"'));
+      }
+      p = pos + read;
+    }
+  }
+
   /**
    * Returns an unquoted value as a string.
    */
@@ -1163,6 +1896,28 @@ public class JsonReader implements Closeable {
    *     as a number, or exactly represented as an int.
    */
   public int nextInt() throws IOException {
+    if (tapePos < tapeSize) {
+      if (isTapeNumber() && tapeNumberLengths[tapePos] == 0) {
+        long value = tapeNumbers[tapePos];
+        if ((int) value == value) {
+          replayNumber();
+          return (int) value;
+        }
+      }
+      String literal = nextLiteral("an int");
+      try {
+        return Integer.parseInt(literal);
+      } catch (NumberFormatException ignored) {
+        // Fall back to parse as a double below.
+      }
+      double asDouble = Double.parseDouble(literal); // don't catch this NumberFormatException.
+      int result = (int) asDouble;
+      if (result != asDouble) { // Make sure no precision was lost casting to 'int'.
+        throw new NumberFormatException("Expected an int but was " + literal
+            + " at line " + getLineNumber() + " column " + getColumnNumber());
+      }
+      return result;
+    }
     int p = peeked;
     if (p == PEEKED_NONE) {
       p = doPeek();
@@ -1176,17 +1931,21 @@ public class JsonReader implements Closeable {
             + " at line " + getLineNumber() + " column " + getColumnNumber());
       }
       peeked = PEEKED_NONE;
+      recordLong(peekedLong);
       return result;
     }
 
+    JsonToken token = JsonToken.STRING;
     if (p == PEEKED_NUMBER) {
       peekedString = new String(buffer, pos, peekedNumberLength);
       pos += peekedNumberLength;
+      token = JsonToken.NUMBER;
     } else if (p == PEEKED_SINGLE_QUOTED || p == PEEKED_DOUBLE_QUOTED) {
       peekedString = nextQuotedValue(p == PEEKED_SINGLE_QUOTED ? '\'' : '"');
       try {
         result = Integer.parseInt(peekedString);
         peeked = PEEKED_NONE;
+        record(token, peekedString);
         return result;
       } catch (NumberFormatException ignored) {
         // Fall back to parse as a double below.
@@ -1203,6 +1962,7 @@ public class JsonReader implements Closeable {
       throw new NumberFormatException("Expected an int but was " + peekedString
           + " at line " + getLineNumber() + " column " + getColumnNumber());
     }
+    record(token, peekedString);
     peekedString = null;
     peeked = PEEKED_NONE;
     return result;
@@ -1216,6 +1976,12 @@ public class JsonReader implements Closeable {
 		this.in.reset();
 	  } else {
 	    peeked = PEEKED_NONE;
+	    tapeSize = 0;
+	    tapeCharsSize = 0;
+	    tapeOpenSize = 0;
+	    tapePos = 0;
+	    markCount = 0;
+	    indexedSize = 0;
 	    stack[0] = JsonScope.CLOSED;
 	    stackSize = 1;
 	    in.close();
@@ -1229,6 +1995,53 @@ public class JsonReader implements Closeable {
    */
   public void skipValue() throws IOException {
     int count = 0;
+    if (tapePos < tapeSize && tapeEnds[tapePos] >= 0) {
+      // Jump to the end of the object or array already on the tape
+      tapePos = tapeEnds[tapePos] + 1;
+      tapeConsumed();
+      return;
+    }
+    if (tapePos < tapeSize || markCount > 0) {
+      // Go token by token, so that they are replayed or recorded
+      do {
+        switch (peek()) {
+        case BEGIN_ARRAY:
+          beginArray();
+          count++;
+          break;
+        case BEGIN_OBJECT:
+          beginObject();
+          count++;
+          break;
+        case END_ARRAY:
+          endArray();
+          count--;
+          break;
+        case END_OBJECT:
+          endObject();
+          count--;
+          break;
+        case NAME:
+          nextName();
+          break;
+        case STRING:
+          nextString();
+          break;
+        case NUMBER:
+          skipNumber();
+          break;
+        case BOOLEAN:
+          nextBoolean();
+          break;
+        case NULL:
+          nextNull();
+          break;
+        default:
+          return;
+        }
+      } while (count != 0);
+      return;
+    }
     do {
       int p = peeked;
       if (p == PEEKED_NONE) {
@@ -1260,6 +2073,28 @@ public class JsonReader implements Closeable {
     } while (count != 0);
   }
 
+  /**
+   * Consumes a number from the tape, or from the stream recording it, without
+   * creating a string.
+   */
+  private void skipNumber() throws IOException {
+    if (tapePos < tapeSize) {
+      replay(JsonToken.NUMBER);
+      return;
+    }
+    int p = peeked;
+    if (p == PEEKED_NONE) {
+      p = doPeek();
+    }
+    if (p == PEEKED_LONG) {
+      recordLong(peekedLong);
+    } else {
+      recordChars(buffer, pos, peekedNumberLength);
+      pos += peekedNumberLength;
+    }
+    peeked = PEEKED_NONE;
+  }
+
   private void push(int newTop) {
     if (stackSize == stack.length) {
       int[] newStack = new int[stackSize * 2];
@@ -1303,11 +2138,27 @@ public class JsonReader implements Closeable {
     return false;
   }
 
+  /**
+   * Returns the line of the current position, which while replaying tokens
+   * after {@link #reset()} or {@link #index()} is where the last replayed
+   * token ends.
+   */
   public int getLineNumber() {
+    if (tapePos < tapeSize) {
+      return (tapePos == 0 ? tapeStartLine : tapeLines[tapePos - 1]) + 1;
+    }
     return lineNumber + 1;
   }
 
+  /**
+   * Returns the column of the current position, which while replaying
+   * tokens after {@link #reset()} or {@link #index()} is where the last
+   * replayed token ends.
+   */
   public int getColumnNumber() {
+    if (tapePos < tapeSize) {
+      return (tapePos == 0 ? tapeStartColumn : tapeColumns[tapePos - 1]) + 1;
+    }
     return pos - lineStart + 1;
   }
 
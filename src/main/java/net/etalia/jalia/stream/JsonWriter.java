@@ -18,7 +18,9 @@ package net.etalia.jalia.stream;
 import java.io.Closeable;
 import java.io.Flushable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.util.UUID;
 
 import static net.etalia.jalia.stream.JsonScope.*;
 
@@ -155,7 +157,10 @@ public class JsonWriter implements Closeable, Flushable {
   }
 
   /** The output data, containing at most one top-level array or object. */
-  private final Writer out;
+  private Writer out;
+
+  /** Same as {@link #out} when writing UTF-8 bytes, to write pre-encoded strings in bulk. */
+  private Utf8Writer utf8;
 
   private int[] stack = new int[32];
   private int stackSize = 0;
@@ -180,8 +185,24 @@ public class JsonWriter implements Closeable, Flushable {
 
   private String deferredName;
 
+  /**
+   * The pre-encoded form of {@link #deferredName}, if it was given.
+   */
+  private PreEncodedString deferredEncodedName;
+
+  /**
+   * True if the name separator was already written together with a
+   * pre-encoded name.
+   */
+  private boolean separatorWritten;
+
   private boolean serializeNulls = true;
 
+  /**
+   * Scratch space where numbers and UUIDs are formatted before being written.
+   */
+  private final char[] numberBuffer = new char[Math.max(NumberWriter.MAX_CHARS, UUID_CHARS)];
+
   /**
    * Creates a new instance that writes a JSON-encoded stream to {@code out}.
    * For best performance, ensure {@link Writer} is buffered; wrapping in
@@ -192,6 +213,34 @@ public class JsonWriter implements Closeable, Flushable {
       throw new NullPointerException("out == null");
     }
     this.out = out;
+    this.utf8 = out instanceof Utf8Writer ? (Utf8Writer) out : null;
+  }
+
+  /**
+   * Creates a new instance that writes a UTF-8 encoded JSON stream to
+   * {@code out}. Output is buffered internally, and encoded without going thru
+   * a {@link java.nio.charset.CharsetEncoder}.
+   */
+  public JsonWriter(OutputStream out) {
+    this(new Utf8Writer(out));
+  }
+
+  /**
+   * Prepares this writer to write a new document to {@code out}, as if it was
+   * just created, but keeping its settings. The previous output is not closed.
+   */
+  public void reuse(Writer out) {
+    if (out == null) {
+      throw new NullPointerException("out == null");
+    }
+    this.out = out;
+    this.utf8 = out instanceof Utf8Writer ? (Utf8Writer) out : null;
+    stackSize = 0;
+    push(EMPTY_DOCUMENT);
+    deferredName = null;
+    deferredEncodedName = null;
+    separatorWritten = false;
+    serializeNulls = true;
   }
 
   /**
@@ -388,16 +437,39 @@ public class JsonWriter implements Closeable, Flushable {
     deferredName = name;
     return this;
   }
+
+  /**
+   * Encodes the property name, using its pre-encoded form.
+   *
+   * @param name the name of the forthcoming value. May not be null.
+   * @return this writer.
+   */
+  public JsonWriter name(PreEncodedString name) {
+    name(name.getValue());
+    deferredEncodedName = name;
+    return this;
+  }
   
   public JsonWriter clearName() {
 	  deferredName = null;
+	  deferredEncodedName = null;
 	  return this;
   }
 
   private void writeDeferredName() throws IOException {
     if (deferredName != null) {
       beforeName();
-      string(deferredName);
+      if (deferredEncodedName != null) {
+        if (indent == null) {
+          writeEncoded(deferredEncodedName, 0);
+          separatorWritten = true;
+        } else {
+          writeEncoded(deferredEncodedName, 1);
+        }
+        deferredEncodedName = null;
+      } else {
+        string(deferredName);
+      }
       deferredName = null;
     }
   }
@@ -418,6 +490,80 @@ public class JsonWriter implements Closeable, Flushable {
     return this;
   }
 
+  /**
+   * Encodes {@code value}, using its pre-encoded form.
+   *
+   * @param value the string value, or null to encode a null literal.
+   * @return this writer.
+   */
+  public JsonWriter value(PreEncodedString value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    writeDeferredName();
+    beforeValue(false);
+    writeEncoded(value, 1);
+    return this;
+  }
+
+  /**
+   * Writes a pre-encoded string, without its last {@code trim} chars.
+   */
+  private void writeEncoded(PreEncodedString value, int trim) throws IOException {
+    if (utf8 != null) {
+      byte[] bytes = value.getUtf8(htmlSafe);
+      utf8.writeBytes(bytes, 0, bytes.length - trim);
+    } else {
+      char[] chars = value.getEncoded(htmlSafe);
+      out.write(chars, 0, chars.length - trim);
+    }
+  }
+
+  /**
+   * Encodes {@code value} as a quoted string, in its canonical form, without
+   * going thru {@link UUID#toString()}.
+   *
+   * @param value the UUID value, or null to encode a null literal.
+   * @return this writer.
+   */
+  public JsonWriter value(UUID value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    writeDeferredName();
+    beforeValue(false);
+    char[] buf = numberBuffer;
+    long msb = value.getMostSignificantBits();
+    long lsb = value.getLeastSignificantBits();
+    buf[0] = '"';
+    hex(msb >>> 32, 8, buf, 1);
+    buf[9] = '-';
+    hex(msb >>> 16, 4, buf, 10);
+    buf[14] = '-';
+    hex(msb, 4, buf, 15);
+    buf[19] = '-';
+    hex(lsb >>> 48, 4, buf, 20);
+    buf[24] = '-';
+    hex(lsb, 12, buf, 25);
+    buf[37] = '"';
+    out.write(buf, 0, UUID_CHARS);
+    return this;
+  }
+
+  private static final int UUID_CHARS = 38;
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /**
+   * Writes the lowest {@code digits} hex digits of {@code v}.
+   */
+  private static void hex(long v, int digits, char[] buf, int off) {
+    for (int i = off + digits - 1; i >= off; i--) {
+      buf[i] = HEX_DIGITS[(int) v & 0xF];
+      v >>>= 4;
+    }
+  }
+
   /**
    * Encodes {@code null}.
    *
@@ -429,6 +575,7 @@ public class JsonWriter implements Closeable, Flushable {
         writeDeferredName();
       } else {
         deferredName = null;
+        deferredEncodedName = null;
         return this; // skip the name and the value
       }
     }
@@ -453,16 +600,34 @@ public class JsonWriter implements Closeable, Flushable {
    * Encodes {@code value}.
    *
    * @param value a finite value. May not be {@link Double#isNaN() NaNs} or
-   *     {@link Double#isInfinite() infinities}.
+   *     {@link Double#isInfinite() infinities} unless this writer is lenient.
    * @return this writer.
    */
   public JsonWriter value(double value) throws IOException {
-    if (Double.isNaN(value) || Double.isInfinite(value)) {
+    if (!lenient && (Double.isNaN(value) || Double.isInfinite(value))) {
+      throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+    }
+    writeDeferredName();
+    beforeValue(false);
+    out.write(numberBuffer, 0, NumberWriter.write(value, numberBuffer, 0));
+    return this;
+  }
+
+  /**
+   * Encodes {@code value}, with the shortest representation of the float
+   * rather than of its double widening.
+   *
+   * @param value a finite value. May not be {@link Float#isNaN() NaNs} or
+   *     {@link Float#isInfinite() infinities} unless this writer is lenient.
+   * @return this writer.
+   */
+  public JsonWriter value(float value) throws IOException {
+    if (!lenient && (Float.isNaN(value) || Float.isInfinite(value))) {
       throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
     }
     writeDeferredName();
     beforeValue(false);
-    out.append(Double.toString(value));
+    out.write(numberBuffer, 0, NumberWriter.write(value, numberBuffer, 0));
     return this;
   }
 
@@ -474,7 +639,7 @@ public class JsonWriter implements Closeable, Flushable {
   public JsonWriter value(long value) throws IOException {
     writeDeferredName();
     beforeValue(false);
-    out.write(Long.toString(value));
+    out.write(numberBuffer, 0, NumberWriter.write(value, numberBuffer, 0));
     return this;
   }
 
@@ -489,6 +654,15 @@ public class JsonWriter implements Closeable, Flushable {
     if (value == null) {
       return nullValue();
     }
+    if (value instanceof Double) {
+      return value(value.doubleValue());
+    }
+    if (value instanceof Float) {
+      return value(value.floatValue());
+    }
+    if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return value(value.longValue());
+    }
 
     writeDeferredName();
     String string = value.toString();
@@ -559,6 +733,28 @@ public class JsonWriter implements Closeable, Flushable {
     out.write("\"");
   }
 
+  /**
+   * Appends {@code value} quoted and escaped as {@link #string(String)} would
+   * write it.
+   */
+  static void escape(String value, boolean htmlSafe, StringBuilder sb) {
+    String[] replacements = htmlSafe ? HTML_SAFE_REPLACEMENT_CHARS : REPLACEMENT_CHARS;
+    sb.append('"');
+    for (int i = 0, length = value.length(); i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 128 && replacements[c] != null) {
+        sb.append(replacements[c]);
+      } else if (c == '\u2028') {
+        sb.append("\\u2028");
+      } else if (c == '\u2029') {
+        sb.append("\\u2029");
+      } else {
+        sb.append(c);
+      }
+    }
+    sb.append('"');
+  }
+
   private void newline() throws IOException {
     if (indent == null) {
       return;
@@ -620,7 +816,11 @@ public class JsonWriter implements Closeable, Flushable {
       break;
 
     case DANGLING_NAME: // value for name
-      out.append(separator);
+      if (separatorWritten) {
+        separatorWritten = false;
+      } else {
+        out.append(separator);
+      }
       replaceTop(NONEMPTY_OBJECT);
       break;
 
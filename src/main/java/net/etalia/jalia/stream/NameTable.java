@@ -0,0 +1,188 @@
+package net.etalia.jalia.stream;
+
+import java.util.Collection;
+
+/**
+ * A table of canonical property name instances, used by {@link JsonReader#nextName()} to return the same String for
+ * the same name without allocating a new one each time.
+ * <p>
+ * Names are looked up directly from the chars of the reader buffer. A table can be shared between readers and
+ * threads, for example seeded with the property names of known classes, see
+ * {@link JsonReader#setNameTable(NameTable)}. Each reader also keeps a private table, backed by the shared one, for
+ * the other names it encounters.
+ */
+public final class NameTable {
+
+	/**
+	 * Maximum number of names kept by the private table of a reader, so that documents with many distinct keys
+	 * (like maps with generated keys) do not grow it without limit.
+	 */
+	static final int LOCAL_MAX_SIZE = 2048;
+
+	private final NameTable parent;
+
+	private final boolean shared;
+
+	private final int maxSize;
+
+	/**
+	 * Open addressing table, with linear probing. Additions fill an empty slot in place, and growing replaces the
+	 * array, so lookups on a shared table need no locking: a lookup racing with an addition at worst misses the name.
+	 */
+	private volatile String[] table;
+
+	private int size;
+
+	/**
+	 * Creates a table that can be shared between threads.
+	 */
+	public NameTable() {
+		this(null, true, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a private, not thread safe, table for a reader, backed by the given shared one.
+	 */
+	NameTable(NameTable parent) {
+		this(parent, false, LOCAL_MAX_SIZE);
+	}
+
+	private NameTable(NameTable parent, boolean shared, int maxSize) {
+		this.parent = parent;
+		this.shared = shared;
+		this.maxSize = maxSize;
+		this.table = new String[64];
+	}
+
+	/**
+	 * Adds a name to the table.
+	 *
+	 * @return the canonical instance for the name
+	 */
+	public String add(String name) {
+		if (shared) {
+			synchronized (this) {
+				return addInternal(name);
+			}
+		}
+		return addInternal(name);
+	}
+
+	/**
+	 * Adds all the given names to the table.
+	 */
+	public void addAll(Collection<String> names) {
+		for (String name : names) {
+			add(name);
+		}
+	}
+
+	/**
+	 * @return the number of names in this table
+	 */
+	public int size() {
+		return size;
+	}
+
+	private String addInternal(String name) {
+		String[] t = table;
+		int mask = t.length - 1;
+		int i = name.hashCode() & mask;
+		String found;
+		while ((found = t[i]) != null) {
+			if (found.equals(name)) return found;
+			i = (i + 1) & mask;
+		}
+		if (size >= maxSize) return name;
+		if ((size + 1) * 2 > t.length) {
+			// Grow by doubling, keeping load factor under 0.5
+			t = rehash(t, t.length << 1);
+			mask = t.length - 1;
+			i = name.hashCode() & mask;
+			while (t[i] != null) {
+				i = (i + 1) & mask;
+			}
+		}
+		t[i] = name;
+		size++;
+		table = t;
+		return name;
+	}
+
+	private static String[] rehash(String[] t, int capacity) {
+		String[] ret = new String[capacity];
+		int mask = capacity - 1;
+		for (String name : t) {
+			if (name == null) continue;
+			int i = name.hashCode() & mask;
+			while (ret[i] != null) {
+				i = (i + 1) & mask;
+			}
+			ret[i] = name;
+		}
+		return ret;
+	}
+
+	/**
+	 * Finds the name made of the given chars, adding it if missing.
+	 *
+	 * @param hash the hash of the chars, computed as {@link String#hashCode()} does
+	 */
+	String get(char[] chars, int offset, int length, int hash) {
+		String ret = find(chars, offset, length, hash);
+		if (ret == null && parent != null) {
+			ret = parent.find(chars, offset, length, hash);
+		}
+		if (ret == null) {
+			ret = new String(chars, offset, length);
+			if (size < maxSize) add(ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the canonical instance of the given name
+	 */
+	String get(String name) {
+		String ret = find(name);
+		if (ret == null && parent != null) {
+			ret = parent.find(name);
+		}
+		if (ret == null) {
+			ret = add(name);
+		}
+		return ret;
+	}
+
+	private String find(char[] chars, int offset, int length, int hash) {
+		String[] t = table;
+		int mask = t.length - 1;
+		int i = hash & mask;
+		String found;
+		search: while ((found = t[i]) != null) {
+			if (found.hashCode() == hash && found.length() == length) {
+				for (int j = 0; j < length; j++) {
+					if (found.charAt(j) != chars[offset + j]) {
+						i = (i + 1) & mask;
+						continue search;
+					}
+				}
+				return found;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	private String find(String name) {
+		String[] t = table;
+		int mask = t.length - 1;
+		int i = name.hashCode() & mask;
+		String found;
+		while ((found = t[i]) != null) {
+			if (found.equals(name)) return found;
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+}
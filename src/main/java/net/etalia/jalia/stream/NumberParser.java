@@ -0,0 +1,197 @@
+package net.etalia.jalia.stream;
+
+import java.math.BigInteger;
+
+/**
+ * Parses doubles directly from chars, without creating an intermediate String for {@link Double#parseDouble(String)}.
+ * <p>
+ * Numbers with up to 19 significant digits are converted with the Clinger fast path when both the digits and the
+ * power of ten are exact doubles, and with the Eisel-Lemire algorithm otherwise. The rare numbers these cannot convert
+ * exactly, like those with more digits or halfway between two doubles, fall back to {@link Double#parseDouble(String)}.
+ */
+final class NumberParser {
+
+	/**
+	 * Range of the powers of ten in {@link #POW10_HI} and {@link #POW10_LO}.
+	 */
+	private static final int POW10_MIN = -348;
+	private static final int POW10_MAX = 347;
+
+	/**
+	 * High and low 64 bits of the 128 bits mantissa of each power of ten, rounded down.
+	 */
+	private static final long[] POW10_HI = new long[POW10_MAX - POW10_MIN + 1];
+	private static final long[] POW10_LO = new long[POW10_MAX - POW10_MIN + 1];
+
+	/**
+	 * Powers of ten which are exact doubles.
+	 */
+	private static final double[] EXACT_POW10 = new double[23];
+
+	static {
+		for (int e = POW10_MIN; e <= POW10_MAX; e++) {
+			BigInteger m;
+			if (e >= 0) {
+				BigInteger pow = BigInteger.TEN.pow(e);
+				int shift = 128 - pow.bitLength();
+				m = shift >= 0 ? pow.shiftLeft(shift) : pow.shiftRight(-shift);
+			} else {
+				BigInteger pow = BigInteger.TEN.pow(-e);
+				m = BigInteger.ONE.shiftLeft(127 + pow.bitLength()).divide(pow);
+			}
+			POW10_HI[e - POW10_MIN] = m.shiftRight(64).longValue();
+			POW10_LO[e - POW10_MIN] = m.longValue();
+		}
+		double p = 1;
+		for (int i = 0; i < EXACT_POW10.length; i++) {
+			EXACT_POW10[i] = p;
+			p *= 10;
+		}
+	}
+
+	private NumberParser() {
+	}
+
+	/**
+	 * Parses a JSON number.
+	 *
+	 * @throws NumberFormatException if the chars are not a number
+	 */
+	static double parseDouble(char[] buf, int off, int len) {
+		int end = off + len;
+		int p = off;
+		boolean negative = false;
+		if (p < end && (buf[p] == '-' || buf[p] == '+')) {
+			negative = buf[p] == '-';
+			p++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exp10 = 0;
+		boolean truncated = false;
+		int start = p;
+		for (; p < end; p++) {
+			char c = buf[p];
+			if (c < '0' || c > '9') break;
+			if (digits < 19) {
+				mantissa = mantissa * 10 + (c - '0');
+				if (mantissa != 0) digits++;
+			} else {
+				truncated |= c != '0';
+				exp10++;
+			}
+		}
+		boolean any = p > start;
+		if (p < end && buf[p] == '.') {
+			p++;
+			int fstart = p;
+			for (; p < end; p++) {
+				char c = buf[p];
+				if (c < '0' || c > '9') break;
+				if (digits < 19) {
+					mantissa = mantissa * 10 + (c - '0');
+					if (mantissa != 0) digits++;
+					exp10--;
+				} else {
+					truncated |= c != '0';
+				}
+			}
+			any |= p > fstart;
+		}
+		if (any && p < end && (buf[p] == 'e' || buf[p] == 'E')) {
+			p++;
+			boolean negExp = false;
+			if (p < end && (buf[p] == '-' || buf[p] == '+')) {
+				negExp = buf[p] == '-';
+				p++;
+			}
+			int estart = p;
+			int exp = 0;
+			for (; p < end; p++) {
+				char c = buf[p];
+				if (c < '0' || c > '9') break;
+				if (exp < 100_000) exp = exp * 10 + (c - '0');
+			}
+			if (p == estart) any = false;
+			exp10 += negExp ? -exp : exp;
+		}
+		if (!any || p != end) {
+			return fallback(buf, off, len);
+		}
+		if (!truncated) {
+			double d = toDouble(mantissa, exp10, negative);
+			if (!Double.isNaN(d)) return d;
+		}
+		return fallback(buf, off, len);
+	}
+
+	private static double fallback(char[] buf, int off, int len) {
+		return Double.parseDouble(new String(buf, off, len));
+	}
+
+	/**
+	 * Converts mantissa 10<sup>exp10</sup> to the nearest double.
+	 *
+	 * @return the double, or NaN if it cannot be computed exactly here
+	 */
+	static double toDouble(long mantissa, int exp10, boolean negative) {
+		if (mantissa == 0) {
+			return negative ? -0.0 : 0.0;
+		}
+		if (mantissa >= 0 && mantissa <= (1L << 53) && exp10 >= -22 && exp10 <= 22) {
+			// Clinger fast path, both the mantissa and the power of ten are exact
+			double d = mantissa;
+			d = exp10 < 0 ? d / EXACT_POW10[-exp10] : d * EXACT_POW10[exp10];
+			return negative ? -d : d;
+		}
+		if (exp10 < POW10_MIN) {
+			return negative ? -0.0 : 0.0;
+		}
+		if (exp10 > POW10_MAX) {
+			return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		}
+		return eiselLemire(mantissa, exp10, negative);
+	}
+
+	private static double eiselLemire(long man, int exp10, boolean negative) {
+		int clz = Long.numberOfLeadingZeros(man);
+		man <<= clz;
+		long retExp2 = (217706L * exp10 >> 16) + 64 + 1023 - clz;
+		int idx = exp10 - POW10_MIN;
+		long xHi = NumberWriter.unsignedMultiplyHigh(man, POW10_HI[idx]);
+		long xLo = man * POW10_HI[idx];
+		if ((xHi & 0x1FF) == 0x1FF && Long.compareUnsigned(xLo + man, man) < 0) {
+			// Wider approximation, using the low bits of the power of ten too
+			long yHi = NumberWriter.unsignedMultiplyHigh(man, POW10_LO[idx]);
+			long yLo = man * POW10_LO[idx];
+			long mergedHi = xHi;
+			long mergedLo = xLo + yHi;
+			if (Long.compareUnsigned(mergedLo, xLo) < 0) mergedHi++;
+			if ((mergedHi & 0x1FF) == 0x1FF && mergedLo + 1 == 0 && Long.compareUnsigned(yLo + man, man) < 0) {
+				return Double.NaN;
+			}
+			xHi = mergedHi;
+			xLo = mergedLo;
+		}
+		long msb = xHi >>> 63;
+		long retMantissa = xHi >>> (msb + 9);
+		retExp2 -= 1 ^ msb;
+		if (xLo == 0 && (xHi & 0x1FF) == 0 && (retMantissa & 3) == 1) {
+			// Halfway between two doubles
+			return Double.NaN;
+		}
+		retMantissa += retMantissa & 1;
+		retMantissa >>>= 1;
+		if (retMantissa >>> 53 > 0) {
+			retMantissa >>>= 1;
+			retExp2 += 1;
+		}
+		if (Long.compareUnsigned(retExp2 - 1, 0x7FF - 1) >= 0) {
+			// Subnormal or infinite
+			return Double.NaN;
+		}
+		long bits = retExp2 << 52 | retMantissa & 0x000FFFFFFFFFFFFFL;
+		if (negative) bits |= 0x8000000000000000L;
+		return Double.longBitsToDouble(bits);
+	}
+}
@@ -0,0 +1,411 @@
+package net.etalia.jalia.stream;
+
+import java.math.BigInteger;
+
+/**
+ * Writes doubles and floats as chars, with the shortest decimal that parses back to the same value, without going
+ * thru {@link Double#toString(double)} and its intermediate String. Also writes longs, using a table of digit pairs.
+ * <p>
+ * Decimal digits are computed with the Schubfach algorithm by Raffaello Giulietti, the same used by
+ * {@link Double#toString(double)} since Java 19, and the format is the one of {@link Double#toString(double)}: plain
+ * notation between 10<sup>-3</sup> and 10<sup>7</sup>, like <code>0.001</code> and <code>1234567.0</code>, and
+ * computerized scientific notation otherwise, like <code>1.0E7</code> and <code>1.0E-4</code>.
+ */
+final class NumberWriter {
+
+	/**
+	 * Maximum number of chars written for a number.
+	 */
+	static final int MAX_CHARS = 24;
+
+	// Double constants
+	private static final int D_P = 53;
+	private static final int D_Q_MIN = -1074;
+	private static final long D_C_MIN = 1L << (D_P - 1);
+	private static final int D_BQ_MASK = 0x7FF;
+	private static final long D_T_MASK = (1L << (D_P - 1)) - 1;
+	private static final long D_C_TINY = 3;
+
+	// Float constants
+	private static final int F_P = 24;
+	private static final int F_Q_MIN = -149;
+	private static final int F_C_MIN = 1 << (F_P - 1);
+	private static final int F_BQ_MASK = 0xFF;
+	private static final int F_T_MASK = (1 << (F_P - 1)) - 1;
+	private static final int F_C_TINY = 8;
+
+	private static final long MASK_63 = (1L << 63) - 1;
+	private static final long MASK_32 = (1L << 32) - 1;
+
+	/**
+	 * Range of the powers of ten in {@link #G1} and {@link #G0}.
+	 */
+	private static final int K_MIN = -324;
+	private static final int K_MAX = 292;
+
+	/**
+	 * For each k, 10<sup>-k</sup> = &beta; 2<sup>r</sup> with 2<sup>125</sup> &le; &beta; &lt; 2<sup>126</sup>, and
+	 * g = floor(&beta;) + 1 split in its 63 high bits (G1) and its 63 low bits (G0).
+	 */
+	private static final long[] G1 = new long[K_MAX - K_MIN + 1];
+	private static final long[] G0 = new long[K_MAX - K_MIN + 1];
+
+	static {
+		BigInteger mask63 = BigInteger.valueOf(MASK_63);
+		for (int k = K_MIN; k <= K_MAX; k++) {
+			BigInteger g;
+			if (k <= 0) {
+				BigInteger pow = BigInteger.TEN.pow(-k);
+				int shift = 125 - (pow.bitLength() - 1);
+				g = shift >= 0 ? pow.shiftLeft(shift) : pow.shiftRight(-shift);
+			} else {
+				BigInteger pow = BigInteger.TEN.pow(k);
+				g = BigInteger.ONE.shiftLeft(125 + pow.bitLength()).divide(pow);
+			}
+			g = g.add(BigInteger.ONE);
+			G1[k - K_MIN] = g.shiftRight(63).longValue();
+			G0[k - K_MIN] = g.and(mask63).longValue();
+		}
+	}
+
+	/**
+	 * Tens and ones digits of the numbers from 0 to 99.
+	 */
+	private static final char[] DIGIT_TENS = new char[100];
+	private static final char[] DIGIT_ONES = new char[100];
+
+	static {
+		for (int i = 0; i < 100; i++) {
+			DIGIT_TENS[i] = (char) ('0' + i / 10);
+			DIGIT_ONES[i] = (char) ('0' + i % 10);
+		}
+	}
+
+	private NumberWriter() {
+	}
+
+	/**
+	 * Writes a long, two digits at a time.
+	 *
+	 * @return the number of chars written, at most 20
+	 */
+	static int write(long v, char[] buf, int off) {
+		if (v == Long.MIN_VALUE) {
+			String min = "-9223372036854775808";
+			min.getChars(0, min.length(), buf, off);
+			return min.length();
+		}
+		int pos = off;
+		if (v < 0) {
+			buf[pos++] = '-';
+			v = -v;
+		}
+		int len = digits(v);
+		int i = pos + len;
+		while (v > Integer.MAX_VALUE) {
+			int r = (int) (v % 100);
+			v /= 100;
+			buf[--i] = DIGIT_ONES[r];
+			buf[--i] = DIGIT_TENS[r];
+		}
+		int iv = (int) v;
+		while (iv >= 100) {
+			int r = iv % 100;
+			iv /= 100;
+			buf[--i] = DIGIT_ONES[r];
+			buf[--i] = DIGIT_TENS[r];
+		}
+		if (iv >= 10) {
+			buf[--i] = DIGIT_ONES[iv];
+			buf[--i] = DIGIT_TENS[iv];
+		} else {
+			buf[--i] = (char) ('0' + iv);
+		}
+		return pos + len - off;
+	}
+
+	/**
+	 * Writes a double, in the same format of {@link Double#toString(double)}.
+	 *
+	 * @return the number of chars written, at most {@link #MAX_CHARS}
+	 */
+	static int write(double v, char[] buf, int off) {
+		long bits = Double.doubleToRawLongBits(v);
+		long t = bits & D_T_MASK;
+		int bq = (int) (bits >>> (D_P - 1)) & D_BQ_MASK;
+		if (bq == D_BQ_MASK) {
+			return special(t != 0, bits < 0, buf, off);
+		}
+		int pos = off;
+		if (bits < 0) buf[pos++] = '-';
+		if (bq != 0) {
+			// Normal value, v = c 2^-mq
+			int mq = -D_Q_MIN + 1 - bq;
+			long c = D_C_MIN | t;
+			if (0 < mq & mq < D_P) {
+				// Fast path for integers
+				long f = c >> mq;
+				if (f << mq == c) {
+					return pos - off + chars(f, 0, buf, pos);
+				}
+			}
+			return pos - off + toDecimal(-mq, c, 0, buf, pos);
+		}
+		if (t != 0) {
+			// Subnormal value
+			return pos - off + (t < D_C_TINY ? toDecimal(D_Q_MIN, 10 * t, -1, buf, pos)
+					: toDecimal(D_Q_MIN, t, 0, buf, pos));
+		}
+		return pos - off + zero(buf, pos);
+	}
+
+	private static int toDecimal(int q, long c, int dk, char[] buf, int off) {
+		int out = (int) c & 0x1;
+		long cb = c << 2;
+		long cbr = cb + 2;
+		long cbl;
+		int k;
+		if (c != D_C_MIN | q == D_Q_MIN) {
+			cbl = cb - 2;
+			k = flog10pow2(q);
+		} else {
+			cbl = cb - 1;
+			k = flog10threeQuartersPow2(q);
+		}
+		int h = q + flog2pow10(-k) + 2;
+		long g1 = G1[k - K_MIN];
+		long g0 = G0[k - K_MIN];
+		long vb = rop(g1, g0, cb << h);
+		long vbl = rop(g1, g0, cbl << h);
+		long vbr = rop(g1, g0, cbr << h);
+		long s = vb >> 2;
+		if (s >= 100) {
+			// Try a shorter decimal, with one digit less
+			long sp10 = 10 * multiplyHigh(s, 115_292_150_460_684_698L << 4);
+			long tp10 = sp10 + 10;
+			boolean upin = vbl + out <= sp10 << 2;
+			boolean wpin = (tp10 << 2) + out <= vbr;
+			if (upin != wpin) {
+				return chars(upin ? sp10 : tp10, k, buf, off);
+			}
+		}
+		long t = s + 1;
+		boolean uin = vbl + out <= s << 2;
+		boolean win = (t << 2) + out <= vbr;
+		if (uin != win) {
+			return chars(uin ? s : t, k + dk, buf, off);
+		}
+		long cmp = vb - (s + t << 1);
+		return chars(cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk, buf, off);
+	}
+
+	private static long rop(long g1, long g0, long cp) {
+		long x1 = multiplyHigh(g0, cp);
+		long y0 = g1 * cp;
+		long y1 = multiplyHigh(g1, cp);
+		long z = (y0 >>> 1) + x1;
+		long vbp = y1 + (z >>> 63);
+		return vbp | (z & MASK_63) + MASK_63 >>> 63;
+	}
+
+	/**
+	 * Writes a float, in the same format of {@link Float#toString(float)}.
+	 *
+	 * @return the number of chars written, at most {@link #MAX_CHARS}
+	 */
+	static int write(float v, char[] buf, int off) {
+		int bits = Float.floatToRawIntBits(v);
+		int t = bits & F_T_MASK;
+		int bq = (bits >>> (F_P - 1)) & F_BQ_MASK;
+		if (bq == F_BQ_MASK) {
+			return special(t != 0, bits < 0, buf, off);
+		}
+		int pos = off;
+		if (bits < 0) buf[pos++] = '-';
+		if (bq != 0) {
+			int mq = -F_Q_MIN + 1 - bq;
+			int c = F_C_MIN | t;
+			if (0 < mq & mq < F_P) {
+				int f = c >> mq;
+				if (f << mq == c) {
+					return pos - off + chars(f, 0, buf, pos);
+				}
+			}
+			return pos - off + toDecimal(-mq, c, 0, buf, pos);
+		}
+		if (t != 0) {
+			return pos - off + (t < F_C_TINY ? toDecimal(F_Q_MIN, 10 * t, -1, buf, pos)
+					: toDecimal(F_Q_MIN, t, 0, buf, pos));
+		}
+		return pos - off + zero(buf, pos);
+	}
+
+	private static int toDecimal(int q, int c, int dk, char[] buf, int off) {
+		int out = c & 0x1;
+		long cb = (long) c << 2;
+		long cbr = cb + 2;
+		long cbl;
+		int k;
+		if (c != F_C_MIN | q == F_Q_MIN) {
+			cbl = cb - 2;
+			k = flog10pow2(q);
+		} else {
+			cbl = cb - 1;
+			k = flog10threeQuartersPow2(q);
+		}
+		int h = q + flog2pow10(-k) + 33;
+		long g = G1[k - K_MIN] + 1;
+		int vb = rop(g, cb << h);
+		int vbl = rop(g, cbl << h);
+		int vbr = rop(g, cbr << h);
+		int s = vb >> 2;
+		if (s >= 100) {
+			int sp10 = 10 * (int) (s * 1_717_986_919L >>> 34);
+			int tp10 = sp10 + 10;
+			boolean upin = vbl + out <= sp10 << 2;
+			boolean wpin = (tp10 << 2) + out <= vbr;
+			if (upin != wpin) {
+				return chars(upin ? sp10 : tp10, k, buf, off);
+			}
+		}
+		int t = s + 1;
+		boolean uin = vbl + out <= s << 2;
+		boolean win = (t << 2) + out <= vbr;
+		if (uin != win) {
+			return chars(uin ? s : t, k + dk, buf, off);
+		}
+		int cmp = vb - (s + t << 1);
+		return chars(cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk, buf, off);
+	}
+
+	private static int rop(long g, long cp) {
+		long x1 = multiplyHigh(g, cp);
+		long vbp = x1 >>> 31;
+		return (int) (vbp | (x1 & MASK_32) + MASK_32 >>> 32);
+	}
+
+	/**
+	 * Writes f 10<sup>e</sup>, with f &gt; 0.
+	 */
+	private static int chars(long f, int e, char[] buf, int off) {
+		while (f % 10 == 0) {
+			f /= 10;
+			e++;
+		}
+		int len = digits(f);
+		// Exponent of the first digit in scientific notation
+		int exp = e + len - 1;
+		int pos = off;
+		if (exp >= 0 && exp < 7) {
+			// ddd.ddd or ddd000.0
+			if (len > exp + 1) {
+				writeDigits(f, len, buf, pos + 1);
+				System.arraycopy(buf, pos + 1, buf, pos, exp + 1);
+				buf[pos + exp + 1] = '.';
+				pos += len + 1;
+			} else {
+				writeDigits(f, len, buf, pos);
+				pos += len;
+				for (int i = len; i <= exp; i++) buf[pos++] = '0';
+				buf[pos++] = '.';
+				buf[pos++] = '0';
+			}
+		} else if (exp < 0 && exp >= -3) {
+			// 0.000ddd
+			buf[pos++] = '0';
+			buf[pos++] = '.';
+			for (int i = -1; i > exp; i--) buf[pos++] = '0';
+			writeDigits(f, len, buf, pos);
+			pos += len;
+		} else {
+			// d.dddEx
+			writeDigits(f, len, buf, pos + 1);
+			buf[pos] = buf[pos + 1];
+			buf[pos + 1] = '.';
+			pos += len + 1;
+			if (len == 1) buf[pos++] = '0';
+			buf[pos++] = 'E';
+			if (exp < 0) {
+				buf[pos++] = '-';
+				exp = -exp;
+			}
+			if (exp >= 100) {
+				buf[pos++] = (char) ('0' + exp / 100);
+				exp %= 100;
+				buf[pos++] = (char) ('0' + exp / 10);
+			} else if (exp >= 10) {
+				buf[pos++] = (char) ('0' + exp / 10);
+			}
+			buf[pos++] = (char) ('0' + exp % 10);
+		}
+		return pos - off;
+	}
+
+	/**
+	 * @return the number of decimal digits of a positive long
+	 */
+	static int digits(long v) {
+		int len = 1;
+		long p = 10;
+		while (len < 19 && v >= p) {
+			len++;
+			p *= 10;
+		}
+		return len;
+	}
+
+	private static void writeDigits(long v, int len, char[] buf, int off) {
+		for (int i = off + len - 1; i >= off; i--) {
+			buf[i] = (char) ('0' + v % 10);
+			v /= 10;
+		}
+	}
+
+	private static int zero(char[] buf, int off) {
+		buf[off] = '0';
+		buf[off + 1] = '.';
+		buf[off + 2] = '0';
+		return 3;
+	}
+
+	private static int special(boolean nan, boolean negative, char[] buf, int off) {
+		String s = nan ? "NaN" : negative ? "-Infinity" : "Infinity";
+		s.getChars(0, s.length(), buf, off);
+		return s.length();
+	}
+
+	private static int flog10pow2(int e) {
+		return (int) (e * 661_971_961_083L >> 41);
+	}
+
+	private static int flog10threeQuartersPow2(int e) {
+		return (int) (e * 661_971_961_083L + -274_743_187_321L >> 41);
+	}
+
+	private static int flog2pow10(int e) {
+		return (int) (e * 913_124_641_741L >> 38);
+	}
+
+	/**
+	 * Same as Math.multiplyHigh, which is not available on Java 8.
+	 */
+	static long multiplyHigh(long x, long y) {
+		long x1 = x >> 32;
+		long x2 = x & 0xFFFFFFFFL;
+		long y1 = y >> 32;
+		long y2 = y & 0xFFFFFFFFL;
+		long z2 = x2 * y2;
+		long t = x1 * y2 + (z2 >>> 32);
+		long z1 = t & 0xFFFFFFFFL;
+		long z0 = t >> 32;
+		z1 += x2 * y1;
+		return x1 * y1 + z0 + (z1 >> 32);
+	}
+
+	/**
+	 * High 64 bits of the unsigned product of x and y.
+	 */
+	static long unsignedMultiplyHigh(long x, long y) {
+		return multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+	}
+}
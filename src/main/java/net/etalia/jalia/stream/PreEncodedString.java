@@ -0,0 +1,96 @@
+package net.etalia.jalia.stream;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A string already escaped and quoted for JSON output, to be used with {@link JsonWriter#name(PreEncodedString)}
+ * and {@link JsonWriter#value(PreEncodedString)}.
+ * <p>
+ * Property names and entity names are written over and over again with the same value, encoding them once
+ * saves escaping them each time they are written.
+ * <p>
+ * Instances are immutable and can be shared between threads and writers.
+ */
+public final class PreEncodedString {
+
+	private final String value;
+
+	/**
+	 * The escaped and quoted value, followed by a compact name separator.
+	 */
+	private final char[] encoded;
+
+	/**
+	 * Same as {@link #encoded}, but escaping also HTML characters.
+	 */
+	private final char[] htmlSafeEncoded;
+
+	/**
+	 * UTF-8 bytes of {@link #encoded}, for {@link Utf8Writer}.
+	 */
+	private final byte[] utf8;
+
+	/**
+	 * UTF-8 bytes of {@link #htmlSafeEncoded}, for {@link Utf8Writer}.
+	 */
+	private final byte[] htmlSafeUtf8;
+
+	public PreEncodedString(String value) {
+		if (value == null) {
+			throw new NullPointerException("value == null");
+		}
+		this.value = value;
+		this.encoded = encode(value, false);
+		char[] html = encode(value, true);
+		this.htmlSafeEncoded = html.length == encoded.length ? encoded : html;
+		this.utf8 = new String(encoded).getBytes(StandardCharsets.UTF_8);
+		this.htmlSafeUtf8 = htmlSafeEncoded == encoded ? utf8 : new String(html).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the original, unencoded string
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 * Returns the encoded chars, that is the quoted string followed by ':'. Callers must not modify the array.
+	 */
+	char[] getEncoded(boolean htmlSafe) {
+		return htmlSafe ? htmlSafeEncoded : encoded;
+	}
+
+	/**
+	 * Same as {@link #getEncoded(boolean)}, but in UTF-8 bytes.
+	 */
+	byte[] getUtf8(boolean htmlSafe) {
+		return htmlSafe ? htmlSafeUtf8 : utf8;
+	}
+
+	private static char[] encode(String value, boolean htmlSafe) {
+		StringBuilder sb = new StringBuilder(value.length() + 3);
+		JsonWriter.escape(value, htmlSafe, sb);
+		sb.append(':');
+		char[] ret = new char[sb.length()];
+		sb.getChars(0, ret.length, ret, 0);
+		return ret;
+	}
+
+	@Override
+	public int hashCode() {
+		return value.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof PreEncodedString)) return false;
+		return value.equals(((PreEncodedString) obj).value);
+	}
+
+	@Override
+	public String toString() {
+		return value;
+	}
+}
@@ -0,0 +1,248 @@
+package net.etalia.jalia.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * A {@link Reader} that decodes UTF-8 bytes from a byte array or an {@link InputStream}, without going thru a
+ * {@link java.nio.charset.CharsetDecoder} and without an additional {@link java.io.BufferedReader}.
+ * <p>
+ * ASCII bytes, which are most of a JSON document, are copied straight into the destination chars. Malformed
+ * sequences are decoded as U+FFFD, like {@link java.io.InputStreamReader} does.
+ * <p>
+ * Mark and reset are supported, as required by {@link JsonReader#lookAhead()}. When reading from an array they
+ * are unlimited, when reading from a stream bytes are retained from the mark until the read ahead limit.
+ */
+public class Utf8Reader extends Reader {
+
+	private static final int DEFAULT_SIZE = 8192;
+
+	private static final char REPLACEMENT = '\uFFFD';
+
+	private final InputStream in;
+
+	private byte[] buf;
+
+	private int pos;
+
+	private int end;
+
+	/**
+	 * Low surrogate of a supplementary char which did not fit the destination of the previous read.
+	 */
+	private char pendingLow;
+
+	private int markPos = -1;
+
+	private char markPendingLow;
+
+	private int markLimit;
+
+	/**
+	 * Creates a reader on a portion of a byte array. The array is not copied, so it must not be modified while
+	 * reading.
+	 */
+	public Utf8Reader(byte[] bytes, int offset, int length) {
+		this.in = null;
+		this.buf = bytes;
+		this.pos = offset;
+		this.end = offset + length;
+	}
+
+	/**
+	 * Creates a reader on a byte array, see {@link #Utf8Reader(byte[], int, int)}.
+	 */
+	public Utf8Reader(byte[] bytes) {
+		this(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Creates a reader on a stream, which is read in chunks into an internal buffer.
+	 */
+	public Utf8Reader(InputStream in) {
+		if (in == null) {
+			throw new NullPointerException("in == null");
+		}
+		this.in = in;
+		this.buf = new byte[DEFAULT_SIZE];
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		int o = off;
+		int max = off + len;
+		if (pendingLow != 0) {
+			cbuf[o++] = pendingLow;
+			pendingLow = 0;
+		}
+		while (o < max) {
+			if (pos >= end) {
+				// Return what we have, rather than blocking on the stream
+				if (o > off || !fill()) break;
+			}
+			// ASCII fast path
+			byte[] b = buf;
+			int p = pos;
+			int stop = Math.min(end, p + (max - o));
+			while (p < stop && b[p] >= 0) {
+				cbuf[o++] = (char) b[p++];
+			}
+			pos = p;
+			if (o < max && p < end && b[p] < 0) {
+				int cp = decode();
+				if (cp < 0x10000) {
+					cbuf[o++] = (char) cp;
+				} else {
+					cbuf[o++] = Character.highSurrogate(cp);
+					if (o < max) {
+						cbuf[o++] = Character.lowSurrogate(cp);
+					} else {
+						pendingLow = Character.lowSurrogate(cp);
+					}
+				}
+			}
+		}
+		return o == off ? -1 : o - off;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (pendingLow != 0) {
+			char ret = pendingLow;
+			pendingLow = 0;
+			return ret;
+		}
+		if (pos >= end && !fill()) return -1;
+		byte b = buf[pos];
+		if (b >= 0) {
+			pos++;
+			return b;
+		}
+		int cp = decode();
+		if (cp < 0x10000) return cp;
+		pendingLow = Character.lowSurrogate(cp);
+		return Character.highSurrogate(cp);
+	}
+
+	/**
+	 * Decodes a multi byte sequence starting at {@link #pos}.
+	 */
+	private int decode() throws IOException {
+		int b0 = buf[pos] & 0xFF;
+		int need;
+		int min;
+		int cp;
+		if ((b0 & 0xE0) == 0xC0) {
+			need = 2;
+			min = 0x80;
+			cp = b0 & 0x1F;
+		} else if ((b0 & 0xF0) == 0xE0) {
+			need = 3;
+			min = 0x800;
+			cp = b0 & 0x0F;
+		} else if ((b0 & 0xF8) == 0xF0) {
+			need = 4;
+			min = 0x10000;
+			cp = b0 & 0x07;
+		} else {
+			pos++;
+			return REPLACEMENT;
+		}
+		if (end - pos < need && !ensure(need)) {
+			// Truncated sequence at the end of input
+			pos = end;
+			return REPLACEMENT;
+		}
+		byte[] b = buf;
+		int p = pos + 1;
+		for (int i = 1; i < need; i++, p++) {
+			int bn = b[p];
+			if ((bn & 0xC0) != 0x80) {
+				pos = p;
+				return REPLACEMENT;
+			}
+			cp = (cp << 6) | (bn & 0x3F);
+		}
+		pos = p;
+		if (cp < min || cp > Character.MAX_CODE_POINT || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+			return REPLACEMENT;
+		}
+		return cp;
+	}
+
+	private boolean ensure(int bytes) throws IOException {
+		while (end - pos < bytes) {
+			if (!fill()) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads more bytes from the stream, keeping unread bytes and bytes after a valid mark.
+	 *
+	 * @return false if there is no stream or it is at its end
+	 */
+	private boolean fill() throws IOException {
+		if (in == null) return false;
+		if (markPos >= 0 && pos - markPos > markLimit) {
+			markPos = -1;
+		}
+		int keep = markPos >= 0 ? markPos : pos;
+		if (keep > 0) {
+			System.arraycopy(buf, keep, buf, 0, end - keep);
+			end -= keep;
+			pos -= keep;
+			if (markPos >= 0) markPos -= keep;
+		}
+		if (end == buf.length) {
+			buf = Arrays.copyOf(buf, buf.length << 1);
+		}
+		int read;
+		while ((read = in.read(buf, end, buf.length - end)) == 0) {
+			// Keep trying
+		}
+		if (read < 0) return false;
+		end += read;
+		return true;
+	}
+
+	@Override
+	public boolean ready() throws IOException {
+		return pendingLow != 0 || pos < end || (in != null && in.available() > 0);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public void mark(int readAheadLimit) throws IOException {
+		if (readAheadLimit < 0) {
+			throw new IllegalArgumentException("Read-ahead limit < 0");
+		}
+		markPos = pos;
+		markPendingLow = pendingLow;
+		// Each char takes at most 3 bytes
+		markLimit = in == null ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, readAheadLimit * 3L);
+	}
+
+	@Override
+	public void reset() throws IOException {
+		if (markPos < 0) {
+			throw new IOException("Mark invalid");
+		}
+		pos = markPos;
+		pendingLow = markPendingLow;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (in != null) {
+			in.close();
+		}
+	}
+}
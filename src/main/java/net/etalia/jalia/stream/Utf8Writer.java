@@ -0,0 +1,265 @@
+package net.etalia.jalia.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A {@link Writer} that encodes chars in UTF-8 into an internal byte buffer, without going thru a
+ * {@link java.nio.charset.CharsetEncoder}.
+ * <p>
+ * When built on an {@link OutputStream} the buffer is flushed to the stream when full, otherwise it grows and the
+ * result can be obtained with {@link #toByteArray()}.
+ * <p>
+ * Most of JSON output is ASCII, which is copied straight into the buffer. Unpaired surrogates are written as '?',
+ * like {@link java.io.OutputStreamWriter} does.
+ */
+public class Utf8Writer extends Writer {
+
+	private static final int DEFAULT_SIZE = 8192;
+
+	private final OutputStream out;
+
+	private byte[] buf;
+
+	private int count;
+
+	/**
+	 * A high surrogate received as the last char of a previous write, waiting for its low surrogate.
+	 */
+	private char pendingSurrogate;
+
+	/**
+	 * Creates a writer that flushes to the given stream.
+	 */
+	public Utf8Writer(OutputStream out) {
+		if (out == null) {
+			throw new NullPointerException("out == null");
+		}
+		this.out = out;
+		this.buf = new byte[DEFAULT_SIZE];
+	}
+
+	/**
+	 * Creates a writer that accumulates bytes in memory, see {@link #toByteArray()}.
+	 */
+	public Utf8Writer() {
+		this(2048, null);
+	}
+
+	private Utf8Writer(int size, OutputStream out) {
+		this.out = out;
+		this.buf = new byte[size];
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		if (c < 0x80 && pendingSurrogate == 0) {
+			if (count == buf.length) makeRoom(1);
+			buf[count++] = (byte) c;
+		} else {
+			encode((char) c);
+		}
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		int end = off + len;
+		while (off < end) {
+			if (pendingSurrogate == 0) {
+				// ASCII fast path
+				int room = buf.length - count;
+				if (room == 0) {
+					makeRoom(1);
+					room = buf.length - count;
+				}
+				int stop = Math.min(end, off + room);
+				byte[] b = buf;
+				int pos = count;
+				while (off < stop) {
+					char c = cbuf[off];
+					if (c >= 0x80) break;
+					b[pos++] = (byte) c;
+					off++;
+				}
+				count = pos;
+				if (off == end) break;
+				if (off < stop) {
+					encode(cbuf[off++]);
+				}
+			} else {
+				encode(cbuf[off++]);
+			}
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		int end = off + len;
+		while (off < end) {
+			if (pendingSurrogate == 0) {
+				// ASCII fast path
+				int room = buf.length - count;
+				if (room == 0) {
+					makeRoom(1);
+					room = buf.length - count;
+				}
+				int stop = Math.min(end, off + room);
+				byte[] b = buf;
+				int pos = count;
+				while (off < stop) {
+					char c = str.charAt(off);
+					if (c >= 0x80) break;
+					b[pos++] = (byte) c;
+					off++;
+				}
+				count = pos;
+				if (off == end) break;
+				if (off < stop) {
+					encode(str.charAt(off++));
+				}
+			} else {
+				encode(str.charAt(off++));
+			}
+		}
+	}
+
+	@Override
+	public void write(String str) throws IOException {
+		write(str, 0, str.length());
+	}
+
+	@Override
+	public Writer append(char c) throws IOException {
+		write(c);
+		return this;
+	}
+
+	@Override
+	public Writer append(CharSequence csq) throws IOException {
+		String str = String.valueOf(csq);
+		write(str, 0, str.length());
+		return this;
+	}
+
+	/**
+	 * Writes bytes already encoded in UTF-8.
+	 */
+	public void writeBytes(byte[] bytes, int off, int len) throws IOException {
+		if (pendingSurrogate != 0) {
+			pendingSurrogate = 0;
+			encode('?');
+		}
+		if (len > buf.length - count) {
+			makeRoom(len);
+			if (len > buf.length - count) {
+				// Bigger than our buffer, and we have an output stream
+				out.write(bytes, off, len);
+				return;
+			}
+		}
+		System.arraycopy(bytes, off, buf, count, len);
+		count += len;
+	}
+
+	private void encode(char c) throws IOException {
+		if (pendingSurrogate != 0) {
+			char high = pendingSurrogate;
+			pendingSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				int cp = Character.toCodePoint(high, c);
+				ensure(4);
+				buf[count++] = (byte) (0xF0 | (cp >> 18));
+				buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				buf[count++] = (byte) (0x80 | (cp & 0x3F));
+				return;
+			}
+			ensure(1);
+			buf[count++] = '?';
+		}
+		if (c < 0x80) {
+			ensure(1);
+			buf[count++] = (byte) c;
+		} else if (c < 0x800) {
+			ensure(2);
+			buf[count++] = (byte) (0xC0 | (c >> 6));
+			buf[count++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isHighSurrogate(c)) {
+			pendingSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			ensure(1);
+			buf[count++] = '?';
+		} else {
+			ensure(3);
+			buf[count++] = (byte) (0xE0 | (c >> 12));
+			buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			buf[count++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+	private void ensure(int len) throws IOException {
+		if (buf.length - count < len) makeRoom(len);
+	}
+
+	/**
+	 * Flushes the buffer to the stream, or grows it if there is no stream.
+	 */
+	private void makeRoom(int len) throws IOException {
+		if (out != null) {
+			flushBuffer();
+		} else {
+			buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + len));
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buf, 0, count);
+			count = 0;
+		}
+	}
+
+	/**
+	 * @return the bytes written so far, when this writer is not built on an {@link OutputStream}
+	 */
+	public byte[] toByteArray() {
+		if (out != null) {
+			throw new IllegalStateException("Writing to an OutputStream");
+		}
+		return Arrays.copyOf(buf, count);
+	}
+
+	/**
+	 * Discards the bytes written so far, keeping the buffer, when this writer is not built on an
+	 * {@link OutputStream}.
+	 */
+	public void reset() {
+		if (out != null) {
+			throw new IllegalStateException("Writing to an OutputStream");
+		}
+		count = 0;
+		pendingSurrogate = 0;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (out != null) {
+			flushBuffer();
+			out.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (pendingSurrogate != 0) {
+			pendingSurrogate = 0;
+			encode('?');
+		}
+		if (out != null) {
+			flushBuffer();
+			out.close();
+		}
+	}
+}
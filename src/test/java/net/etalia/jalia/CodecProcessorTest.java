@@ -0,0 +1,120 @@
+package net.etalia.jalia;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CodecProcessorTest extends TestBase {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void generatedCodec() throws Exception {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		Assume.assumeNotNull(compiler);
+		File dir = folder.getRoot();
+		File base = write(dir, "gen/base/Base.java",
+				"package gen.base;\n" +
+				"public class Base {\n" +
+				"  private String code;\n" +
+				"  @net.etalia.jalia.annotations.JsonGetter protected String getCode() { return code; }\n" +
+				"  @net.etalia.jalia.annotations.JsonSetter protected void setCode(String code) { this.code = code; }\n" +
+				"}\n");
+		File sample = write(dir, "gen/Sample.java",
+				"package gen;\n" +
+				"import net.etalia.jalia.annotations.*;\n" +
+				"@JsonCodec @JsonInclude(JsonInclude.Include.NOT_NULL) @JsonDefaultFields(\"count,name\")\n" +
+				"public class Sample extends gen.base.Base {\n" +
+				"  private static class Secret {}\n" +
+				"  private int count; private String name; private String hidden; private boolean active;\n" +
+				"  private java.util.List<String> tags;\n" +
+				"  public int getCount() { return count; }\n" +
+				"  public void setCount(int count) { this.count = count; }\n" +
+				"  @JsonGetter String getName() { return name; }\n" +
+				"  @JsonSetter Sample setName(String name) { this.name = name; return this; }\n" +
+				"  @JsonIgnore public String getHidden() { return hidden; }\n" +
+				"  public void setHidden(String hidden) { this.hidden = hidden; }\n" +
+				"  public boolean isActive() { return active; }\n" +
+				"  public void setActive(boolean active) { this.active = active; }\n" +
+				"  @JsonOnDemandOnly @JsonCollection(clear = true) public java.util.List<String> getTags() { return tags; }\n" +
+				"  public void setTags(java.util.List<String> tags) { this.tags = tags; }\n" +
+				"  public void setSecret(Secret secret) {}\n" +
+				"}\n");
+		// The processor is found through META-INF/services, as in any project depending on Jalia
+		String classpath = new File(ObjectMapper.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+				.getPath();
+		int result = compiler.run(null, null, null, "-cp", classpath, "-d", dir.getPath(), "-s", dir.getPath(),
+				base.getPath(), sample.getPath());
+		checkThat(result, equalTo(0));
+		checkThat(new File(dir, "gen/Sample_JaliaClassData.java").exists(), equalTo(true));
+
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() }, getClass().getClassLoader())) {
+			Class<?> clazz = loader.loadClass("gen.Sample");
+			JsonClassData generated = new JsonClassDataFactoryImpl().getClassData(clazz, null);
+			checkThat(generated.getClass().getName(), equalTo("gen.Sample_JaliaClassData"));
+
+			// Same result of parsing at runtime
+			JsonClassData parsed = new JsonClassData(clazz);
+			checkThat(generated.getters, equalTo(parsed.getters));
+			checkThat(generated.ondemand, equalTo(parsed.ondemand));
+			checkThat(generated.setters, equalTo(parsed.setters));
+			checkThat(generated.allGetters, equalTo(parsed.allGetters));
+			checkThat(generated.allSetters, equalTo(parsed.allSetters));
+			checkThat(generated.defaults, equalTo(parsed.defaults));
+			checkThat(generated.options, equalTo(parsed.options));
+			checkThat(generated.getSetHint("tags").toString(), equalTo(parsed.getSetHint("tags").toString()));
+
+			// Package private and fluent methods are called without reflection, protected ones from another package
+			// and methods using private types are not
+			checkThat(generated.getSetterAccessor(clazz.getMethod("setCount", Integer.TYPE)).isBound(), equalTo(true));
+			checkThat(generated.getSetterAccessor(clazz.getDeclaredMethod("setName", String.class)).isBound(),
+					equalTo(true));
+			checkThat(generated.getGetterAccessor(clazz.getDeclaredMethod("getName")).isBound(), equalTo(true));
+			checkThat(generated.getGetterAccessor(clazz.getMethod("isActive")).isBound(), equalTo(true));
+			checkThat(generated.getGetterAccessor(generated.getGetter("code")).isBound(), equalTo(false));
+			checkThat(generated.getSetterAccessor(generated.setters.get("secret")).isBound(), equalTo(false));
+
+			ObjectMapper mapper = new ObjectMapper();
+			mapper.init();
+			checkThat(mapper.getSerializerFor(new JsonContext(mapper), clazz).getClass(),
+					equalTo((Object) BeanJsonDeSer.class));
+			Object bean = mapper.readValue(
+					"{\"count\":5,\"name\":\"Gianni\",\"code\":\"c1\",\"active\":true,\"hidden\":\"h\"}", clazz);
+			checkThat(mapper.getClassDataFactory().getClassData(clazz, null).getClass().getName(),
+					equalTo("gen.Sample_JaliaClassData"));
+			checkThat(generated.getValue("name", bean), equalTo((Object) "Gianni"));
+			checkThat(generated.getValue("code", bean), equalTo((Object) "c1"));
+			checkThat(generated.getValue("hidden", bean, true), nullValue());
+			String json = mapper.writeValueAsString(bean, OutField.getRoot("count", "name", "code", "active", "tags"));
+			checkThat(json, containsString("\"count\":5"));
+			checkThat(json, containsString("\"code\":\"c1\""));
+			checkThat(json, containsString("\"active\":true"));
+			checkThat(json, not(containsString("tags")));
+
+		}
+	}
+
+	private static File write(File dir, String path, String source) throws IOException {
+		File file = new File(dir, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
@@ -0,0 +1,59 @@
+package net.etalia.jalia;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.UUID;
+import org.junit.Test;
+
+public class IdTableTest extends TestBase {
+
+	@Test
+	public void integralIdsAreTheSame() {
+		IdTable table = new IdTable();
+		checkThat(table.put(null, 42l, "a"), nullValue());
+		checkThat(table.get(null, 42), equalTo((Object) "a"));
+		checkThat(table.get(null, "42"), equalTo((Object) "a"));
+		checkThat(table.put(null, "42", "b"), equalTo((Object) "a"));
+		checkThat(table.get(null, 42l), equalTo((Object) "b"));
+
+		// Not canonical longs are plain strings
+		table.put(null, "042", "c");
+		checkThat(table.get(null, 42l), equalTo((Object) "b"));
+		checkThat(table.get(null, "042"), equalTo((Object) "c"));
+		checkThat(table.get(null, "-0"), nullValue());
+		checkThat(table.get(null, "0"), nullValue());
+		table.put(null, 0, "zero");
+		checkThat(table.get(null, "0"), equalTo((Object) "zero"));
+		checkThat(table.size(), equalTo(3));
+	}
+
+	@Test
+	public void scopes() {
+		IdTable table = new IdTable();
+		table.put(DummyPerson.class, 1, "person");
+		table.put(DummyAddress.class, 1, "address");
+		UUID uuid = UUID.randomUUID();
+		table.put(DummyPerson.class, uuid, "uuid");
+		checkThat(table.get(DummyPerson.class, 1l), equalTo((Object) "person"));
+		checkThat(table.get(DummyAddress.class, "1"), equalTo((Object) "address"));
+		checkThat(table.get(null, 1), nullValue());
+		checkThat(table.get(DummyPerson.class, new UUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits())),
+				equalTo((Object) "uuid"));
+		checkThat(table.get(DummyAddress.class, uuid), nullValue());
+	}
+
+	@Test
+	public void grows() {
+		IdTable table = new IdTable();
+		for (int i = 0; i < 10000; i++) {
+			table.put(DummyPerson.class, (long) i, i);
+			table.put(DummyPerson.class, "p" + i, i);
+		}
+		checkThat(table.size(), equalTo(20000));
+		for (int i = 0; i < 10000; i++) {
+			checkThat(table.get(DummyPerson.class, Integer.toString(i)), equalTo((Object) i));
+			checkThat(table.get(DummyPerson.class, "p" + i), equalTo((Object) i));
+		}
+	}
+}
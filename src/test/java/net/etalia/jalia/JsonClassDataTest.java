@@ -1,5 +1,7 @@
 package net.etalia.jalia;
 
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasEntry;
@@ -9,6 +11,10 @@ import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.sameInstance;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
 import net.etalia.jalia.DummyAddress.AddressType;
 import org.junit.Test;
 
@@ -105,6 +111,13 @@ public class JsonClassDataTest extends TestBase {
 			checkThat(jcd.getOptions("both"), nullValue());
 			checkThat(jcd.getOptions("inclAlways"), hasEntry(DefaultOptions.INCLUDE_NULLS.toString(), (Object)true));
 			checkThat(jcd.getOptions("inclAlways"), hasEntry(DefaultOptions.INCLUDE_EMPTY.toString(), (Object)true));
+
+			checkThat(jcd.getPropertyOptions("both"), sameInstance(PropertyOptions.EMPTY));
+			PropertyOptions resolved = jcd.getPropertyOptions("inclAlways");
+			checkThat(resolved, sameInstance(jcd.getPropertyOptions("inclAlways")));
+			checkThat(resolved.keys, arrayContainingInAnyOrder(ContextKey.get(DefaultOptions.INCLUDE_NULLS),
+					ContextKey.get(DefaultOptions.INCLUDE_EMPTY)));
+			checkThat(resolved.values, arrayContaining((Object) true, true));
 		}		
 		{
 			JsonClassData jcd = factory.getClassData(DummyClassAnnotations.class, null);
@@ -120,5 +133,53 @@ public class JsonClassDataTest extends TestBase {
 		}		
 		
 	}
-	
+
+	@Test
+	public void overriddenOptions() throws Exception {
+		JsonClassData jcd = new JsonClassData(DummyPerson.class) {
+			@Override
+			public Map<String, Object> getOptions(String name) {
+				return Collections.singletonMap(DefaultOptions.INCLUDE_NULLS.toString(), (Object) name.equals("name"));
+			}
+		};
+		checkThat(jcd.getPropertyOptions("name").keys, arrayContaining(ContextKey.get(DefaultOptions.INCLUDE_NULLS)));
+		checkThat(jcd.getPropertyOptions("name").values, arrayContaining((Object) true));
+		checkThat(jcd.getPropertyOptions("age").values, arrayContaining((Object) false));
+	}
+
+	@Test
+	public void overriddenSettables() throws Exception {
+		JsonClassData jcd = new JsonClassData(DummyPerson.class) {
+			@Override
+			public Set<String> getSettables() {
+				return Collections.singleton("surname");
+			}
+
+			@Override
+			public Set<String> getGettables() {
+				return Collections.singleton("age");
+			}
+		};
+		checkThat(jcd.isDeserializable("surname"), equalTo(true));
+		checkThat(jcd.isDeserializable("age"), equalTo(true));
+		checkThat(jcd.isDeserializable("name"), equalTo(false));
+	}
+
+	@Test
+	public void precomputedHints() throws Exception {
+		JsonClassData jcd = new JsonClassDataFactoryImpl().getClassData(DummyPerson.class, null);
+
+		TypeUtil addresses = jcd.getGetHint("addresses");
+		checkThat(addresses.getListOrSetType().getConcrete(), equalTo((Class) DummyAddress.class));
+		TypeUtil extra = jcd.getGetHint("extraData");
+		checkThat(extra.getMapValueType().getConcrete(), equalTo((Class) Object.class));
+		checkThat(jcd.getSetHint("name").getConcrete(), equalTo((Class) String.class));
+		// Kept in the protected maps, for subclasses
+		checkThat(jcd.setHints.get("name").getVal(), sameInstance(jcd.getSetHint("name")));
+
+		jcd.ignoreSetter("name");
+		checkThat(jcd.setHints.containsKey("name"), equalTo(false));
+		checkThat(jcd.getSetHint("name"), nullValue());
+		checkThat(jcd.getGetHint("name").getConcrete(), equalTo((Class) String.class));
+	}
 }
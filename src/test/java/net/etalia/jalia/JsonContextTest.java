@@ -0,0 +1,54 @@
+package net.etalia.jalia;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JsonContextTest extends TestBase {
+
+	@Test
+	public void localAndInheritedFrames() {
+		JsonContext ctx = new JsonContext(new ObjectMapper());
+		Map<String, Object> defaults = new HashMap<>();
+		defaults.put(DefaultOptions.INCLUDE_NULLS.toString(), true);
+		defaults.put("custom", "root");
+		ctx.initInheritStack(defaults);
+		ctx.putLocalStack((Map<String, Object>) null);
+
+		checkThat(ctx.getFromStackBoolean(DefaultOptions.INCLUDE_NULLS), equalTo(true));
+		checkThat(ctx.getFromStack("custom"), equalTo((Object) "root"));
+
+		Object marker = new Object();
+		ctx.putLocalStack(JsonDeSer.CTX_ALL_SERIALIZESTACK_KEY, marker);
+		ctx.deserializationEntering("a");
+		// Local values are not inherited, but still found by hasInLocalStack
+		checkThat(ctx.getFromStack(JsonDeSer.CTX_ALL_SERIALIZESTACK_KEY), nullValue());
+		checkThat(ctx.hasInLocalStack(JsonDeSer.CTX_ALL_SERIALIZESTACK_KEY, marker), equalTo(true));
+
+		ctx.putLocalStack(DefaultOptions.INCLUDE_NULLS, false);
+		ctx.putInheritStack("custom", "a");
+		ctx.putLocalStack("nullable", null);
+		checkThat(ctx.getFromStackBoolean(DefaultOptions.INCLUDE_NULLS), equalTo(false));
+		checkThat(ctx.getFromStack("custom"), equalTo((Object) "a"));
+		checkThat(ctx.getFromStack("nullable"), nullValue());
+
+		ctx.deserializationEntering("b");
+		checkThat(ctx.getFromStackBoolean(DefaultOptions.INCLUDE_NULLS), equalTo(true));
+		checkThat(ctx.getFromStack("custom"), equalTo((Object) "a"));
+		ctx.deserializationExited();
+
+		ctx.deserializationExited();
+		checkThat(ctx.getFromStack("custom"), equalTo((Object) "root"));
+		checkThat(ctx.getFromStack(JsonDeSer.CTX_ALL_SERIALIZESTACK_KEY), equalTo(marker));
+
+		// Frames popped are cleared before being reused
+		ctx.deserializationEntering("c");
+		checkThat(ctx.getFromStack("nullable"), nullValue());
+		checkThat(ctx.getFromStackBoolean(DefaultOptions.INCLUDE_NULLS), equalTo(true));
+		checkThat(ctx.getStateLog().toString(), equalTo("[c]"));
+	}
+}
@@ -1,12 +1,24 @@
 package net.etalia.jalia;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
 
 import net.etalia.jalia.stream.JsonReader;
 import net.etalia.jalia.stream.JsonToken;
+import net.etalia.jalia.stream.NameTable;
+import net.etalia.jalia.stream.Utf8Reader;
 
 import org.junit.Test;
 
@@ -72,4 +84,385 @@ public class JsonReaderTest extends TestBase {
 		checkThat(jr.nextString(), equalTo("a2"));
 	}
 
+	@Test
+	public void utf8Decoding() throws Exception {
+		String text = "a\u00e8\u20ac\ud83d\ude00z";
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		Utf8Reader reader = new Utf8Reader(bytes);
+		char[] buff = new char[4];
+		StringBuilder sb = new StringBuilder();
+		int len;
+		while ((len = reader.read(buff)) != -1) {
+			sb.append(buff, 0, len);
+		}
+		checkThat(sb.toString(), equalTo(text));
+
+		reader = new Utf8Reader(new byte[] { 'a', (byte) 0xC3, 'b', (byte) 0xFF, (byte) 0xE2, (byte) 0x82 });
+		sb.setLength(0);
+		while ((len = reader.read(buff)) != -1) {
+			sb.append(buff, 0, len);
+		}
+		checkThat(sb.toString(), equalTo("a\ufffdb\ufffd\ufffd"));
+	}
+
+	@Test
+	public void utf8StreamLookAhead() throws Exception {
+		StringBuilder json = new StringBuilder("{\"first\":\"\u00e8\",\"list\":[");
+		for (int i = 0; i < 5000; i++) {
+			if (i > 0) json.append(',');
+			json.append("\"\u20ac").append(i).append('"');
+		}
+		json.append("],\"last\":\"\ud83d\ude00\"}");
+		// Returns few bytes at a time, to split multi byte sequences
+		InputStream in = new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 7));
+			}
+		};
+		JsonReader jr = new JsonReader(in);
+		jr.beginObject();
+		checkThat(jr.nextName(), equalTo("first"));
+		checkThat(jr.nextString(), equalTo("\u00e8"));
+
+		JsonReader la = jr.lookAhead();
+		checkThat(la.nextName(), equalTo("list"));
+		la.skipValue();
+		checkThat(la.nextName(), equalTo("last"));
+		checkThat(la.nextString(), equalTo("\ud83d\ude00"));
+		la.close();
+
+		checkThat(jr.nextName(), equalTo("list"));
+		jr.beginArray();
+		for (int i = 0; i < 5000; i++) {
+			checkThat(jr.nextString(), equalTo("\u20ac" + i));
+		}
+		jr.endArray();
+		checkThat(jr.nextName(), equalTo("last"));
+		checkThat(jr.nextString(), equalTo("\ud83d\ude00"));
+		jr.endObject();
+	}
+
+	@Test
+	public void markAndReset() throws Exception {
+		String json = "{ 'a1':1, 's1' : { 'sa1':1.5, 'saa': [ true,null,'x' ]}, 'a2':'a2'}";
+		JsonReader jr = new JsonReader(new StringReader(json.replace("'", "\"")));
+		jr.beginObject();
+		jr.mark();
+		checkThat(jr.nextName(), equalTo("a1"));
+		checkThat(jr.nextLong(), equalTo(1L));
+		checkThat(jr.nextName(), equalTo("s1"));
+		jr.beginObject();
+		jr.mark();
+		jr.skipValue();
+		jr.skipValue();
+		checkThat(jr.nextName(), equalTo("saa"));
+		jr.reset();
+		checkThat(jr.nextName(), equalTo("sa1"));
+		checkThat(jr.nextDouble(), equalTo(1.5d));
+		jr.reset();
+
+		// Replays from the first mark, and then goes on reading the stream
+		checkThat(jr.nextName(), equalTo("a1"));
+		checkThat(jr.nextInt(), equalTo(1));
+		checkThat(jr.nextName(), equalTo("s1"));
+		checkThat(jr.peek(), equalTo(JsonToken.BEGIN_OBJECT));
+		jr.beginObject();
+		checkThat(jr.nextName(), equalTo("sa1"));
+		checkThat(jr.nextString(), equalTo("1.5"));
+		checkThat(jr.nextName(), equalTo("saa"));
+		jr.beginArray();
+		checkThat(jr.nextBoolean(), equalTo(true));
+		jr.nextNull();
+		checkThat(jr.nextString(), equalTo("x"));
+		checkThat(jr.hasNext(), equalTo(false));
+		jr.endArray();
+		jr.endObject();
+		checkThat(jr.nextName(), equalTo("a2"));
+		checkThat(jr.nextString(), equalTo("a2"));
+		jr.endObject();
+	}
+
+	@Test
+	public void doubles() throws Exception {
+		Random random = new Random(1);
+		String[] values = new String[2000];
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < values.length; i++) {
+			switch (i % 4) {
+			case 0:
+				values[i] = Double.toString(Double.longBitsToDouble(random.nextLong()));
+				break;
+			case 1:
+				values[i] = Double.toString(random.nextInt(1000000) / 1000.0);
+				break;
+			case 2:
+				values[i] = random.nextInt(1000) + "." + Math.abs(random.nextLong()) + "e" + (random.nextInt(600) - 300);
+				break;
+			default:
+				values[i] = "-0.000" + random.nextInt(100000);
+			}
+			if (values[i].contains("N") || values[i].contains("I")) values[i] = "0";
+			if (i > 0) json.append(',');
+			json.append(values[i]);
+		}
+		json.append(']');
+		for (int mode = 0; mode < 3; mode++) {
+			JsonReader jr = new JsonReader(new StringReader(json.toString()));
+			prepare(jr, mode);
+			jr.beginArray();
+			for (String value : values) {
+				checkThat(Double.doubleToLongBits(jr.nextDouble()), equalTo(Double.doubleToLongBits(Double.parseDouble(value))));
+			}
+			jr.endArray();
+		}
+
+		JsonReader jr = new JsonReader(new StringReader("[1e400]"));
+		jr.beginArray();
+		try {
+			jr.nextDouble();
+			fail("Should not accept infinities");
+		} catch (IOException e) {
+			checkThat(e.getMessage().startsWith("JSON forbids NaN and infinities"), equalTo(true));
+		}
+	}
+
+	@Test
+	public void bigNumbers() throws Exception {
+		String json = "[1.50, 12, 123456789012345678901234567890, 1e3, \"2.5\", -0.000001, 7, 1.5, 1e3, 12345678901234567890]";
+		for (int mode = 0; mode < 3; mode++) {
+			JsonReader jr = new JsonReader(new StringReader(json));
+			prepare(jr, mode);
+			jr.beginArray();
+			checkThat(jr.nextBigDecimal(), equalTo(new BigDecimal("1.50")));
+			checkThat(jr.nextBigDecimal(), equalTo(new BigDecimal("12")));
+			checkThat(jr.nextBigInteger(), equalTo(new BigInteger("123456789012345678901234567890")));
+			checkThat(jr.nextBigInteger(), equalTo(BigInteger.valueOf(1000)));
+			checkThat(jr.nextBigDecimal(), equalTo(new BigDecimal("2.5")));
+			checkThat(jr.nextBigDecimal(), equalTo(new BigDecimal("-0.000001")));
+			checkThat(jr.nextNumber(), equalTo((Number) 7L));
+			checkThat(jr.nextNumber(), equalTo((Number) 1.5d));
+			checkThat(jr.nextNumber(), equalTo((Number) 1000d));
+			checkThat(jr.nextNumber(), equalTo((Number) 12345678901234567890d));
+			jr.endArray();
+		}
+	}
+
+	/**
+	 * Reads as it is (mode 0), indexed (mode 1), or from the tape after skipping the whole value while marked (mode 2).
+	 */
+	private static void prepare(JsonReader jr, int mode) throws IOException {
+		if (mode == 1) {
+			jr.index();
+		} else if (mode == 2) {
+			jr.mark();
+			jr.skipValue();
+			jr.reset();
+		}
+	}
+
+	@Test
+	public void typedReadsWhileMarked() throws Exception {
+		UUID uuid = UUID.fromString("0f8fad5b-d9cb-469f-a165-70867728950e");
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < 100; i++) {
+			json.append(i).append(',').append(i).append(".25,-").append(i).append("e2,\"").append(uuid).append("\",");
+		}
+		json.append("12345678901234567890]");
+		JsonReader jr = new JsonReader(new StringReader(json.toString()));
+		jr.beginArray();
+		jr.mark();
+		for (int i = 0; i < 100; i++) {
+			checkThat(jr.nextInt(), equalTo(i));
+			checkThat(jr.nextDouble(), equalTo(i + 0.25d));
+			checkThat(jr.nextBigDecimal(), equalTo(new BigDecimal("-" + i + "e2")));
+			checkThat(jr.nextUUID(), equalTo(uuid));
+		}
+		checkThat(jr.nextBigInteger(), equalTo(new BigInteger("12345678901234567890")));
+		jr.reset();
+
+		// Replayed with other typed reads than the ones that recorded them
+		jr.mark();
+		for (int i = 0; i < 100; i++) {
+			checkThat(jr.nextString(), equalTo(Integer.toString(i)));
+			checkThat(jr.nextString(), equalTo(i + ".25"));
+			checkThat(jr.nextNumber(), equalTo((Number) Double.parseDouble("-" + i + "e2")));
+			checkThat(jr.nextString(), equalTo(uuid.toString()));
+		}
+		checkThat(jr.nextString(), equalTo("12345678901234567890"));
+		jr.reset();
+		for (int i = 0; i < 100; i++) {
+			checkThat(jr.nextLong(), equalTo((long) i));
+			checkThat(jr.nextBigDecimal(), equalTo(new BigDecimal(i + ".25")));
+			checkThat(jr.nextInt(), equalTo(-i * 100));
+			checkThat(jr.nextUUID(), equalTo(uuid));
+		}
+		checkThat(jr.nextDouble(), equalTo(12345678901234567890d));
+		jr.endArray();
+	}
+
+	@Test
+	public void skipRecordedValues() throws Exception {
+		String json = "{ 'a':{ 'b':[1,{'c':2},[]], 'd':3 }, 'e':[4], 'f':5 }";
+		JsonReader jr = new JsonReader(new StringReader(json.replace("'", "\"")));
+		jr.beginObject();
+		checkThat(jr.nextName(), equalTo("a"));
+		jr.beginObject();
+		jr.mark();
+		checkThat(jr.nextName(), equalTo("b"));
+		jr.skipValue();
+		checkThat(jr.nextName(), equalTo("d"));
+		checkThat(jr.nextInt(), equalTo(3));
+		jr.endObject();
+		checkThat(jr.nextName(), equalTo("e"));
+		jr.skipValue();
+		jr.reset();
+
+		// Replayed values are skipped at once, also when the mark was inside an object
+		jr.mark();
+		checkThat(jr.nextName(), equalTo("b"));
+		jr.beginArray();
+		checkThat(jr.nextInt(), equalTo(1));
+		jr.skipValue();
+		jr.skipValue();
+		jr.endArray();
+		jr.reset();
+		checkThat(jr.nextName(), equalTo("b"));
+		jr.skipValue();
+		checkThat(jr.nextName(), equalTo("d"));
+		jr.skipValue();
+		jr.endObject();
+		checkThat(jr.nextName(), equalTo("e"));
+		jr.skipValue();
+		checkThat(jr.nextName(), equalTo("f"));
+		checkThat(jr.nextLong(), equalTo(5L));
+		jr.endObject();
+		checkThat(jr.peek(), equalTo(JsonToken.END_DOCUMENT));
+	}
+
+	@Test
+	public void indexed() throws Exception {
+		String json = "{ 'a1':[1,[2,3],{'x':1},4], 's1' : { 'sa1':1.5, 'saa': [ true,null,'x' ]}, 'a2':{}}";
+		JsonReader jr = new JsonReader(new StringReader(json.replace("'", "\"")));
+		jr.index();
+		checkThat(jr.peekSize(), equalTo(3));
+		jr.beginObject();
+		checkThat(jr.peekSize(), equalTo(-1));
+		checkThat(jr.nextName(), equalTo("a1"));
+		checkThat(jr.peekSize(), equalTo(4));
+		jr.mark();
+		jr.skipValue();
+		checkThat(jr.nextName(), equalTo("s1"));
+		checkThat(jr.peekSize(), equalTo(2));
+		jr.reset();
+		jr.beginArray();
+		checkThat(jr.nextInt(), equalTo(1));
+		checkThat(jr.peekSize(), equalTo(2));
+		jr.skipValue();
+		checkThat(jr.peekSize(), equalTo(1));
+		jr.skipValue();
+		checkThat(jr.nextLong(), equalTo(4L));
+		jr.endArray();
+		checkThat(jr.nextName(), equalTo("s1"));
+		jr.skipValue();
+		checkThat(jr.nextName(), equalTo("a2"));
+		checkThat(jr.peekSize(), equalTo(0));
+		jr.beginObject();
+		checkThat(jr.hasNext(), equalTo(false));
+		jr.endObject();
+		jr.endObject();
+		checkThat(jr.peek(), equalTo(JsonToken.END_DOCUMENT));
+	}
+
+	@Test
+	public void indexedPositions() throws Exception {
+		String json = "{\n'a1' : 1.5,\n'a2' : 'x'\n}";
+		JsonReader jr = new JsonReader(new StringReader(json.replace("'", "\"")));
+		jr.index();
+		checkThat(jr.getLineNumber(), equalTo(1));
+		checkThat(jr.getColumnNumber(), equalTo(1));
+		jr.beginObject();
+		checkThat(jr.nextName(), equalTo("a1"));
+		checkThat(jr.getLineNumber(), equalTo(2));
+		checkThat(jr.getColumnNumber(), equalTo(5));
+		checkThat(jr.nextDouble(), equalTo(1.5));
+		checkThat(jr.getColumnNumber(), equalTo(11));
+		checkThat(jr.nextName(), equalTo("a2"));
+		try {
+			jr.nextBoolean();
+			fail("Should throw exception");
+		} catch (IllegalStateException e) {
+			checkThat(e.getMessage(), containsString("at line 3 column 5"));
+		}
+	}
+
+	@Test
+	public void canonicalNames() throws Exception {
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < 300; i++) {
+			if (i > 0) json.append(',');
+			json.append("{\"firstName\":1,\"with\\u0020escape\":2,\"lastName\":3}");
+		}
+		json.append(']');
+		NameTable shared = new NameTable();
+		String firstName = shared.add(new String("firstName"));
+
+		JsonReader jr = new JsonReader(new StringReader(json.toString()) {
+			@Override
+			public int read(char[] cbuf, int off, int len) throws java.io.IOException {
+				// Small reads, so that names are split between buffer loads
+				return super.read(cbuf, off, Math.min(len, 13));
+			}
+		});
+		jr.setNameTable(shared);
+		jr.beginArray();
+		String lastName = null;
+		String escaped = null;
+		while (jr.hasNext()) {
+			jr.beginObject();
+			checkThat(jr.nextName(), sameInstance(firstName));
+			jr.skipValue();
+			String name = jr.nextName();
+			checkThat(name, equalTo("with escape"));
+			if (escaped == null) escaped = name;
+			checkThat(name, sameInstance(escaped));
+			jr.skipValue();
+			name = jr.nextName();
+			checkThat(name, equalTo("lastName"));
+			if (lastName == null) lastName = name;
+			checkThat(name, sameInstance(lastName));
+			jr.skipValue();
+			jr.endObject();
+		}
+		jr.endArray();
+		checkThat(shared.size(), equalTo(1));
+	}
+
+	@Test
+	public void sharedNameTableGrows() throws Exception {
+		NameTable shared = new NameTable();
+		String[] added = new String[1000];
+		for (int i = 0; i < added.length; i++) {
+			added[i] = shared.add("name" + i);
+		}
+		checkThat(shared.size(), equalTo(added.length));
+		StringBuilder json = new StringBuilder("{");
+		for (int i = 0; i < added.length; i++) {
+			if (i > 0) json.append(',');
+			json.append("\"name").append(i).append("\":").append(i);
+			checkThat(shared.add(new String("name" + i)), sameInstance(added[i]));
+		}
+		json.append('}');
+
+		JsonReader jr = new JsonReader(new StringReader(json.toString()));
+		jr.setNameTable(shared);
+		jr.beginObject();
+		for (int i = 0; i < added.length; i++) {
+			checkThat(jr.nextName(), sameInstance(added[i]));
+			jr.skipValue();
+		}
+		jr.endObject();
+		checkThat(shared.size(), equalTo(added.length));
+	}
+
 }
@@ -0,0 +1,162 @@
+package net.etalia.jalia;
+
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.etalia.jalia.stream.JsonWriter;
+import net.etalia.jalia.stream.PreEncodedString;
+import net.etalia.jalia.stream.Utf8Writer;
+
+import org.junit.Test;
+
+public class JsonWriterTest extends TestBase {
+
+	private static final PreEncodedString NAME = new PreEncodedString("name");
+	private static final PreEncodedString QUOTED = new PreEncodedString("a\"<b>");
+
+	@Test
+	public void preEncodedCompact() throws Exception {
+		StringWriter sw = new StringWriter();
+		JsonWriter writer = new JsonWriter(sw);
+		writer.beginObject();
+		writer.name(NAME).value(QUOTED);
+		writer.name("other").value(1);
+		writer.name(QUOTED).value("x");
+		writer.endObject();
+		writer.close();
+
+		checkThat(sw.toString(), equalTo("{\"name\":\"a\\\"<b>\",\"other\":1,\"a\\\"<b>\":\"x\"}"));
+	}
+
+	@Test
+	public void preEncodedIndentedAndHtmlSafe() throws Exception {
+		StringWriter sw = new StringWriter();
+		JsonWriter writer = new JsonWriter(sw);
+		writer.setIndent(" ");
+		writer.setHtmlSafe(true);
+		writer.beginObject();
+		writer.name(QUOTED).value(QUOTED);
+		writer.endObject();
+		writer.close();
+
+		checkThat(sw.toString(), equalTo("{\n \"a\\\"\\u003cb\\u003e\": \"a\\\"\\u003cb\\u003e\"\n}"));
+	}
+
+	@Test
+	public void preEncodedSkippedNull() throws Exception {
+		StringWriter sw = new StringWriter();
+		JsonWriter writer = new JsonWriter(sw);
+		writer.setSerializeNulls(false);
+		writer.beginObject();
+		writer.name(NAME).nullValue();
+		writer.name("other").value(true);
+		writer.endObject();
+		writer.close();
+
+		checkThat(sw.toString(), equalTo("{\"other\":true}"));
+	}
+
+	@Test
+	public void utf8Encoding() throws Exception {
+		String text = "a\u00e8\u20ac\ud83d\ude00z";
+		Utf8Writer writer = new Utf8Writer();
+		writer.write(text);
+		writer.write("\ud83d");
+		writer.write('\ude00');
+		writer.write('\ude00');
+		checkThat(new String(writer.toByteArray(), StandardCharsets.UTF_8), equalTo(text + "\ud83d\ude00?"));
+	}
+
+	@Test
+	public void utf8WriterOnStream() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		JsonWriter writer = new JsonWriter(baos);
+		StringWriter sw = new StringWriter();
+		JsonWriter expected = new JsonWriter(sw);
+		for (JsonWriter w : new JsonWriter[] { writer, expected }) {
+			w.beginArray();
+			for (int i = 0; i < 2000; i++) {
+				w.beginObject();
+				w.name(NAME).value("n\u00e8me " + i);
+				w.name(new PreEncodedString("\u00e8")).value(QUOTED);
+				w.endObject();
+			}
+			w.endArray();
+			w.close();
+		}
+		checkThat(new String(baos.toByteArray(), StandardCharsets.UTF_8), equalTo(sw.toString()));
+	}
+
+	@Test
+	public void mapperBytes() throws Exception {
+		Map<String, Object> map = new HashMap<>();
+		List<String> list = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			list.add("\u00e0\u00e8\u00ec " + i);
+		}
+		map.put("list", list);
+		ObjectMapper mapper = new ObjectMapper();
+		String json = mapper.writeValueAsString(map);
+		checkThat(mapper.writeValueAsBytes(map), equalTo(json.getBytes(StandardCharsets.UTF_8)));
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		mapper.writeValue(baos, map);
+		checkThat(baos.toByteArray(), equalTo(json.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void shortestDoubles() throws Exception {
+		StringWriter sw = new StringWriter();
+		JsonWriter writer = new JsonWriter(sw);
+		writer.beginArray();
+		writer.value(0.0).value(-0.0).value(1.5).value(0.001).value(1e-4).value(1234567.0).value(1e7);
+		writer.value(1e23).value(Double.MIN_VALUE).value(1e-323).value(Double.MAX_VALUE).value(0.1f).value(1e10f);
+		writer.value((Number) 2.5).value((Number) 0.3f);
+		writer.endArray();
+		checkThat(sw.toString(), equalTo("[0.0,-0.0,1.5,0.001,1.0E-4,1234567.0,1.0E7,1.0E23,4.9E-324,9.9E-324,"
+				+ "1.7976931348623157E308,0.1,1.0E10,2.5,0.3]"));
+
+		Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			double d = Double.longBitsToDouble(random.nextLong());
+			if (Double.isNaN(d) || Double.isInfinite(d)) continue;
+			sw = new StringWriter();
+			new JsonWriter(sw).beginArray().value(d).endArray();
+			String written = sw.toString();
+			checkThat(Double.parseDouble(written.substring(1, written.length() - 1)), equalTo(d));
+			checkThat(written.length() <= Double.toString(d).length() + 2, equalTo(true));
+		}
+	}
+
+	@Test
+	public void longs() throws Exception {
+		long[] values = { 0, -1, 9, 10, 99, 100, -12345, Integer.MAX_VALUE, Integer.MAX_VALUE + 1L, Integer.MIN_VALUE,
+				Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1 };
+		StringWriter sw = new StringWriter();
+		JsonWriter writer = new JsonWriter(sw);
+		writer.beginArray();
+		StringBuilder expected = new StringBuilder("[");
+		Random random = new Random(1);
+		for (int i = 0; i < values.length + 1000; i++) {
+			long value = i < values.length ? values[i] : random.nextLong() >> random.nextInt(64);
+			if (i % 2 == 0) {
+				writer.value(value);
+			} else {
+				writer.value((Number) value);
+			}
+			if (i > 0) expected.append(',');
+			expected.append(value);
+		}
+		writer.value((Number) Integer.valueOf(-7)).value((Number) Short.valueOf((short) 300));
+		writer.endArray();
+		checkThat(sw.toString(), equalTo(expected.append(",-7,300]").toString()));
+	}
+}
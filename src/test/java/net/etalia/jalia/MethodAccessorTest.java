@@ -0,0 +1,178 @@
+package net.etalia.jalia;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class MethodAccessorTest extends TestBase {
+
+	public static class PrimitiveBean {
+		private int count;
+		private long total;
+		private double ratio;
+		private boolean active;
+		private String name;
+
+		public int getCount() {
+			return count;
+		}
+		public void setCount(int count) {
+			this.count = count;
+		}
+		public long getTotal() {
+			return total;
+		}
+		public void setTotal(long total) {
+			this.total = total;
+		}
+		public double getRatio() {
+			return ratio;
+		}
+		public void setRatio(double ratio) {
+			this.ratio = ratio;
+		}
+		public boolean isActive() {
+			return active;
+		}
+		public void setActive(boolean active) {
+			this.active = active;
+		}
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+
+	static class HiddenBean {
+		private String name;
+
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+
+	@Test
+	public void boundPrimitives() throws Exception {
+		PrimitiveBean bean = new PrimitiveBean();
+
+		MethodAccessor.Setter count = MethodAccessor.forSetter(PrimitiveBean.class.getMethod("setCount", Integer.TYPE));
+		checkThat(count.isBound(), equalTo(true));
+		count.setInt(bean, 5);
+		count.set(bean, (short) 6);
+		MethodAccessor.Setter total = MethodAccessor.forSetter(PrimitiveBean.class.getMethod("setTotal", Long.TYPE));
+		total.setLong(bean, 10L);
+		MethodAccessor.Setter active = MethodAccessor.forSetter(PrimitiveBean.class.getMethod("setActive", Boolean.TYPE));
+		active.setBoolean(bean, true);
+		MethodAccessor.Setter ratio = MethodAccessor.forSetter(PrimitiveBean.class.getMethod("setRatio", Double.TYPE));
+		ratio.set(bean, 1.5d);
+
+		checkThat(MethodAccessor.forGetter(PrimitiveBean.class.getMethod("getCount")).getLong(bean), equalTo(6L));
+		checkThat(MethodAccessor.forGetter(PrimitiveBean.class.getMethod("getTotal")).getLong(bean), equalTo(10L));
+		checkThat(MethodAccessor.forGetter(PrimitiveBean.class.getMethod("isActive")).getBoolean(bean), equalTo(true));
+		checkThat(MethodAccessor.forGetter(PrimitiveBean.class.getMethod("getRatio")).get(bean), equalTo((Object) 1.5d));
+		checkThat(MethodAccessor.forGetter(PrimitiveBean.class.getMethod("getRatio")).getDouble(bean), equalTo(1.5d));
+		checkThat(MethodAccessor.forGetter(PrimitiveBean.class.getMethod("getCount")).getDouble(bean), equalTo(6d));
+	}
+
+	@Test
+	public void primitiveProperties() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		PrimitiveBean bean = mapper.readValue(
+				"{\"count\":3,\"total\":4000000000,\"ratio\":0.5,\"active\":true,\"name\":\"x\"}",
+				PrimitiveBean.class);
+		checkThat(bean.getCount(), equalTo(3));
+		checkThat(bean.getTotal(), equalTo(4000000000L));
+		checkThat(bean.getRatio(), equalTo(0.5d));
+		checkThat(bean.isActive(), equalTo(true));
+		checkThat(mapper.writeValueAsString(bean),
+				containsString("\"active\":true,\"count\":3,\"name\":\"x\",\"ratio\":0.5,\"total\":4000000000}"));
+	}
+
+	@Test
+	public void primitiveLookupsCached() throws Exception {
+		final AtomicInteger lookups = new AtomicInteger();
+		ObjectMapper mapper = new ObjectMapper() {
+			@Override
+			protected JsonDeSer getDeserializerFor(JsonContext context, TypeUtil hint, boolean useCache) {
+				if (hint != null && hint.hasConcrete() && hint.getConcrete() == Integer.TYPE) lookups.incrementAndGet();
+				return super.getDeserializerFor(context, hint, useCache);
+			}
+		};
+		// Recording changes needs the boxed values
+		mapper.setOption(DefaultOptions.RECORD_CHANGES, false);
+		for (int i = 0; i < 3; i++) {
+			checkThat(mapper.readValue("{\"count\":" + i + "}", PrimitiveBean.class).getCount(), equalTo(i));
+		}
+		checkThat(lookups.get(), equalTo(1));
+
+		// Registering a de-serializer selects again
+		mapper.registerDeSer(new NativeJsonDeSer());
+		checkThat(mapper.readValue("{\"count\":5}", PrimitiveBean.class).getCount(), equalTo(5));
+		checkThat(lookups.get(), equalTo(2));
+	}
+
+	@Test
+	public void primitivePropertiesWithCustomDeSer() throws Exception {
+		// A serializer registered for Integer still handles int properties
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.registerDeSer(new JsonDeSer() {
+			@Override
+			public int handlesSerialization(JsonContext context, Class<?> clazz) {
+				return clazz == Integer.class ? 10 : -1;
+			}
+
+			@Override
+			public int handlesDeserialization(JsonContext context, TypeUtil hint) {
+				return hint != null && hint.hasConcrete() && hint.isInteger() ? 10 : -1;
+			}
+
+			@Override
+			public void serialize(Object obj, JsonContext context) throws IOException {
+				context.getOutput().value("#" + obj);
+			}
+
+			@Override
+			public Object deserialize(JsonContext context, Object pre, TypeUtil hint) throws IOException {
+				return Integer.parseInt(context.getInput().nextString().substring(1)) + 1;
+			}
+		});
+		PrimitiveBean bean = mapper.readValue("{\"count\":\"#3\",\"total\":4}", PrimitiveBean.class);
+		checkThat(bean.getCount(), equalTo(4));
+		checkThat(bean.getTotal(), equalTo(4L));
+		checkThat(mapper.writeValueAsString(bean), containsString("\"count\":\"#4\""));
+	}
+
+	@Test
+	public void boundObjects() throws Exception {
+		PrimitiveBean bean = new PrimitiveBean();
+		MethodAccessor.Setter setter = MethodAccessor.forSetter(PrimitiveBean.class.getMethod("setName", String.class));
+		checkThat(setter.isBound(), equalTo(true));
+		setter.set(bean, "Simone");
+
+		MethodAccessor.Getter getter = MethodAccessor.forGetter(PrimitiveBean.class.getMethod("getName"));
+		checkThat(getter.isBound(), equalTo(true));
+		checkThat(getter.get(bean), equalTo((Object) "Simone"));
+	}
+
+	@Test
+	public void reflectiveFallback() throws Exception {
+		HiddenBean bean = new HiddenBean();
+		MethodAccessor.Setter setter = MethodAccessor.forSetter(HiddenBean.class.getMethod("setName", String.class));
+		checkThat(setter.isBound(), equalTo(false));
+		setter.getMethod().setAccessible(true);
+		setter.set(bean, "Simone");
+
+		MethodAccessor.Getter getter = MethodAccessor.forGetter(HiddenBean.class.getMethod("getName"));
+		getter.getMethod().setAccessible(true);
+		checkThat(getter.get(bean), equalTo((Object) "Simone"));
+	}
+}
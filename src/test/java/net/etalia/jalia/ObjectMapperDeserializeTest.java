@@ -2,21 +2,43 @@ package net.etalia.jalia;
 
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
 import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+import net.etalia.jalia.stream.JsonReader;
 import net.etalia.jalia.DummyAddress.AddressType;
 import org.junit.Assert;
 import org.junit.Test;
@@ -159,6 +181,57 @@ public class ObjectMapperDeserializeTest extends TestBase {
 		checkThat(list[1], equalTo(2));
 		checkThat(list[2], equalTo(3));
 	}
+
+	public static class FlagsBean {
+		private boolean[] flags;
+
+		public boolean[] getFlags() {
+			return flags;
+		}
+
+		public void setFlags(boolean[] flags) {
+			this.flags = flags;
+		}
+	}
+
+	@Test
+	public void primitiveArrays() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		// Not indexed, so the size is not known in advance
+		mapper.setOption(DefaultOptions.INDEX_IN_MEMORY_INPUT, false);
+
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < 40; i++) {
+			if (i > 0) json.append(',');
+			json.append(i * 3);
+		}
+		json.append(']');
+		long[] longs = mapper.readValue(json.toString(), long[].class);
+		checkThat(longs.length, equalTo(40));
+		checkThat(longs[39], equalTo(117L));
+
+		double[] doubles = mapper.readValue("[1.5,-2,3e2]", double[].class);
+		checkThat(doubles[0], equalTo(1.5d));
+		checkThat(doubles[2], equalTo(300d));
+		checkThat(mapper.readValue("[1.1]", float[].class)[0], equalTo(1.1f));
+		checkThat(mapper.readValue("[true,false]", boolean[].class)[1], equalTo(false));
+		checkThat(mapper.readValue("[-1,2]", byte[].class)[0], equalTo((byte) -1));
+		checkThat(mapper.readValue("[]", short[].class).length, equalTo(0));
+		// Strings are converted as for single values
+		boolean[] flags = mapper.readValue("{\"flags\":[\"true\",false]}", FlagsBean.class).getFlags();
+		checkThat(flags[0], equalTo(true));
+		checkThat(flags[1], equalTo(false));
+		checkThat(mapper.readValue("[\"\"]", boolean[].class)[0], equalTo(false));
+		checkThat(mapper.readValue("[\"4\",5]", int[].class)[0], equalTo(4));
+
+		// Existing arrays are reused if the length matches
+		int[] pre = new int[] { 9, 9 };
+		checkThat(mapper.readValue("[4,5]", pre, int[].class), sameInstance(pre));
+		checkThat(pre[1], equalTo(5));
+		int[] other = mapper.readValue("[4,5,6]", pre, int[].class);
+		checkThat(other.length, equalTo(3));
+		checkThat(pre[1], equalTo(5));
+	}
 	
 	
 	@Test
@@ -212,6 +285,75 @@ public class ObjectMapperDeserializeTest extends TestBase {
 		checkThat(person.getTags(), containsInAnyOrder("tag1","tag2"));
 	}
 
+	@Test
+	public void entityAfterBigProperties() throws Exception {
+		StringBuilder json = new StringBuilder("{'name':'Mario','tags':[");
+		for (int i = 0; i < 50000; i++) {
+			if (i > 0) json.append(',');
+			json.append("'tag").append(i).append("'");
+		}
+		json.append("],'bestFriend':{'name':'Luigi','age':30,'@entity':'Person'},'age':21,'@entity':'Person'}");
+
+		ObjectMapper om = new ObjectMapper();
+		om.setEntityNameProvider(new DummyEntityProvider());
+		om.init();
+		Object val = om.readValue(json.toString().replace("'", "\""));
+
+		checkThat(val, instanceOf(DummyPerson.class));
+		DummyPerson person = (DummyPerson) val;
+		checkThat(person.getName(), equalTo("Mario"));
+		checkThat(person.getAge(), equalTo(21));
+		checkThat(person.getTags(), hasSize(50000));
+		checkThat(person.getBestFriend(), instanceOf(DummyPerson.class));
+		checkThat(person.getBestFriend().getName(), equalTo("Luigi"));
+		checkThat(person.getBestFriend().getAge(), equalTo(30));
+	}
+
+	@Test
+	public void deserializerCacheByShape() throws Exception {
+		String json = "[{'name':'Mario'},{'@entity':'Person','name':'Luigi'},[1],'x',null,{'@entity':'Person','name':'Peach'},{'age':3}]";
+
+		ObjectMapper om = new ObjectMapper();
+		om.setEntityNameProvider(new DummyEntityProvider());
+		om.init();
+		// Twice, the second time deserializers come from the cache
+		for (int i = 0; i < 2; i++) {
+			List<?> list = om.readValue(replaceQuote(json));
+			checkThat(list, hasSize(7));
+			checkThat(list.get(0), instanceOf(Map.class));
+			checkThat(list.get(1), instanceOf(DummyPerson.class));
+			checkThat(list.get(2), instanceOf(List.class));
+			checkThat(list.get(3), equalTo((Object) "x"));
+			checkThat(list.get(4), nullValue());
+			checkThat(((DummyPerson) list.get(5)).getName(), equalTo("Peach"));
+			checkThat(list.get(6), instanceOf(Map.class));
+		}
+	}
+
+	@Test
+	public void entityHeaderScannedOnce() throws Exception {
+		ObjectMapper om = new ObjectMapper();
+		DummyEntityProvider prov = new DummyEntityProvider();
+		om.setEntityNameProvider(prov);
+		om.setEntityFactory(prov);
+		om.init();
+		JsonContext ctx = new JsonContext(om);
+		ctx.initInheritStack(new HashMap<String, Object>());
+		ctx.setInput(new JsonReader(new StringReader(replaceQuote("{'name':'Mario','id':'p1','@entity':'Person'}"))));
+
+		// Found while choosing the deserializer, and kept for the deserializer itself
+		checkThat(om.getDeserializerFor(ctx, null, true), instanceOf(BeanJsonDeSer.class));
+		BeanJsonDeSer.EntityHeader header = ctx.getEntityHeader();
+		checkThat(header.entity, equalTo("Person"));
+		checkThat(header.id, equalTo((Object) "p1"));
+		checkThat(BeanJsonDeSer.entityHeader(ctx), sameInstance(header));
+
+		DummyPerson person = (DummyPerson) om.readValue(ctx, null, null);
+		checkThat(person.getName(), equalTo("Mario"));
+		checkThat(person.getIdentifier(), equalTo("p1"));
+		checkThat(ctx.getEntityHeader(), nullValue());
+	}
+
 	@Test
 	public void simpleEntityWithStrings() throws Exception {
 		String json = 
@@ -289,6 +431,103 @@ public class ObjectMapperDeserializeTest extends TestBase {
 		checkThat(person.getBirthDay().getTime(), equalTo(289467082000l));
 	}
 
+	@Test
+	public void bigAndUntypedNumbers() throws Exception {
+		ObjectMapper om = new ObjectMapper();
+		checkThat(om.readValue("[0.10,\"3.333\",12]", BigDecimal[].class),
+				equalTo(new BigDecimal[] { new BigDecimal("0.10"), new BigDecimal("3.333"), new BigDecimal("12") }));
+		checkThat(om.readValue("[98765432109876543210,\"5\"]", BigInteger[].class),
+				equalTo(new BigInteger[] { new BigInteger("98765432109876543210"), BigInteger.valueOf(5) }));
+		List<?> untyped = om.readValue("[1,-2.5,1e3]", List.class);
+		checkThat(untyped, contains((Object) 1L, -2.5d, 1000d));
+	}
+
+	@Test
+	public void isoDates() throws Exception {
+		ObjectMapper om = new ObjectMapper();
+		Date[] dates = om.readValue(replaceQuote("['1979-03-05T07:31:22.5Z','1979-03-05T08:31:22+01:00'," +
+				"'1979-03-05T08:31:22.000+0100','1979-03-05T07:31:22.123456789Z','289467082000',289467082000,'']"),
+				Date[].class);
+		checkThat(dates[0].getTime(), equalTo(289467082500l));
+		checkThat(dates[1].getTime(), equalTo(289467082000l));
+		checkThat(dates[2].getTime(), equalTo(289467082000l));
+		checkThat(dates[3].getTime(), equalTo(289467082123l));
+		checkThat(dates[4].getTime(), equalTo(289467082000l));
+		checkThat(dates[5].getTime(), equalTo(289467082000l));
+		checkThat(dates[6], nullValue());
+		// Without an offset, dates are in the default time zone
+		Date local = om.readValue(replaceQuote("['1979-03-05']"), Date[].class)[0];
+		checkThat(local.getTime(), equalTo(LocalDate.of(1979, 3, 5).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+
+		checkThat(om.readValue(replaceQuote("['1979-03-05T07:31:22.123456Z',289467082000]"), Instant[].class),
+				equalTo(new Instant[] { Instant.ofEpochSecond(289467082l, 123456000), Instant.ofEpochSecond(289467082l) }));
+		checkThat(om.readValue(replaceQuote("['1979-03-05']"), LocalDate[].class)[0], equalTo(LocalDate.of(1979, 3, 5)));
+		checkThat(om.readValue(replaceQuote("['1979-03-05T07:31']"), LocalDateTime[].class)[0],
+				equalTo(LocalDateTime.of(1979, 3, 5, 7, 31)));
+		// With an offset, local dates and times are in UTC, as when read from milliseconds
+		checkThat(om.readValue(replaceQuote("['1979-03-05T08:31:22.5+01:00','1979-03-05T07:31:22.5Z',289467082500]"),
+				LocalDateTime[].class), equalTo(new LocalDateTime[] { LocalDateTime.of(1979, 3, 5, 7, 31, 22, 500000000),
+				LocalDateTime.of(1979, 3, 5, 7, 31, 22, 500000000), LocalDateTime.of(1979, 3, 5, 7, 31, 22, 500000000) }));
+		checkThat(om.readValue(replaceQuote("['1979-03-05T23:30-02:00']"), LocalDate[].class)[0],
+				equalTo(LocalDate.of(1979, 3, 6)));
+		checkThat(om.readValue(replaceQuote("['1979-03-05T07:31:22-05:30']"), OffsetDateTime[].class)[0],
+				equalTo(OffsetDateTime.of(1979, 3, 5, 7, 31, 22, 0, ZoneOffset.ofHoursMinutes(-5, -30))));
+		checkThat(om.readValue(replaceQuote("['1979-03-05T07:31:22+01:00[Europe/Rome]']"), ZonedDateTime[].class)[0],
+				equalTo(ZonedDateTime.of(1979, 3, 5, 7, 31, 22, 0, ZoneId.of("Europe/Rome"))));
+
+		for (String wrong : new String[] { "1979-02-30", "1979-03-05T25:00", "1979-3-5", "yesterday" }) {
+			try {
+				om.readValue(replaceQuote("['" + wrong + "']"), Date[].class);
+				Assert.fail("Should not parse " + wrong);
+			} catch (Exception e) {
+				checkThat(e.getMessage(), notNullValue());
+			}
+		}
+	}
+
+	@Test
+	public void enumSetsAndMaps() throws Exception {
+		ObjectMapper om = new ObjectMapper();
+		EnumSet<AddressType> set = om.readValue(replaceQuote("['EMAIL','HOME','EMAIL']"),
+				new TypeUtil.Specific<EnumSet<AddressType>>() {}.type());
+		checkThat(set, equalTo(EnumSet.of(AddressType.HOME, AddressType.EMAIL)));
+
+		EnumMap<AddressType,Integer> map = om.readValue(replaceQuote("{'OFFICE':2,'HOME':1}"),
+				new TypeUtil.Specific<EnumMap<AddressType,Integer>>() {}.type());
+		checkThat(map.keySet(), contains(AddressType.HOME, AddressType.OFFICE));
+		checkThat(map.get(AddressType.OFFICE), equalTo(2));
+
+		// Existing values are updated, keys not in the json are removed
+		EnumMap<AddressType,Integer> pre = new EnumMap<>(AddressType.class);
+		pre.put(AddressType.EMAIL, 3);
+		EnumMap<AddressType,Integer> updated = om.readValue(replaceQuote("{'HOME':1}"), pre);
+		checkThat(updated, sameInstance(pre));
+		checkThat(updated.keySet(), contains(AddressType.HOME));
+
+		try {
+			om.readValue(replaceQuote("['HOME','WORK']"), new TypeUtil.Specific<EnumSet<AddressType>>() {}.type());
+			Assert.fail("Should not find WORK");
+		} catch (JaliaException e) {
+			checkThat(e.getCause().getMessage(), containsString("AddressType.WORK"));
+		}
+	}
+
+	@Test
+	public void uuids() throws Exception {
+		ObjectMapper om = new ObjectMapper();
+		UUID uuid = new UUID(0x0123456789abcdefl, 0xfedcba9876543210l);
+		UUID[] uuids = om.readValue(replaceQuote("['01234567-89ab-cdef-fedc-ba9876543210','01234567-89AB-CDEF-FEDC-BA9876543210'," +
+				"'1-1-1-1-1',null]"), UUID[].class);
+		checkThat(uuids, equalTo(new UUID[] { uuid, uuid, new UUID(0x0000000100010001l, 0x0001000000000001l), null }));
+		checkThat(om.readValue(om.writeValueAsString(Arrays.asList(uuid)), UUID[].class)[0], equalTo(uuid));
+		try {
+			om.readValue(replaceQuote("['01234567-89ab-cdef-fedc-ba987654321x']"), UUID[].class);
+			Assert.fail("Should not parse");
+		} catch (JaliaException e) {
+			checkThat(e.getCause(), instanceOf(IllegalArgumentException.class));
+		}
+	}
+
 	@Test
 	public void entityFromExisting() throws Exception {
 		String json = 
@@ -398,6 +637,41 @@ public class ObjectMapperDeserializeTest extends TestBase {
 		}
 	}
 	
+	/**
+	 * A person whose wrong age is followed by a long list of tags, so that the whole object is scanned for
+	 * @entity and id before the age is read.
+	 */
+	private static String wrongAgeBeforeTags() {
+		StringBuilder json = new StringBuilder("{\n'age' : 'x',\n'tags' : [");
+		for (int i = 0; i < 200; i++) {
+			json.append(i == 0 ? "\n" : ",\n").append("'t").append(i).append("'");
+		}
+		json.append("\n]}");
+		return json.toString().replace("'", "\"");
+	}
+	
+	@Test
+	public void exceptionPositionAfterIndex() throws Exception {
+		ObjectMapper om = new ObjectMapper();
+		try {
+			om.readValue(wrongAgeBeforeTags(), DummyPerson.class);
+			Assert.fail("Should throw exception");
+		} catch (JaliaException e) {
+			checkThat(e.getMessage(), containsString("Error reading [age] @2:12"));
+		}
+	}
+	
+	@Test
+	public void exceptionPositionAfterMark() throws Exception {
+		ObjectMapper om = new ObjectMapper();
+		try {
+			om.readValue(new ByteArrayInputStream(wrongAgeBeforeTags().getBytes(StandardCharsets.UTF_8)), DummyPerson.class);
+			Assert.fail("Should throw exception");
+		} catch (JaliaException e) {
+			checkThat(e.getMessage(), containsString("Error reading [age] @2:12"));
+		}
+	}
+	
 	
 	@Test
 	public void differentEntitiesInList() throws Exception {
@@ -606,6 +880,25 @@ public class ObjectMapperDeserializeTest extends TestBase {
 		checkThat(prelist.get(1).getIdentifier(), equalTo("a2"));
 		checkThat(prelist.get(1), sameInstance(a2));
 	}
+
+	@Test
+	public void embeddedNumericIds() throws Exception {
+		DummyEntityProvider provider = new DummyEntityProvider();
+		ObjectMapper om = new ObjectMapper();
+		om.setEntityNameProvider(provider);
+		om.setEntityFactory(provider);
+		om.setClassDataFactory(provider);
+		om.init();
+
+		// An entity already read is found again by its embedded id, be it a string or a number
+		List<DummyAddress> addresses = om.readValue(
+				replaceQuote("[{'@entity':'Address','id':'7','type':'HOME'},7,'7']"),
+				new TypeUtil.Specific<List<DummyAddress>>() {}.type());
+		checkThat(addresses, hasSize(3));
+		checkThat(addresses.get(0).getType(), equalTo(AddressType.HOME));
+		checkThat(addresses.get(1), sameInstance(addresses.get(0)));
+		checkThat(addresses.get(2), sameInstance(addresses.get(0)));
+	}
 	
 	@Test
 	public void unmodifiables() throws Exception {
@@ -786,4 +1079,68 @@ public class ObjectMapperDeserializeTest extends TestBase {
 
 		checkThat(bean.getSetOnly(), equalTo("newvalue"));
 	}
+
+	@Test
+	public void readValuesOneByOne() throws Exception {
+		String json =
+				"[" +
+					"{'@entity':'Person','id':'p1','name':'Mario'}," +
+					"{'@entity':'Person','id':'p2','name':'Luigi'}," +
+					"{'@entity':'Person','id':'p1'}" +
+				"]";
+
+		ObjectMapper om = new ObjectMapper();
+		DummyEntityProvider provider = new DummyEntityProvider();
+		provider.addToDb(new DummyPerson("p1", "Simone", "Gianni"));
+		om.setEntityNameProvider(provider);
+		om.setEntityFactory(provider);
+		om.setClassDataFactory(provider);
+
+		try (SequenceReader<DummyPerson> seq = om.readValues(new StringReader(json.replace("'", "\"")), DummyPerson.class)) {
+			checkThat(seq.hasNext(), equalTo(true));
+			DummyPerson p1 = seq.next();
+			checkThat(p1.getName(), equalTo("Mario"));
+			checkThat(p1.getSurname(), equalTo("Gianni"));
+			DummyPerson p2 = seq.next();
+			checkThat(p2.getName(), equalTo("Luigi"));
+			checkThat(seq.next(), sameInstance(p1));
+			checkThat(seq.hasNext(), equalTo(false));
+			try {
+				seq.next();
+				Assert.fail("Should throw NoSuchElementException");
+			} catch (NoSuchElementException e) {
+				// expected
+			}
+		}
+
+		// Entities referenced by id are found among the ones already read, unless forgotten
+		String refs = "[{'@entity':'Person','id':'p2','name':'Luigi'},'p2']".replace("'", "\"");
+		try (SequenceReader<DummyPerson> seq = om.readValues(new StringReader(refs), DummyPerson.class)) {
+			checkThat(seq.next(), sameInstance(seq.next()));
+		}
+		try (SequenceReader<DummyPerson> seq = om.readValues(new StringReader(refs), DummyPerson.class)
+				.setForgetEntities(true)) {
+			DummyPerson p2 = seq.next();
+			DummyPerson again = seq.next();
+			checkThat(again, not(sameInstance(p2)));
+			checkThat(again.getName(), nullValue());
+		}
+
+		final boolean[] closed = new boolean[1];
+		SequenceReader<Integer> ints = om.readValues(new StringReader("[1,2,3]") {
+			@Override
+			public void close() {
+				closed[0] = true;
+			}
+		}, Integer.class);
+		try (Stream<Integer> stream = ints.stream()) {
+			checkThat(stream.mapToInt(Integer::intValue).sum(), equalTo(6));
+		}
+		checkThat(closed[0], equalTo(true));
+	}
+
+	@Test(expected=JaliaException.class)
+	public void readValuesNeedsArray() {
+		new ObjectMapper().readValues(new StringReader("{}"), DummyPerson.class);
+	}
 }
@@ -2,21 +2,43 @@ package net.etalia.jalia;
 
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.Matchers.stringContainsInOrder;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import net.etalia.jalia.DummyAddress.AddressType;
+import net.etalia.jalia.stream.JsonToken;
 import org.junit.Test;
 
 public class ObjectMapperSerializeTest extends TestBase {
@@ -314,6 +336,33 @@ public class ObjectMapperSerializeTest extends TestBase {
 		}
 	}
 	
+	@Test
+	public void sameEntityNameSentOnce() throws Exception {
+		DummyEntityProvider prov = new DummyEntityProvider() {
+			@Override
+			public String getEntityName(Class<?> clazz) {
+				return super.getEntityName(DummyPerson.class.isAssignableFrom(clazz) ? DummyPerson.class : clazz);
+			}
+		};
+		ObjectMapper om = new ObjectMapper();
+		om.setEntityNameProvider(prov);
+		om.setEntityFactory(prov);
+		om.setClassDataFactory(prov);
+
+		DummyPerson person = makePerson();
+		// Like a proxy, a different class for the same entity
+		DummyPerson proxy = new DummyPerson() {
+		};
+		proxy.setIdentifier(person.getIdentifier());
+		proxy.setName(person.getName());
+		DummyAddress address = new DummyAddress(person.getIdentifier(), AddressType.EMAIL, "simoneg@apache.org");
+
+		String json = om.writeValueAsString(Arrays.asList(person, proxy, address), OutField.getRoot("name", "address"));
+		checkThat(json, equalTo("[{\"@entity\":\"Person\",\"id\":\"p1\",\"name\":\"Simone\"},"
+				+ "{\"@entity\":\"Person\",\"id\":\"p1\"},"
+				+ "{\"@entity\":\"Address\",\"id\":\"p1\",\"address\":\"simoneg@apache.org\"}]"));
+	}
+
 	@Test
 	public void objectLoop() throws Exception {
 		DummyPerson person1 = new DummyPerson();
@@ -672,6 +721,18 @@ public class ObjectMapperSerializeTest extends TestBase {
 		checkThat(om.writeValueAsString(null), equalTo("null"));
 	}
 
+	@Test
+	public void rootUuid() throws Exception {
+		ObjectMapper om = new ObjectMapper();
+		UUID uuid = UUID.fromString("123e4567-e89b-12d3-a456-426614174000");
+
+		checkThat(om.writeValueAsString(uuid), equalTo("123e4567-e89b-12d3-a456-426614174000"));
+		List<byte[]> jsons = om.writeValuesAsBytes(Arrays.asList(uuid, Arrays.asList(uuid)), null);
+		checkThat(new String(jsons.get(0), StandardCharsets.UTF_8), equalTo("123e4567-e89b-12d3-a456-426614174000"));
+		checkThat(new String(jsons.get(1), StandardCharsets.UTF_8),
+				equalTo("[\"123e4567-e89b-12d3-a456-426614174000\"]"));
+	}
+
 	@Test
 	public void giveOptionSerializesOnDemandOnly() {
 		ObjectMapper om = new ObjectMapper();
@@ -746,4 +807,324 @@ public class ObjectMapperSerializeTest extends TestBase {
 
 		checkThat(json, containsString("thevalue"));
 	}
+
+	@Test
+	public void reuseOutFieldsAcrossCalls() {
+		DummyPerson person = makePerson();
+		ObjectMapper mapper = new ObjectMapper();
+		OutField of = OutField.getRoot("name");
+
+		String json = mapper.writeValueAsString(Arrays.asList(person, person), of);
+		checkThat(json, containsString("\"name\":\"Simone\""));
+		checkThat(json, not(containsString("\"surname\":")));
+
+		of.getCreateSub("surname");
+		json = mapper.writeValueAsString(person, of);
+		checkThat(json, containsString("\"name\":\"Simone\""));
+		checkThat(json, containsString("\"surname\":\"Gianni\""));
+		checkThat(json, not(containsString("\"addresses\":")));
+	}
+
+	@Test
+	public void mixedClassesInCollections() {
+		ObjectMapper mapper = new ObjectMapper();
+		List<Object> list = Arrays.asList(1, 2, "a", null, "b", Arrays.asList(3), 4.5, true);
+		checkThat(mapper.writeValueAsString(list), equalTo("[1,2,\"a\",null,\"b\",[3],4.5,true]"));
+		checkThat(mapper.writeValueAsString(list.toArray()), equalTo("[1,2,\"a\",null,\"b\",[3],4.5,true]"));
+	}
+
+	@Test
+	public void primitiveArrays() {
+		ObjectMapper mapper = new ObjectMapper();
+		checkThat(mapper.writeValueAsString(new int[] { 1, -2, 3 }), equalTo("[1,-2,3]"));
+		checkThat(mapper.writeValueAsString(new long[] { Long.MAX_VALUE }), equalTo("[" + Long.MAX_VALUE + "]"));
+		checkThat(mapper.writeValueAsString(new double[] { 1.5, 2 }), equalTo("[1.5,2.0]"));
+		checkThat(mapper.writeValueAsString(new float[] { 1.1f }), equalTo("[1.1]"));
+		checkThat(mapper.writeValueAsString(new boolean[] { true, false }), equalTo("[true,false]"));
+		checkThat(mapper.writeValueAsString(new short[] { 7 }), equalTo("[7]"));
+		checkThat(mapper.writeValueAsString(new byte[] { -1 }), equalTo("[-1]"));
+
+		Map<String,Object> map = new HashMap<>();
+		map.put("series", new double[] { 0.25 });
+		checkThat(mapper.writeValueAsString(Arrays.asList(map)), equalTo("[{\"series\":[0.25]}]"));
+	}
+
+	@Test
+	public void isoDates() {
+		ObjectMapper mapper = new ObjectMapper();
+		checkThat(mapper.writeValueAsString(Arrays.asList(new Date(289467082000l))), equalTo("[289467082000]"));
+		mapper.setOption(DefaultOptions.DATES_AS_ISO_STRINGS, true);
+		checkThat(mapper.writeValueAsString(Arrays.asList(new Date(289467082000l), new Date(-1))),
+				equalTo("[\"1979-03-05T07:31:22.000Z\",\"1969-12-31T23:59:59.999Z\"]"));
+		checkThat(mapper.writeValueAsString(new Date(289467082000l)), equalTo("1979-03-05T07:31:22.000Z"));
+
+		Map<String,Object> map = new LinkedHashMap<>();
+		map.put("instant", Instant.ofEpochSecond(289467082l, 123456000));
+		map.put("date", LocalDate.of(1979, 3, 5));
+		map.put("local", LocalDateTime.of(1979, 3, 5, 7, 31, 22));
+		map.put("offset", OffsetDateTime.of(1979, 3, 5, 7, 31, 22, 0, ZoneOffset.ofHours(1)));
+		map.put("zoned", ZonedDateTime.of(1979, 3, 5, 7, 31, 22, 0, ZoneId.of("Europe/Rome")));
+		checkThat(new ObjectMapper().writeValueAsString(map), equalTo(("{'instant':'1979-03-05T07:31:22.123456Z'," +
+				"'date':'1979-03-05','local':'1979-03-05T07:31:22','offset':'1979-03-05T07:31:22+01:00'," +
+				"'zoned':'1979-03-05T07:31:22+01:00[Europe/Rome]'}").replace("'", "\"")));
+	}
+
+	@Test
+	public void enumsAndUuids() {
+		ObjectMapper mapper = new ObjectMapper();
+		Map<String,Object> map = new LinkedHashMap<>();
+		map.put("enum", TestEnum.VAL2);
+		map.put("class", String.class);
+		map.put("uuid", new UUID(0x0123456789abcdefl, 0xfedcba9876543210l));
+		map.put("set", EnumSet.of(AddressType.EMAIL, AddressType.HOME));
+		EnumMap<AddressType,Object> byType = new EnumMap<>(AddressType.class);
+		byType.put(AddressType.OFFICE, 2);
+		byType.put(AddressType.HOME, "home");
+		map.put("map", byType);
+		checkThat(mapper.writeValueAsString(map), equalTo(("{'enum':'VAL2','class':'java.lang.String'," +
+				"'uuid':'01234567-89ab-cdef-fedc-ba9876543210','set':['HOME','EMAIL']," +
+				"'map':{'HOME':'home','OFFICE':2}}").replace("'", "\"")));
+		checkThat(mapper.writeValueAsString(Arrays.asList(EnumSet.noneOf(AddressType.class))), equalTo("[[]]"));
+	}
+
+	@Test
+	public void writeValuesBatch() {
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.setEntityNameProvider(new DummyEntityProvider());
+		List<Object> values = Arrays.asList(makePerson(), "raw", makePerson(), Arrays.asList(1, 2), null);
+
+		List<byte[]> jsons = mapper.writeValuesAsBytes(values, null);
+		checkThat(jsons.size(), equalTo(values.size()));
+		for (int i = 0; i < values.size(); i++) {
+			checkThat(new String(jsons.get(i), StandardCharsets.UTF_8), equalTo(mapper.writeValueAsString(values.get(i))));
+		}
+
+		List<DummyPerson> read = mapper.readValues(Arrays.asList(jsons.get(0), jsons.get(2)), DummyPerson.class);
+		checkThat(read.size(), equalTo(2));
+		checkThat(read.get(0).getName(), equalTo("Simone"));
+		checkThat(read.get(1).getAddresses().size(), equalTo(1));
+		checkThat(read.get(1), not(sameInstance(read.get(0))));
+	}
+
+	@Test
+	public void warmUp() {
+		// Records the lookups of serializers and deserializers not found in the caches
+		final List<Class<?>> serLookups = new CopyOnWriteArrayList<>();
+		final List<Class<?>> deserLookups = new CopyOnWriteArrayList<>();
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.registerDeSer(new JsonDeSer() {
+			@Override
+			public int handlesSerialization(JsonContext context, Class<?> clazz) {
+				serLookups.add(clazz);
+				return -1;
+			}
+			@Override
+			public int handlesDeserialization(JsonContext context, TypeUtil hint) {
+				if (hint != null) deserLookups.add(hint.getConcrete());
+				return -1;
+			}
+			@Override
+			public void serialize(Object obj, JsonContext context) {
+			}
+			@Override
+			public Object deserialize(JsonContext context, Object pre, TypeUtil hint) {
+				return null;
+			}
+		});
+		mapper.setEntityNameProvider(new DummyEntityProvider());
+		final List<Thread> classDataThreads = new CopyOnWriteArrayList<>();
+		mapper.setClassDataFactory(new JsonClassDataFactoryImpl() {
+			@Override
+			public JsonClassData getClassData(Class<?> clazz, JsonContext context) {
+				classDataThreads.add(Thread.currentThread());
+				return super.getClassData(clazz, context);
+			}
+		});
+
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			mapper.warmUp(Arrays.<Class<?>>asList(DummyPerson.class, DummyAddress.class, String.class), pool);
+		} finally {
+			pool.shutdown();
+		}
+		checkThat(serLookups, hasItems((Class<?>) DummyPerson.class, DummyAddress.class, String.class));
+		checkThat(deserLookups, hasItems((Class<?>) DummyPerson.class, DummyAddress.class, String.class));
+		checkThat(classDataThreads.isEmpty(), equalTo(false));
+		for (Thread thread : classDataThreads) {
+			checkThat(thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool, equalTo(true));
+		}
+		int names = mapper.getNameTable().size();
+		String surname = new String("surname");
+		checkThat(mapper.getNameTable().add(surname), not(sameInstance(surname)));
+		checkThat(mapper.getNameTable().size(), equalTo(names));
+
+		// Writing and reading do not look up serializers or deserializers of the warmed up classes again
+		serLookups.clear();
+		deserLookups.clear();
+		String json = mapper.writeValueAsString(makePerson());
+		checkThat(json, equalTo(new ObjectMapper().setEntityNameProvider(new DummyEntityProvider()).writeValueAsString(makePerson())));
+		DummyPerson read = mapper.readValue(json, DummyPerson.class);
+		checkThat(read.getName(), equalTo("Simone"));
+		checkThat(serLookups, not(hasItems((Class<?>) DummyPerson.class)));
+		checkThat(serLookups, not(hasItems((Class<?>) DummyAddress.class)));
+		checkThat(deserLookups, not(hasItems((Class<?>) DummyPerson.class)));
+
+		// Deserializers that need the input are not selected in advance
+		ObjectMapper peeking = new ObjectMapper();
+		peeking.registerDeSer(new JsonDeSer() {
+			@Override
+			public int handlesSerialization(JsonContext context, Class<?> clazz) {
+				return -1;
+			}
+			@Override
+			public int handlesDeserialization(JsonContext context, TypeUtil hint) {
+				try {
+					return context.getInput().peek() == JsonToken.BEGIN_OBJECT ? 10 : -1;
+				} catch (IOException e) {
+					return -1;
+				}
+			}
+			@Override
+			public void serialize(Object obj, JsonContext context) {
+			}
+			@Override
+			public Object deserialize(JsonContext context, Object pre, TypeUtil hint) throws IOException {
+				context.getInput().skipValue();
+				return "peeked";
+			}
+		});
+		peeking.warmUp(Arrays.<Class<?>>asList(DummyPerson.class));
+		checkThat(peeking.readValue("{}", TypeUtil.get(DummyPerson.class)), equalTo((Object) "peeked"));
+	}
+
+	@Test
+	public void lazySources() {
+		ObjectMapper mapper = new ObjectMapper();
+		List<Object> list = Arrays.asList(1, "a", null, 2.5);
+		checkThat(mapper.writeValueAsString(list.iterator()), equalTo("[1,\"a\",null,2.5]"));
+		checkThat(mapper.writeValueAsString(list.stream()), equalTo("[1,\"a\",null,2.5]"));
+		checkThat(mapper.writeValueAsString(list.spliterator()), equalTo("[1,\"a\",null,2.5]"));
+		checkThat(mapper.writeValueAsString(IntStream.range(0, 3)), equalTo("[0,1,2]"));
+		checkThat(mapper.writeValueAsString(Stream.empty()), equalTo("[]"));
+
+		Map<String,Object> map = new HashMap<>();
+		map.put("empty", Stream.empty());
+		map.put("rows", Arrays.asList("x", "y").iterator());
+		String json = mapper.writeValueAsString(map);
+		// Empty lazy sources follow the same rules of empty lists
+		map.put("empty", new ArrayList<>());
+		map.put("rows", Arrays.asList("x", "y"));
+		checkThat(json, equalTo(mapper.writeValueAsString(map)));
+
+		// Streams are closed once written, also when empty and omitted
+		AtomicInteger closes = new AtomicInteger();
+		checkThat(mapper.writeValueAsString(Stream.of(1, 2).onClose(closes::incrementAndGet)), equalTo("[1,2]"));
+		StreamHolder holder = new StreamHolder();
+		holder.values = Stream.empty().onClose(closes::incrementAndGet);
+		checkThat(mapper.writeValueAsString(holder), not(containsString("values")));
+		checkThat(closes.get(), equalTo(2));
+	}
+
+	@Test
+	public void sequenceWriter() {
+		ObjectMapper mapper = new ObjectMapper();
+		DummyEntityProvider prov = new DummyEntityProvider();
+		mapper.setEntityNameProvider(prov);
+		mapper.setEntityFactory(prov);
+		mapper.setClassDataFactory(prov);
+		DummyPerson person = makePerson();
+		person.setIdentifier("p1");
+
+		final int[] flushes = new int[1];
+		StringWriter sw = new StringWriter() {
+			@Override
+			public void flush() {
+				flushes[0]++;
+			}
+		};
+		try (SequenceWriter seq = mapper.writeSequence(sw, OutField.getRoot("name")).setFlushEvery(2)) {
+			seq.write(person);
+			seq.write(person);
+			seq.writeAll(Arrays.asList("a", 1));
+			checkThat(seq.getCount(), equalTo(4));
+		}
+		checkThat(flushes[0] >= 2, equalTo(true));
+		String json = sw.toString();
+		// The second time the same entity is written by id only, as in a list
+		checkThat(json, equalTo(mapper.writeValueAsString(Arrays.asList(person, person, "a", 1), OutField.getRoot("name"))));
+		checkThat(countOccurrencies("\"name\":\"Simone\"", json), equalTo(1));
+	}
+
+	@Test
+	public void jsonLines() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.setOption(DefaultOptions.PRETTY_PRINT, true);
+		DummyEntityProvider prov = new DummyEntityProvider();
+		mapper.setEntityNameProvider(prov);
+		mapper.setEntityFactory(prov);
+		mapper.setClassDataFactory(prov);
+		DummyPerson person = makePerson();
+
+		StringWriter sw = new StringWriter();
+		try (SequenceWriter lines = mapper.writeLines(sw, OutField.getRoot("name"))) {
+			lines.write(person);
+			// Each line is self contained, so the same entity is written again in full
+			lines.write(person);
+			lines.write("raw");
+			lines.write(5);
+			lines.write(Arrays.asList(1, 2));
+		}
+		String[] written = sw.toString().split("\n", -1);
+		checkThat(written.length, equalTo(6));
+		checkThat(written[0], equalTo("{\"@entity\":\"Person\",\"id\":\"p1\",\"name\":\"Simone\"}"));
+		checkThat(written[1], equalTo(written[0]));
+		checkThat(written[2], equalTo("\"raw\""));
+		checkThat(written[3], equalTo("5"));
+		checkThat(written[4], equalTo("[1,2]"));
+		checkThat(written[5], equalTo(""));
+
+		List<Object> read = new ArrayList<>();
+		try (SequenceReader<Object> lines = mapper.readLines(sw.toString().getBytes(StandardCharsets.UTF_8), Object.class)) {
+			lines.forEachRemaining(read::add);
+		}
+		checkThat(read.size(), equalTo(5));
+		checkThat(((DummyPerson) read.get(0)).getName(), equalTo("Simone"));
+		checkThat(read.get(2), equalTo((Object) "raw"));
+		checkThat(((Number) read.get(3)).intValue(), equalTo(5));
+		checkThat(read.get(4).toString(), equalTo("[1, 2]"));
+	}
+
+	@Test
+	public void jsonLinesEmpty() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+
+		// No values is an empty stream, not an incomplete document
+		final boolean[] closed = new boolean[1];
+		StringWriter sw = new StringWriter() {
+			@Override
+			public void close() {
+				closed[0] = true;
+			}
+		};
+		mapper.writeLines(sw, null).close();
+		checkThat(sw.toString(), equalTo(""));
+		checkThat(closed[0], equalTo(true));
+
+		for (String json : new String[] { "", " \n", "1\n", "1\n2\n\n" }) {
+			List<Object> read = new ArrayList<>();
+			try (SequenceReader<Object> lines = mapper.readLines(json.getBytes(StandardCharsets.UTF_8), Object.class)) {
+				lines.forEachRemaining(read::add);
+				checkThat(lines.hasNext(), equalTo(false));
+			}
+			checkThat(read.size(), equalTo(json.trim().isEmpty() ? 0 : json.trim().split("\n").length));
+		}
+	}
+
+	public static class StreamHolder {
+		private Stream<?> values;
+
+		public Stream<?> getValues() {
+			return values;
+		}
+	}
 }
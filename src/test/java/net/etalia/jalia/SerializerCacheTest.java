@@ -0,0 +1,41 @@
+package net.etalia.jalia;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SerializerCacheTest extends TestBase {
+
+	@Test
+	public void cachesLastClass() {
+		final AtomicInteger lookups = new AtomicInteger();
+		ObjectMapper mapper = new ObjectMapper() {
+			@Override
+			protected JsonDeSer getSerializerFor(JsonContext context, Object obj) {
+				lookups.incrementAndGet();
+				return super.getSerializerFor(context, obj);
+			}
+		};
+		mapper.init();
+		JsonContext context = new JsonContext(mapper);
+		SerializerCache cache = new SerializerCache();
+
+		JsonDeSer deser = cache.get(context, "a");
+		checkThat(cache.get(context, "b"), sameInstance(deser));
+		checkThat(lookups.get(), equalTo(1));
+		checkThat(cache.get(context, new ArrayList<>()), instanceOf(ListJsonDeSer.class));
+		checkThat(cache.get(context, (Object) null), sameInstance(cache.get(context, (Object) null)));
+		checkThat(lookups.get(), equalTo(3));
+
+		// Another mapper does not use the entry of the first one
+		ObjectMapper other = new ObjectMapper();
+		other.init();
+		checkThat(cache.get(new JsonContext(other), (Object) null), sameInstance(other.getSerializerFor(null, (Object) null)));
+		checkThat(cache.get(context, Integer.class), instanceOf(NativeJsonDeSer.class));
+	}
+}